@@ -31,13 +31,18 @@ package com.codebrig.beam;
 
 import com.codebrig.beam.connection.ConnectionType;
 import com.codebrig.beam.crypt.AES;
+import com.codebrig.beam.crypt.CryptException;
+import com.codebrig.beam.crypt.ECDH;
 import com.codebrig.beam.crypt.RSA;
 import com.codebrig.beam.crypt.RSAConnection;
 import com.codebrig.beam.crypt.RSAConnectionHolder;
+import com.codebrig.beam.crypt.SessionTicketCache;
+import com.codebrig.beam.crypt.SessionTicketIssuer;
 import com.codebrig.beam.crypt.messages.RSAHandshakeMessage;
 import com.codebrig.beam.handlers.BeamHandler;
 import com.codebrig.beam.messages.BeamMessage;
 import com.codebrig.beam.messages.BeamMessageType;
+import com.codebrig.beam.system.messages.HandshakeMessage;
 import com.codebrig.beam.utils.Base64;
 import com.codebrig.beam.utils.Generator;
 import com.jcraft.jhttptunnel.JHttpTunnelClient;
@@ -88,6 +93,7 @@ public class BeamClient
     private Communicator comm;
     private boolean connected = false;
     private boolean debugOutput;
+    private volatile SessionTicketCache sessionTicketCache = SessionTicketCache.getDefault ();
 
     public BeamClient (String host, int port) {
         this (host, null, port, true);
@@ -315,6 +321,16 @@ public class BeamClient
         return establishRSAConnection (publicKey, 100);
     }
 
+    /**
+     * Establishes an RSA connection. Resumes with a session ticket from an
+     * earlier connection to the server when possible; otherwise agrees on a
+     * key with ECDH (signed by the server's key), or for older servers sends
+     * a connection key encrypted with the server's public key.
+     *
+     * @param publicKey server's public key
+     * @param keyCharCount length of the connection key; older servers only
+     * @return the RSA connection; null if the server didn't accept it
+     */
     public RSAConnection establishRSAConnection (RSA publicKey, int keyCharCount) {
         if (!connected) {
             throw new CommunicatorException ("Client has not yet been connected!");
@@ -322,26 +338,87 @@ public class BeamClient
             throw new IllegalArgumentException ("Missing public key!");
         }
 
+        SessionTicketCache ticketCache = sessionTicketCache;
+        SessionTicketCache.SessionTicket ticket = (ticketCache != null) ? ticketCache.get (publicKey) : null;
+        if (ticket != null && comm.isPeerFeatureSupported (HandshakeMessage.FEATURE_SESSION_TICKETS)) {
+            RSAHandshakeMessage resumeMessage = new RSAHandshakeMessage ();
+            resumeMessage.setSessionTicket (ticket.getTicket ());
+
+            BeamMessage respMessage = comm.send (resumeMessage);
+            if (respMessage != null) {
+                RSAHandshakeMessage respRSAMessage = new RSAHandshakeMessage (respMessage);
+
+                if (respRSAMessage.isSuccessful () && respRSAMessage.getSession () != null) {
+                    String session = respRSAMessage.getSession ();
+                    return addRSAConnection (publicKey,
+                            SessionTicketIssuer.getResumedConnectionKey (ticket.getMasterKey (), session), session);
+                }
+            }
+
+            //expired or issued by another server; do a full handshake
+            ticketCache.remove (publicKey);
+        }
+
         RSAHandshakeMessage rsaMessage = new RSAHandshakeMessage ();
-        String connectionKey = Generator.makeString (keyCharCount);
-        rsaMessage.setConnectionKey (publicKey.encrypt (connectionKey));
+        String connectionKey = null;
+        ECDH ecdh = null;
+        if (comm.isPeerFeatureSupported (HandshakeMessage.FEATURE_ECDH_HANDSHAKE)) {
+            ecdh = new ECDH ();
+            rsaMessage.setKeyAgreementKey (ecdh.getPublicKey ());
+        } else {
+            connectionKey = Generator.makeString (keyCharCount);
+            rsaMessage.setConnectionKey (publicKey.encrypt (connectionKey));
+        }
 
         BeamMessage respMessage = comm.send (rsaMessage);
         if (respMessage != null) {
             RSAHandshakeMessage respRSAMessage = new RSAHandshakeMessage (respMessage);
 
             if (respRSAMessage.isSuccessful ()) {
-                RSAConnection rsaConnection
-                        = new RSAConnection (publicKey, new AES (connectionKey), respRSAMessage.getSession ());
-                RSAConnectionHolder.addRSAConnection (comm, rsaConnection);
+                if (ecdh != null) {
+                    byte[] serverKey = respRSAMessage.getKeyAgreementKey ();
+                    byte[] signature = respRSAMessage.getKeyAgreementSignature ();
+                    if (serverKey == null || signature == null || !publicKey.verifyData (
+                            RSAHandshakeMessage.getSignedKeys (ecdh.getPublicKey (), serverKey), signature)) {
+                        throw new CryptException ("Invalid key agreement signature!");
+                    }
+                    connectionKey = ecdh.agree (serverKey);
+                }
 
-                return rsaConnection;
+                if (ticketCache != null && respRSAMessage.getSessionTicket () != null) {
+                    ticketCache.put (publicKey, new SessionTicketCache.SessionTicket (
+                            respRSAMessage.getSessionTicket (), connectionKey,
+                            System.currentTimeMillis () + respRSAMessage.getSessionTicketLifetime ()));
+                }
+
+                return addRSAConnection (publicKey, connectionKey, respRSAMessage.getSession ());
             }
         }
 
         return null;
     }
 
+    private RSAConnection addRSAConnection (RSA publicKey, String connectionKey, String session) {
+        RSAConnection rsaConnection = new RSAConnection (publicKey, new AES (connectionKey), session);
+        rsaConnection.setBinaryEnvelope (comm.isPeerFeatureSupported (
+                HandshakeMessage.FEATURE_ENCRYPTED_ENVELOPE));
+        RSAConnectionHolder.addRSAConnection (comm, rsaConnection);
+
+        return rsaConnection;
+    }
+
+    /**
+     * @param sessionTicketCache cache of session tickets to resume RSA
+     * connections with; null to always do a full handshake
+     */
+    public void setSessionTicketCache (SessionTicketCache sessionTicketCache) {
+        this.sessionTicketCache = sessionTicketCache;
+    }
+
+    public SessionTicketCache getSessionTicketCache () {
+        return sessionTicketCache;
+    }
+
     public void setDebugOutput (boolean debugOutput) {
         this.debugOutput = debugOutput;
 
@@ -29,20 +29,34 @@
  */
 package com.codebrig.beam;
 
+import com.codebrig.beam.compression.FrameCompressor;
 import com.codebrig.beam.connection.ConnectionType;
+import com.codebrig.beam.connection.nio.NIOConnection;
+import com.codebrig.beam.connection.nio.NIOEventLoop;
 import com.codebrig.beam.crypt.handlers.RSAHandshakeHandler;
+import com.codebrig.beam.dispatch.DispatchExecutor;
 import com.codebrig.beam.handlers.BeamHandler;
+import com.codebrig.beam.handlers.SpecificBeamHandler;
 import com.codebrig.beam.messages.BeamMessage;
 import com.codebrig.beam.messages.BeamMessageType;
+import com.codebrig.beam.messages.SchemaMessageType;
+import com.codebrig.beam.messages.SchemaRegistry;
+import com.codebrig.beam.messages.SchemaReport;
+import com.codebrig.beam.pool.AbstractCommunicatorPool;
+import com.codebrig.beam.pool.BroadcastResult;
 import com.codebrig.beam.pool.CommunicatorPool;
 import com.codebrig.beam.pool.DefaultCommunicatorPool;
 import com.codebrig.beam.system.handlers.ping.ServerPingPongHandler;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Objects;
 import javax.net.ServerSocketFactory;
@@ -109,11 +123,32 @@ public class BeamServer extends Thread
     private ServerPingPongHandler pingPong;
     private int servedCount = 0;
     private boolean pingPongEnabled = true;
+    private long pingPongIdleTime = ServerPingPongHandler.DEFAULT_IDLE_TIME;
+    private long pingPongInterval = ServerPingPongHandler.DEFAULT_PING_INTERVAL;
+    private int pingPongMaxMissed = ServerPingPongHandler.DEFAULT_MAX_MISSED_PINGS;
     private boolean tunneledFlag = false;
     private static int serverUID = 0;
     private long bootTime = -1;
     private BeamMessageType messageType;
     private boolean debugOutput;
+    private boolean nonBlocking = false;
+    private int eventLoopCount = Runtime.getRuntime ().availableProcessors ();
+    private NIOEventLoop[] eventLoops;
+    private int nextEventLoop = 0;
+    private DispatchExecutor dispatchExecutor;
+    private DispatchExecutor ownDispatchExecutor;
+    private boolean orderedDispatch = false;
+    private boolean writeCoalescing = false;
+    private int maxFlushDelay = Communicator.DEFAULT_MAX_FLUSH_DELAY;
+    private int maxFlushBytes = Communicator.DEFAULT_MAX_FLUSH_BYTES;
+    private Boolean tcpNoDelay;
+    private FrameCompressor frameCompressor;
+    private int compressionThreshold = Communicator.DEFAULT_COMPRESSION_THRESHOLD;
+    private int[] uncompressedTypes = new int[0];
+    private boolean streamCompression = false;
+    private byte[] compressionDictionary;
+    private final SchemaRegistry schemaRegistry = new SchemaRegistry ();
+    private SchemaReport schemaReport;
 
     private ConnectionType.Incoming[] incomingConnectionTypes = new ConnectionType.Incoming[] {
         ConnectionType.Incoming.DIRECT
@@ -156,8 +191,35 @@ public class BeamServer extends Thread
 
     @Override
     public synchronized void start () {
+        warmupSchemas ();
+
+        if (dispatchExecutor == null) {
+            //keep this server's handlers from competing with other servers' for threads
+            ownDispatchExecutor = new DispatchExecutor (serverName + " - Dispatch");
+            dispatchExecutor = ownDispatchExecutor;
+        }
+
+        if (nonBlocking) {
+            if (secure) {
+                throw new CommunicatorException ("Non-blocking transport is not supported by secure servers!");
+            }
+
+            eventLoops = new NIOEventLoop[eventLoopCount];
+            for (int i = 0; i < eventLoops.length; i++) {
+                try {
+                    eventLoops[i] = new NIOEventLoop (String.format ("%s - Event Loop #%s", serverName, i));
+                } catch (IOException ex) {
+                    throw new CommunicatorException (ex);
+                }
+                eventLoops[i].start ();
+            }
+        }
+
         if (pingPongEnabled) {
             pingPong = new ServerPingPongHandler (pool);
+            pingPong.setIdleTime (pingPongIdleTime);
+            pingPong.setPingInterval (pingPongInterval);
+            pingPong.setMaxMissedPings (pingPongMaxMissed);
 
             //and start main ping pong thread
             Thread ppThread = new Thread (pingPong, serverName + " - PingPong Thread");
@@ -168,12 +230,35 @@ public class BeamServer extends Thread
         super.start ();
     }
 
+    private void warmupSchemas () {
+        if (messageType instanceof SchemaMessageType) {
+            for (Class<? extends BeamMessage> messageClass : ((SchemaMessageType) messageType).getMessageClasses ()) {
+                schemaRegistry.register (messageClass);
+            }
+        }
+        for (BeamHandler handler : globalHandlers) {
+            if (handler instanceof SpecificBeamHandler) {
+                schemaRegistry.register (((SpecificBeamHandler) handler).getMessageClass ());
+            }
+        }
+
+        schemaReport = schemaRegistry.warmup ();
+        if (debugOutput && (!schemaReport.getEntries ().isEmpty () || !schemaReport.getFailures ().isEmpty ())) {
+            System.out.println (schemaReport);
+        }
+    }
+
     @Override
     public void run () {
         bootTime = System.currentTimeMillis ();
         listening = true;
 
         try {
+            if (nonBlocking) {
+                listenNonBlocking ();
+                return;
+            }
+
             if (serverSocket == null) {
                 if (secure) {
                     final ServerSocketFactory factory = SSLServerSocketFactory.getDefault ();
@@ -195,62 +280,14 @@ public class BeamServer extends Thread
 
             while (listening) {
                 Socket socket = serverSocket.accept ();
-                final Communicator comm = new Communicator (socket, serverName, true);
-                comm.setMessageType (messageType);
-                comm.setDebugOutput (debugOutput);
-
-                for (HandlerCapsule pass : handlers) {
-                    final Class<?> theClass = pass.getClassFile ();
-                    final Object passObject = pass.getPassObject ();
-                    final BeamHandler listener = (BeamHandler) theClass.newInstance ();
-
-                    if (passObject != null) {
-                        listener.passObject (passObject);
-                    }
-
-                    comm.addHandler (listener);
-                }
-
-                //now add any static listeners
-                for (BeamHandler global : globalHandlers) {
-                    comm.addHandler (global);
-                }
-
-                if (pingPong != null) {
-                    //add system handlers
-                    comm.addSystemHandler (pingPong);
-                }
-
-                //and a post connection listener to keep the communicator pool
-                //up to date.
-                comm.addConnectionStateListener (new ConnectionStateListener ()
-                {
-                    @Override
-                    public void preConnection (Communicator comm) {
-                    }
-
-                    @Override
-                    public void postConnection (Communicator comm) {
-                        //remove from pool
-                        pool.removeCommunicator (comm.getUID ());
-                    }
-                });
-
-                //start after listeners have been added
-                comm.init ();
-
-                //and add to pool
-                pool.addCommunicator (comm);
-
-                //and add to servedCount
-                servedCount++;
+                serveCommunicator (new Communicator (socket, serverName, true));
             }
         } catch (BindException ex) {
             //BindException means someone is already listening at the port chosen.
             //log and exit.
             ex.printStackTrace ();
             System.exit (-1);
-        } catch (SocketException ex) {
+        } catch (SocketException | ClosedChannelException ex) {
             if (!listening) {
                 //ignore, user closed
             } else {
@@ -273,6 +310,101 @@ public class BeamServer extends Thread
         listening = false;
     }
 
+    private void listenNonBlocking () throws IOException, InstantiationException, IllegalAccessException {
+        if (serverSocket == null || serverSocket.getChannel () == null) {
+            if (serverSocket != null) {
+                //pre-bound without a channel (i.e. getAvailableServer()); rebind same port
+                port = serverSocket.getLocalPort ();
+                serverSocket.close ();
+            }
+
+            ServerSocketChannel serverChannel = ServerSocketChannel.open ();
+            if (localRestricted) {
+                serverChannel.bind (new InetSocketAddress (InetAddress.getByName (null), port));
+            } else {
+                serverChannel.bind (new InetSocketAddress (port));
+            }
+            serverSocket = serverChannel.socket ();
+        }
+
+        //accepting stays blocking on this thread; the event loops do all the reading/writing
+        ServerSocketChannel serverChannel = serverSocket.getChannel ();
+        while (listening) {
+            SocketChannel channel = serverChannel.accept ();
+            NIOEventLoop eventLoop = eventLoops[nextEventLoop++ % eventLoops.length];
+            serveCommunicator (new Communicator (new NIOConnection (channel, eventLoop), serverName, true));
+        }
+    }
+
+    private void serveCommunicator (Communicator comm) throws InstantiationException, IllegalAccessException {
+        comm.setMessageType (messageType);
+        comm.setDebugOutput (debugOutput);
+        comm.setDispatchExecutor (dispatchExecutor);
+        comm.setOrderedDispatch (orderedDispatch);
+        comm.setWriteCoalescing (writeCoalescing);
+        comm.setMaxFlushDelay (maxFlushDelay);
+        comm.setMaxFlushBytes (maxFlushBytes);
+        comm.setFrameCompressor (frameCompressor);
+        comm.setCompressionThreshold (compressionThreshold);
+        comm.setUncompressedTypes (uncompressedTypes);
+        comm.setStreamCompression (streamCompression);
+        comm.setCompressionDictionary (compressionDictionary);
+        if (tcpNoDelay != null) {
+            comm.setTcpNoDelay (tcpNoDelay);
+        }
+
+        for (HandlerCapsule pass : handlers) {
+            final Class<?> theClass = pass.getClassFile ();
+            final Object passObject = pass.getPassObject ();
+            final BeamHandler listener = (BeamHandler) theClass.newInstance ();
+
+            if (passObject != null) {
+                listener.passObject (passObject);
+            }
+
+            comm.addHandler (listener);
+        }
+
+        //now add any static listeners
+        for (BeamHandler global : globalHandlers) {
+            comm.addHandler (global);
+        }
+
+        if (pingPong != null) {
+            //add system handlers
+            comm.addSystemHandler (pingPong);
+        }
+
+        //and a post connection listener to keep the communicator pool
+        //up to date.
+        comm.addConnectionStateListener (new ConnectionStateListener ()
+        {
+            @Override
+            public void preConnection (Communicator comm) {
+            }
+
+            @Override
+            public void postConnection (Communicator comm) {
+                //remove from pool
+                pool.removeCommunicator (comm.getUID ());
+            }
+        });
+
+        //start after listeners have been added
+        comm.init ();
+
+        //and add to pool
+        pool.addCommunicator (comm);
+
+        if (pingPong != null) {
+            //watch for dead connection
+            pingPong.addCommunicator (comm);
+        }
+
+        //and add to servedCount
+        servedCount++;
+    }
+
     public boolean isTunneled () {
         return tunneledFlag;
     }
@@ -306,7 +438,39 @@ public class BeamServer extends Thread
     }
 
     public void broadcast (BeamMessage message) {
-        pool.broadcastMessage (message);
+        broadcastWithResult (message);
+    }
+
+    /**
+     * @param message message to send every served Communicator.
+     * @return what became of the broadcast; pools which don't extend
+     * AbstractCommunicatorPool only report how many were sent the message.
+     */
+    public BroadcastResult broadcastWithResult (BeamMessage message) {
+        Communicator.applyCodec (message, messageType);
+        if (pool instanceof AbstractCommunicatorPool) {
+            return ((AbstractCommunicatorPool) pool).broadcast (message);
+        }
+
+        return new BroadcastResult (pool.broadcastMessage (message), 0, 0, 0, 0);
+    }
+
+    /**
+     * Sets the pool served Communicators are kept in. Must be set before the
+     * server is started; e.g. a HighScaleCommunicatorPool for servers with a
+     * very large number of connections.
+     *
+     * @param pool pool to keep served Communicators in.
+     */
+    public void setPool (CommunicatorPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException ("Missing pool!");
+        } else if (isAlive ()) {
+            throw new IllegalStateException ("Server has already been started!");
+        }
+
+        pool.setName (serverName + " - Pool");
+        this.pool = pool;
     }
 
     public CommunicatorPool getPool () {
@@ -337,6 +501,212 @@ public class BeamServer extends Thread
         return pingPongEnabled;
     }
 
+    /**
+     * @param pingPongIdleTime milliseconds without hearing from a client
+     * before it is pinged.
+     */
+    public void setPingPongIdleTime (long pingPongIdleTime) {
+        this.pingPongIdleTime = pingPongIdleTime;
+        if (pingPong != null) {
+            pingPong.setIdleTime (pingPongIdleTime);
+        }
+    }
+
+    public long getPingPongIdleTime () {
+        return pingPongIdleTime;
+    }
+
+    /**
+     * @param pingPongInterval milliseconds between pings to an idle client.
+     */
+    public void setPingPongInterval (long pingPongInterval) {
+        this.pingPongInterval = pingPongInterval;
+        if (pingPong != null) {
+            pingPong.setPingInterval (pingPongInterval);
+        }
+    }
+
+    public long getPingPongInterval () {
+        return pingPongInterval;
+    }
+
+    /**
+     * @param pingPongMaxMissed number of pings an idle client may leave
+     * unanswered before being disconnected.
+     */
+    public void setPingPongMaxMissed (int pingPongMaxMissed) {
+        this.pingPongMaxMissed = pingPongMaxMissed;
+        if (pingPong != null) {
+            pingPong.setMaxMissedPings (pingPongMaxMissed);
+        }
+    }
+
+    public int getPingPongMaxMissed () {
+        return pingPongMaxMissed;
+    }
+
+    /**
+     * Serve connections from a small pool of selector event loops instead of a
+     * thread per Communicator. Must be set before the server is started and is
+     * only available to non-secure servers. Blocking handlers run on a
+     * separate pool of threads, never the event loop; their connection's
+     * reads are suspended until they finish, which keeps its messages in
+     * order.
+     *
+     * @param nonBlocking whether or not to use the non-blocking transport.
+     */
+    public void setNonBlocking (boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+    }
+
+    public boolean isNonBlocking () {
+        return nonBlocking;
+    }
+
+    public void setEventLoopCount (int eventLoopCount) {
+        if (eventLoopCount < 1) {
+            throw new IllegalArgumentException ("Invalid event loop count: " + eventLoopCount);
+        }
+
+        this.eventLoopCount = eventLoopCount;
+    }
+
+    public int getEventLoopCount () {
+        return eventLoopCount;
+    }
+
+    /**
+     * Sets the executor non-blocking handlers of every served Communicator
+     * are run on. Must be set before the server is started. A null executor
+     * gives the server one of its own, shut down when the server is closed.
+     *
+     * @param dispatchExecutor executor to run non-blocking handlers on.
+     */
+    public void setDispatchExecutor (DispatchExecutor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+    public DispatchExecutor getDispatchExecutor () {
+        return dispatchExecutor;
+    }
+
+    /**
+     * @param orderedDispatch if true each client's non-blocking handlers are
+     * run one at a time in the order their messages were received.
+     */
+    public void setOrderedDispatch (boolean orderedDispatch) {
+        this.orderedDispatch = orderedDispatch;
+    }
+
+    public boolean isOrderedDispatch () {
+        return orderedDispatch;
+    }
+
+    /**
+     * @param writeCoalescing whether or not served Communicators coalesce
+     * writes of non-system messages.
+     * @see Communicator#setWriteCoalescing(boolean)
+     */
+    public void setWriteCoalescing (boolean writeCoalescing) {
+        this.writeCoalescing = writeCoalescing;
+    }
+
+    public boolean isWriteCoalescing () {
+        return writeCoalescing;
+    }
+
+    public void setMaxFlushDelay (int maxFlushDelay) {
+        this.maxFlushDelay = maxFlushDelay;
+    }
+
+    public int getMaxFlushDelay () {
+        return maxFlushDelay;
+    }
+
+    public void setMaxFlushBytes (int maxFlushBytes) {
+        this.maxFlushBytes = maxFlushBytes;
+    }
+
+    public int getMaxFlushBytes () {
+        return maxFlushBytes;
+    }
+
+    /**
+     * @param compression whether or not served Communicators compress
+     * messages for clients which support it.
+     * @see Communicator#setCompression(boolean)
+     */
+    public void setCompression (boolean compression) {
+        if (compression) {
+            if (frameCompressor == null) {
+                frameCompressor = FrameCompressor.getDefault ();
+            }
+        } else {
+            frameCompressor = null;
+        }
+    }
+
+    public boolean isCompression () {
+        return frameCompressor != null;
+    }
+
+    public void setFrameCompressor (FrameCompressor frameCompressor) {
+        this.frameCompressor = frameCompressor;
+    }
+
+    public FrameCompressor getFrameCompressor () {
+        return frameCompressor;
+    }
+
+    public void setCompressionThreshold (int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException ("Invalid compression threshold: " + compressionThreshold);
+        }
+
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionThreshold () {
+        return compressionThreshold;
+    }
+
+    public void setUncompressedTypes (int... uncompressedTypes) {
+        this.uncompressedTypes = uncompressedTypes;
+    }
+
+    /**
+     * @param streamCompression whether or not served Communicators stream
+     * compress messages for clients which support it.
+     * @see Communicator#setStreamCompression(boolean)
+     */
+    public void setStreamCompression (boolean streamCompression) {
+        this.streamCompression = streamCompression;
+    }
+
+    public boolean isStreamCompression () {
+        return streamCompression;
+    }
+
+    public void setCompressionDictionary (byte[] compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
+    public byte[] getCompressionDictionary () {
+        return compressionDictionary;
+    }
+
+    /**
+     * @param tcpNoDelay whether or not to disable Nagle's algorithm on served
+     * connections. Left at the platform default unless set.
+     */
+    public void setTcpNoDelay (boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isTcpNoDelay () {
+        return tcpNoDelay != null && tcpNoDelay;
+    }
+
     public void close () {
         listening = false;
 
@@ -353,6 +723,35 @@ public class BeamServer extends Thread
         } catch (IOException ex) {
             //server is closed. ignore anything thrown at this point
         }
+
+        if (eventLoops != null) {
+            for (NIOEventLoop eventLoop : eventLoops) {
+                eventLoop.close ();
+            }
+        }
+
+        if (ownDispatchExecutor != null) {
+            ownDispatchExecutor.shutdown ();
+            if (dispatchExecutor == ownDispatchExecutor) {
+                dispatchExecutor = null;
+            }
+            ownDispatchExecutor = null;
+        }
+    }
+
+    /**
+     * @return message classes whose schemas are built when the server is
+     * started
+     */
+    public SchemaRegistry getSchemaRegistry () {
+        return schemaRegistry;
+    }
+
+    /**
+     * @return schemas built when the server was started; null if not started
+     */
+    public SchemaReport getSchemaReport () {
+        return schemaReport;
     }
 
     public void setMessageType (BeamMessageType messageType) {
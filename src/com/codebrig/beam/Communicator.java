@@ -29,14 +29,21 @@
  */
 package com.codebrig.beam;
 
+import com.codebrig.beam.compression.FrameCompressor;
+import com.codebrig.beam.compression.StreamCompressor;
+import com.codebrig.beam.connection.nio.NIOConnection;
 import com.codebrig.beam.connection.raw.RawDataChannel;
 import com.codebrig.beam.crypt.EncryptedBeamMessage;
+import com.codebrig.beam.dispatch.DispatchExecutor;
 import com.codebrig.beam.handlers.BeamHandler;
 import com.codebrig.beam.handlers.SystemHandler;
 import com.codebrig.beam.messages.BeamMessage;
 import com.codebrig.beam.messages.BeamMessageType;
+import com.codebrig.beam.messages.InvalidBeamMessage;
 import com.codebrig.beam.messages.SystemMessage;
 import com.codebrig.beam.messages.SystemMessageType;
+import com.codebrig.beam.messages.codec.CodecMessageType;
+import com.codebrig.beam.messages.codec.MessageCodec;
 import com.codebrig.beam.system.handlers.HandshakeHandler;
 import com.codebrig.beam.system.handlers.TestConnectionHandler;
 import com.codebrig.beam.system.handlers.ping.ClientPingPongHandler;
@@ -44,8 +51,8 @@ import com.codebrig.beam.system.messages.HandshakeMessage;
 import com.codebrig.beam.transfer.FileTransferChannel;
 import com.codebrig.beam.utils.Generator;
 import com.jcraft.jhttptunnel.JHttpTunnelClient;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -61,14 +68,33 @@ import java.net.SocketException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.net.ssl.SSLSocket;
 import net.rudp.ReliableSocket;
 
@@ -81,20 +107,34 @@ public class Communicator implements Runnable
     public static final int UNDEFINED_WAIT = -2;
     public static final int WAIT_FOREVER = -1;
     public static final int DEFAULT_MESSAGE_WAIT_TIME = 7500; //7.5 seconds
+    public static final int DEFAULT_MAX_FLUSH_DELAY = 2; //2 milliseconds
+    public static final int DEFAULT_MAX_FLUSH_BYTES = 1024 * 64; //64 KB
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024; //1 KB
 
     private static int GLOBAL_DEFAULT_WAIT_TIME = DEFAULT_MESSAGE_WAIT_TIME;
     private int individualWaitTime = UNDEFINED_WAIT;
 
     private static long UIDCounter = 0;
     private static final Object uidLock = new Object ();
-    private final static int BUFFER_SIZE = 1024 * 100;
+    private final static int WRITE_BUFFER_SIZE = 1024 * 8; //payloads larger than this bypass the buffer
+    private final static int FILE_REGION_BUFFER_SIZE = 1024 * 64; //64 KB
+    private final static int STALLED_WRITE_TIME = 1000 * 5; //5 seconds
+    private final static byte RAW_DATA_FLAG = 0x01; //header data type bits
+    private final static byte COMPRESSED_FLAG = 0x02;
+    private final static byte STREAM_COMPRESSED_FLAG = 0x04;
+    private static ScheduledExecutorService flushScheduler;
+    private static final Object flushSchedulerLock = new Object ();
+    private static ExecutorService blockingExecutor;
+    private static final Object blockingExecutorLock = new Object ();
     private Socket socket;
     private InputStream in;
     private final Object inLock = new Object ();
+    private final byte[] headerBytes = new byte[BeamMessage.HEADER_SIZE];
     private OutputStream out;
     private final Object outLock = new Object ();
-    private boolean running;
-    private final ArrayList<ImmediateHandler> immediateHandlers;
+    private volatile boolean running;
+    private final List<ImmediateHandler> immediateHandlers;
+    private final ConcurrentHashMap<Long, ImmediateHandler> responseHandlers;
     private final ArrayList<BeamHandler> systemHandlers;
     private final ArrayList<BeamHandler> handlers;
     private final HashSet<Integer> registeredHandlerIDs;
@@ -115,6 +155,29 @@ public class Communicator implements Runnable
     private boolean performingHandshake = false;
     private boolean handshakeComplete = false;
     private JHttpTunnelClient tunnelClient;
+    private NIOConnection nioConnection;
+    private volatile DispatchExecutor dispatchExecutor;
+    private volatile Executor serialExecutor;
+    private volatile boolean orderedDispatch = false;
+    private volatile boolean writeCoalescing = false;
+    private int maxFlushDelay = DEFAULT_MAX_FLUSH_DELAY;
+    private int maxFlushBytes = DEFAULT_MAX_FLUSH_BYTES;
+    private volatile int unflushedBytes = 0;
+    private volatile long writeStartTime = 0;
+    private volatile long lastReadTime;
+    private volatile long lastWriteTime;
+    private boolean flushScheduled = false;
+    private volatile FrameCompressor frameCompressor;
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private volatile Set<Integer> uncompressedTypes = Collections.emptySet ();
+    private volatile boolean streamCompression = false;
+    private volatile byte[] compressionDictionary;
+    private StreamCompressor outStreamCompressor; //guarded by outLock
+    private byte[] fileRegionBuffer; //guarded by outLock
+    private volatile StreamCompressor inStreamCompressor; //used by reading thread only
+    private volatile int peerFeatures;
+    private final AtomicLong compressedFrames = new AtomicLong ();
+    private final AtomicLong compressionBytesSaved = new AtomicLong ();
     private SystemMessageType systemMessageType = new SystemMessageType ();
     private BeamMessageType messageType;
 
@@ -132,9 +195,9 @@ public class Communicator implements Runnable
             //to avoid server and client deadlocking
             if (serverCommunicator) {
                 in = new DataInputStream (socket.getInputStream ());
-                out = new DataOutputStream (socket.getOutputStream ());
+                out = new DataOutputStream (new BufferedOutputStream (socket.getOutputStream (), WRITE_BUFFER_SIZE));
             } else {
-                out = new DataOutputStream (socket.getOutputStream ());
+                out = new DataOutputStream (new BufferedOutputStream (socket.getOutputStream (), WRITE_BUFFER_SIZE));
                 in = new DataInputStream (socket.getInputStream ());
             }
         } catch (Exception ex) {
@@ -142,7 +205,8 @@ public class Communicator implements Runnable
             openStreamFailure = true;
         }
 
-        immediateHandlers = new ArrayList<> ();
+        immediateHandlers = new CopyOnWriteArrayList<> ();
+        responseHandlers = new ConcurrentHashMap<> ();
         systemHandlers = new ArrayList<> ();
         handlers = new ArrayList<> ();
         registeredHandlerIDs = new HashSet<> ();
@@ -167,13 +231,14 @@ public class Communicator implements Runnable
         //to avoid server and client deadlocking
         if (serverCommunicator) {
             in = new DataInputStream (tunnelClient.getInputStream ());
-            out = new DataOutputStream (tunnelClient.getOutputStream ());
+            out = new DataOutputStream (new BufferedOutputStream (tunnelClient.getOutputStream (), WRITE_BUFFER_SIZE));
         } else {
-            out = new DataOutputStream (tunnelClient.getOutputStream ());
+            out = new DataOutputStream (new BufferedOutputStream (tunnelClient.getOutputStream (), WRITE_BUFFER_SIZE));
             in = new DataInputStream (tunnelClient.getInputStream ());
         }
 
-        immediateHandlers = new ArrayList<> ();
+        immediateHandlers = new CopyOnWriteArrayList<> ();
+        responseHandlers = new ConcurrentHashMap<> ();
         systemHandlers = new ArrayList<> ();
         handlers = new ArrayList<> ();
         registeredHandlerIDs = new HashSet<> ();
@@ -189,6 +254,33 @@ public class Communicator implements Runnable
         }
     }
 
+    public Communicator (NIOConnection nioConnection, String communicatorName, boolean serverCommunicator) {
+        this.nioConnection = nioConnection;
+        this.socket = nioConnection.getChannel ().socket ();
+        this.communicatorName = communicatorName;
+        this.serverCommunicator = serverCommunicator;
+
+        //reads are driven by the connection's event loop; no input stream needed
+        out = nioConnection.getOutputStream ();
+
+        immediateHandlers = new CopyOnWriteArrayList<> ();
+        responseHandlers = new ConcurrentHashMap<> ();
+        systemHandlers = new ArrayList<> ();
+        handlers = new ArrayList<> ();
+        registeredHandlerIDs = new HashSet<> ();
+        unhandledMessages = new CopyOnWriteArrayList<> ();
+        statusListeners = new ArrayList<> ();
+        shutdownListeners = new ArrayList<> ();
+
+        attachSystemHandlers ();
+        nioConnection.attach (new SystemCommunicator (this));
+
+        //only clients init; server will init after it adds its listeners
+        if (!serverCommunicator) {
+            init ();
+        }
+    }
+
     private void attachSystemHandlers () {
         systemHandlers.add (new HandshakeHandler ());
         systemHandlers.add (new TestConnectionHandler ());
@@ -217,6 +309,7 @@ public class Communicator implements Runnable
 
     protected final void init () {
         running = false;
+        lastReadTime = lastWriteTime = System.currentTimeMillis ();
 
         synchronized (uidLock) {
             //set unique id
@@ -226,11 +319,18 @@ public class Communicator implements Runnable
         //alert connection about to be established
         preConnection ();
 
-        commThread = new Thread (this);
         if (communicatorName == null) {
             communicatorName = String.format ("Communicator UID: %s", uid);
         }
 
+        if (nioConnection != null) {
+            //event loop does the reading; no thread of our own
+            running = true;
+            nioConnection.register ();
+            return;
+        }
+
+        commThread = new Thread (this);
         commThread.setName (String.format ("Communicator: %s; UID: %s", communicatorName, uid));
         commThread.setDaemon (true);
         commThread.start ();
@@ -403,14 +503,16 @@ public class Communicator implements Runnable
             ex.printStackTrace ();
         }
 
+        connectionClosed ();
+    }
+
+    void connectionClosed () {
         //if user already closed they won't need the following to run
         if (!userClosed) {
             running = false;
 
             //send null (a.k.a alert) to any waiting listeners
-            for (ImmediateHandler immediateHandler : immediateHandlers) {
-                immediateHandler.messageReceived (this, null);
-            }
+            alertWaitingHandlers ();
 
             postConnection ();
 
@@ -420,14 +522,36 @@ public class Communicator implements Runnable
                 ex.printStackTrace ();
             }
 
-            try {
-                in.close ();
-            } catch (IOException ex) {
-                ex.printStackTrace ();
+            if (in != null) {
+                try {
+                    in.close ();
+                } catch (IOException ex) {
+                    ex.printStackTrace ();
+                }
             }
         }
     }
 
+    void receiveFrame (int type, long id, byte flags, int codecId, byte[] data) {
+        BeamMessage msg;
+        try {
+            msg = createMessage (type, id, flags, codecId, data);
+        } catch (IOException ex) {
+            //corrupt frame; other end isn't playing nice. drop connection
+            ex.printStackTrace ();
+            close ();
+            return;
+        }
+        logReceivedMessage (msg, data.length);
+
+        if (msg.isSystemMessage () && msg.getType () == SystemMessageType.CLOSE_CONNECTION) {
+            //system closed connection
+            nioConnection.close ();
+        } else {
+            processMessage (msg);
+        }
+    }
+
     private boolean checkValid (BeamHandler listener) {
         for (int type : listener.getTypes ()) {
             if (registeredHandlerIDs.contains (type)) {
@@ -454,13 +578,15 @@ public class Communicator implements Runnable
         int messageSize;
 
         synchronized (inLock) {
-            final byte[] header = readStream (BeamMessage.HEADER_SIZE);
-            ByteBuffer headerBuf = ByteBuffer.wrap (header);
+            //header is read into the same array every time
+            final byte[] header = headerBytes;
+            readFully (header, BeamMessage.HEADER_SIZE);
 
-            final int type = headerBuf.getInt (); //message type
-            final int size = headerBuf.getInt (); //message size
-            final long id = headerBuf.getLong (); //message id
-            final boolean rawData = headerBuf.get () == 1;
+            final int type = intFromBytes (header, 0); //message type
+            final int size = intFromBytes (header, 4); //message size
+            final long id = longFromBytes (header, 8); //message id
+            final byte flags = header[16]; //data type
+            final int codecId = header[17] & 0xFF; //message codec
 
             if (size > BeamMessage.MAX_MESSAGE_SIZE || size < 0) {
                 //message too big or invalid; other end isn't playing nice. drop connection
@@ -471,13 +597,42 @@ public class Communicator implements Runnable
             //final long sentTime = longFromBytes (readStream (8)); //message time
             //final int version = intFromBytes (readStream (4)); //message version
             //final int messageId = intFromBytes (readStream (4)); //message id
-            byte[] data = readStream (size);
-            msg = new SystemMessage (type, data, type < 0, rawData).toBeamMessage (data);
-            msg.setMessageId (id);
-            msg.setReceivedTimestamp (System.currentTimeMillis ());
+            byte[] data = new byte[size];
+            readFully (data, size);
+            try {
+                msg = createMessage (type, id, flags, codecId, data);
+            } catch (IOException ex) {
+                //corrupt frame; other end isn't playing nice. drop connection
+                ex.printStackTrace ();
+                close ();
+                return null;
+            }
             messageSize = size;
         }
 
+        logReceivedMessage (msg, messageSize);
+        return msg;
+    }
+
+    private BeamMessage createMessage (int type, long id, byte flags, int codecId, byte[] data)
+            throws IOException {
+        if ((flags & (COMPRESSED_FLAG | STREAM_COMPRESSED_FLAG)) != 0) {
+            data = decompress (flags, data);
+        }
+
+        BeamMessage msg;
+        try {
+            msg = BeamMessage.fromFrame (type, (flags & RAW_DATA_FLAG) != 0, codecId, data);
+        } catch (InvalidBeamMessage ex) {
+            throw new IOException (ex);
+        }
+        msg.setMessageId (id);
+        msg.setReceivedTimestamp (lastReadTime = System.currentTimeMillis ());
+
+        return msg;
+    }
+
+    private void logReceivedMessage (BeamMessage msg, int messageSize) {
         if (debugOutput) {
             if (msg.isSystemMessage ()) {
                 System.out.println (String.format ("Received message: %s - Size: %s - Timestamp: %s",
@@ -490,58 +645,140 @@ public class Communicator implements Runnable
                         msg.getType (), messageSize, new Timestamp (System.currentTimeMillis ())));
             }
         }
-
-        return msg;
     }
 
     public void writeStream (byte[] data) throws IOException {
-        ByteArrayInputStream dataStream = new ByteArrayInputStream (data);
-        int sent = 0;
-        byte[] buffer;
-
-        while (sent < data.length) {
-            //setup buffer
-            if (data.length - sent < BUFFER_SIZE) {
-                //use a smaller buffer as to not overwrite!
-                buffer = new byte[(data.length - sent)];
-            } else {
-                buffer = new byte[BUFFER_SIZE];
+        out.write (data);
+        out.flush ();
+    }
+
+    private void writeCoalescedFrame (byte[] header, byte[] data) throws IOException {
+        if (nioConnection != null) {
+            nioConnection.queueFrame (header, data);
+        } else {
+            writeStartTime = System.currentTimeMillis ();
+            try {
+                out.write (header);
+                out.write (data);
+            } finally {
+                writeStartTime = 0;
             }
+        }
+        unflushedBytes += header.length + data.length;
+
+        if (unflushedBytes >= maxFlushBytes || maxFlushDelay <= 0) {
+            flush0 ();
+        } else if (!flushScheduled) {
+            //flush whatever has been coalesced once max delay passes
+            flushScheduled = true;
+            getFlushScheduler ().schedule (new Runnable ()
+            {
+
+                @Override
+                public void run () {
+                    synchronized (outLock) {
+                        flushScheduled = false;
+
+                        try {
+                            flush0 ();
+                        } catch (IOException ex) {
+                            //connection closed; nothing left to flush to
+                        }
+                    }
+                }
+            }, maxFlushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
 
-            dataStream.read (buffer);
+    private void flush0 () throws IOException {
+        if (unflushedBytes == 0) {
+            return;
+        }
+        unflushedBytes = 0;
 
-            out.write (buffer);
-            out.flush ();
+        if (nioConnection != null) {
+            nioConnection.requestFlush ();
+        } else {
+            writeStartTime = System.currentTimeMillis ();
+            try {
+                out.flush ();
+            } finally {
+                writeStartTime = 0;
+            }
+        }
+    }
 
-            sent += buffer.length;
+    /**
+     * Writes out any messages being held for write coalescing.
+     */
+    public void flush () {
+        try {
+            synchronized (outLock) {
+                flush0 ();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace ();
         }
     }
 
-    public byte[] readStream (int length) throws IOException {
-        ByteBuffer buf = ByteBuffer.allocate (length);
-        int received = 0;
-        byte[] buffer;
+    private static ScheduledExecutorService getFlushScheduler () {
+        synchronized (flushSchedulerLock) {
+            if (flushScheduler == null) {
+                ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor (1, new ThreadFactory ()
+                {
 
-        while (received < length) {
-            //setup buffer
-            if (received + BUFFER_SIZE > length) {
-                //use a smaller buffer as to not overread!
-                buffer = new byte[(length - received)];
-            } else {
-                buffer = new byte[BUFFER_SIZE];
+                    @Override
+                    public Thread newThread (Runnable runnable) {
+                        Thread thread = new Thread (runnable, "Communicator Flush Thread");
+                        thread.setDaemon (true);
+                        return thread;
+                    }
+                });
+
+                //answered async sends cancel their expiry
+                scheduler.setRemoveOnCancelPolicy (true);
+                flushScheduler = scheduler;
             }
 
-            int read = in.read (buffer);
+            return flushScheduler;
+        }
+    }
+
+    private void writeFrame (byte[] header, byte[] data) throws IOException {
+        if (nioConnection != null) {
+            //header and data gathered into a single channel write
+            nioConnection.writeFrame (header, data);
+        } else {
+            //small frames coalesce in the stream buffer; large data is written straight through
+            writeStartTime = System.currentTimeMillis ();
+            try {
+                out.write (header);
+                out.write (data);
+                out.flush ();
+            } finally {
+                writeStartTime = 0;
+            }
+        }
+    }
+
+    public byte[] readStream (int length) throws IOException {
+        byte[] data = new byte[length];
+        readFully (data, length);
+
+        return data;
+    }
+
+    private void readFully (byte[] buffer, int length) throws IOException {
+        int received = 0;
+        while (received < length) {
+            int read = in.read (buffer, received, length - received);
             if (read == -1) {
                 //this connection has been closed
                 throw new EOFException ("readStream() == -1");
-            } else {
-                buf.put (buffer, 0, read);
-                received += read;
             }
-        }
 
-        return buf.array ();
+            received += read;
+        }
     }
 
     public void addShutdownListener (ShutdownListener shutdownListener) {
@@ -564,7 +801,15 @@ public class Communicator implements Runnable
         return msg != null;
     }
 
-    private byte[] getHeader (BeamMessage msg, int messageSize) {
+    static byte[] getHeader (BeamMessage msg, int messageSize) {
+        return getHeader (msg, messageSize, true);
+    }
+
+    /**
+     * @param withCodec false to leave out the message's codec; for data
+     * serialized with the default codec
+     */
+    static byte[] getHeader (BeamMessage msg, int messageSize, boolean withCodec) {
         ByteBuffer header = ByteBuffer.allocate (BeamMessage.HEADER_SIZE);
         header.putInt (msg.getType ()); //message type
         header.putInt (messageSize);//message size
@@ -572,42 +817,104 @@ public class Communicator implements Runnable
 
         //data type
         if (msg.isRawData ()) {
-            header.put ((byte) 1);
+            header.put (RAW_DATA_FLAG);
         } else {
             header.put ((byte) 0);
+
+            //message codec
+            if (withCodec && msg.getCodec () != null) {
+                header.put ((byte) msg.getCodec ().getId ());
+            }
         }
 
         return header.array ();
     }
 
+    private static byte[] getCompressedHeader (byte[] header, int compressedSize, byte compressedFlag) {
+        byte[] compressedHeader = Arrays.copyOf (header, header.length);
+        ByteBuffer.wrap (compressedHeader).putInt (4, compressedSize); //message size
+        compressedHeader[16] |= compressedFlag;
+
+        return compressedHeader;
+    }
+
+    private byte[] decompress (byte flags, byte[] data) throws IOException {
+        if ((flags & STREAM_COMPRESSED_FLAG) != 0) {
+            if (inStreamCompressor == null) {
+                inStreamCompressor = new StreamCompressor (compressionDictionary);
+            }
+
+            return inStreamCompressor.decompress (data);
+        }
+
+        FrameCompressor compressor = frameCompressor;
+        if (compressor == null) {
+            compressor = FrameCompressor.getDefault ();
+        }
+
+        return compressor.decompress (data);
+    }
+
+    /**
+     * Compresses the message if compression is on and the other end
+     * supports it, then writes it. Must hold outLock.
+     *
+     * @param prepared prepared message being written; null if none
+     */
+    private void writeMessage (int type, boolean systemMessage, byte[] header, byte[] data,
+            PreparedMessage prepared) throws IOException {
+        if (!systemMessage && data.length >= compressionThreshold && !uncompressedTypes.contains (type)) {
+            byte[] compressed = null;
+            byte compressedFlag = 0;
+
+            if (streamCompression && (peerFeatures & HandshakeMessage.FEATURE_STREAM_COMPRESSION) != 0) {
+                //per connection; can't be shared with other Communicators
+                if (outStreamCompressor == null) {
+                    outStreamCompressor = new StreamCompressor (compressionDictionary);
+                }
+                compressed = outStreamCompressor.compress (data);
+                compressedFlag = STREAM_COMPRESSED_FLAG;
+            } else if (frameCompressor != null && (peerFeatures & HandshakeMessage.FEATURE_LZ4_COMPRESSION) != 0) {
+                if (prepared != null) {
+                    //compressed once for every Communicator using the same compressor
+                    compressed = prepared.getCompressedData (frameCompressor);
+                } else {
+                    compressed = frameCompressor.compress (data);
+                }
+                compressedFlag = COMPRESSED_FLAG;
+            }
+
+            if (compressed != null) {
+                compressedFrames.incrementAndGet ();
+                compressionBytesSaved.addAndGet (data.length - compressed.length);
+                header = getCompressedHeader (header, compressed.length, compressedFlag);
+                data = compressed;
+            }
+        }
+
+        write0 (type, systemMessage, header, data);
+    }
+
     private void send0 (BeamMessage msg, boolean outputException) {
         if (msg == null) {
             throw new NullPointerException ();
         }
+        applyCodec (msg, messageType);
 
         try {
             synchronized (outLock) {
-                byte[] data = msg.getData ();
-                byte[] header = getHeader (msg, data.length);
-                byte[] headerWithData = new byte[BeamMessage.HEADER_SIZE + data.length];
-
-                System.arraycopy (header, 0, headerWithData, 0, header.length);
-                System.arraycopy (data, 0, headerWithData, BeamMessage.HEADER_SIZE, data.length);
-
-                writeStream (headerWithData);
-
-                if (debugOutput) {
-                    if (msg.isSystemMessage ()) {
-                        System.out.println (String.format ("Sent message: %s - Size: %s - Timestamp: %s",
-                                systemMessageType.getName (msg.getType ()), data.length, new Timestamp (System.currentTimeMillis ())));
-                    } else if (messageType != null) {
-                        System.out.println (String.format ("Sent message: %s - Size: %s - Timestamp: %s",
-                                messageType.getName (msg.getType ()), data.length, new Timestamp (System.currentTimeMillis ())));
-                    } else {
-                        System.out.println (String.format ("Sent message: %s - Size: %s - Timestamp: %s",
-                                msg.getType (), data.length, new Timestamp (System.currentTimeMillis ())));
-                    }
+                byte[] data;
+                byte[] header;
+                if (msg.getCodec () == null || isPeerFeatureSupported (HandshakeMessage.FEATURE_MESSAGE_CODECS)) {
+                    data = msg.getData ();
+                    header = getHeader (msg, data.length);
+                } else {
+                    //other end can only read the default codec
+                    data = msg.getDefaultCodecData ();
+                    header = getHeader (msg, data.length, false);
                 }
+
+                writeMessage (msg.getType (), msg.isSystemMessage (), header, data, null);
             }
         } catch (IOException ex) {
             if (outputException) {
@@ -620,6 +927,213 @@ public class Communicator implements Runnable
         }
     }
 
+    /**
+     * Gives a message without a codec the one its type is registered with.
+     */
+    static void applyCodec (BeamMessage msg, BeamMessageType messageType) {
+        if (messageType instanceof CodecMessageType && !msg.isRawData () && !msg.isSystemMessage ()
+                && msg.getCodec () == null && !msg.isFrozen ()) {
+            MessageCodec codec = ((CodecMessageType) messageType).getCodec (msg.getType ());
+            if (codec != null) {
+                msg.setCodec (codec);
+            }
+        }
+    }
+
+    /**
+     * Send an already serialized message without waiting for a response.
+     *
+     * @param msg message to send.
+     * @return false if the message could not be written; true otherwise.
+     */
+    public boolean queue (PreparedMessage msg) {
+        if (msg == null) {
+            throw new NullPointerException ();
+        }
+
+        try {
+            synchronized (outLock) {
+                if (!msg.hasCodec () || isPeerFeatureSupported (HandshakeMessage.FEATURE_MESSAGE_CODECS)) {
+                    writeMessage (msg.getType (), msg.isSystemMessage (), msg.getHeader (), msg.getData (), msg);
+                } else {
+                    //other end can only read the default codec
+                    writeMessage (msg.getType (), msg.isSystemMessage (), msg.getDefaultCodecHeader (),
+                            msg.getDefaultCodecData (), null);
+                }
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+
+        if (tunnelClient != null) {
+            tunnelClient.getInBound ().resetBackoffTime ();
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends a raw data frame made up of a small prefix followed by a region of
+     * a file, without waiting for a response. The file region is never read
+     * into a message: non-blocking connections send it straight from the file
+     * and other connections stream it through a buffer reused for every
+     * region.
+     *
+     * @param type message type.
+     * @param messageId message id.
+     * @param prefix data which precedes the file region.
+     * @param fileChannel file to send data from.
+     * @param position position of the file region.
+     * @param length length of the file region.
+     * @return false if the frame could not be written; true otherwise.
+     */
+    public boolean queueFileRegion (int type, long messageId, byte[] prefix, FileChannel fileChannel,
+            long position, int length) {
+        if (prefix == null || fileChannel == null) {
+            throw new NullPointerException ();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate (BeamMessage.HEADER_SIZE);
+        header.putInt (type); //message type
+        header.putInt (prefix.length + length); //message size
+        header.putLong (messageId); //message id
+        header.put (RAW_DATA_FLAG); //data type
+
+        try {
+            if (position + length > fileChannel.size ()) {
+                //frame size is written first; region must be there in full
+                throw new IllegalArgumentException ("File region ends past the end of the file!");
+            }
+
+            synchronized (outLock) {
+                lastWriteTime = System.currentTimeMillis ();
+
+                //anything coalesced goes out first
+                if (unflushedBytes > 0) {
+                    flush0 ();
+                }
+
+                if (nioConnection != null) {
+                    nioConnection.writeFileRegion (header.array (), prefix, fileChannel, position, length);
+                } else {
+                    writeFileRegion (header.array (), prefix, fileChannel, position, length);
+                }
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+
+        if (debugOutput) {
+            System.out.println (String.format ("Sent message: %s - Size: %s - Timestamp: %s",
+                    (type < 0) ? systemMessageType.getName (type) : type, prefix.length + length,
+                    new Timestamp (System.currentTimeMillis ())));
+        }
+
+        if (tunnelClient != null) {
+            tunnelClient.getInBound ().resetBackoffTime ();
+        }
+
+        return true;
+    }
+
+    private void writeFileRegion (byte[] header, byte[] prefix, FileChannel fileChannel,
+            long position, int length) throws IOException {
+        if (fileRegionBuffer == null) {
+            fileRegionBuffer = new byte[FILE_REGION_BUFFER_SIZE];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap (fileRegionBuffer);
+
+        writeStartTime = System.currentTimeMillis ();
+        try {
+            out.write (header);
+            out.write (prefix);
+
+            final long endPosition = position + length;
+            while (position < endPosition) {
+                buffer.clear ();
+                buffer.limit ((int) Math.min (buffer.capacity (), endPosition - position));
+
+                int read = fileChannel.read (buffer, position);
+                if (read == -1) {
+                    throw new EOFException ("File truncated while sending");
+                }
+
+                out.write (fileRegionBuffer, 0, read);
+                position += read;
+            }
+            out.flush ();
+        } finally {
+            writeStartTime = 0;
+        }
+    }
+
+    private void write0 (int type, boolean systemMessage, byte[] header, byte[] data) throws IOException {
+        lastWriteTime = System.currentTimeMillis ();
+
+        if (writeCoalescing && !systemMessage) {
+            writeCoalescedFrame (header, data);
+        } else {
+            //anything coalesced goes out first
+            if (unflushedBytes > 0) {
+                flush0 ();
+            }
+
+            writeFrame (header, data);
+        }
+
+        if (debugOutput) {
+            if (systemMessage) {
+                System.out.println (String.format ("Sent message: %s - Size: %s - Timestamp: %s",
+                        systemMessageType.getName (type), data.length, new Timestamp (System.currentTimeMillis ())));
+            } else if (messageType != null) {
+                System.out.println (String.format ("Sent message: %s - Size: %s - Timestamp: %s",
+                        messageType.getName (type), data.length, new Timestamp (System.currentTimeMillis ())));
+            } else {
+                System.out.println (String.format ("Sent message: %s - Size: %s - Timestamp: %s",
+                        type, data.length, new Timestamp (System.currentTimeMillis ())));
+            }
+        }
+    }
+
+    /**
+     * @return bytes written to this Communicator but not yet sent to the
+     * socket.
+     */
+    public long getPendingWriteBytes () {
+        if (nioConnection != null) {
+            return nioConnection.getPendingWriteBytes ();
+        }
+
+        return unflushedBytes;
+    }
+
+    /**
+     * @return time in milliseconds the last message was received.
+     */
+    public long getLastReadTime () {
+        return lastReadTime;
+    }
+
+    /**
+     * @return time in milliseconds the last message was sent.
+     */
+    public long getLastWriteTime () {
+        return lastWriteTime;
+    }
+
+    /**
+     * @return how long in milliseconds the write currently in progress has
+     * been blocked; 0 if no write is in progress.
+     */
+    public long getWriteStallTime () {
+        long startTime = writeStartTime;
+        if (startTime == 0) {
+            return 0;
+        }
+
+        return System.currentTimeMillis () - startTime;
+    }
+
     public BeamMessage send (BeamMessage msg) {
         return send (msg, waitTime ());
     }
@@ -636,7 +1150,19 @@ public class Communicator implements Runnable
         return send0 (msg, waitTime, retryCount, responseTypes);
     }
 
-    private BeamMessage send0 (BeamMessage msg, int waitTime, int retryCount, int... responseTypes) {
+    /**
+     * Send a message without blocking for the response.
+     * The returned Future completes as soon as the response is received,
+     * or with null if the connection closes or the wait time passes first.
+     *
+     * @param msg message to send.
+     * @return Future of the response message.
+     */
+    public Future<BeamMessage> sendAsync (BeamMessage msg) {
+        return sendAsync (msg, new int[] {msg.getType ()});
+    }
+
+    public Future<BeamMessage> sendAsync (BeamMessage msg, int... responseTypes) {
         if (msg == null) {
             return null;
         }
@@ -645,37 +1171,76 @@ public class Communicator implements Runnable
             msg.setMessageId (getUnusedMessageId ());
         }
 
-        BeamMessage rtnMsg = null;
-        for (int i = -1; i < retryCount; i++) {
-            //add ImmediateListener first
-            final ImmediateHandler listen = new ImmediateHandler (
-                    msg.getMessageId (), msg.isSystemMessage (), waitTime, responseTypes);
-            immediateHandlers.add (listen);
+        //register response handler first
+        final int waitTime = waitTime ();
+        final ImmediateHandler listen = new ImmediateHandler (
+                msg, msg.isSystemMessage (), waitTime, responseTypes);
+        registerImmediateHandler (listen);
 
-            //queue out msg
-            queue (msg);
+        //expire handler so unanswered sends don't stay registered
+        if (waitTime != WAIT_FOREVER) {
+            listen.expiry = getFlushScheduler ().schedule (new Runnable ()
+            {
+                @Override
+                public void run () {
+                    listen.finish (null);
+                }
+            }, Math.max (waitTime, 0), TimeUnit.MILLISECONDS);
+        }
 
-            //wait for response
-            rtnMsg = listen.waitForMessage ();
+        //queue out msg
+        queue (msg);
 
-            //now remove and return
-            immediateHandlers.remove (listen);
+        return listen;
+    }
 
-            //check listener once more just in case
-            if (rtnMsg == null && listen.message != null) {
-                rtnMsg = listen.message;
-            }
+    private BeamMessage send0 (BeamMessage msg, int waitTime, int retryCount, int... responseTypes) {
+        if (msg == null) {
+            return null;
+        }
 
-            if (rtnMsg != null) {
-                if (msg instanceof EncryptedBeamMessage) {
-                    //use encryption method in msg to decrypt rtnMsg
-                    EncryptedBeamMessage encryptedMessage = (EncryptedBeamMessage) msg;
-                    rtnMsg = encryptedMessage.decryptBeamMessage (rtnMsg);
+        if (msg.getMessageId () == -1) {
+            msg.setMessageId (getUnusedMessageId ());
+        }
+
+        //register response handler first; stays registered between retries
+        //so a late response to an earlier attempt still counts
+        final ImmediateHandler listen = new ImmediateHandler (
+                msg, msg.isSystemMessage (), waitTime, responseTypes);
+        registerImmediateHandler (listen);
+
+        //retries resend the same frame instead of serializing again
+        PreparedMessage prepared = null;
+        if (retryCount > 0) {
+            applyCodec (msg, messageType);
+            prepared = new PreparedMessage (msg);
+        }
+
+        BeamMessage rtnMsg = null;
+        try {
+            for (int i = -1; i < retryCount; i++) {
+                //queue out msg
+                if (prepared != null) {
+                    queue (prepared);
+                } else {
+                    queue (msg);
                 }
 
-                //got return message
-                break;
+                //wait for response
+                rtnMsg = listen.waitForMessage ();
+                if (rtnMsg != null || listen.isDone ()) {
+                    break;
+                }
             }
+        } finally {
+            //now remove and return
+            unregisterImmediateHandler (listen);
+        }
+
+        if (rtnMsg != null && msg instanceof EncryptedBeamMessage) {
+            //use encryption method in msg to decrypt rtnMsg
+            EncryptedBeamMessage encryptedMessage = (EncryptedBeamMessage) msg;
+            rtnMsg = encryptedMessage.decryptBeamMessage (rtnMsg);
         }
 
         return rtnMsg;
@@ -731,28 +1296,42 @@ public class Communicator implements Runnable
     }
 
     private long getUnusedMessageId () {
-        boolean gotId = false;
-        long messageId = -1;
-
-        while (!gotId) {
+        long messageId;
+        do {
             messageId = Generator.randomLong ();
-            boolean inUse = false;
+        } while (messageId == -1 || responseHandlers.containsKey (messageId)); //ensure message id isn't in use
 
-            //ensure message id isn't in use
-            List<ImmediateHandler> handlerList = new ArrayList<> (immediateHandlers);
-            for (ImmediateHandler handler : handlerList) {
-                if (handler.acceptsMessageId (messageId)) {
-                    inUse = true;
-                    break;
-                }
-            }
+        return messageId;
+    }
+
+    private void registerImmediateHandler (ImmediateHandler handler) {
+        if (handler.responseMessageId == -1) {
+            immediateHandlers.add (handler);
+        } else {
+            responseHandlers.put (handler.responseMessageId, handler);
+        }
+
+        if (!running) {
+            //closed before handler was registered; alert now as nothing else will
+            handler.messageReceived (this, null);
+        }
+    }
 
-            if (!inUse) {
-                gotId = true;
-            }
+    private void unregisterImmediateHandler (ImmediateHandler handler) {
+        if (handler.responseMessageId == -1) {
+            immediateHandlers.remove (handler);
+        } else {
+            responseHandlers.remove (handler.responseMessageId, handler);
         }
+    }
 
-        return messageId;
+    private void alertWaitingHandlers () {
+        for (ImmediateHandler immediateHandler : immediateHandlers) {
+            immediateHandler.messageReceived (this, null);
+        }
+        for (ImmediateHandler immediateHandler : responseHandlers.values ()) {
+            immediateHandler.messageReceived (this, null);
+        }
     }
 
     public void clearUnhandledMessages (int... messageTypes) {
@@ -777,15 +1356,21 @@ public class Communicator implements Runnable
         } else if (waitTime != 0 || waitTime != UNDEFINED_WAIT) {
             //add ImmediateListener first
             final ImmediateHandler listen = new ImmediateHandler (
-                    -1, false, waitTime, responseTypes);
-            immediateHandlers.add (listen);
+                    null, false, waitTime, responseTypes);
+            registerImmediateHandler (listen);
 
-            final BeamMessage rtnMsg = listen.waitForMessage ();
-
-            //now remove and return
-            immediateHandlers.remove (listen);
+            try {
+                //message may have arrived before listener was added
+                msg = fetch (responseTypes);
+                if (msg != null) {
+                    return msg;
+                }
 
-            return rtnMsg;
+                return listen.waitForMessage ();
+            } finally {
+                //now remove and return
+                unregisterImmediateHandler (listen);
+            }
         }
 
         return null;
@@ -881,7 +1466,19 @@ public class Communicator implements Runnable
 
                 claimCommunicator ();
                 if (isTunneled () || !handler.isBlockingHandler ()) {
-                    new Thread (new Runnable ()
+                    dispatch (new Runnable ()
+                    {
+
+                        @Override
+                        public void run () {
+                            BeamMessage rtnMsg;
+                            if ((rtnMsg = handler.processMessage (Communicator.this, message)) != null) {
+                                queue (rtnMsg);
+                            }
+                        }
+                    });
+                } else if (nioConnection != null) {
+                    dispatchBlocking (new Runnable ()
                     {
 
                         @Override
@@ -891,7 +1488,7 @@ public class Communicator implements Runnable
                                 queue (rtnMsg);
                             }
                         }
-                    }).start ();
+                    });
                 } else {
                     if ((rtnMsg = handler.processMessage (this, message)) != null) {
                         queue (rtnMsg);
@@ -913,19 +1510,34 @@ public class Communicator implements Runnable
             return;
         }
 
+        //responses to sent messages are completed directly; nothing to hand off
+        final ImmediateHandler responseHandler = responseHandlers.get (message.getMessageId ());
+        if (responseHandler != null && responseHandler.acceptsType (message.getType ())) {
+            responseHandler.messageReceived (this, message);
+            return;
+        }
+
         for (final ImmediateHandler immediateHandler : immediateHandlers) {
-            if (immediateHandler.acceptsType (message.getType ())
-                    && immediateHandler.acceptsMessageId (message.getMessageId ())) {
+            if (immediateHandler.acceptsType (message.getType ())) {
                 claimCommunicator ();
                 if (isTunneled () || !immediateHandler.isBlockingHandler ()) {
-                    new Thread (new Runnable ()
+                    dispatch (new Runnable ()
                     {
 
                         @Override
                         public void run () {
                             immediateHandler.messageReceived (Communicator.this, message);
                         }
-                    }).start ();
+                    });
+                } else if (nioConnection != null) {
+                    dispatchBlocking (new Runnable ()
+                    {
+
+                        @Override
+                        public void run () {
+                            immediateHandler.messageReceived (Communicator.this, message);
+                        }
+                    });
                 } else {
                     immediateHandler.messageReceived (this, message);
                 }
@@ -939,7 +1551,19 @@ public class Communicator implements Runnable
             if (handler.acceptsType (message.getType ())) {
                 claimCommunicator ();
                 if (isTunneled () || !handler.isBlockingHandler ()) {
-                    new Thread (new Runnable ()
+                    dispatch (new Runnable ()
+                    {
+
+                        @Override
+                        public void run () {
+                            BeamMessage rtnMsg;
+                            if ((rtnMsg = handler.processMessage (Communicator.this, message)) != null) {
+                                queue (rtnMsg);
+                            }
+                        }
+                    });
+                } else if (nioConnection != null) {
+                    dispatchBlocking (new Runnable ()
                     {
 
                         @Override
@@ -949,7 +1573,7 @@ public class Communicator implements Runnable
                                 queue (rtnMsg);
                             }
                         }
-                    }).start ();
+                    });
                 } else {
                     if ((rtnMsg = handler.processMessage (this, message)) != null) {
                         queue (rtnMsg);
@@ -1007,11 +1631,318 @@ public class Communicator implements Runnable
             sl.postConnection (this);
         }
 
+        //release native deflate state
+        synchronized (outLock) {
+            if (outStreamCompressor != null) {
+                outStreamCompressor.end ();
+            }
+        }
+        if (inStreamCompressor != null) {
+            inStreamCompressor.end ();
+        }
+
         if (tunnelClient != null) {
             tunnelClient.close ();
         }
     }
 
+    private void dispatch (Runnable task) {
+        Executor executor = serialExecutor;
+        if (executor == null) {
+            executor = getDispatchExecutor ();
+        }
+
+        executor.execute (task);
+    }
+
+    /**
+     * Runs a blocking handler off the event loop. Reads stop until it
+     * finishes so, like a stream connection's reading thread, the peer's
+     * messages stay in order and the peer is pushed back on.
+     *
+     * @param task blocking handler to run.
+     */
+    private void dispatchBlocking (final Runnable task) {
+        final NIOConnection connection = nioConnection;
+        connection.suspendReads ();
+
+        getBlockingExecutor ().execute (new Runnable ()
+        {
+
+            @Override
+            public void run () {
+                try {
+                    task.run ();
+                } catch (Exception ex) {
+                    ex.printStackTrace ();
+                } finally {
+                    connection.resumeReads ();
+                }
+            }
+        });
+    }
+
+    private static ExecutorService getBlockingExecutor () {
+        synchronized (blockingExecutorLock) {
+            if (blockingExecutor == null) {
+                blockingExecutor = Executors.newCachedThreadPool (new ThreadFactory ()
+                {
+
+                    private final AtomicLong threadCount = new AtomicLong ();
+
+                    @Override
+                    public Thread newThread (Runnable runnable) {
+                        Thread thread = new Thread (runnable,
+                                "Communicator Blocking Handler #" + threadCount.incrementAndGet ());
+                        thread.setDaemon (true);
+                        return thread;
+                    }
+                });
+            }
+
+            return blockingExecutor;
+        }
+    }
+
+    /**
+     * Sets the executor non-blocking handlers are run on. Communicators use
+     * the shared DispatchExecutor.getDefault () unless set otherwise.
+     *
+     * @param dispatchExecutor executor to run non-blocking handlers on.
+     */
+    public void setDispatchExecutor (DispatchExecutor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        setOrderedDispatch (orderedDispatch);
+    }
+
+    public DispatchExecutor getDispatchExecutor () {
+        DispatchExecutor executor = dispatchExecutor;
+        if (executor == null) {
+            executor = DispatchExecutor.getDefault ();
+        }
+
+        return executor;
+    }
+
+    /**
+     * @param orderedDispatch if true non-blocking handlers for this
+     * Communicator are run one at a time in the order their messages were
+     * received; if false they may run concurrently.
+     */
+    public void setOrderedDispatch (boolean orderedDispatch) {
+        this.orderedDispatch = orderedDispatch;
+
+        if (orderedDispatch) {
+            serialExecutor = getDispatchExecutor ().newSerialExecutor ();
+        } else {
+            serialExecutor = null;
+        }
+    }
+
+    public boolean isOrderedDispatch () {
+        return orderedDispatch;
+    }
+
+    /**
+     * When enabled, non-system messages are held and written together with
+     * any other messages sent within the max flush delay (or until max flush
+     * bytes are held) instead of being written and flushed one at a time.
+     * Trades a bounded amount of latency for far fewer writes when sending
+     * many small messages.
+     *
+     * @param writeCoalescing whether or not to coalesce writes.
+     */
+    public void setWriteCoalescing (boolean writeCoalescing) {
+        this.writeCoalescing = writeCoalescing;
+
+        if (!writeCoalescing) {
+            flush ();
+        }
+    }
+
+    public boolean isWriteCoalescing () {
+        return writeCoalescing;
+    }
+
+    /**
+     * @param maxFlushDelay longest time in milliseconds a coalesced message
+     * is held before being written.
+     */
+    public void setMaxFlushDelay (int maxFlushDelay) {
+        synchronized (outLock) {
+            this.maxFlushDelay = maxFlushDelay;
+        }
+    }
+
+    public int getMaxFlushDelay () {
+        return maxFlushDelay;
+    }
+
+    /**
+     * @param maxFlushBytes most bytes held for write coalescing before being
+     * written.
+     */
+    public void setMaxFlushBytes (int maxFlushBytes) {
+        synchronized (outLock) {
+            this.maxFlushBytes = maxFlushBytes;
+        }
+    }
+
+    public int getMaxFlushBytes () {
+        return maxFlushBytes;
+    }
+
+    /**
+     * When enabled, non-system messages at least as large as the compression
+     * threshold are LZ4 compressed, provided the other end advertised it can
+     * read compressed frames during the Beam handshake. Messages which don't
+     * get smaller are sent as they are.
+     *
+     * @param compression whether or not to compress messages.
+     */
+    public void setCompression (boolean compression) {
+        if (compression) {
+            if (frameCompressor == null) {
+                frameCompressor = FrameCompressor.getDefault ();
+            }
+        } else {
+            frameCompressor = null;
+        }
+    }
+
+    public boolean isCompression () {
+        return frameCompressor != null;
+    }
+
+    /**
+     * @param frameCompressor compressor to compress messages with; null
+     * disables compression.
+     */
+    public void setFrameCompressor (FrameCompressor frameCompressor) {
+        this.frameCompressor = frameCompressor;
+    }
+
+    public FrameCompressor getFrameCompressor () {
+        return frameCompressor;
+    }
+
+    /**
+     * @param feature HandshakeMessage feature flag
+     * @return whether or not the other end supports the feature; false until
+     * the Beam handshake completes
+     */
+    public boolean isPeerFeatureSupported (int feature) {
+        return (peerFeatures & feature) == feature;
+    }
+
+    /**
+     * @return whether or not messages are compressed; requires compression
+     * to be enabled and supported by the other end.
+     */
+    public boolean isCompressing () {
+        return (frameCompressor != null && (peerFeatures & HandshakeMessage.FEATURE_LZ4_COMPRESSION) != 0)
+                || (streamCompression && (peerFeatures & HandshakeMessage.FEATURE_STREAM_COMPRESSION) != 0);
+    }
+
+    /**
+     * When enabled, messages are compressed as one deflate stream for the
+     * life of the connection instead of one frame at a time, so repeated
+     * keys and values are compressed against every recent message. Costs
+     * more CPU than LZ4 and is worth it for streams of small, similar
+     * messages; lower the compression threshold accordingly. Takes
+     * precedence over LZ4 compression when the other end supports both.
+     *
+     * @param streamCompression whether or not to stream compress messages.
+     * @see StreamCompressor
+     */
+    public void setStreamCompression (boolean streamCompression) {
+        this.streamCompression = streamCompression;
+    }
+
+    public boolean isStreamCompression () {
+        return streamCompression;
+    }
+
+    /**
+     * @param compressionDictionary preset dictionary for stream compression;
+     * must be the same on both ends and set before the first message is
+     * compressed.
+     * @see StreamCompressor#buildDictionary(java.lang.Iterable, int)
+     */
+    public void setCompressionDictionary (byte[] compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
+    public byte[] getCompressionDictionary () {
+        return compressionDictionary;
+    }
+
+    /**
+     * @param compressionThreshold smallest message size in bytes to compress.
+     */
+    public void setCompressionThreshold (int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException ("Invalid compression threshold: " + compressionThreshold);
+        }
+
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionThreshold () {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param types message types which are never compressed (e.g. types
+     * carrying already compressed data).
+     */
+    public void setUncompressedTypes (int... types) {
+        Set<Integer> typeSet = new HashSet<> ();
+        for (int type : types) {
+            typeSet.add (type);
+        }
+
+        uncompressedTypes = typeSet;
+    }
+
+    /**
+     * @return number of messages sent compressed.
+     */
+    public long getCompressedMessageCount () {
+        return compressedFrames.get ();
+    }
+
+    /**
+     * @return bytes not sent thanks to compression.
+     */
+    public long getCompressionBytesSaved () {
+        return compressionBytesSaved.get ();
+    }
+
+    /**
+     * @param tcpNoDelay whether or not to disable Nagle's algorithm on the
+     * underlying socket.
+     */
+    public void setTcpNoDelay (boolean tcpNoDelay) {
+        if (socket == null) {
+            return;
+        }
+
+        try {
+            socket.setTcpNoDelay (tcpNoDelay);
+        } catch (SocketException ex) {
+            ex.printStackTrace ();
+        }
+    }
+
+    public boolean isTcpNoDelay () {
+        try {
+            return socket != null && socket.getTcpNoDelay ();
+        } catch (SocketException ex) {
+            return false;
+        }
+    }
+
     public void setDebugOutput (boolean debugOutput) {
         this.debugOutput = debugOutput;
     }
@@ -1037,16 +1968,18 @@ public class Communicator implements Runnable
             userClosed = true;
             running = false;
 
-            if (!socket.isOutputShutdown ()) {
+            if (getWriteStallTime () >= STALLED_WRITE_TIME) {
+                //write is stuck on a peer which stopped reading; closing the socket
+                //fails it instead of queueing the close message behind it
+                closeSocket ();
+            } else if (!socket.isOutputShutdown ()) {
                 final BeamMessage closeMsg
                         = new SystemMessage (SystemMessageType.CLOSE_CONNECTION);
                 send0 (closeMsg, false); //same as queue without exception output
             }
 
             //send null (a.k.a alert) to any waiting listeners
-            for (ImmediateHandler immediateHandler : immediateHandlers) {
-                immediateHandler.messageReceived (this, null);
-            }
+            alertWaitingHandlers ();
 
             try {
                 out.close ();
@@ -1054,13 +1987,27 @@ public class Communicator implements Runnable
                 //ignore
             }
 
+            if (in != null) {
+                try {
+                    in.close ();
+                } catch (IOException ex) {
+                    //ignore
+                }
+            }
+
+            postConnection ();
+        }
+    }
+
+    private void closeSocket () {
+        if (nioConnection != null) {
+            nioConnection.close ();
+        } else {
             try {
-                in.close ();
+                socket.close ();
             } catch (IOException ex) {
                 //ignore
             }
-
-            postConnection ();
         }
     }
 
@@ -1116,6 +2063,10 @@ public class Communicator implements Runnable
         return socket instanceof SSLSocket;
     }
 
+    public boolean isNonBlocking () {
+        return nioConnection != null;
+    }
+
     public synchronized boolean isClaimed () {
         return claimed;
     }
@@ -1168,10 +2119,11 @@ public class Communicator implements Runnable
         return testingConnection;
     }
 
-    void captureHandshake (String clientVersion, long clientTimeDiff, boolean clientTunneled) {
+    void captureHandshake (String clientVersion, long clientTimeDiff, boolean clientTunneled, int clientFeatures) {
         this.clientVersion = clientVersion;
         this.clientTimeDiff = clientTimeDiff;
         this.clientTunneled = clientTunneled;
+        this.peerFeatures = clientFeatures;
 
         performingHandshake = false;
         handshakeComplete = true;
@@ -1197,57 +2149,34 @@ public class Communicator implements Runnable
         return hostAddress;
     }
 
-    private class ImmediateHandler extends SystemHandler
+    private class ImmediateHandler extends SystemHandler implements Future<BeamMessage>
     {
 
+        private final BeamMessage request;
         private final long responseMessageId;
-        private boolean isWaiting;
-        private int waitTime;
-        private boolean waitForever;
-        private BeamMessage message;
-
-        public ImmediateHandler (long responseMessageId) {
-            super (false, SystemMessageType.RAW_DATA_CONNECTION);
-
-            this.responseMessageId = responseMessageId;
-            isWaiting = true;
-            waitTime = WAIT_FOREVER;
-            waitForever = true;
-        }
+        private final int waitTime;
+        private final CountDownLatch latch = new CountDownLatch (1);
+        private volatile BeamMessage message;
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> expiry;
 
-        public ImmediateHandler (long responseMessageId, boolean systemHandler, int waitTime, int... responseTypes) {
+        public ImmediateHandler (BeamMessage request, boolean systemHandler, int waitTime, int... responseTypes) {
             super (systemHandler, responseTypes);
 
-            isWaiting = true;
-            this.responseMessageId = responseMessageId;
+            this.request = request;
+            this.responseMessageId = (request == null) ? -1 : request.getMessageId ();
             this.waitTime = waitTime;
-            if (waitTime == WAIT_FOREVER) {
-                waitForever = true;
-            }
         }
 
         public BeamMessage waitForMessage () {
-            while (isWaiting && running) {
-                try {
-                    Thread.sleep (250);
-                    if (!waitForever) {
-                        waitTime -= 250;
-                        if (waitTime < 1) {
-                            break;
-                        }
-                    }
-
-                    //check unhandled messages just in case its in there
-                    for (BeamMessage msg : getUnhandledMessages ()) {
-                        if ((responseMessageId == -1 && acceptsType (msg.getType ()))
-                                || (responseMessageId != -1 && acceptsMessageId (msg.getMessageId ()))) {
-                            Communicator.this.unhandledMessages.remove (msg);
-                            return msg;
-                        }
-                    }
-                } catch (InterruptedException ex) {
-                    ex.printStackTrace ();
+            try {
+                if (waitTime == WAIT_FOREVER) {
+                    latch.await ();
+                } else {
+                    latch.await (Math.max (waitTime, 0), TimeUnit.MILLISECONDS);
                 }
+            } catch (InterruptedException ex) {
+                Thread.currentThread ().interrupt ();
             }
 
             return message;
@@ -1255,17 +2184,14 @@ public class Communicator implements Runnable
 
         @Override
         public BeamMessage messageReceived (SystemCommunicator comm, BeamMessage msg) {
-            if (msg == null) {
+            if (latch.getCount () == 0) {
+                //already finished; nothing to do
+            } else if (msg == null) {
                 //alert message. need to finish
-                isWaiting = false;
-            } else if (responseMessageId == -1) {
-                //accept any message of matching message type
-                message = msg;
-                isWaiting = false;
-            } else if (acceptsMessageId (msg.getMessageId ())) {
-                //accept any message of matching response id
-                message = msg;
-                isWaiting = false;
+                finish (null);
+            } else if (responseMessageId == -1 || responseMessageId == msg.getMessageId ()) {
+                //accept any message of matching message type or matching response id
+                finish (msg);
             } else {
                 //we may be looking for this type of message type but response id isn't for us;
                 //add unhandled and continue
@@ -1275,12 +2201,81 @@ public class Communicator implements Runnable
             return null; //no response
         }
 
-        private boolean acceptsMessageId (long messageId) {
-            if (responseMessageId == -1) {
-                return true;
+        private void finish (BeamMessage msg) {
+            synchronized (latch) {
+                if (latch.getCount () == 0) {
+                    return;
+                }
+
+                message = msg;
+                latch.countDown ();
+            }
+
+            ScheduledFuture<?> expiry = this.expiry;
+            if (expiry != null) {
+                expiry.cancel (false);
+            }
+
+            //async sends have no waiting thread to unregister them
+            unregisterImmediateHandler (this);
+        }
+
+        @Override
+        public boolean cancel (boolean mayInterruptIfRunning) {
+            synchronized (latch) {
+                if (latch.getCount () == 0) {
+                    return false;
+                }
+
+                cancelled = true;
+            }
+
+            finish (null);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled () {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone () {
+            return latch.getCount () == 0;
+        }
+
+        @Override
+        public BeamMessage get () throws InterruptedException, ExecutionException {
+            latch.await ();
+            return getResponse ();
+        }
+
+        @Override
+        public BeamMessage get (long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await (timeout, unit)) {
+                throw new TimeoutException ();
+            }
+
+            return getResponse ();
+        }
+
+        private BeamMessage getResponse () throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException ();
+            }
+
+            BeamMessage rtnMsg = message;
+            if (rtnMsg != null && request instanceof EncryptedBeamMessage) {
+                //use encryption method in request to decrypt response
+                try {
+                    rtnMsg = ((EncryptedBeamMessage) request).decryptBeamMessage (rtnMsg);
+                } catch (RuntimeException ex) {
+                    throw new ExecutionException (ex);
+                }
             }
 
-            return responseMessageId == messageId;
+            return rtnMsg;
         }
 
     }
@@ -1305,6 +2300,15 @@ public class Communicator implements Runnable
         return ByteBuffer.wrap (bytes).getLong ();
     }
 
+    private static int intFromBytes (byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long longFromBytes (byte[] bytes, int offset) {
+        return ((long) intFromBytes (bytes, offset) << 32) | (intFromBytes (bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
     @Override
     public boolean equals (Object obj) {
         if (obj == null) {
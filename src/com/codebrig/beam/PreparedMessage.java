@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam;
+
+import com.codebrig.beam.compression.FrameCompressor;
+import com.codebrig.beam.messages.BeamMessage;
+
+/**
+ * A message serialized once into an immutable frame so it can be written to
+ * any number of Communicators without being serialized again.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public final class PreparedMessage
+{
+
+    private final int type;
+    private final boolean systemMessage;
+    private final byte[] header;
+    private final byte[] data;
+    private final byte[] defaultCodecHeader;
+    private final byte[] defaultCodecData;
+    private FrameCompressor compressedWith;
+    private byte[] compressedData;
+
+    public PreparedMessage (BeamMessage message) {
+        if (message == null) {
+            throw new NullPointerException ();
+        }
+
+        this.type = message.getType ();
+        this.systemMessage = message.isSystemMessage ();
+        this.data = message.getData ();
+        this.header = Communicator.getHeader (message, data.length);
+
+        if (message.getCodec () != null && !message.isRawData ()) {
+            //also serialized for peers which can only read the default codec
+            this.defaultCodecData = message.getDefaultCodecData ();
+            this.defaultCodecHeader = Communicator.getHeader (message, defaultCodecData.length, false);
+        } else {
+            this.defaultCodecData = null;
+            this.defaultCodecHeader = null;
+        }
+    }
+
+    public int getType () {
+        return type;
+    }
+
+    public boolean isSystemMessage () {
+        return systemMessage;
+    }
+
+    /**
+     * @return size of the frame on the wire, header included.
+     */
+    public int getFrameSize () {
+        return header.length + data.length;
+    }
+
+    byte[] getHeader () {
+        return header;
+    }
+
+    byte[] getData () {
+        return data;
+    }
+
+    /**
+     * @return whether or not the message was serialized with a codec other
+     * than the default
+     */
+    boolean hasCodec () {
+        return defaultCodecData != null;
+    }
+
+    byte[] getDefaultCodecHeader () {
+        return defaultCodecHeader;
+    }
+
+    byte[] getDefaultCodecData () {
+        return defaultCodecData;
+    }
+
+    /**
+     * @return data compressed by the given compressor; null if compressing
+     * doesn't make it smaller.
+     */
+    synchronized byte[] getCompressedData (FrameCompressor compressor) {
+        if (compressedWith != compressor) {
+            compressedData = compressor.compress (data);
+            compressedWith = compressor;
+        }
+
+        return compressedData;
+    }
+
+}
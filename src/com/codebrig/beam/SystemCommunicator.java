@@ -63,8 +63,16 @@ public class SystemCommunicator
         return communicator.isPerformingHandshake ();
     }
 
-    public void captureHandshake (String version, long localTime, boolean tunnelConnection) {
-        communicator.captureHandshake (version, localTime, tunnelConnection);
+    public void receiveFrame (int type, long id, byte flags, int codecId, byte[] data) {
+        communicator.receiveFrame (type, id, flags, codecId, data);
+    }
+
+    public void connectionClosed () {
+        communicator.connectionClosed ();
+    }
+
+    public void captureHandshake (String version, long localTime, boolean tunnelConnection, int features) {
+        communicator.captureHandshake (version, localTime, tunnelConnection, features);
     }
 
 }
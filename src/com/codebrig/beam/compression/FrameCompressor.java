@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.compression;
+
+import com.codebrig.beam.messages.BeamMessage;
+import java.io.IOException;
+import java.util.Arrays;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Decompressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Compresses frame data with LZ4. A compressed frame holds the original
+ * length (4 bytes) followed by a single LZ4 block.
+ * <p>
+ * Instances are stateless and thread-safe.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class FrameCompressor
+{
+
+    private static final FrameCompressor defaultCompressor = new FrameCompressor ();
+
+    private final LZ4Compressor compressor;
+    private final LZ4Decompressor decompressor;
+
+    public FrameCompressor () {
+        this (false);
+    }
+
+    /**
+     * @param highCompression whether or not to trade compression speed for
+     * a better ratio. Decompression speed is the same.
+     */
+    public FrameCompressor (boolean highCompression) {
+        LZ4Factory factory = LZ4Factory.fastestJavaInstance ();
+        compressor = highCompression ? factory.highCompressor () : factory.fastCompressor ();
+        decompressor = factory.decompressor ();
+    }
+
+    public static FrameCompressor getDefault () {
+        return defaultCompressor;
+    }
+
+    /**
+     * @param data frame data
+     * @return compressed frame data; null if compressing doesn't make the
+     * data smaller
+     */
+    public byte[] compress (byte[] data) {
+        int maxLength = compressor.maxCompressedLength (data.length);
+        byte[] compressed = new byte[4 + maxLength];
+        int compressedLength = compressor.compress (data, 0, data.length, compressed, 4, maxLength);
+        if (4 + compressedLength >= data.length) {
+            return null;
+        }
+
+        compressed[0] = (byte) (data.length >>> 24);
+        compressed[1] = (byte) (data.length >>> 16);
+        compressed[2] = (byte) (data.length >>> 8);
+        compressed[3] = (byte) data.length;
+        return Arrays.copyOf (compressed, 4 + compressedLength);
+    }
+
+    /**
+     * @param compressed compressed frame data
+     * @return original frame data
+     * @throws IOException if the data is corrupt
+     */
+    public byte[] decompress (byte[] compressed) throws IOException {
+        if (compressed.length < 4) {
+            throw new IOException ("Invalid compressed frame!");
+        }
+
+        int length = ((compressed[0] & 0xFF) << 24) | ((compressed[1] & 0xFF) << 16)
+                | ((compressed[2] & 0xFF) << 8) | (compressed[3] & 0xFF);
+        if (length < 0 || length > BeamMessage.MAX_MESSAGE_SIZE) {
+            throw new IOException ("Invalid compressed frame size: " + length);
+        }
+
+        byte[] data = new byte[length];
+        try {
+            if (decompressor.decompress (compressed, 4, data, 0, length) != compressed.length - 4) {
+                throw new IOException ("Invalid compressed frame!");
+            }
+        } catch (LZ4Exception ex) {
+            throw new IOException ("Invalid compressed frame!", ex);
+        }
+
+        return data;
+    }
+
+}
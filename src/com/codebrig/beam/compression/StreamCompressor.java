@@ -0,0 +1,260 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.compression;
+
+import com.codebrig.beam.messages.BeamMessage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the frames of a single connection as one deflate stream, so
+ * every frame can refer back to the last 32 KB of frames sent before it.
+ * Repeated keys and values across messages cost next to nothing once seen.
+ * Frames must be decompressed in the order they were compressed.
+ * <p>
+ * Each frame holds the original length (4 bytes) followed by the deflate
+ * output up to a sync flush, minus the trailing 0x00 0x00 0xFF 0xFF every
+ * sync flush ends with. Empty frames are only the length.
+ * <p>
+ * A preset dictionary (e.g. from buildDictionary ()) primes the stream so
+ * the first frames compress well too. Both ends must use the same one.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class StreamCompressor
+{
+
+    public static final int MAX_DICTIONARY_SIZE = 1024 * 32; //deflate window
+
+    private static final byte[] SYNC_TRAILER = new byte[] {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    private final byte[] dictionary;
+    private final int level;
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] buffer = new byte[1024 * 8];
+    private boolean ended = false;
+
+    public StreamCompressor () {
+        this (null);
+    }
+
+    /**
+     * @param dictionary preset dictionary; null for none
+     */
+    public StreamCompressor (byte[] dictionary) {
+        this (dictionary, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param dictionary preset dictionary; null for none
+     * @param level deflate compression level (1-9)
+     */
+    public StreamCompressor (byte[] dictionary, int level) {
+        if (dictionary != null && dictionary.length > MAX_DICTIONARY_SIZE) {
+            //only the end of a dictionary is within reach
+            dictionary = Arrays.copyOfRange (dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+        }
+
+        this.dictionary = dictionary;
+        this.level = level;
+    }
+
+    /**
+     * Builds a preset dictionary out of sample frames. Later samples end up
+     * closer to the data being compressed, so the most common frames should
+     * come last.
+     *
+     * @param samples sample frame data
+     * @param size dictionary size; at most MAX_DICTIONARY_SIZE
+     * @return dictionary
+     */
+    public static byte[] buildDictionary (Iterable<byte[]> samples, int size) {
+        size = Math.min (size, MAX_DICTIONARY_SIZE);
+
+        byte[] dictionary = new byte[size];
+        int length = 0;
+        for (byte[] sample : samples) {
+            if (sample.length >= size) {
+                System.arraycopy (sample, sample.length - size, dictionary, 0, size);
+                length = size;
+            } else {
+                //slide out the oldest bytes
+                int keep = Math.min (length, size - sample.length);
+                System.arraycopy (dictionary, length - keep, dictionary, 0, keep);
+                System.arraycopy (sample, 0, dictionary, keep, sample.length);
+                length = keep + sample.length;
+            }
+        }
+
+        return Arrays.copyOf (dictionary, length);
+    }
+
+    /**
+     * @param data frame data
+     * @return compressed frame data
+     * @throws IOException if the compressor has been ended
+     */
+    public synchronized byte[] compress (byte[] data) throws IOException {
+        if (ended) {
+            throw new IOException ("Stream compressor has been ended!");
+        }
+        if (deflater == null) {
+            deflater = new Deflater (level);
+            if (dictionary != null) {
+                deflater.setDictionary (dictionary);
+            }
+        }
+        if (data.length == 0) {
+            //nothing to flush; only the length is sent
+            return new byte[4];
+        }
+
+        deflater.setInput (data);
+        int length = 4;
+        while (true) {
+            if (buffer.length - length < 64) {
+                buffer = Arrays.copyOf (buffer, buffer.length * 2);
+            }
+
+            //flush is done once output stops filling the space given
+            int available = buffer.length - length;
+            int written = deflater.deflate (buffer, length, available, Deflater.SYNC_FLUSH);
+            length += written;
+            if (written < available) {
+                break;
+            }
+        }
+
+        buffer[0] = (byte) (data.length >>> 24);
+        buffer[1] = (byte) (data.length >>> 16);
+        buffer[2] = (byte) (data.length >>> 8);
+        buffer[3] = (byte) data.length;
+
+        //receiver puts the sync flush trailer back
+        return Arrays.copyOf (buffer, length - SYNC_TRAILER.length);
+    }
+
+    /**
+     * @param compressed compressed frame data
+     * @return original frame data
+     * @throws IOException if the data is corrupt or was compressed with a
+     * different dictionary
+     */
+    public synchronized byte[] decompress (byte[] compressed) throws IOException {
+        if (ended) {
+            throw new IOException ("Stream compressor has been ended!");
+        }
+        if (compressed.length < 4) {
+            throw new IOException ("Invalid compressed frame!");
+        }
+
+        int length = ((compressed[0] & 0xFF) << 24) | ((compressed[1] & 0xFF) << 16)
+                | ((compressed[2] & 0xFF) << 8) | (compressed[3] & 0xFF);
+        if (length < 0 || length > BeamMessage.MAX_MESSAGE_SIZE) {
+            throw new IOException ("Invalid compressed frame size: " + length);
+        } else if (length == 0) {
+            if (compressed.length != 4) {
+                throw new IOException ("Invalid compressed frame!");
+            }
+            return new byte[0];
+        }
+
+        if (inflater == null) {
+            inflater = new Inflater ();
+        }
+
+        //put back the sync flush trailer
+        byte[] input = Arrays.copyOfRange (compressed, 4, compressed.length + SYNC_TRAILER.length);
+        System.arraycopy (SYNC_TRAILER, 0, input, input.length - SYNC_TRAILER.length, SYNC_TRAILER.length);
+        inflater.setInput (input);
+
+        byte[] data = new byte[length];
+        int read = 0;
+        try {
+            while (true) {
+                int inflated;
+                if (read < length) {
+                    inflated = inflater.inflate (data, read, length - read);
+                    read += inflated;
+                } else {
+                    //rest of the frame must not yield data
+                    inflated = inflater.inflate (buffer, 0, buffer.length);
+                    if (inflated > 0) {
+                        throw new IOException ("Invalid compressed frame!");
+                    }
+                }
+
+                if (inflated == 0) {
+                    if (inflater.needsDictionary ()) {
+                        if (dictionary == null || (inflater.getAdler () & 0xFFFFFFFFL) != adler32 (dictionary)) {
+                            throw new IOException ("Compressed with a different dictionary!");
+                        }
+                        inflater.setDictionary (dictionary);
+                    } else if (inflater.needsInput () || inflater.finished ()) {
+                        break;
+                    }
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException ("Invalid compressed frame!", ex);
+        }
+
+        if (read < length || inflater.getRemaining () > 0) {
+            throw new IOException ("Invalid compressed frame!");
+        }
+        return data;
+    }
+
+    /**
+     * Releases the native resources held. The compressor can't be used
+     * afterwards.
+     */
+    public synchronized void end () {
+        ended = true;
+        if (deflater != null) {
+            deflater.end ();
+        }
+        if (inflater != null) {
+            inflater.end ();
+        }
+    }
+
+    private static long adler32 (byte[] data) {
+        Adler32 adler = new Adler32 ();
+        adler.update (data);
+        return adler.getValue ();
+    }
+
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.connection.nio;
+
+import com.codebrig.beam.SystemCommunicator;
+import com.codebrig.beam.messages.BeamMessage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single non-blocking socket serviced by a {@link NIOEventLoop}. Incoming
+ * bytes are decoded into Beam frames incrementally and handed to the attached
+ * Communicator; outgoing bytes are written straight through when the socket
+ * can take them and queued for the event loop otherwise. Writers wait once too
+ * much is queued and a peer which stops reading altogether is closed.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class NIOConnection
+{
+
+    public static final long DEFAULT_MAX_PENDING_WRITE_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_WRITE_STALL_TIMEOUT = 30000;
+
+    private final SocketChannel channel;
+    private final NIOEventLoop eventLoop;
+    private final OutputStream outputStream;
+    private final ByteBuffer headerBuffer;
+    private ByteBuffer dataBuffer;
+    private int frameType;
+    private long frameId;
+    private byte frameFlags;
+    private int frameCodecId;
+
+    private final Object writeLock = new Object ();
+    private final Queue<ByteBuffer> writeQueue;
+    private final AtomicLong pendingWriteBytes;
+    private final AtomicBoolean closed;
+    private volatile boolean closing;
+    private volatile boolean readSuspended;
+    private volatile long maxPendingWriteBytes = DEFAULT_MAX_PENDING_WRITE_BYTES;
+    private volatile long writeStallTimeout = DEFAULT_WRITE_STALL_TIMEOUT;
+    private int waitingWriters;
+    private volatile SelectionKey selectionKey;
+    private SystemCommunicator comm;
+
+    public NIOConnection (SocketChannel channel, NIOEventLoop eventLoop) throws IOException {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+
+        channel.configureBlocking (false);
+        outputStream = new ConnectionOutputStream ();
+        headerBuffer = ByteBuffer.allocate (BeamMessage.HEADER_SIZE);
+        writeQueue = new LinkedList<> ();
+        pendingWriteBytes = new AtomicLong ();
+        closed = new AtomicBoolean ();
+    }
+
+    public void attach (SystemCommunicator comm) {
+        this.comm = comm;
+    }
+
+    public void register () {
+        eventLoop.register (this);
+    }
+
+    public SocketChannel getChannel () {
+        return channel;
+    }
+
+    public NIOEventLoop getEventLoop () {
+        return eventLoop;
+    }
+
+    public OutputStream getOutputStream () {
+        return outputStream;
+    }
+
+    public long getPendingWriteBytes () {
+        return pendingWriteBytes.get ();
+    }
+
+    public boolean isClosed () {
+        return closed.get ();
+    }
+
+    public long getMaxPendingWriteBytes () {
+        return maxPendingWriteBytes;
+    }
+
+    /**
+     * Sets how many bytes may be queued before writers wait for the peer to
+     * read. The event loop's own writes never wait.
+     *
+     * @param maxPendingWriteBytes maximum bytes queued before writers wait.
+     */
+    public void setMaxPendingWriteBytes (long maxPendingWriteBytes) {
+        this.maxPendingWriteBytes = maxPendingWriteBytes;
+    }
+
+    public long getWriteStallTimeout () {
+        return writeStallTimeout;
+    }
+
+    /**
+     * Sets how long a waiting writer lets the peer go without reading
+     * anything before the connection is closed.
+     *
+     * @param writeStallTimeout time in ms.
+     */
+    public void setWriteStallTimeout (long writeStallTimeout) {
+        this.writeStallTimeout = writeStallTimeout;
+    }
+
+    /**
+     * Stops reading frames until resumeReads () is called. Used to run a
+     * blocking handler off the event loop while still keeping the peer's
+     * messages in order and pushing back on it.
+     */
+    public void suspendReads () {
+        readSuspended = true;
+
+        SelectionKey key = selectionKey;
+        if (key != null && key.isValid ()) {
+            key.interestOps (key.interestOps () & ~SelectionKey.OP_READ);
+        }
+    }
+
+    public void resumeReads () {
+        readSuspended = false;
+        eventLoop.requestRead (this);
+    }
+
+    boolean isReadSuspended () {
+        return readSuspended;
+    }
+
+    SelectionKey getSelectionKey () {
+        return selectionKey;
+    }
+
+    void setSelectionKey (SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    boolean isClosing () {
+        return closing;
+    }
+
+    boolean hasPendingWrites () {
+        synchronized (writeLock) {
+            return !writeQueue.isEmpty ();
+        }
+    }
+
+    void read () throws IOException {
+        while (!closed.get ()) {
+            if (dataBuffer == null) {
+                if (channel.read (headerBuffer) == -1) {
+                    close ();
+                    return;
+                } else if (headerBuffer.hasRemaining ()) {
+                    //wait for rest of header
+                    return;
+                }
+
+                headerBuffer.flip ();
+                frameType = headerBuffer.getInt (); //message type
+                final int size = headerBuffer.getInt (); //message size
+                frameId = headerBuffer.getLong (); //message id
+                frameFlags = headerBuffer.get (); //data type
+                frameCodecId = headerBuffer.get () & 0xFF; //message codec
+                headerBuffer.clear ();
+
+                if (size > BeamMessage.MAX_MESSAGE_SIZE || size < 0) {
+                    //message too big or invalid; other end isn't playing nice. drop connection
+                    comm.getCommunicator ().close ();
+                    close ();
+                    return;
+                }
+
+                dataBuffer = ByteBuffer.allocate (size);
+            }
+
+            if (dataBuffer.hasRemaining ()) {
+                if (channel.read (dataBuffer) == -1) {
+                    close ();
+                    return;
+                } else if (dataBuffer.hasRemaining ()) {
+                    //wait for rest of message
+                    return;
+                }
+            }
+
+            byte[] data = dataBuffer.array ();
+            dataBuffer = null;
+
+            comm.receiveFrame (frameType, frameId, frameFlags, frameCodecId, data);
+
+            if (readSuspended) {
+                //blocking handler is running; leave the rest in the socket
+                return;
+            }
+        }
+    }
+
+    void flush () throws IOException {
+        synchronized (writeLock) {
+            while (!writeQueue.isEmpty ()) {
+                //gather everything queued into a single write
+                ByteBuffer[] buffers = writeQueue.toArray (new ByteBuffer[writeQueue.size ()]);
+                pendingWriteBytes.addAndGet (-channel.write (buffers));
+
+                ByteBuffer buffer;
+                while ((buffer = writeQueue.peek ()) != null && !buffer.hasRemaining ()) {
+                    writeQueue.poll ();
+                }
+
+                if (waitingWriters > 0) {
+                    writeLock.notifyAll ();
+                }
+
+                if (buffer != null) {
+                    //socket is full; wait to be writable again
+                    return;
+                }
+            }
+
+            if (selectionKey != null && selectionKey.isValid ()) {
+                selectionKey.interestOps (selectionKey.interestOps () & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        if (closing) {
+            close ();
+        }
+    }
+
+    /**
+     * Writes a frame's header and data with a single gathering write. The
+     * arrays must not be modified afterwards as any part the socket can't take
+     * right away is queued without being copied.
+     *
+     * @param header frame header.
+     * @param data frame data.
+     * @throws IOException if the connection is closed.
+     */
+    public void writeFrame (byte[] header, byte[] data) throws IOException {
+        write (new ByteBuffer[] {ByteBuffer.wrap (header), ByteBuffer.wrap (data)}, false);
+    }
+
+    /**
+     * Writes a frame whose data ends with a region of a file. When nothing is
+     * queued ahead of the frame the file region is transferred straight from
+     * the file to the socket; whatever the socket can't take right away is
+     * queued memory-mapped. File data is never copied onto the heap.
+     *
+     * @param header frame header.
+     * @param prefix frame data which precedes the file region.
+     * @param fileChannel file to send data from.
+     * @param position position of the file region.
+     * @param length length of the file region.
+     * @throws IOException if the connection is closed or the file can't be
+     * read.
+     */
+    public void writeFileRegion (byte[] header, byte[] prefix, FileChannel fileChannel,
+            long position, int length) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.wrap (header), ByteBuffer.wrap (prefix)};
+
+        awaitWriteCapacity ();
+
+        synchronized (writeLock) {
+            if (closed.get () || closing) {
+                throw new IOException ("Connection closed");
+            }
+
+            long transferred = 0;
+            if (writeQueue.isEmpty ()) {
+                channel.write (buffers);
+
+                if (!buffers[1].hasRemaining ()) {
+                    transferred = fileChannel.transferTo (position, length, channel);
+                }
+            }
+
+            boolean queued = false;
+            for (ByteBuffer buffer : buffers) {
+                if (buffer.hasRemaining ()) {
+                    writeQueue.add (buffer);
+                    pendingWriteBytes.addAndGet (buffer.remaining ());
+                    queued = true;
+                }
+            }
+
+            if (transferred < length) {
+                ByteBuffer region = fileChannel.map (FileChannel.MapMode.READ_ONLY,
+                        position + transferred, length - transferred);
+                writeQueue.add (region);
+                pendingWriteBytes.addAndGet (region.remaining ());
+                queued = true;
+            }
+
+            if (!queued) {
+                return;
+            }
+        }
+
+        eventLoop.requestWrite (this);
+    }
+
+    /**
+     * Queues a frame's header and data without writing. Queued frames are
+     * written together, in as few gathering writes as possible, once
+     * requestFlush () is called.
+     *
+     * @param header frame header.
+     * @param data frame data.
+     * @throws IOException if the connection is closed.
+     */
+    public void queueFrame (byte[] header, byte[] data) throws IOException {
+        awaitWriteCapacity ();
+
+        synchronized (writeLock) {
+            if (closed.get () || closing) {
+                throw new IOException ("Connection closed");
+            }
+
+            writeQueue.add (ByteBuffer.wrap (header));
+            writeQueue.add (ByteBuffer.wrap (data));
+            pendingWriteBytes.addAndGet (header.length + data.length);
+        }
+    }
+
+    /**
+     * Has the event loop write everything queued so far.
+     */
+    public void requestFlush () {
+        if (hasPendingWrites ()) {
+            eventLoop.requestWrite (this);
+        }
+    }
+
+    private void write (ByteBuffer[] buffers, boolean copyRemaining) throws IOException {
+        awaitWriteCapacity ();
+
+        synchronized (writeLock) {
+            if (closed.get () || closing) {
+                throw new IOException ("Connection closed");
+            }
+
+            if (writeQueue.isEmpty ()) {
+                //nothing ahead of us; try to write straight through
+                channel.write (buffers);
+            }
+
+            boolean queued = false;
+            for (ByteBuffer buffer : buffers) {
+                if (!buffer.hasRemaining ()) {
+                    continue;
+                }
+
+                ByteBuffer remaining = buffer;
+                if (copyRemaining) {
+                    remaining = ByteBuffer.allocate (buffer.remaining ());
+                    remaining.put (buffer);
+                    remaining.flip ();
+                }
+
+                writeQueue.add (remaining);
+                pendingWriteBytes.addAndGet (remaining.remaining ());
+                queued = true;
+            }
+
+            if (!queued) {
+                return;
+            }
+        }
+
+        eventLoop.requestWrite (this);
+    }
+
+    /**
+     * Waits while more than the maximum pending write bytes are queued. The
+     * connection is closed once the peer reads nothing for longer than the
+     * write stall timeout.
+     *
+     * @throws IOException if the connection is or gets closed.
+     */
+    private void awaitWriteCapacity () throws IOException {
+        if (pendingWriteBytes.get () <= maxPendingWriteBytes || eventLoop.isLoopThread ()) {
+            return;
+        }
+
+        boolean stalled = false;
+        synchronized (writeLock) {
+            //make sure whatever was queued without a flush gets written
+            eventLoop.requestWrite (this);
+
+            long pending = pendingWriteBytes.get ();
+            long deadline = System.currentTimeMillis () + writeStallTimeout;
+            waitingWriters++;
+            try {
+                while (!closed.get () && !closing && pendingWriteBytes.get () > maxPendingWriteBytes) {
+                    if (pendingWriteBytes.get () < pending) {
+                        //peer is reading; give it longer
+                        pending = pendingWriteBytes.get ();
+                        deadline = System.currentTimeMillis () + writeStallTimeout;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis ();
+                    if (remaining <= 0) {
+                        stalled = true;
+                        break;
+                    }
+
+                    writeLock.wait (remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread ().interrupt ();
+                throw new InterruptedIOException ("Interrupted waiting to write");
+            } finally {
+                waitingWriters--;
+            }
+        }
+
+        if (stalled) {
+            //peer stopped reading; drop it instead of queueing without end
+            close ();
+            throw new IOException ("Connection stalled; peer stopped reading");
+        }
+    }
+
+    private void closeAfterFlush () {
+        closing = true;
+
+        if (hasPendingWrites ()) {
+            //let event loop finish writing then close
+            eventLoop.requestWrite (this);
+        } else {
+            close ();
+        }
+    }
+
+    public void close () {
+        if (!closed.compareAndSet (false, true)) {
+            return;
+        }
+
+        if (selectionKey != null) {
+            selectionKey.cancel ();
+        }
+
+        try {
+            channel.close ();
+        } catch (IOException ex) {
+            //ignore
+        }
+
+        synchronized (writeLock) {
+            writeQueue.clear ();
+            pendingWriteBytes.set (0);
+            writeLock.notifyAll ();
+        }
+
+        if (comm != null) {
+            comm.connectionClosed ();
+        }
+    }
+
+    private class ConnectionOutputStream extends OutputStream
+    {
+
+        @Override
+        public void write (int b) throws IOException {
+            NIOConnection.this.write (new ByteBuffer[] {ByteBuffer.wrap (new byte[] {(byte) b})}, true);
+        }
+
+        @Override
+        public void write (byte[] b, int off, int len) throws IOException {
+            NIOConnection.this.write (new ByteBuffer[] {ByteBuffer.wrap (b, off, len)}, true);
+        }
+
+        @Override
+        public void close () {
+            closeAfterFlush ();
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.connection.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread which services the reads and writes of many non-blocking
+ * connections at once.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class NIOEventLoop implements Runnable
+{
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<NIOConnection> pendingRegistrations;
+    private final Queue<NIOConnection> pendingWrites;
+    private final Queue<NIOConnection> pendingReads;
+    private volatile boolean running;
+    private Thread loopThread;
+
+    public NIOEventLoop (String name) throws IOException {
+        this.name = name;
+
+        selector = Selector.open ();
+        pendingRegistrations = new ConcurrentLinkedQueue<> ();
+        pendingWrites = new ConcurrentLinkedQueue<> ();
+        pendingReads = new ConcurrentLinkedQueue<> ();
+    }
+
+    public synchronized void start () {
+        if (loopThread != null) {
+            return;
+        }
+
+        running = true;
+        loopThread = new Thread (this, name);
+        loopThread.setDaemon (true);
+        loopThread.start ();
+    }
+
+    @Override
+    public void run () {
+        while (running) {
+            try {
+                selector.select ();
+            } catch (IOException ex) {
+                ex.printStackTrace ();
+                break;
+            }
+
+            registerPending ();
+            interestPending ();
+
+            Iterator<SelectionKey> itr = selector.selectedKeys ().iterator ();
+            while (itr.hasNext ()) {
+                SelectionKey key = itr.next ();
+                itr.remove ();
+
+                NIOConnection connection = (NIOConnection) key.attachment ();
+                try {
+                    if (key.isValid () && key.isReadable ()) {
+                        connection.read ();
+                    }
+                    if (key.isValid () && key.isWritable ()) {
+                        connection.flush ();
+                    }
+                } catch (CancelledKeyException ex) {
+                    connection.close ();
+                } catch (IOException ex) {
+                    //peer went away; nothing more to read or write
+                    connection.close ();
+                } catch (Exception ex) {
+                    //catch any exception so one connection can't take down the loop
+                    ex.printStackTrace ();
+                    connection.close ();
+                }
+            }
+        }
+
+        //loop is done; close anything still attached
+        for (SelectionKey key : new ArrayList<> (selector.keys ())) {
+            ((NIOConnection) key.attachment ()).close ();
+        }
+
+        try {
+            selector.close ();
+        } catch (IOException ex) {
+            //ignore
+        }
+    }
+
+    public void close () {
+        running = false;
+        selector.wakeup ();
+    }
+
+    public boolean isRunning () {
+        return running;
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public int getConnectionCount () {
+        return selector.keys ().size ();
+    }
+
+    /**
+     * @return whether the current thread is this loop's selector thread.
+     */
+    public boolean isLoopThread () {
+        return Thread.currentThread () == loopThread;
+    }
+
+    void register (NIOConnection connection) {
+        pendingRegistrations.add (connection);
+        selector.wakeup ();
+    }
+
+    void requestWrite (NIOConnection connection) {
+        pendingWrites.add (connection);
+        selector.wakeup ();
+    }
+
+    void requestRead (NIOConnection connection) {
+        pendingReads.add (connection);
+        selector.wakeup ();
+    }
+
+    private void registerPending () {
+        NIOConnection connection;
+        while ((connection = pendingRegistrations.poll ()) != null) {
+            try {
+                connection.setSelectionKey (connection.getChannel ()
+                        .register (selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException ex) {
+                connection.close ();
+            }
+        }
+    }
+
+    private void interestPending () {
+        NIOConnection connection;
+        while ((connection = pendingReads.poll ()) != null) {
+            SelectionKey key = connection.getSelectionKey ();
+            if (key != null && key.isValid () && !connection.isReadSuspended ()) {
+                key.interestOps (key.interestOps () | SelectionKey.OP_READ);
+            }
+        }
+
+        while ((connection = pendingWrites.poll ()) != null) {
+            SelectionKey key = connection.getSelectionKey ();
+            if (key != null && key.isValid ()) {
+                if (connection.hasPendingWrites ()) {
+                    key.interestOps (key.interestOps () | SelectionKey.OP_WRITE);
+                } else if (connection.isClosing ()) {
+                    connection.close ();
+                }
+            }
+        }
+    }
+
+}
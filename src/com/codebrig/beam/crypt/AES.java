@@ -31,44 +31,46 @@ package com.codebrig.beam.crypt;
 
 import com.codebrig.beam.utils.Checksum;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
 
 /**
+ * AES in the default (ECB) mode, as used by AESBeamMessage and RSA
+ * connections. Safe to use from multiple threads. Prefer AESGCM for new
+ * code; it also authenticates what it encrypts.
+ *
  * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
  */
 public class AES
 {
 
     private SecretKey key;
-    private Cipher cipher;
+    private final CipherPool cipherPool = new CipherPool ("AES");
 
     public AES (String password) {
         if (password != null && !password.isEmpty ()) {
             key = new SecretKeySpec (Checksum.SHA1 (password)
                     .substring (0, 16).getBytes (), "AES");
-
-            try {
-                cipher = Cipher.getInstance ("AES");
-            } catch (NoSuchAlgorithmException ex) {
-                ex.printStackTrace ();
-            } catch (NoSuchPaddingException ex) {
-                ex.printStackTrace ();
-            }
         }
     }
 
+    /**
+     * @return key derived from the password; null if no password
+     */
+    public SecretKey getKey () {
+        return key;
+    }
+
     public String encrypt (String toEncrypt) {
         if (key == null) {
             return toEncrypt;
         }
 
+        Cipher cipher = cipherPool.acquire ();
         try {
             byte[] plaintext = toEncrypt.getBytes ();
             cipher.init (Cipher.ENCRYPT_MODE, key);
@@ -81,6 +83,8 @@ public class AES
             ex.printStackTrace ();
         } catch (BadPaddingException ex) {
             ex.printStackTrace ();
+        } finally {
+            cipherPool.release (cipher);
         }
 
         return "";
@@ -91,6 +95,7 @@ public class AES
             return toDecrypt;
         }
 
+        Cipher cipher = cipherPool.acquire ();
         try {
             byte[] ciphertext = DatatypeConverter.parseBase64Binary (toDecrypt);
             cipher.init (Cipher.DECRYPT_MODE, key);
@@ -103,6 +108,8 @@ public class AES
             ex.printStackTrace ();
         } catch (BadPaddingException ex) {
             ex.printStackTrace ();
+        } finally {
+            cipherPool.release (cipher);
         }
 
         return "";
@@ -113,6 +120,7 @@ public class AES
             return toEncrypt;
         }
 
+        Cipher cipher = cipherPool.acquire ();
         try {
             cipher.init (Cipher.ENCRYPT_MODE, key);
             byte[] encryptedData = cipher.doFinal (toEncrypt);
@@ -124,6 +132,8 @@ public class AES
             ex.printStackTrace ();
         } catch (BadPaddingException ex) {
             ex.printStackTrace ();
+        } finally {
+            cipherPool.release (cipher);
         }
 
         return null;
@@ -134,6 +144,7 @@ public class AES
             return toDecrypt;
         }
 
+        Cipher cipher = cipherPool.acquire ();
         try {
             cipher.init (Cipher.DECRYPT_MODE, key);
             byte[] decryptedData = cipher.doFinal (toDecrypt);
@@ -145,13 +156,20 @@ public class AES
             ex.printStackTrace ();
         } catch (BadPaddingException ex) {
             ex.printStackTrace ();
+        } finally {
+            cipherPool.release (cipher);
         }
 
         return null;
     }
 
+    /**
+     * @param mode Cipher mode
+     * @return Cipher initialized with this key; owned by the caller
+     */
     public Cipher getCipher (int mode) {
         try {
+            Cipher cipher = cipherPool.acquire ();
             cipher.init (mode, key);
 
             return cipher;
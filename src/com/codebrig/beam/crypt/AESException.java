@@ -39,4 +39,8 @@ public class AESException extends CryptException
         super (message);
     }
 
+    public AESException (String message, Throwable cause) {
+        super (message, cause);
+    }
+
 }
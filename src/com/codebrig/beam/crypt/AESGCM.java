@@ -0,0 +1,271 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated AES (AES-GCM). Each encryption uses a new nonce, which is
+ * sent in front of the ciphertext; the authentication tag follows it.
+ * Decryption fails with an AESException if the data was modified. Safe to
+ * use from multiple threads; ciphers are pooled.
+ * <p>
+ * Nonces are a random base XOR a message counter, so two instances sharing
+ * a key (i.e. both ends of a connection) won't reuse a nonce.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class AESGCM
+{
+
+    public static final int NONCE_SIZE = 12;
+    public static final int TAG_SIZE = 16;
+    public static final int OVERHEAD = NONCE_SIZE + TAG_SIZE;
+
+    private static final SecureRandom random = new SecureRandom ();
+    private final SecretKey key;
+    private final CipherPool cipherPool = new CipherPool ("AES/GCM/NoPadding");
+    private final byte[] nonceBase = new byte[NONCE_SIZE];
+    private final AtomicLong nonceCounter = new AtomicLong ();
+
+    /**
+     * @param key 16, 24 or 32 byte AES key
+     */
+    public AESGCM (byte[] key) {
+        this (new SecretKeySpec (key, "AES"));
+    }
+
+    /**
+     * @param key AES key; i.e. AES.getKey ()
+     */
+    public AESGCM (SecretKey key) {
+        if (key == null) {
+            throw new IllegalArgumentException ("Key cannot be null!");
+        }
+        int keySize = key.getEncoded ().length;
+        if (keySize != 16 && keySize != 24 && keySize != 32) {
+            throw new IllegalArgumentException ("Invalid AES key size: " + keySize);
+        }
+
+        this.key = key;
+        random.nextBytes (nonceBase);
+    }
+
+    public SecretKey getKey () {
+        return key;
+    }
+
+    /**
+     * @param plaintext data to encrypt
+     * @return nonce, ciphertext and tag
+     */
+    public byte[] encrypt (byte[] plaintext) {
+        return encrypt (plaintext, null);
+    }
+
+    /**
+     * @param plaintext data to encrypt
+     * @param associatedData data authenticated but not encrypted (i.e. a
+     * header); null if none
+     * @return nonce, ciphertext and tag
+     */
+    public byte[] encrypt (byte[] plaintext, byte[] associatedData) {
+        byte[] sealed = new byte[plaintext.length + OVERHEAD];
+        byte[] nonce = nextNonce ();
+        System.arraycopy (nonce, 0, sealed, 0, NONCE_SIZE);
+        seal (nonce, associatedData, plaintext, 0, plaintext.length, sealed, NONCE_SIZE);
+        return sealed;
+    }
+
+    /**
+     * @param sealed nonce, ciphertext and tag
+     * @return decrypted data
+     * @throws AESException if the data isn't authentic
+     */
+    public byte[] decrypt (byte[] sealed) {
+        return decrypt (sealed, null);
+    }
+
+    /**
+     * @param sealed nonce, ciphertext and tag
+     * @param associatedData data authenticated with the ciphertext; null if
+     * none
+     * @return decrypted data
+     * @throws AESException if the data isn't authentic
+     */
+    public byte[] decrypt (byte[] sealed, byte[] associatedData) {
+        if (sealed.length < OVERHEAD) {
+            throw new AESException ("Encrypted data too short: " + sealed.length);
+        }
+
+        byte[] plaintext = new byte[sealed.length - OVERHEAD];
+        open (Arrays.copyOf (sealed, NONCE_SIZE), associatedData,
+                sealed, NONCE_SIZE, sealed.length - NONCE_SIZE, plaintext, 0);
+        return plaintext;
+    }
+
+    /**
+     * Encrypts in place. The plaintext is between position + NONCE_SIZE and
+     * limit; the nonce is written at position and the tag after the
+     * ciphertext, so the buffer needs room for TAG_SIZE bytes past limit. On
+     * return, position to limit is the nonce, ciphertext and tag.
+     *
+     * @param buffer buffer with the plaintext
+     * @return size of the encrypted data
+     */
+    public int encrypt (ByteBuffer buffer) {
+        int start = buffer.position ();
+        int plaintextSize = buffer.remaining () - NONCE_SIZE;
+        if (plaintextSize < 0 || buffer.capacity () - buffer.limit () < TAG_SIZE) {
+            throw new IllegalArgumentException ("Buffer has no room for nonce and tag!");
+        }
+
+        byte[] nonce = nextNonce ();
+        ByteBuffer input = buffer.duplicate ();
+        input.position (start + NONCE_SIZE);
+        ByteBuffer output = buffer.duplicate ();
+        output.limit (buffer.capacity ()).position (start + NONCE_SIZE);
+
+        Cipher cipher = cipherPool.acquire ();
+        try {
+            cipher.init (Cipher.ENCRYPT_MODE, key, new GCMParameterSpec (TAG_SIZE * 8, nonce));
+            cipher.doFinal (input, output);
+        } catch (GeneralSecurityException ex) {
+            throw new AESException ("Unable to encrypt", ex);
+        } finally {
+            cipherPool.release (cipher);
+        }
+
+        buffer.duplicate ().put (nonce);
+        buffer.limit (output.position ());
+        return buffer.remaining ();
+    }
+
+    /**
+     * Decrypts in place. Position to limit is the nonce, ciphertext and tag;
+     * on return position to limit is the plaintext (position moves past the
+     * nonce).
+     *
+     * @param buffer buffer with the encrypted data
+     * @return size of the plaintext
+     * @throws AESException if the data isn't authentic
+     */
+    public int decrypt (ByteBuffer buffer) {
+        int start = buffer.position ();
+        if (buffer.remaining () < OVERHEAD) {
+            throw new AESException ("Encrypted data too short: " + buffer.remaining ());
+        }
+
+        byte[] nonce = new byte[NONCE_SIZE];
+        buffer.get (nonce);
+        ByteBuffer output = buffer.duplicate ();
+
+        Cipher cipher = cipherPool.acquire ();
+        try {
+            cipher.init (Cipher.DECRYPT_MODE, key, new GCMParameterSpec (TAG_SIZE * 8, nonce));
+            cipher.doFinal (buffer.duplicate (), output);
+        } catch (AEADBadTagException ex) {
+            throw new AESException ("Encrypted data failed authentication!", ex);
+        } catch (GeneralSecurityException ex) {
+            throw new AESException ("Unable to decrypt", ex);
+        } finally {
+            cipherPool.release (cipher);
+        }
+
+        buffer.position (start + NONCE_SIZE);
+        buffer.limit (output.position ());
+        return buffer.remaining ();
+    }
+
+    /**
+     * @return a nonce never returned before by this instance
+     */
+    byte[] nextNonce () {
+        long counter = nonceCounter.getAndIncrement ();
+        byte[] nonce = Arrays.copyOf (nonceBase, NONCE_SIZE);
+        for (int i = 0; i < 8; i++) {
+            nonce[NONCE_SIZE - 1 - i] ^= (byte) (counter >>> (i * 8));
+        }
+        return nonce;
+    }
+
+    /**
+     * @return a random nonce; for streams, which derive their own nonces from it
+     */
+    static byte[] randomNonce () {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes (nonce);
+        return nonce;
+    }
+
+    int seal (byte[] nonce, byte[] associatedData, byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset) {
+        Cipher cipher = cipherPool.acquire ();
+        try {
+            cipher.init (Cipher.ENCRYPT_MODE, key, new GCMParameterSpec (TAG_SIZE * 8, nonce));
+            if (associatedData != null) {
+                cipher.updateAAD (associatedData);
+            }
+            return cipher.doFinal (input, inputOffset, inputLength, output, outputOffset);
+        } catch (GeneralSecurityException ex) {
+            throw new AESException ("Unable to encrypt", ex);
+        } finally {
+            cipherPool.release (cipher);
+        }
+    }
+
+    int open (byte[] nonce, byte[] associatedData, byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset) {
+        Cipher cipher = cipherPool.acquire ();
+        try {
+            cipher.init (Cipher.DECRYPT_MODE, key, new GCMParameterSpec (TAG_SIZE * 8, nonce));
+            if (associatedData != null) {
+                cipher.updateAAD (associatedData);
+            }
+            return cipher.doFinal (input, inputOffset, inputLength, output, outputOffset);
+        } catch (AEADBadTagException ex) {
+            throw new AESException ("Encrypted data failed authentication!", ex);
+        } catch (GeneralSecurityException ex) {
+            throw new AESException ("Unable to decrypt", ex);
+        } finally {
+            cipherPool.release (cipher);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decrypts a stream written by AESGCMOutputStream. Data is only returned
+ * once its segment is authenticated; a stream which ends before its last
+ * segment throws an EOFException.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class AESGCMInputStream extends FilterInputStream
+{
+
+    private final AESGCM aes;
+    private final DataInputStream dataIn;
+    private byte[] streamNonce;
+    private byte[] sealedSegment = new byte[0];
+    private byte[] segment = new byte[0];
+    private int segmentLength;
+    private int segmentPosition;
+    private int segmentNumber;
+    private boolean lastSegment;
+
+    public AESGCMInputStream (AESGCM aes, InputStream in) {
+        super (in);
+        this.aes = aes;
+        this.dataIn = new DataInputStream (in);
+    }
+
+    @Override
+    public int read () throws IOException {
+        if (!fillSegment ()) {
+            return -1;
+        }
+        return segment[segmentPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read (byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillSegment ()) {
+            return -1;
+        }
+
+        int readLength = Math.min (len, segmentLength - segmentPosition);
+        System.arraycopy (segment, segmentPosition, b, off, readLength);
+        segmentPosition += readLength;
+        return readLength;
+    }
+
+    @Override
+    public int available () throws IOException {
+        return segmentLength - segmentPosition;
+    }
+
+    @Override
+    public long skip (long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fillSegment ()) {
+            int skipLength = (int) Math.min (n - skipped, segmentLength - segmentPosition);
+            segmentPosition += skipLength;
+            skipped += skipLength;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported () {
+        return false;
+    }
+
+    /**
+     * @return false if the stream ended
+     */
+    private boolean fillSegment () throws IOException {
+        while (segmentPosition == segmentLength) {
+            if (lastSegment) {
+                return false;
+            }
+
+            if (streamNonce == null) {
+                streamNonce = new byte[AESGCM.NONCE_SIZE];
+                dataIn.readFully (streamNonce);
+            }
+
+            int header = dataIn.readInt ();
+            lastSegment = (header & AESGCMOutputStream.LAST_SEGMENT_FLAG) != 0;
+            int sealedLength = header & ~AESGCMOutputStream.LAST_SEGMENT_FLAG;
+            if (sealedLength < AESGCM.TAG_SIZE
+                    || sealedLength > AESGCMOutputStream.MAX_SEGMENT_SIZE + AESGCM.TAG_SIZE) {
+                throw new IOException ("Invalid segment length: " + sealedLength);
+            }
+            if (sealedSegment.length < sealedLength) {
+                sealedSegment = new byte[sealedLength];
+                segment = new byte[sealedLength - AESGCM.TAG_SIZE];
+            }
+            dataIn.readFully (sealedSegment, 0, sealedLength);
+
+            try {
+                segmentLength = aes.open (AESGCMOutputStream.segmentNonce (streamNonce, segmentNumber++),
+                        lastSegment ? AESGCMOutputStream.LAST_SEGMENT : AESGCMOutputStream.MIDDLE_SEGMENT,
+                        sealedSegment, 0, sealedLength, segment, 0);
+            } catch (AESException ex) {
+                throw new IOException ("Segment " + (segmentNumber - 1) + " failed authentication", ex);
+            }
+            segmentPosition = 0;
+        }
+
+        return true;
+    }
+
+}
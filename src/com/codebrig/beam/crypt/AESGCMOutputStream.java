@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encrypts a stream with AES-GCM in independently authenticated segments,
+ * so the other end can verify and use data before the stream ends (i.e.
+ * RawDataChannel or file payloads). Read with AESGCMInputStream.
+ * <p>
+ * The stream starts with a random nonce; each segment is a 4 byte length
+ * (high bit set on the last segment) then the ciphertext and tag. Segment
+ * nonces are derived from the stream nonce and the segment number, and the
+ * last segment is marked in its associated data, so reordered, dropped or
+ * truncated segments fail authentication.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class AESGCMOutputStream extends FilterOutputStream
+{
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 64; //64KB
+    public static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 16; //16MB
+    static final int LAST_SEGMENT_FLAG = 0x80000000;
+    static final byte[] MIDDLE_SEGMENT = new byte[] {0};
+    static final byte[] LAST_SEGMENT = new byte[] {1};
+
+    private final AESGCM aes;
+    private final byte[] streamNonce;
+    private final byte[] segment;
+    private final byte[] sealedSegment;
+    private int segmentLength;
+    private int segmentNumber;
+    private boolean closed;
+
+    public AESGCMOutputStream (AESGCM aes, OutputStream out) {
+        this (aes, out, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public AESGCMOutputStream (AESGCM aes, OutputStream out, int segmentSize) {
+        super (out);
+
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException ("Invalid segment size: " + segmentSize);
+        }
+
+        this.aes = aes;
+        this.streamNonce = AESGCM.randomNonce ();
+        this.segment = new byte[segmentSize];
+        this.sealedSegment = new byte[4 + segmentSize + AESGCM.TAG_SIZE];
+    }
+
+    @Override
+    public void write (int b) throws IOException {
+        if (segmentLength == segment.length) {
+            writeSegment (false);
+        }
+        segment[segmentLength++] = (byte) b;
+    }
+
+    @Override
+    public void write (byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (segmentLength == segment.length) {
+                writeSegment (false);
+            }
+
+            int copyLength = Math.min (len, segment.length - segmentLength);
+            System.arraycopy (b, off, segment, segmentLength, copyLength);
+            segmentLength += copyLength;
+            off += copyLength;
+            len -= copyLength;
+        }
+    }
+
+    /**
+     * Sends the data written so far as a segment.
+     */
+    @Override
+    public void flush () throws IOException {
+        if (segmentLength > 0) {
+            writeSegment (false);
+        }
+        out.flush ();
+    }
+
+    /**
+     * Writes the last segment and closes the underlying stream.
+     */
+    @Override
+    public void close () throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            writeSegment (true);
+            out.flush ();
+        } finally {
+            out.close ();
+        }
+    }
+
+    private void writeSegment (boolean lastSegment) throws IOException {
+        if (closed && !lastSegment) {
+            throw new IOException ("Stream closed");
+        }
+        if (segmentNumber == 0) {
+            out.write (streamNonce);
+        }
+
+        int sealedLength = aes.seal (segmentNonce (streamNonce, segmentNumber++),
+                lastSegment ? LAST_SEGMENT : MIDDLE_SEGMENT, segment, 0, segmentLength, sealedSegment, 4);
+        int header = lastSegment ? sealedLength | LAST_SEGMENT_FLAG : sealedLength;
+        sealedSegment[0] = (byte) (header >>> 24);
+        sealedSegment[1] = (byte) (header >>> 16);
+        sealedSegment[2] = (byte) (header >>> 8);
+        sealedSegment[3] = (byte) header;
+        out.write (sealedSegment, 0, 4 + sealedLength);
+        segmentLength = 0;
+    }
+
+    static byte[] segmentNonce (byte[] streamNonce, int segmentNumber) {
+        byte[] nonce = streamNonce.clone ();
+        nonce[AESGCM.NONCE_SIZE - 4] ^= (byte) (segmentNumber >>> 24);
+        nonce[AESGCM.NONCE_SIZE - 3] ^= (byte) (segmentNumber >>> 16);
+        nonce[AESGCM.NONCE_SIZE - 2] ^= (byte) (segmentNumber >>> 8);
+        nonce[AESGCM.NONCE_SIZE - 1] ^= (byte) segmentNumber;
+        return nonce;
+    }
+
+}
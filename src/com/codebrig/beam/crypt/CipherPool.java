@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.crypto.Cipher;
+
+/**
+ * Reusable Cipher instances of one transformation. A Cipher can only be
+ * used by one thread at a time; pooling them lets concurrent callers share
+ * a key without serializing on a single Cipher or creating one per call.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class CipherPool
+{
+
+    private final String transformation;
+    private final ConcurrentLinkedQueue<Cipher> ciphers = new ConcurrentLinkedQueue<> ();
+
+    CipherPool (String transformation) {
+        this.transformation = transformation;
+    }
+
+    Cipher acquire () {
+        Cipher cipher = ciphers.poll ();
+        if (cipher == null) {
+            try {
+                cipher = Cipher.getInstance (transformation);
+            } catch (GeneralSecurityException ex) {
+                throw new CryptException ("Unable to create cipher: " + transformation, ex);
+            }
+        }
+
+        return cipher;
+    }
+
+    void release (Cipher cipher) {
+        ciphers.offer (cipher);
+    }
+
+}
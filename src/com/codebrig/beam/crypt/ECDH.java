@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import com.codebrig.beam.utils.Base64;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import javax.crypto.KeyAgreement;
+
+/**
+ * Ephemeral elliptic curve Diffie-Hellman (P-256) key agreement. Each
+ * instance is one new key pair; used once per handshake.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class ECDH
+{
+
+    private static final String CURVE = "secp256r1";
+    private final KeyPair keyPair;
+
+    public ECDH () {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance ("EC");
+            generator.initialize (new ECGenParameterSpec (CURVE));
+            keyPair = generator.generateKeyPair ();
+        } catch (GeneralSecurityException ex) {
+            throw new CryptException ("Unable to generate key pair", ex);
+        }
+    }
+
+    /**
+     * @return public key to send to the other end (X.509 encoded)
+     */
+    public byte[] getPublicKey () {
+        return keyPair.getPublic ().getEncoded ();
+    }
+
+    /**
+     * @param peerPublicKey public key of the other end (X.509 encoded)
+     * @return connection key both ends derive from the shared secret
+     * @throws CryptException if the public key is invalid
+     */
+    public String agree (byte[] peerPublicKey) throws CryptException {
+        try {
+            PublicKey peerKey = KeyFactory.getInstance ("EC").generatePublic (new X509EncodedKeySpec (peerPublicKey));
+            KeyAgreement agreement = KeyAgreement.getInstance ("ECDH");
+            agreement.init (keyPair.getPrivate ());
+            agreement.doPhase (peerKey, true);
+
+            byte[] sharedSecret = agreement.generateSecret ();
+            return Base64.encode (MessageDigest.getInstance ("SHA-256").digest (sharedSecret));
+        } catch (GeneralSecurityException | IllegalStateException ex) {
+            throw new CryptException ("Invalid key agreement public key", ex);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import com.codebrig.beam.messages.LegacyMessage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Data of an RSA message: the encrypted message plus what's needed to
+ * decrypt it. Written either in the binary format (marker byte, flags,
+ * session length and bytes, then the ciphertext as is) or, for peers which
+ * don't support it, as a LegacyMessage with the ciphertext in Base64.
+ * Either format can be read.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class EncryptedEnvelope
+{
+
+    public static final byte ENVELOPE_MARKER = (byte) 0xBF;
+    private static final int RAW_DATA_FLAG = 0x01;
+    private static final int SESSION_FLAG = 0x02;
+
+    private final String session;
+    private final boolean rawData;
+    private final byte[] encryptedData;
+
+    /**
+     * @param session RSA connection session; null if encrypted with the
+     * public key
+     * @param rawData whether or not the encrypted message is raw data
+     * @param encryptedData encrypted message data
+     */
+    public EncryptedEnvelope (String session, boolean rawData, byte[] encryptedData) {
+        this.session = session;
+        this.rawData = rawData;
+        this.encryptedData = encryptedData;
+    }
+
+    public static boolean isBinaryEnvelope (byte[] data) {
+        return data != null && data.length > 0 && data[0] == ENVELOPE_MARKER;
+    }
+
+    /**
+     * @param data envelope in either format
+     * @return envelope read from data
+     * @throws CryptException if data isn't an envelope
+     */
+    public static EncryptedEnvelope fromData (byte[] data) throws CryptException {
+        if (isBinaryEnvelope (data)) {
+            if (data.length < 2) {
+                throw new CryptException ("Invalid encrypted envelope!");
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap (data, 1, data.length - 1);
+            int flags = buffer.get ();
+            String session = null;
+            if ((flags & SESSION_FLAG) != 0) {
+                if (!buffer.hasRemaining ()) {
+                    throw new CryptException ("Invalid encrypted envelope!");
+                }
+                int sessionLength = buffer.get () & 0xFF;
+                if (buffer.remaining () < sessionLength) {
+                    throw new CryptException ("Invalid encrypted envelope!");
+                }
+                session = new String (data, buffer.position (), sessionLength, StandardCharsets.UTF_8);
+                buffer.position (buffer.position () + sessionLength);
+            }
+
+            byte[] encryptedData = new byte[buffer.remaining ()];
+            buffer.get (encryptedData);
+            return new EncryptedEnvelope (session, (flags & RAW_DATA_FLAG) != 0, encryptedData);
+        }
+
+        LegacyMessage message;
+        try {
+            message = new LegacyMessage (0, data, true, true);
+        } catch (RuntimeException ex) {
+            throw new CryptException ("Invalid encrypted envelope!", ex);
+        }
+
+        String rawData = message.getString ("beam_rsa_raw");
+        if (rawData == null || message.getString ("beam_rsamd") == null) {
+            throw new CryptException ("Invalid encrypted envelope!");
+        }
+        return new EncryptedEnvelope (message.getString ("beam_rsas"), Boolean.valueOf (rawData),
+                message.getBytes ("beam_rsamd"));
+    }
+
+    /**
+     * @param binary whether to use the binary format; otherwise LegacyMessage
+     * @return envelope data
+     */
+    public byte[] toData (boolean binary) {
+        if (!binary) {
+            LegacyMessage message = new LegacyMessage ();
+            message.setString ("beam_rsa_raw", Boolean.toString (rawData));
+            if (session != null) {
+                message.setString ("beam_rsas", session);
+            }
+            message.setBytes ("beam_rsamd", encryptedData);
+            return message.getData ();
+        }
+
+        byte[] sessionBytes = (session != null) ? session.getBytes (StandardCharsets.UTF_8) : new byte[0];
+        if (sessionBytes.length > 255) {
+            throw new CryptException ("Session too long for encrypted envelope: " + sessionBytes.length);
+        }
+
+        int flags = (rawData ? RAW_DATA_FLAG : 0) | (session != null ? SESSION_FLAG : 0);
+        ByteBuffer buffer = ByteBuffer.allocate (2 + (session != null ? 1 + sessionBytes.length : 0)
+                + encryptedData.length);
+        buffer.put (ENVELOPE_MARKER);
+        buffer.put ((byte) flags);
+        if (session != null) {
+            buffer.put ((byte) sessionBytes.length);
+            buffer.put (sessionBytes);
+        }
+        buffer.put (encryptedData);
+        return buffer.array ();
+    }
+
+    public String getSession () {
+        return session;
+    }
+
+    public boolean isRawData () {
+        return rawData;
+    }
+
+    public byte[] getEncryptedData () {
+        return encryptedData;
+    }
+
+}
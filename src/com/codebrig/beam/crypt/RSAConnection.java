@@ -38,6 +38,7 @@ public class RSAConnection
     private RSA publicRSA;
     private AES aes;
     private String session;
+    private boolean binaryEnvelope;
 
     public RSAConnection (RSA publicRSA) {
         if (publicRSA == null) {
@@ -91,4 +92,16 @@ public class RSAConnection
         this.session = session;
     }
 
+    /**
+     * @param binaryEnvelope whether or not messages are sent in the binary
+     * EncryptedEnvelope format; requires the other end to support it
+     */
+    public void setBinaryEnvelope (boolean binaryEnvelope) {
+        this.binaryEnvelope = binaryEnvelope;
+    }
+
+    public boolean isBinaryEnvelope () {
+        return binaryEnvelope;
+    }
+
 }
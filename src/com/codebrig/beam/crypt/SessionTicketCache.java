@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Session tickets a client was given, by the public key of the server which
+ * issued them. Least recently used tickets are dropped once full.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class SessionTicketCache
+{
+
+    public static final int DEFAULT_MAX_TICKETS = 1024;
+    private static final SessionTicketCache defaultCache = new SessionTicketCache (DEFAULT_MAX_TICKETS);
+
+    private final LinkedHashMap<BigInteger, SessionTicket> tickets;
+
+    public SessionTicketCache (int maxTickets) {
+        if (maxTickets <= 0) {
+            throw new IllegalArgumentException ("Invalid max tickets: " + maxTickets);
+        }
+
+        tickets = new TicketMap (maxTickets);
+    }
+
+    /**
+     * @return cache shared by clients which don't set their own
+     */
+    public static SessionTicketCache getDefault () {
+        return defaultCache;
+    }
+
+    /**
+     * @param serverKey public key of the server
+     * @return unexpired ticket for the server; null if none
+     */
+    public synchronized SessionTicket get (RSA serverKey) {
+        SessionTicket ticket = tickets.get (serverKey.getPublicModulus ());
+        if (ticket != null && ticket.getExpiration () < System.currentTimeMillis ()) {
+            tickets.remove (serverKey.getPublicModulus ());
+            return null;
+        }
+        return ticket;
+    }
+
+    public synchronized void put (RSA serverKey, SessionTicket ticket) {
+        tickets.put (serverKey.getPublicModulus (), ticket);
+    }
+
+    public synchronized void remove (RSA serverKey) {
+        tickets.remove (serverKey.getPublicModulus ());
+    }
+
+    public synchronized void clear () {
+        tickets.clear ();
+    }
+
+    public static class SessionTicket
+    {
+
+        private final byte[] ticket;
+        private final String masterKey;
+        private final long expiration;
+
+        /**
+         * @param ticket ticket issued by the server
+         * @param masterKey key the ticket's connection was established with
+         * @param expiration local time the ticket expires
+         */
+        public SessionTicket (byte[] ticket, String masterKey, long expiration) {
+            this.ticket = ticket;
+            this.masterKey = masterKey;
+            this.expiration = expiration;
+        }
+
+        public byte[] getTicket () {
+            return ticket;
+        }
+
+        public String getMasterKey () {
+            return masterKey;
+        }
+
+        public long getExpiration () {
+            return expiration;
+        }
+
+    }
+
+    /**
+     * Tickets in access order, dropping the least recently used once full.
+     */
+    private static class TicketMap extends LinkedHashMap<BigInteger, SessionTicket>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxTickets;
+
+        TicketMap (int maxTickets) {
+            super (16, 0.75f, true);
+            this.maxTickets = maxTickets;
+        }
+
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<BigInteger, SessionTicket> eldest) {
+            return size () > maxTickets;
+        }
+
+    }
+
+}
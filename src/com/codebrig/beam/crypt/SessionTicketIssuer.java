@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.crypt;
+
+import com.codebrig.beam.utils.Base64;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Issues and redeems session tickets for RSA connections. A ticket is the
+ * connection's master key and expiration encrypted with the ticket key, so
+ * the server keeps no state; a client resuming with a valid ticket skips
+ * the RSA/ECDH step of the handshake. Servers behind a load balancer should
+ * share the ticket key so clients can resume on any of them.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class SessionTicketIssuer
+{
+
+    public static final long DEFAULT_TICKET_LIFETIME = 1000 * 60 * 60; //1 hour
+
+    private final AESGCM ticketAES;
+    private final long ticketLifetime;
+
+    /**
+     * Issues tickets with a random ticket key.
+     */
+    public SessionTicketIssuer () {
+        this (randomKey (), DEFAULT_TICKET_LIFETIME);
+    }
+
+    /**
+     * @param ticketKey 16, 24 or 32 byte AES key
+     * @param ticketLifetime ms tickets are valid for
+     */
+    public SessionTicketIssuer (byte[] ticketKey, long ticketLifetime) {
+        if (ticketLifetime <= 0) {
+            throw new IllegalArgumentException ("Invalid ticket lifetime: " + ticketLifetime);
+        }
+
+        this.ticketAES = new AESGCM (ticketKey);
+        this.ticketLifetime = ticketLifetime;
+    }
+
+    public long getTicketLifetime () {
+        return ticketLifetime;
+    }
+
+    /**
+     * @param masterKey key the connection was established with
+     * @return ticket to give to the client
+     */
+    public byte[] issue (String masterKey) {
+        byte[] keyBytes = masterKey.getBytes (StandardCharsets.UTF_8);
+        ByteBuffer plaintext = ByteBuffer.allocate (8 + keyBytes.length);
+        plaintext.putLong (System.currentTimeMillis () + ticketLifetime);
+        plaintext.put (keyBytes);
+        return ticketAES.encrypt (plaintext.array ());
+    }
+
+    /**
+     * @param ticket ticket from the client
+     * @return master key of the ticket; null if invalid or expired
+     */
+    public String redeem (byte[] ticket) {
+        byte[] plaintext;
+        try {
+            plaintext = ticketAES.decrypt (ticket);
+        } catch (AESException ex) {
+            //not issued with this key
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap (plaintext);
+        if (buffer.remaining () < 8 || buffer.getLong () < System.currentTimeMillis ()) {
+            return null;
+        }
+        return new String (plaintext, 8, plaintext.length - 8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Derives the key of a resumed connection, so each connection resumed
+     * from the same ticket is encrypted with a different key.
+     *
+     * @param masterKey master key of the ticket
+     * @param session session of the resumed connection
+     * @return connection key
+     */
+    public static String getResumedConnectionKey (String masterKey, String session) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance ("SHA-256");
+            digest.update (masterKey.getBytes (StandardCharsets.UTF_8));
+            digest.update ((byte) 0);
+            digest.update (session.getBytes (StandardCharsets.UTF_8));
+            return Base64.encode (digest.digest ());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new CryptException (ex);
+        }
+    }
+
+    private static byte[] randomKey () {
+        byte[] key = new byte[16];
+        new SecureRandom ().nextBytes (key);
+        return key;
+    }
+
+}
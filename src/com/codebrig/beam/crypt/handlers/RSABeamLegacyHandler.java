@@ -31,6 +31,7 @@ package com.codebrig.beam.crypt.handlers;
 
 import com.codebrig.beam.Communicator;
 import com.codebrig.beam.crypt.CryptException;
+import com.codebrig.beam.crypt.EncryptedEnvelope;
 import com.codebrig.beam.crypt.RSAConnection;
 import com.codebrig.beam.crypt.RSAConnectionHolder;
 import com.codebrig.beam.crypt.messages.RSABeamMessage;
@@ -51,29 +52,25 @@ public abstract class RSABeamLegacyHandler extends LegacyHandler
 
     @Override
     public BeamMessage processIncomingMessage (Communicator comm, BeamMessage message) {
-        LegacyMessage basicMessage = new LegacyMessage (message);
-        String session = basicMessage.getString ("beam_rsas");
-        byte[] messageData = basicMessage.getBytes ("beam_rsamd");
-        String rawData = basicMessage.getString ("beam_rsa_raw");
-        if (session == null || messageData == null || rawData == null) {
+        EncryptedEnvelope envelope = EncryptedEnvelope.fromData (message.getData ());
+        if (envelope.getSession () == null) {
             throw new CryptException ("Invalid RSA connection!");
         }
 
-        RSAConnection conn = RSAConnectionHolder.getRSAConnection (comm.getUID (), session);
+        RSAConnection conn = RSAConnectionHolder.getRSAConnection (comm.getUID (), envelope.getSession ());
         if (conn == null) {
             throw new CryptException ("Invalid RSA connection!");
         }
 
-        byte[] decryptedData = conn.getAES ().decrypt (messageData);
+        byte[] decryptedData = conn.getAES ().decrypt (envelope.getEncryptedData ());
         return new SystemMessage (message.getType (), decryptedData, message.isSystemMessage (),
-                Boolean.valueOf (rawData)).toBeamMessage (decryptedData);
+                envelope.isRawData ()).toBeamMessage (decryptedData);
     }
 
     @Override
     public BeamMessage processOutgoingMessage (Communicator comm,
             BeamMessage originalMessage, BeamMessage responseMessage) {
-        LegacyMessage basicMessage = new LegacyMessage (originalMessage);
-        String session = basicMessage.getString ("beam_rsas");
+        String session = EncryptedEnvelope.fromData (originalMessage.getData ()).getSession ();
         if (session == null) {
             throw new CryptException ("Invalid RSA connection!");
         }
@@ -31,13 +31,16 @@ package com.codebrig.beam.crypt.handlers;
 
 import com.codebrig.beam.SystemCommunicator;
 import com.codebrig.beam.crypt.AES;
+import com.codebrig.beam.crypt.ECDH;
 import com.codebrig.beam.crypt.RSA;
 import com.codebrig.beam.crypt.RSAConnection;
 import com.codebrig.beam.crypt.RSAConnectionHolder;
+import com.codebrig.beam.crypt.SessionTicketIssuer;
 import com.codebrig.beam.crypt.messages.RSAHandshakeMessage;
 import com.codebrig.beam.handlers.SystemHandler;
 import com.codebrig.beam.messages.BeamMessage;
 import com.codebrig.beam.messages.SystemMessageType;
+import com.codebrig.beam.system.messages.HandshakeMessage;
 import com.codebrig.beam.utils.Generator;
 
 /**
@@ -47,6 +50,7 @@ public class RSAHandshakeHandler extends SystemHandler
 {
 
     private final RSA privateRSA;
+    private volatile SessionTicketIssuer sessionTicketIssuer = new SessionTicketIssuer ();
 
     public RSAHandshakeHandler (RSA privateRSA) {
         super (SystemMessageType.RSA_CONNECTION_HANDSHAKE);
@@ -54,13 +58,55 @@ public class RSAHandshakeHandler extends SystemHandler
         this.privateRSA = privateRSA;
     }
 
+    /**
+     * @param sessionTicketIssuer issuer of session tickets; null to disable
+     * session resumption
+     */
+    public void setSessionTicketIssuer (SessionTicketIssuer sessionTicketIssuer) {
+        this.sessionTicketIssuer = sessionTicketIssuer;
+    }
+
+    public SessionTicketIssuer getSessionTicketIssuer () {
+        return sessionTicketIssuer;
+    }
+
     @Override
     public BeamMessage messageReceived (SystemCommunicator comm, BeamMessage message) {
         RSAHandshakeMessage handshake = new RSAHandshakeMessage (message);
-        String connectionKey = privateRSA.decrypt (handshake.getConnectionKey ());
+        SessionTicketIssuer ticketIssuer = sessionTicketIssuer;
         String session = Generator.makeString (50);
+        String masterKey;
+        String connectionKey;
+
+        if (handshake.getSessionTicket () != null) {
+            //resumption; no asymmetric crypto
+            masterKey = (ticketIssuer != null) ? ticketIssuer.redeem (handshake.getSessionTicket ()) : null;
+            handshake.setSessionTicket (null);
+            if (masterKey == null) {
+                return handshake.setSuccessful (false);
+            }
+            connectionKey = SessionTicketIssuer.getResumedConnectionKey (masterKey, session);
+        } else {
+            if (handshake.getKeyAgreementKey () != null) {
+                ECDH ecdh = new ECDH ();
+                masterKey = ecdh.agree (handshake.getKeyAgreementKey ());
+                handshake.setKeyAgreementSignature (privateRSA.signData (RSAHandshakeMessage.getSignedKeys (
+                        handshake.getKeyAgreementKey (), ecdh.getPublicKey ())));
+                handshake.setKeyAgreementKey (ecdh.getPublicKey ());
+            } else {
+                masterKey = privateRSA.decrypt (handshake.getConnectionKey ());
+            }
+            connectionKey = masterKey;
+
+            if (ticketIssuer != null) {
+                handshake.setSessionTicket (ticketIssuer.issue (masterKey));
+                handshake.setSessionTicketLifetime (ticketIssuer.getTicketLifetime ());
+            }
+        }
 
         RSAConnection rsaConnection = new RSAConnection (new AES (connectionKey), session);
+        rsaConnection.setBinaryEnvelope (comm.getCommunicator ().isPeerFeatureSupported (
+                HandshakeMessage.FEATURE_ENCRYPTED_ENVELOPE));
         handshake.setSuccessful (true);
         handshake.setSession (session);
         handshake.setConnectionKey (null);
@@ -32,10 +32,10 @@ package com.codebrig.beam.crypt.messages;
 import com.codebrig.beam.crypt.AES;
 import com.codebrig.beam.crypt.CryptException;
 import com.codebrig.beam.crypt.EncryptedBeamMessage;
+import com.codebrig.beam.crypt.EncryptedEnvelope;
 import com.codebrig.beam.crypt.RSA;
 import com.codebrig.beam.crypt.RSAConnection;
 import com.codebrig.beam.messages.BeamMessage;
-import com.codebrig.beam.messages.LegacyMessage;
 import com.codebrig.beam.messages.SystemMessage;
 
 /**
@@ -68,45 +68,35 @@ public class RSABeamMessage extends BeamMessage implements EncryptedBeamMessage
 
     @Override
     public byte[] getData () {
-        LegacyMessage message = new LegacyMessage (getType ());
         AES aes = rsaConnection.getAES ();
         RSA publicRSA = rsaConnection.getPublicRSA ();
         byte[] messageData = super.getData ();
 
-        if (isRawData ()) {
-            message.setString ("beam_rsa_raw", "true");
-        } else {
-            message.setString ("beam_rsa_raw", "false");
-        }
-
+        EncryptedEnvelope envelope;
         if (aes == null || rsaConnection.getSession () == null) {
-            message.setBytes ("beam_rsamd", publicRSA.encrypt (messageData));
+            envelope = new EncryptedEnvelope (null, isRawData (), publicRSA.encrypt (messageData));
         } else {
-            message.setString ("beam_rsas", rsaConnection.getSession ());
-            message.setBytes ("beam_rsamd", aes.encrypt (messageData));
+            envelope = new EncryptedEnvelope (rsaConnection.getSession (), isRawData (), aes.encrypt (messageData));
         }
 
-        return message.getData ();
+        return envelope.toData (rsaConnection.isBinaryEnvelope ());
     }
 
     @Override
     public BeamMessage decryptBeamMessage (BeamMessage message) {
         try {
-            LegacyMessage basicMessage = new LegacyMessage (message);
+            EncryptedEnvelope envelope = EncryptedEnvelope.fromData (message.getData ());
             AES aes = rsaConnection.getAES ();
             RSA publicRSA = rsaConnection.getPublicRSA ();
-            byte[] messageData = basicMessage.getBytes ("beam_rsamd");
-            String rsaRaw = basicMessage.getString ("beam_rsa_raw");
 
+            byte[] decryptedData;
             if (aes == null || rsaConnection.getSession () == null) {
-                byte[] decryptedData = publicRSA.decrypt (messageData);
-                return new SystemMessage (message.getType (), decryptedData, message.isSystemMessage (),
-                        Boolean.valueOf (rsaRaw)).toBeamMessage (decryptedData);
+                decryptedData = publicRSA.decrypt (envelope.getEncryptedData ());
             } else {
-                byte[] decryptedData = aes.decrypt (messageData);
-                return new SystemMessage (message.getType (), decryptedData, message.isSystemMessage (),
-                        Boolean.valueOf (rsaRaw)).toBeamMessage (decryptedData);
+                decryptedData = aes.decrypt (envelope.getEncryptedData ());
             }
+            return new SystemMessage (message.getType (), decryptedData, message.isSystemMessage (),
+                    envelope.isRawData ()).toBeamMessage (decryptedData);
         } catch (Exception ex) {
             throw new CryptException (ex);
         }
@@ -41,6 +41,11 @@ public class RSAHandshakeMessage extends SystemMessage<RSAHandshakeMessage>
 
     private String connectionKey;
     private String session;
+    //added after; peers without them read null/0
+    private byte[] keyAgreementKey;
+    private byte[] keyAgreementSignature;
+    private byte[] sessionTicket;
+    private long sessionTicketLifetime;
 
     public RSAHandshakeMessage () {
         super (SystemMessageType.RSA_CONNECTION_HANDSHAKE);
@@ -68,4 +73,66 @@ public class RSAHandshakeMessage extends SystemMessage<RSAHandshakeMessage>
         return session;
     }
 
+    /**
+     * @param keyAgreementKey ECDH public key; sent instead of a connection key
+     * @return this message
+     */
+    public RSAHandshakeMessage setKeyAgreementKey (byte[] keyAgreementKey) {
+        this.keyAgreementKey = keyAgreementKey;
+        return this;
+    }
+
+    public byte[] getKeyAgreementKey () {
+        return keyAgreementKey;
+    }
+
+    /**
+     * @param keyAgreementSignature server's RSA signature of both ECDH public
+     * keys
+     * @return this message
+     */
+    public RSAHandshakeMessage setKeyAgreementSignature (byte[] keyAgreementSignature) {
+        this.keyAgreementSignature = keyAgreementSignature;
+        return this;
+    }
+
+    public byte[] getKeyAgreementSignature () {
+        return keyAgreementSignature;
+    }
+
+    /**
+     * @param sessionTicket ticket to resume with (client) or issued ticket
+     * (server)
+     * @return this message
+     */
+    public RSAHandshakeMessage setSessionTicket (byte[] sessionTicket) {
+        this.sessionTicket = sessionTicket;
+        return this;
+    }
+
+    public byte[] getSessionTicket () {
+        return sessionTicket;
+    }
+
+    public RSAHandshakeMessage setSessionTicketLifetime (long sessionTicketLifetime) {
+        this.sessionTicketLifetime = sessionTicketLifetime;
+        return this;
+    }
+
+    public long getSessionTicketLifetime () {
+        return sessionTicketLifetime;
+    }
+
+    /**
+     * @param clientKey client's ECDH public key
+     * @param serverKey server's ECDH public key
+     * @return data the key agreement signature is of
+     */
+    public static byte[] getSignedKeys (byte[] clientKey, byte[] serverKey) {
+        byte[] signedKeys = new byte[clientKey.length + serverKey.length];
+        System.arraycopy (clientKey, 0, signedKeys, 0, clientKey.length);
+        System.arraycopy (serverKey, 0, signedKeys, clientKey.length, serverKey.length);
+        return signedKeys;
+    }
+
 }
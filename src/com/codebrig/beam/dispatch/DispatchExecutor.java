@@ -0,0 +1,345 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.dispatch;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor used to run non-blocking handlers. By default tasks are
+ * handed straight to an idle thread and, once every thread is busy, run on a
+ * thread of their own; never on the submitting thread, which may be the one
+ * that has to read the response a handler is waiting on. Handlers which
+ * wait on I/O, locks or responses tie up a thread every other connection
+ * shares, so they're better marked blocking with
+ * BeamHandler.setBlockingHandler (true).
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class DispatchExecutor implements Executor
+{
+
+    /**
+     * What to do with a task once the work queue is full.
+     */
+    public enum RejectionPolicy
+    {
+
+        /**
+         * Run the task on the submitting (reading) thread. Stops reading from
+         * the connection until the task finishes which pushes back on the peer.
+         * Only safe when no handler waits on its connection; a handler which
+         * sends and waits for a response would never receive it, and on a
+         * non-blocking connection every connection of the event loop stalls.
+         */
+        CALLER_RUNS,
+        /**
+         * Run the task on a new dedicated thread.
+         */
+        SPAWN_THREAD,
+        /**
+         * Drop the task.
+         */
+        DISCARD,
+        /**
+         * Throw a RejectedExecutionException to the submitter.
+         */
+        ABORT
+    }
+
+    public static final int DEFAULT_PARALLELISM = Math.max (8, Runtime.getRuntime ().availableProcessors () * 2);
+    public static final int DEFAULT_QUEUE_CAPACITY = 0; //hand off directly
+    public static final RejectionPolicy DEFAULT_REJECTION_POLICY = RejectionPolicy.SPAWN_THREAD;
+
+    private static DispatchExecutor defaultExecutor;
+    private static final Object defaultLock = new Object ();
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final RejectionPolicy rejectionPolicy;
+    private final AtomicLong submittedCount = new AtomicLong ();
+    private final AtomicLong rejectedCount = new AtomicLong ();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger ();
+
+    public DispatchExecutor (String name) {
+        this (name, DEFAULT_PARALLELISM, DEFAULT_QUEUE_CAPACITY, DEFAULT_REJECTION_POLICY);
+    }
+
+    public DispatchExecutor (String name, int parallelism, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this (name, parallelism, queueCapacity, rejectionPolicy, new DispatchThreadFactory (name));
+    }
+
+    /**
+     * @param name name of this executor.
+     * @param parallelism maximum number of handlers run at once.
+     * @param queueCapacity maximum number of handlers waiting to be run; 0 to
+     * only hand handlers to idle threads.
+     * @param rejectionPolicy what to do once the queue is full.
+     * @param threadFactory creates the worker threads.
+     */
+    public DispatchExecutor (String name, int parallelism, int queueCapacity,
+            RejectionPolicy rejectionPolicy, ThreadFactory threadFactory) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException ("Invalid parallelism: " + parallelism);
+        } else if (queueCapacity < 0) {
+            throw new IllegalArgumentException ("Invalid queue capacity: " + queueCapacity);
+        } else if (rejectionPolicy == null) {
+            throw new IllegalArgumentException ("Missing rejection policy!");
+        }
+
+        this.name = name;
+        this.rejectionPolicy = rejectionPolicy;
+
+        BlockingQueue<Runnable> workQueue;
+        if (queueCapacity == 0) {
+            workQueue = new SynchronousQueue<> ();
+        } else {
+            workQueue = new ArrayBlockingQueue<> (queueCapacity);
+        }
+
+        executor = new ThreadPoolExecutor (parallelism, parallelism, 60, TimeUnit.SECONDS,
+                workQueue, threadFactory, new ThreadPoolExecutor.AbortPolicy ());
+        executor.allowCoreThreadTimeOut (true);
+    }
+
+    /**
+     * @return executor shared by every client Communicator without one of its
+     * own. Servers have their own unless given one.
+     */
+    public static DispatchExecutor getDefault () {
+        synchronized (defaultLock) {
+            if (defaultExecutor == null) {
+                defaultExecutor = new DispatchExecutor ("Beam Dispatch");
+            }
+
+            return defaultExecutor;
+        }
+    }
+
+    @Override
+    public void execute (Runnable task) {
+        dispatch (task);
+    }
+
+    /**
+     * @param task task to run.
+     * @return false if the task was discarded; true otherwise.
+     */
+    boolean dispatch (Runnable task) {
+        submittedCount.incrementAndGet ();
+
+        try {
+            executor.execute (new SafeRunnable (task));
+        } catch (RejectedExecutionException ex) {
+            rejectedCount.incrementAndGet ();
+
+            switch (rejectionPolicy) {
+                case CALLER_RUNS:
+                    new SafeRunnable (task).run ();
+                    break;
+                case SPAWN_THREAD:
+                    Thread thread = new Thread (new SafeRunnable (task), name + " - Overflow");
+                    thread.setDaemon (true);
+                    thread.start ();
+                    break;
+                case DISCARD:
+                    return false;
+                default:
+                    throw ex;
+            }
+        }
+
+        int queueDepth = executor.getQueue ().size ();
+        int peak;
+        while (queueDepth > (peak = peakQueueDepth.get ())) {
+            if (peakQueueDepth.compareAndSet (peak, queueDepth)) {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates an Executor which runs its tasks one at a time, in submission
+     * order, on this executor's threads. Used to keep a single connection's
+     * messages in order without dedicating a thread to it.
+     *
+     * @return serial executor backed by this executor.
+     */
+    public Executor newSerialExecutor () {
+        return new SerialExecutor ();
+    }
+
+    public void shutdown () {
+        executor.shutdown ();
+    }
+
+    public boolean isShutdown () {
+        return executor.isShutdown ();
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public int getParallelism () {
+        return executor.getMaximumPoolSize ();
+    }
+
+    public RejectionPolicy getRejectionPolicy () {
+        return rejectionPolicy;
+    }
+
+    public int getQueueDepth () {
+        return executor.getQueue ().size ();
+    }
+
+    public int getPeakQueueDepth () {
+        return peakQueueDepth.get ();
+    }
+
+    public int getQueueCapacity () {
+        return executor.getQueue ().size () + executor.getQueue ().remainingCapacity ();
+    }
+
+    public int getActiveCount () {
+        return executor.getActiveCount ();
+    }
+
+    public long getSubmittedCount () {
+        return submittedCount.get ();
+    }
+
+    public long getCompletedCount () {
+        return executor.getCompletedTaskCount ();
+    }
+
+    public long getRejectedCount () {
+        return rejectedCount.get ();
+    }
+
+    @Override
+    public String toString () {
+        return String.format ("%s [parallelism: %s; active: %s; queued: %s; peak queued: %s; submitted: %s; rejected: %s]",
+                name, getParallelism (), getActiveCount (), getQueueDepth (), getPeakQueueDepth (),
+                getSubmittedCount (), getRejectedCount ());
+    }
+
+    private class SerialExecutor implements Executor, Runnable
+    {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<> ();
+        private final AtomicBoolean scheduled = new AtomicBoolean ();
+
+        @Override
+        public void execute (Runnable task) {
+            tasks.add (task);
+            schedule ();
+        }
+
+        private void schedule () {
+            if (!tasks.isEmpty () && scheduled.compareAndSet (false, true)) {
+                if (!dispatch (this)) {
+                    //discarded; drop the task that would have run next
+                    tasks.poll ();
+                    scheduled.set (false);
+                }
+            }
+        }
+
+        @Override
+        public void run () {
+            try {
+                Runnable task;
+                while ((task = tasks.poll ()) != null) {
+                    new SafeRunnable (task).run ();
+                }
+            } finally {
+                scheduled.set (false);
+
+                //catch anything added after the last poll
+                schedule ();
+            }
+        }
+
+    }
+
+    private static class SafeRunnable implements Runnable
+    {
+
+        private final Runnable task;
+
+        public SafeRunnable (Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run () {
+            try {
+                task.run ();
+            } catch (Exception ex) {
+                ex.printStackTrace ();
+            }
+        }
+
+    }
+
+    private static class DispatchThreadFactory implements ThreadFactory
+    {
+
+        private final String name;
+        private final AtomicInteger threadCount = new AtomicInteger ();
+
+        public DispatchThreadFactory (String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread (Runnable runnable) {
+            Thread thread = new Thread (runnable, String.format ("%s - Thread #%s", name, threadCount.incrementAndGet ()));
+            thread.setDaemon (true);
+            return thread;
+        }
+
+    }
+
+}
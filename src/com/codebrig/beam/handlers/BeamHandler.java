@@ -90,6 +90,15 @@ public abstract class BeamHandler<MessageT extends BeamMessage>
         return blockingHandler;
     }
 
+    /**
+     * Non-blocking handlers share a bounded pool of threads, overflowing onto
+     * threads of their own once it's busy, so they should return quickly.
+     * Handlers which wait on I/O, locks or responses are better marked
+     * blocking; they're run on the connection's reading thread (or, for
+     * non-blocking connections, a thread of their own while reads are held).
+     *
+     * @param blockingHandler whether this handler may block.
+     */
     public void setBlockingHandler (boolean blockingHandler) {
         this.blockingHandler = blockingHandler;
     }
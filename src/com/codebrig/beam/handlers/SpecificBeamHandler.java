@@ -50,6 +50,10 @@ public abstract class SpecificBeamHandler<MessageT extends BeamMessage> extends
         }
     }
 
+    public Class<? extends MessageT> getMessageClass () {
+        return messageClazz;
+    }
+
     @Override
     public MessageT convertMessage (BeamMessage message) {
         Schema<MessageT> schema = (Schema<MessageT>) RuntimeSchema.getSchema (messageClazz);
@@ -29,9 +29,11 @@
  */
 package com.codebrig.beam.messages;
 
+import com.codebrig.beam.messages.codec.MessageCodec;
+import com.codebrig.beam.messages.codec.MessageCodecs;
+import com.codebrig.beam.messages.codec.ProtostuffCodec;
 import io.protostuff.JsonIOUtil;
 import io.protostuff.LinkedBuffer;
-import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
 import io.protostuff.runtime.RuntimeSchema;
 import java.io.IOException;
@@ -57,6 +59,11 @@ public class BeamMessage<MessageT extends BeamMessage>
     protected long messageId = -1;
     protected boolean successful;
     protected String errorMessage;
+    //not serialized
+    private transient volatile byte[] serializedData;
+    private transient volatile boolean frozen;
+    private transient MessageCodec codec;
+    private transient volatile boolean deferred;
 
     /**
      * Data message constructor
@@ -150,8 +157,9 @@ public class BeamMessage<MessageT extends BeamMessage>
         this.createdTimestamp = System.currentTimeMillis ();
         this.rawData = message.isRawData ();
         this.messageId = message.getMessageId ();
-        this.successful = message.isSuccessful ();
-        this.errorMessage = message.getErrorMessage ();
+        this.successful = message.successful;
+        this.errorMessage = message.errorMessage;
+        this.codec = message.codec;
 
         if (rawData) {
             this.data = message.getData ();
@@ -164,15 +172,81 @@ public class BeamMessage<MessageT extends BeamMessage>
         }
     }
 
+    /**
+     * Creates the message carried by a received frame. Equivalent to
+     * new SystemMessage (type, data, type &lt; 0, rawData).toBeamMessage (data)
+     * without the intermediate message.
+     *
+     * @param type type from the frame header.
+     * @param rawData raw data flag from the frame header.
+     * @param data frame data.
+     * @return received message.
+     */
+    public static BeamMessage fromFrame (int type, boolean rawData, byte[] data) {
+        return fromFrame (type, rawData, ProtostuffCodec.ID, data);
+    }
+
+    /**
+     * Creates the message carried by a received frame. Data serialized with a
+     * codec other than the default is only read once the message is converted
+     * to its own class, as not every codec can skip the fields of subclasses.
+     *
+     * @param type type from the frame header.
+     * @param rawData raw data flag from the frame header.
+     * @param codecId codec id from the frame header.
+     * @param data frame data.
+     * @return received message.
+     * @throws InvalidBeamMessage if the codec isn't registered.
+     */
+    public static BeamMessage fromFrame (int type, boolean rawData, int codecId, byte[] data) {
+        BeamMessage msg = new BeamMessage (type, data, type < 0, rawData);
+        if (!rawData) {
+            if (codecId != ProtostuffCodec.ID) {
+                msg.codec = MessageCodecs.getCodec (codecId);
+                if (msg.codec == null) {
+                    throw new InvalidBeamMessage (String.format (
+                            "Invalid message codec: %s! Codec must be registered with MessageCodecs.", codecId));
+                }
+            }
+
+            if (data != null) {
+                if (msg.codec == null) {
+                    msg.autoDeserialize (data);
+                } else {
+                    msg.deferred = true;
+                }
+                msg.data = data;
+            }
+        }
+
+        return msg;
+    }
+
+    /**
+     * Reads what it can of the fields of a message whose data was deferred.
+     */
+    private void readDeferredData () {
+        if (!deferred) {
+            return;
+        }
+        deferred = false;
+
+        BeamMessage message = new BeamMessage (type, null, systemMessage, false);
+        try {
+            codec.deserialize (data, message, RuntimeSchema.getSchema (BeamMessage.class));
+        } catch (InvalidBeamMessage ex) {
+            return; //has fields only its own class can read
+        }
+        this.createdTimestamp = message.createdTimestamp;
+        this.sentTimestamp = message.sentTimestamp;
+        this.successful = message.successful;
+        this.errorMessage = message.errorMessage;
+    }
+
     private void autoDeserialize (byte[] data) {
         if (data != null && data.length > 0) {
-            LinkedBuffer buffer = BeamMessage.getMessageBuffer ();
             Schema<MessageT> schema = (Schema<MessageT>) RuntimeSchema.getSchema (getClass ());
-            try {
-                ProtostuffIOUtil.mergeFrom (data, (MessageT) this, schema);
-            } finally {
-                buffer.clear ();
-            }
+            getCodecOrDefault ().deserialize (data, (MessageT) this, schema);
         }
     }
 
@@ -181,6 +255,7 @@ public class BeamMessage<MessageT extends BeamMessage>
     }
 
     public void copy (MessageT message) {
+        dataChanged ();
         this.data = message.data;
         this.type = message.type;
         this.systemMessage = message.systemMessage;
@@ -189,6 +264,7 @@ public class BeamMessage<MessageT extends BeamMessage>
         this.messageId = message.messageId;
         this.successful = message.successful;
         this.errorMessage = message.errorMessage;
+        this.codec = message.getCodec ();
 
         if (rawData) {
             this.data = message.getData ();
@@ -216,24 +292,29 @@ public class BeamMessage<MessageT extends BeamMessage>
     }
 
     public MessageT setSuccessful (boolean successful) {
+        dataChanged ();
         this.successful = successful;
         return (MessageT) this;
     }
 
     public boolean isSuccessful () {
+        readDeferredData ();
         return successful;
     }
 
     public MessageT setErrorMessage (String errorMessage) {
+        dataChanged ();
         this.errorMessage = errorMessage;
         return (MessageT) this;
     }
 
     public String getErrorMessage () {
+        readDeferredData ();
         return errorMessage;
     }
 
     public boolean hasErrorMessage () {
+        String errorMessage = getErrorMessage ();
         return errorMessage != null && !errorMessage.isEmpty ();
     }
 
@@ -241,6 +322,7 @@ public class BeamMessage<MessageT extends BeamMessage>
      * @return time message was created
      */
     public long getCreatedTimestamp () {
+        readDeferredData ();
         return createdTimestamp;
     }
 
@@ -260,6 +342,7 @@ public class BeamMessage<MessageT extends BeamMessage>
     }
 
     public void setSentTimestamp (long sentTimestamp) {
+        readDeferredData ();
         this.sentTimestamp = sentTimestamp;
     }
 
@@ -267,11 +350,18 @@ public class BeamMessage<MessageT extends BeamMessage>
      * @return time message was sent
      */
     public long getSentTimestamp () {
+        readDeferredData ();
         return sentTimestamp;
     }
 
     public void setMessageId (long messageId) {
-        this.messageId = messageId;
+        if (this.messageId != messageId) {
+            this.messageId = messageId;
+            if (!rawData) {
+                //serialized with the message
+                serializedData = null;
+            }
+        }
     }
 
     /**
@@ -293,24 +383,118 @@ public class BeamMessage<MessageT extends BeamMessage>
     }
 
     public byte[] getData () {
-        byte[] rtnData = null;
-        if (rawData) {
+        byte[] rtnData = serializedData;
+        if (rawData || deferred) {
             return data;
-        } else {
+        } else if (rtnData == null) {
             //auto-serialize
-            LinkedBuffer buffer = getMessageBuffer ();
             Schema<MessageT> schema = (Schema<MessageT>) RuntimeSchema.getSchema (getClass ());
-            MessageT message = (MessageT) this;
-            try {
-                rtnData = ProtostuffIOUtil.toByteArray (message, schema, buffer);
-            } finally {
-                buffer.clear ();
+            rtnData = getCodecOrDefault ().serialize ((MessageT) this, schema);
+
+            //setters of subclasses can't be seen; only frozen data is kept
+            if (frozen) {
+                serializedData = rtnData;
             }
         }
 
         return rtnData;
     }
 
+    /**
+     * @param codec codec to serialize this message with; null for the
+     * default (protostuff). Ignored for raw data messages.
+     * @return this message
+     */
+    public MessageT setCodec (MessageCodec codec) {
+        if (this.codec != codec) {
+            dataChanged ();
+            this.codec = codec;
+        }
+        return (MessageT) this;
+    }
+
+    /**
+     * @return codec this message is serialized with; null for the default
+     */
+    public MessageCodec getCodec () {
+        return codec;
+    }
+
+    /**
+     * @return data serialized with the default codec, for peers which can't
+     * read any other; the same as getData () for messages without a codec. A
+     * received message not yet converted to its own class only keeps what
+     * BeamMessage can read of it.
+     */
+    public byte[] getDefaultCodecData () {
+        if (codec == null || rawData) {
+            return getData ();
+        }
+
+        readDeferredData ();
+        Schema<MessageT> schema = (Schema<MessageT>) RuntimeSchema.getSchema (getClass ());
+        return MessageCodecs.PROTOSTUFF.serialize ((MessageT) this, schema);
+    }
+
+    private MessageCodec getCodecOrDefault () {
+        return (codec != null) ? codec : MessageCodecs.PROTOSTUFF;
+    }
+
+    /**
+     * Makes this message immutable so it can be shared between threads and
+     * sent any number of times while only being serialized once. Setters
+     * which change the message's data throw IllegalStateException afterwards.
+     * <p>
+     * Fields added by subclasses aren't guarded; they must not be changed
+     * once the message is frozen. Neither may the array returned by
+     * getData ().
+     *
+     * @return this message
+     */
+    public MessageT freeze () {
+        frozen = true;
+        getData ();
+        return (MessageT) this;
+    }
+
+    /**
+     * @return whether or not this message is frozen
+     */
+    public boolean isFrozen () {
+        return frozen;
+    }
+
+    /**
+     * Must be called by setters before changing the message's data.
+     * Discards the cached serialized data.
+     *
+     * @throws IllegalStateException if the message is frozen
+     */
+    protected void dataChanged () {
+        if (frozen) {
+            throw new IllegalStateException ("Message is frozen!");
+        }
+        readDeferredData ();
+        serializedData = null;
+    }
+
+    /**
+     * @return data cached by setCachedData () since the last change; null otherwise
+     */
+    protected byte[] getCachedData () {
+        return serializedData;
+    }
+
+    /**
+     * Caches serialized data until dataChanged () is next called. For
+     * subclasses which call dataChanged () from every setter.
+     *
+     * @param serializedData serialized data of this message
+     */
+    protected void setCachedData (byte[] serializedData) {
+        this.serializedData = serializedData;
+    }
+
     @Override
     public int hashCode () {
         int hash = 3;
@@ -364,16 +548,13 @@ public class BeamMessage<MessageT extends BeamMessage>
         }
     }
 
-    private static final ThreadLocal<LinkedBuffer> localBuffer = new ThreadLocal<LinkedBuffer> ()
-    {
-        @Override
-        public LinkedBuffer initialValue () {
-            return LinkedBuffer.allocate (MAX_MESSAGE_SIZE);
-        }
-    };
-
+    /**
+     * @return a new buffer for protostuff serialization.
+     * @deprecated messages serialize with MessageBufferPool.getDefault ().
+     */
+    @Deprecated
     public static LinkedBuffer getMessageBuffer () {
-        return localBuffer.get ();
+        return LinkedBuffer.allocate (LinkedBuffer.DEFAULT_BUFFER_SIZE);
     }
 
 }
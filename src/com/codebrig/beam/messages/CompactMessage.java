@@ -0,0 +1,857 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages;
+
+import com.codebrig.beam.utils.Base64;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LegacyMessage which keeps its values typed and serializes them into a
+ * compact binary form: integers as zigzag varints, dates as fixed64, byte
+ * arrays as raw bytes and nested messages inline. Keys are written once per
+ * message (nested messages included) and referenced by ordinal afterwards;
+ * keys registered with registerKeys () are never written at all.
+ * <p>
+ * Compact data starts with a byte which protobuf never produces, so a plain
+ * LegacyMessage created from compact data reads every value as a string and
+ * a CompactMessage created from LegacyMessage data reads every value as a
+ * string, parsing it on access.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class CompactMessage<MessageT extends CompactMessage> extends LegacyMessage<MessageT>
+{
+
+    //protobuf field 23 with (invalid) wire type 6
+    private static final byte MAGIC = (byte) 0xBE;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte SINT = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+    private static final byte BYTES = 5;
+    private static final byte DATE = 6;
+    private static final byte TIMESTAMP = 7;
+    private static final byte MESSAGE = 8;
+    private static final byte LEGACY_MESSAGE = 9;
+
+    private static final Object registerLock = new Object ();
+    private static volatile String[] registeredKeys = new String[] {"successful", "error_message"};
+    private static final ConcurrentHashMap<String, Integer> registeredKeyOrdinals = new ConcurrentHashMap<> ();
+    private static final ConcurrentHashMap<Class<?>, Integer> serializedSizeHints = new ConcurrentHashMap<> ();
+
+    static {
+        for (int i = 0; i < registeredKeys.length; i++) {
+            registeredKeyOrdinals.put (registeredKeys[i], i);
+        }
+    }
+
+    protected LinkedHashMap<String, Object[]> fieldMap = new LinkedHashMap<> ();
+
+    public CompactMessage () {
+        this (0);
+    }
+
+    /**
+     * Data message constructor
+     *
+     * @param type the type of message
+     */
+    public CompactMessage (int type) {
+        super (type);
+    }
+
+    /**
+     * Reads a received message. Accepts both compact and LegacyMessage data.
+     *
+     * @param message the message to read
+     */
+    public CompactMessage (BeamMessage message) {
+        super (message, false);
+
+        readFields (message.getData ());
+    }
+
+    /**
+     * Registers keys which are written as ordinals instead of strings. Peers
+     * must register the same keys in the same order before exchanging
+     * messages, so this is best done once at startup.
+     *
+     * @param keys keys to register
+     */
+    public static void registerKeys (String... keys) {
+        synchronized (registerLock) {
+            ArrayList<String> keyList = new ArrayList<> (Arrays.asList (registeredKeys));
+            for (String key : keys) {
+                if (!registeredKeyOrdinals.containsKey (key)) {
+                    registeredKeyOrdinals.put (key, keyList.size ());
+                    keyList.add (key);
+                }
+            }
+            registeredKeys = keyList.toArray (new String[keyList.size ()]);
+        }
+    }
+
+    /**
+     * @param data message data
+     * @return whether or not data was written by a CompactMessage
+     */
+    public static boolean isCompact (byte[] data) {
+        return data != null && data.length > 0 && data[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] getData () {
+        byte[] cachedData = getCachedData ();
+        if (cachedData != null) {
+            return cachedData;
+        }
+
+        Integer sizeHint = serializedSizeHints.get (getClass ());
+        Encoder encoder = new Encoder (sizeHint == null ? 64 : sizeHint);
+        encoder.buf[encoder.pos++] = MAGIC;
+        encoder.writeFields (fieldMap);
+
+        byte[] rtnData = Arrays.copyOf (encoder.buf, encoder.pos);
+        if (sizeHint == null || sizeHint != rtnData.length) {
+            serializedSizeHints.put (getClass (), rtnData.length);
+        }
+        setCachedData (rtnData);
+        return rtnData;
+    }
+
+    @Override
+    public MessageT remove (String key) {
+        dataChanged ();
+        fieldMap.remove (key);
+        return (MessageT) this;
+    }
+
+    @Override
+    public MessageT set (String key, String... value) {
+        return put (key, value);
+    }
+
+    @Override
+    public String get (String key) {
+        return toString (getValue (key));
+    }
+
+    @Override
+    public List<String> getList (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values == null) {
+            return null;
+        }
+
+        List<String> strList = new ArrayList<> (values.length);
+        for (Object value : values) {
+            strList.add (toString (value));
+        }
+        return strList;
+    }
+
+    @Override
+    public MessageT setMessage (String key, LegacyMessage... value) {
+        if (value.length == 0 || (value.length == 1 && value[0] == null)) {
+            return remove (key);
+        }
+
+        //copy so later changes to the given messages aren't sent
+        dataChanged ();
+        Object[] messages = new Object[value.length];
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] != null) {
+                messages[i] = value[i].copy ();
+            }
+        }
+        fieldMap.put (key, messages);
+        return (MessageT) this;
+    }
+
+    @Override
+    public LegacyMessage getMessage (String key) {
+        return toMessage (getValue (key));
+    }
+
+    @Override
+    public List<LegacyMessage> getMessages (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values == null) {
+            return null;
+        }
+
+        List<LegacyMessage> messageList = new ArrayList<> (values.length);
+        for (Object value : values) {
+            if (value != null) {
+                messageList.add (toMessage (value));
+            }
+        }
+        return messageList;
+    }
+
+    @Override
+    public MessageT setBytes (String key, byte[] bytes) {
+        return put (key, bytes == null ? null : new Object[] {bytes});
+    }
+
+    @Override
+    public byte[] getBytes (String key) {
+        Object ob = getValue (key);
+        if (ob == null) {
+            return null;
+        } else if (ob instanceof byte[]) {
+            return (byte[]) ob;
+        }
+
+        return Base64.decode (toString (ob));
+    }
+
+    @Override
+    public MessageT setByte (String key, byte value) {
+        return put (key, new Object[] {value});
+    }
+
+    @Override
+    public Byte getByte (String key) {
+        Long l = toLong (getValue (key));
+        return l == null ? null : l.byteValue ();
+    }
+
+    @Override
+    public MessageT setBoolean (String key, Boolean... value) {
+        return put (key, value);
+    }
+
+    @Override
+    public Boolean getBoolean (String key) {
+        return toBoolean (getValue (key));
+    }
+
+    @Override
+    public List<Boolean> getBooleans (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values == null) {
+            return null;
+        }
+
+        List<Boolean> boolList = new ArrayList<> (values.length);
+        for (Object value : values) {
+            boolList.add (toBoolean (value));
+        }
+        return boolList;
+    }
+
+    @Override
+    public MessageT setInt (String key, Integer... value) {
+        return put (key, value);
+    }
+
+    @Override
+    public Integer getInt (String key) {
+        Long l = toLong (getValue (key));
+        return l == null ? null : l.intValue ();
+    }
+
+    @Override
+    public List<Integer> getInts (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values == null) {
+            return null;
+        }
+
+        List<Integer> intList = new ArrayList<> (values.length);
+        for (Object value : values) {
+            Long l = toLong (value);
+            intList.add (l == null ? null : l.intValue ());
+        }
+        return intList;
+    }
+
+    @Override
+    public MessageT setString (String key, String... value) {
+        return put (key, value);
+    }
+
+    @Override
+    public String getString (String key) {
+        return get (key);
+    }
+
+    @Override
+    public List<String> getStrings (String key) {
+        return getList (key);
+    }
+
+    @Override
+    public MessageT setDate (String key, Date... value) {
+        return put (key, value);
+    }
+
+    @Override
+    public Date getDate (String key) {
+        return toDate (getValue (key));
+    }
+
+    @Override
+    public List<Date> getDates (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values == null) {
+            return null;
+        }
+
+        List<Date> dateList = new ArrayList<> (values.length);
+        for (Object value : values) {
+            dateList.add (toDate (value));
+        }
+        return dateList;
+    }
+
+    @Override
+    public MessageT setTimestamp (String key, Timestamp... value) {
+        return put (key, value);
+    }
+
+    @Override
+    public Timestamp getTimestamp (String key) {
+        return toTimestamp (getValue (key));
+    }
+
+    @Override
+    public List<Timestamp> getTimestamps (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values == null) {
+            return null;
+        }
+
+        List<Timestamp> timestampList = new ArrayList<> (values.length);
+        for (Object value : values) {
+            timestampList.add (toTimestamp (value));
+        }
+        return timestampList;
+    }
+
+    @Override
+    public MessageT setLong (String key, Long... value) {
+        return put (key, value);
+    }
+
+    @Override
+    public Long getLong (String key) {
+        return toLong (getValue (key));
+    }
+
+    @Override
+    public List<Long> getLongs (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values == null) {
+            return null;
+        }
+
+        List<Long> longList = new ArrayList<> (values.length);
+        for (Object value : values) {
+            longList.add (toLong (value));
+        }
+        return longList;
+    }
+
+    @Override
+    public MessageT clear () {
+        dataChanged ();
+        fieldMap.clear ();
+        return (MessageT) this;
+    }
+
+    @Override
+    public CompactMessage copy () {
+        CompactMessage message = new CompactMessage ();
+        message.copy (this);
+        return message;
+    }
+
+    @Override
+    public void copy (MessageT message) {
+        dataChanged ();
+        this.systemMessage = message.systemMessage;
+        this.type = message.type;
+        this.data = (message.data != null) ? Arrays.copyOf (message.data, message.data.length) : null;
+        this.createdTimestamp = message.createdTimestamp;
+        this.sentTimestamp = message.sentTimestamp;
+        this.receivedTimestamp = message.receivedTimestamp;
+        this.rawData = message.rawData;
+        this.messageId = message.messageId;
+
+        copyFields (message);
+    }
+
+    private void copyFields (CompactMessage message) {
+        fieldMap = new LinkedHashMap<> ();
+        Iterator<Map.Entry<String, Object[]>> entryItr = message.fieldMap.entrySet ().iterator ();
+        while (entryItr.hasNext ()) {
+            Map.Entry<String, Object[]> entry = entryItr.next ();
+            fieldMap.put (entry.getKey (), entry.getValue ().clone ());
+        }
+    }
+
+    private MessageT put (String key, Object[] value) {
+        if (value == null || value.length == 0 || (value.length == 1 && value[0] == null)) {
+            return remove (key);
+        }
+
+        dataChanged ();
+        fieldMap.put (key, value.clone ());
+        return (MessageT) this;
+    }
+
+    private Object getValue (String key) {
+        Object[] values = fieldMap.get (key);
+        if (values != null && values.length > 0) {
+            return values[0];
+        }
+
+        return null;
+    }
+
+    private void readFields (byte[] data) {
+        if (data == null || data.length == 0) {
+            return;
+        }
+
+        if (isCompact (data)) {
+            Decoder decoder = new Decoder (data);
+            decoder.pos = 1;
+            decoder.readFields (fieldMap);
+            return;
+        }
+
+        //LegacyMessage data; values are parsed on access
+        ProtobufMessage.MessageEntrySet entrySet;
+        try {
+            entrySet = ProtobufMessage.MessageEntrySet.parseFrom (data);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RuntimeException (ex);
+        }
+
+        for (ProtobufMessage.MessageEntry entry : entrySet.getEntriesList ()) {
+            fieldMap.put (entry.getKey (), entry.getValueList ().toArray ());
+        }
+    }
+
+    /**
+     * Reads compact data into the string map used by LegacyMessage.
+     */
+    static void readStrings (byte[] data, Map<String, List<String>> messageMap) {
+        LinkedHashMap<String, Object[]> fields = new LinkedHashMap<> ();
+        Decoder decoder = new Decoder (data);
+        decoder.pos = 1;
+        decoder.readFields (fields);
+        toStrings (fields, messageMap);
+    }
+
+    /**
+     * @return every entry of this message, as strings
+     */
+    @Override
+    protected HashMap<String, List<String>> getMessageMap () {
+        HashMap<String, List<String>> messageMap = new HashMap<> ();
+        toStrings (fieldMap, messageMap);
+        return messageMap;
+    }
+
+    private static void toStrings (Map<String, Object[]> fields, Map<String, List<String>> messageMap) {
+        Iterator<Map.Entry<String, Object[]>> entryItr = fields.entrySet ().iterator ();
+        while (entryItr.hasNext ()) {
+            Map.Entry<String, Object[]> entry = entryItr.next ();
+            List<String> strList = new ArrayList<> (entry.getValue ().length);
+            for (Object value : entry.getValue ()) {
+                strList.add (toString (value));
+            }
+            messageMap.put (entry.getKey (), strList);
+        }
+    }
+
+    private static String toString (Object ob) {
+        if (ob == null || ob instanceof String) {
+            return (String) ob;
+        } else if (ob instanceof byte[]) {
+            return Base64.encode ((byte[]) ob);
+        } else if (ob instanceof LegacyMessage) {
+            //same form LegacyMessage.setMessage () uses
+            LegacyMessage message = (LegacyMessage) ob;
+            byte[] messageData = message.getData ();
+            ByteBuffer buff = ByteBuffer.allocate (HEADER_SIZE + messageData.length);
+            buff.putInt (message.getType ());
+            buff.putInt (messageData.length);
+            buff.putLong (message.getMessageId ());
+            buff.put (message.isRawData () ? (byte) 1 : (byte) 0);
+            buff.position (HEADER_SIZE);
+            buff.put (messageData);
+            return Base64.encode (buff.array ());
+        }
+
+        return ob.toString ();
+    }
+
+    private static Long toLong (Object ob) {
+        if (ob == null) {
+            return null;
+        } else if (ob instanceof Number) {
+            return ((Number) ob).longValue ();
+        } else if (ob instanceof java.util.Date) {
+            return ((java.util.Date) ob).getTime ();
+        }
+
+        return Long.parseLong (toString (ob));
+    }
+
+    private static Boolean toBoolean (Object ob) {
+        if (ob == null || ob instanceof Boolean) {
+            return (Boolean) ob;
+        }
+
+        return Boolean.parseBoolean (toString (ob));
+    }
+
+    private static Date toDate (Object ob) {
+        if (ob == null || ob instanceof Date) {
+            return (Date) ob;
+        } else if (ob instanceof java.util.Date) {
+            return new Date (((java.util.Date) ob).getTime ());
+        }
+
+        return Date.valueOf (toString (ob));
+    }
+
+    private static Timestamp toTimestamp (Object ob) {
+        if (ob == null || ob instanceof Timestamp) {
+            return (Timestamp) ob;
+        } else if (ob instanceof java.util.Date) {
+            return new Timestamp (((java.util.Date) ob).getTime ());
+        }
+
+        return Timestamp.valueOf (toString (ob));
+    }
+
+    private static LegacyMessage toMessage (Object ob) {
+        if (ob == null || ob instanceof LegacyMessage) {
+            return (LegacyMessage) ob;
+        }
+
+        //LegacyMessage.setMessage () form
+        byte[] fullData = Base64.decode (toString (ob));
+        ByteBuffer buff = ByteBuffer.wrap (fullData);
+        int type = buff.getInt (); //message type
+        buff.getInt (); //message size
+        long id = buff.getLong (); //message id
+        boolean rawData = buff.get () == 1;
+
+        byte[] messageData = Arrays.copyOfRange (fullData, HEADER_SIZE, fullData.length);
+        LegacyMessage message;
+        if (isCompact (messageData)) {
+            message = new CompactMessage (new BeamMessage (type, messageData));
+        } else {
+            message = new LegacyMessage (type, messageData, rawData, true);
+        }
+        message.setMessageId (id);
+        return message;
+    }
+
+    private static final class Encoder
+    {
+
+        private byte[] buf;
+        private int pos;
+        private HashMap<String, Integer> keyOrdinals;
+        private final String[] knownKeys = registeredKeys;
+
+        Encoder (int size) {
+            buf = new byte[Math.max (size, 16)];
+        }
+
+        void writeFields (LinkedHashMap<String, Object[]> fields) {
+            writeVarint (fields.size ());
+
+            Iterator<Map.Entry<String, Object[]>> entryItr = fields.entrySet ().iterator ();
+            while (entryItr.hasNext ()) {
+                Map.Entry<String, Object[]> entry = entryItr.next ();
+                writeKey (entry.getKey ());
+
+                Object[] values = entry.getValue ();
+                writeVarint (values.length);
+                for (Object value : values) {
+                    writeValue (value);
+                }
+            }
+        }
+
+        void writeKey (String key) {
+            //0 = new key, otherwise ordinal + 1
+            Integer ordinal = registeredKeyOrdinals.get (key);
+            if (ordinal == null || ordinal >= knownKeys.length) {
+                if (keyOrdinals == null) {
+                    keyOrdinals = new HashMap<> ();
+                }
+                ordinal = keyOrdinals.get (key);
+            }
+
+            if (ordinal != null) {
+                writeVarint (ordinal + 1);
+            } else {
+                keyOrdinals.put (key, knownKeys.length + keyOrdinals.size ());
+                writeVarint (0);
+                writeBytes (key.getBytes (StandardCharsets.UTF_8));
+            }
+        }
+
+        void writeValue (Object value) {
+            if (value == null) {
+                writeByte (NULL);
+            } else if (value instanceof String) {
+                writeByte (STRING);
+                writeBytes (((String) value).getBytes (StandardCharsets.UTF_8));
+            } else if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte) {
+                long l = ((Number) value).longValue ();
+                writeByte (SINT);
+                writeVarint ((l << 1) ^ (l >> 63));
+            } else if (value instanceof Boolean) {
+                writeByte ((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof byte[]) {
+                writeByte (BYTES);
+                writeBytes ((byte[]) value);
+            } else if (value instanceof Timestamp) {
+                writeByte (TIMESTAMP);
+                writeFixed64 (((Timestamp) value).getTime ());
+                writeVarint (((Timestamp) value).getNanos ());
+            } else if (value instanceof Date) {
+                writeByte (DATE);
+                writeFixed64 (((Date) value).getTime ());
+            } else if (value instanceof CompactMessage) {
+                CompactMessage message = (CompactMessage) value;
+                writeByte (MESSAGE);
+                writeVarint (message.getType ());
+                writeVarint ((message.getMessageId () << 1) ^ (message.getMessageId () >> 63));
+                writeFields (message.fieldMap);
+            } else if (value instanceof LegacyMessage) {
+                LegacyMessage message = (LegacyMessage) value;
+                writeByte (LEGACY_MESSAGE);
+                writeVarint (message.getType ());
+                writeVarint ((message.getMessageId () << 1) ^ (message.getMessageId () >> 63));
+                writeByte (message.isRawData () ? (byte) 1 : (byte) 0);
+                writeBytes (message.getData ());
+            } else {
+                writeByte (STRING);
+                writeBytes (value.toString ().getBytes (StandardCharsets.UTF_8));
+            }
+        }
+
+        void writeByte (byte b) {
+            ensureCapacity (1);
+            buf[pos++] = b;
+        }
+
+        void writeBytes (byte[] bytes) {
+            writeVarint (bytes.length);
+            ensureCapacity (bytes.length);
+            System.arraycopy (bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeVarint (long value) {
+            ensureCapacity (10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeFixed64 (long value) {
+            ensureCapacity (8);
+            for (int i = 0; i < 8; i++) {
+                buf[pos++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        void ensureCapacity (int length) {
+            if (pos + length > buf.length) {
+                buf = Arrays.copyOf (buf, Math.max (buf.length * 2, pos + length));
+            }
+        }
+    }
+
+    private static final class Decoder
+    {
+
+        private final byte[] buf;
+        private int pos;
+        private final String[] knownKeys = registeredKeys;
+        private ArrayList<String> keys;
+
+        Decoder (byte[] buf) {
+            this.buf = buf;
+        }
+
+        void readFields (LinkedHashMap<String, Object[]> fields) {
+            try {
+                int fieldCount = readLength ();
+                for (int i = 0; i < fieldCount; i++) {
+                    String key = readKey ();
+                    Object[] values = new Object[readLength ()];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = readValue ();
+                    }
+                    fields.put (key, values);
+                }
+            } catch (IndexOutOfBoundsException | NegativeArraySizeException ex) {
+                throw new InvalidBeamMessage ("Malformed compact message data!");
+            }
+        }
+
+        String readKey () {
+            int ordinal = (int) readVarint ();
+            if (ordinal == 0) {
+                if (keys == null) {
+                    keys = new ArrayList<> ();
+                }
+                String key = readString ();
+                keys.add (key);
+                return key;
+            } else if (ordinal <= knownKeys.length) {
+                return knownKeys[ordinal - 1];
+            } else if (keys != null && ordinal - knownKeys.length <= keys.size ()) {
+                return keys.get (ordinal - knownKeys.length - 1);
+            }
+
+            throw new InvalidBeamMessage (String.format (
+                    "Unknown compact message key: %s! Registered keys must match on both peers.", ordinal));
+        }
+
+        Object readValue () {
+            byte tag = buf[pos++];
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString ();
+                case SINT:
+                    long l = readVarint ();
+                    return (l >>> 1) ^ -(l & 1);
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case BYTES:
+                    return readBytes ();
+                case DATE:
+                    return new Date (readFixed64 ());
+                case TIMESTAMP:
+                    Timestamp timestamp = new Timestamp (readFixed64 ());
+                    timestamp.setNanos ((int) readVarint ());
+                    return timestamp;
+                case MESSAGE: {
+                    CompactMessage message = new CompactMessage ((int) readVarint ());
+                    long id = readVarint ();
+                    message.setMessageId ((id >>> 1) ^ -(id & 1));
+                    readFields (message.fieldMap);
+                    return message;
+                }
+                case LEGACY_MESSAGE: {
+                    int type = (int) readVarint ();
+                    long id = readVarint ();
+                    boolean rawData = buf[pos++] == 1;
+                    LegacyMessage message = new LegacyMessage (type, readBytes (), rawData, true);
+                    message.setMessageId ((id >>> 1) ^ -(id & 1));
+                    return message;
+                }
+                default:
+                    throw new InvalidBeamMessage (String.format (
+                            "Unknown compact message value tag: %s!", tag));
+            }
+        }
+
+        String readString () {
+            int length = readLength ();
+            String str = new String (buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return str;
+        }
+
+        byte[] readBytes () {
+            int length = readLength ();
+            byte[] bytes = Arrays.copyOfRange (buf, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        int readLength () {
+            long length = readVarint ();
+            if (length < 0 || length > buf.length - pos) {
+                throw new InvalidBeamMessage ("Malformed compact message length!");
+            }
+            return (int) length;
+        }
+
+        long readVarint () {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new InvalidBeamMessage ("Malformed compact message varint!");
+        }
+
+        long readFixed64 () {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (long) (buf[pos++] & 0xFF) << (i * 8);
+            }
+            return value;
+        }
+    }
+
+}
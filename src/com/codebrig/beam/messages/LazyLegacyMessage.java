@@ -0,0 +1,203 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages;
+
+import com.codebrig.beam.crypt.EncryptedBeamMessage;
+import com.google.protobuf.CodedInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LegacyMessage which doesn't parse received data until a value is
+ * requested. The first access indexes where each key's entry is; values are
+ * then parsed one key at a time. Until it is modified, the message's data
+ * is the received data itself, so forwarding it doesn't re-serialize it.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class LazyLegacyMessage<MessageT extends LazyLegacyMessage> extends LegacyMessage<MessageT>
+{
+
+    //field 1, length delimited; MessageEntrySet.entries and MessageEntry.key
+    private static final int ENTRY_TAG = (1 << 3) | 2;
+    private static final int KEY_TAG = (1 << 3) | 2;
+
+    private byte[] sourceData;
+    private HashMap<String, int[]> entryIndex;
+
+    public LazyLegacyMessage (BeamMessage message) {
+        super (message, false);
+
+        if (!(message instanceof EncryptedBeamMessage)) {
+            setSourceData (message.getData ());
+        }
+    }
+
+    public LazyLegacyMessage (int type, byte[] data) {
+        super (type, data, false, true, false);
+        setSourceData (data);
+    }
+
+    private void setSourceData (byte[] data) {
+        if (data == null || data.length == 0) {
+            return;
+        }
+
+        if (CompactMessage.isCompact (data)) {
+            //no entries to index; read its fields as strings
+            CompactMessage.readStrings (data, messageMap);
+        } else {
+            sourceData = data;
+        }
+        setCachedData (data);
+    }
+
+    /**
+     * @return true if the received data hasn't been fully parsed
+     */
+    public boolean isLazy () {
+        return sourceData != null;
+    }
+
+    @Override
+    public String get (String key) {
+        List<String> valueList = getList (key);
+        if (valueList != null && !valueList.isEmpty ()) {
+            return valueList.get (0);
+        }
+
+        return null;
+    }
+
+    @Override
+    public List<String> getList (String key) {
+        if (sourceData != null && !messageMap.containsKey (key)) {
+            int[] entry = getEntryIndex ().get (key);
+            if (entry != null) {
+                messageMap.put (key, parseValues (entry));
+            }
+        }
+
+        return messageMap.get (key);
+    }
+
+    @Override
+    protected HashMap<String, List<String>> getMessageMap () {
+        parseAll ();
+        return messageMap;
+    }
+
+    @Override
+    protected void dataChanged () {
+        //data will be serialized from the message map again; needs every entry
+        parseAll ();
+        super.dataChanged ();
+    }
+
+    @Override
+    public MessageT clear () {
+        sourceData = null;
+        entryIndex = null;
+        return super.clear ();
+    }
+
+    @Override
+    public LegacyMessage copy () {
+        return new LazyLegacyMessage (this);
+    }
+
+    private void parseAll () {
+        if (sourceData != null) {
+            for (Map.Entry<String, int[]> entry : getEntryIndex ().entrySet ()) {
+                if (!messageMap.containsKey (entry.getKey ())) {
+                    messageMap.put (entry.getKey (), parseValues (entry.getValue ()));
+                }
+            }
+
+            sourceData = null;
+            entryIndex = null;
+        }
+    }
+
+    private HashMap<String, int[]> getEntryIndex () {
+        if (entryIndex == null) {
+            entryIndex = new HashMap<> ();
+
+            try {
+                CodedInputStream input = CodedInputStream.newInstance (sourceData);
+                int tag;
+                while ((tag = input.readTag ()) != 0) {
+                    if (tag != ENTRY_TAG) {
+                        input.skipField (tag);
+                        continue;
+                    }
+
+                    int length = input.readRawVarint32 ();
+                    int offset = input.getTotalBytesRead ();
+                    String key = readKey (offset, length);
+                    if (key != null) {
+                        //later entries replace earlier ones; same as a full parse
+                        entryIndex.put (key, new int[] {offset, length});
+                    }
+                    input.skipRawBytes (length);
+                }
+            } catch (IOException ex) {
+                throw new InvalidBeamMessage ("Unable to index message: " + ex.getMessage ());
+            }
+        }
+
+        return entryIndex;
+    }
+
+    private String readKey (int offset, int length) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance (sourceData, offset, length);
+        int tag;
+        while ((tag = input.readTag ()) != 0) {
+            if (tag == KEY_TAG) {
+                return input.readString ();
+            }
+            input.skipField (tag);
+        }
+
+        return null;
+    }
+
+    private List<String> parseValues (int[] entry) {
+        try {
+            CodedInputStream input = CodedInputStream.newInstance (sourceData, entry[0], entry[1]);
+            return ProtobufMessage.MessageEntry.parseFrom (input).getValueList ();
+        } catch (IOException ex) {
+            throw new InvalidBeamMessage ("Unable to parse message entry: " + ex.getMessage ());
+        }
+    }
+
+}
@@ -68,33 +68,21 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
         super (message);
 
         if (!(message instanceof EncryptedBeamMessage)) {
-            ProtobufMessage.MessageEntrySet entrySet;
-            try {
-                entrySet = ProtobufMessage.MessageEntrySet.parseFrom (message.getData ());
-            } catch (InvalidProtocolBufferException ex) {
-                throw new RuntimeException (ex);
-            }
-
-            List<ProtobufMessage.MessageEntry> entriesList = entrySet.getEntriesList ();
-            for (ProtobufMessage.MessageEntry entry : entriesList) {
-                messageMap.put (entry.getKey (), entry.getValueList ());
-            }
+            parseEntries (message.getData ());
         }
     }
 
     public LegacyMessage (LegacyMessage message) {
         super (message);
 
-        ProtobufMessage.MessageEntrySet entrySet;
-        try {
-            entrySet = ProtobufMessage.MessageEntrySet.parseFrom (message.getData ());
-        } catch (InvalidProtocolBufferException ex) {
-            throw new RuntimeException (ex);
-        }
+        parseEntries (message.getData ());
+    }
 
-        List<ProtobufMessage.MessageEntry> entriesList = entrySet.getEntriesList ();
-        for (ProtobufMessage.MessageEntry entry : entriesList) {
-            messageMap.put (entry.getKey (), entry.getValueList ());
+    LegacyMessage (BeamMessage message, boolean parseData) {
+        super (message);
+
+        if (parseData && !(message instanceof EncryptedBeamMessage)) {
+            parseEntries (message.getData ());
         }
     }
 
@@ -139,22 +127,38 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
         super (type, data, systemMessage, rawData);
 
         if (parseData) {
-            ProtobufMessage.MessageEntrySet entrySet;
-            try {
-                entrySet = ProtobufMessage.MessageEntrySet.parseFrom (data);
-            } catch (InvalidProtocolBufferException ex) {
-                throw new RuntimeException (ex);
-            }
+            parseEntries (data);
+        }
+    }
 
-            List<ProtobufMessage.MessageEntry> entriesList = entrySet.getEntriesList ();
-            for (ProtobufMessage.MessageEntry entry : entriesList) {
-                messageMap.put (entry.getKey (), entry.getValueList ());
-            }
+    private void parseEntries (byte[] data) {
+        if (CompactMessage.isCompact (data)) {
+            //sent by a CompactMessage; read its fields as strings
+            CompactMessage.readStrings (data, messageMap);
+            return;
+        }
+
+        ProtobufMessage.MessageEntrySet entrySet;
+        try {
+            entrySet = ProtobufMessage.MessageEntrySet.parseFrom (data);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new RuntimeException (ex);
+        }
+
+        List<ProtobufMessage.MessageEntry> entriesList = entrySet.getEntriesList ();
+        for (ProtobufMessage.MessageEntry entry : entriesList) {
+            messageMap.put (entry.getKey (), entry.getValueList ());
         }
     }
 
     @Override
     public byte[] getData () {
+        //every setter goes through set ()/remove ()/clear (), which discard this
+        byte[] cachedData = getCachedData ();
+        if (cachedData != null) {
+            return cachedData;
+        }
+
         ProtobufMessage.MessageEntrySet.Builder entrySetBuilder = ProtobufMessage.MessageEntrySet.newBuilder ();
         Iterator<Map.Entry<String, List<String>>> entryItr = messageMap.entrySet ().iterator ();
         while (entryItr.hasNext ()) {
@@ -166,10 +170,13 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
             entrySetBuilder.addEntries (mapEntry);
         }
 
-        return entrySetBuilder.build ().toByteArray ();
+        cachedData = entrySetBuilder.build ().toByteArray ();
+        setCachedData (cachedData);
+        return cachedData;
     }
 
     public MessageT remove (String key) {
+        dataChanged ();
         messageMap.remove (key);
         return (MessageT) this;
     }
@@ -178,6 +185,7 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
         if (value.length == 0 || (value.length == 1 && value[0] == null)) {
             remove (key);
         } else {
+            dataChanged ();
             List<String> valueList = Arrays.asList (value);
             messageMap.put (key, valueList);
         }
@@ -205,7 +213,7 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
             for (int i = 0; i < strArray.length; i++) {
                 if (value[i] != null) {
                     byte[] messageData = value[i].getData ();
-                    byte[] header = getHeader (messageData.length);
+                    byte[] header = value[i].getHeader (messageData.length);
 
                     byte[] result = new byte[header.length + messageData.length];
                     System.arraycopy (header, 0, result, 0, header.length);
@@ -235,7 +243,8 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
             long id = buff.getLong (); //message id
             boolean rawData = buff.get () == 1;
 
-            LegacyMessage message = new LegacyMessage (type, messageData);
+            LegacyMessage message = new LegacyMessage (type, messageData, rawData, true);
+            message.setMessageId (id);
             return message;
         }
 
@@ -263,7 +272,7 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
                 long id = buff.getLong (); //message id
                 boolean rawData = buff.get () == 1;
 
-                LegacyMessage message = new LegacyMessage (type, messageData, rawData);
+                LegacyMessage message = new LegacyMessage (type, messageData, rawData, true);
                 message.setMessageId (id);
                 messageList.add (message);
             }
@@ -494,7 +503,15 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
         return errMessage != null && !errMessage.isEmpty ();
     }
 
+    /**
+     * @return every entry of this message, parsed
+     */
+    protected HashMap<String, List<String>> getMessageMap () {
+        return messageMap;
+    }
+
     public MessageT clear () {
+        dataChanged ();
         messageMap.clear ();
         return (MessageT) this;
     }
@@ -511,7 +528,7 @@ public class LegacyMessage<MessageT extends LegacyMessage> extends BeamMessage<M
         this.type = message.type;
 
         this.data = (message.data != null) ? Arrays.copyOf (message.data, message.data.length) : null;
-        this.messageMap = new HashMap<> (message.messageMap);
+        this.messageMap = new HashMap<> (message.getMessageMap ());
         for (String key : messageMap.keySet ()) {
             List<String> strList = messageMap.get (key);
             messageMap.put (key, new ArrayList<> (strList));
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of size-classed byte arrays used as the head chunk of the
+ * protostuff LinkedBuffer when serializing messages. Messages larger than the
+ * chunk overflow into linked segments which are not pooled.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class MessageBufferPool
+{
+
+    public static final int[] SIZE_CLASSES = {512, 4 * 1024, 32 * 1024, 256 * 1024};
+    public static final int DEFAULT_MAX_POOLED_PER_CLASS = 64;
+
+    private static final MessageBufferPool defaultPool = new MessageBufferPool (DEFAULT_MAX_POOLED_PER_CLASS);
+
+    private final int maxPooledPerClass;
+    private final ConcurrentLinkedQueue<byte[]>[] pools;
+    private final AtomicInteger[] pooledCounts;
+    private final AtomicLong acquireCount = new AtomicLong ();
+    private final AtomicLong hitCount = new AtomicLong ();
+    private final AtomicLong discardCount = new AtomicLong ();
+    private final AtomicLong bytesInUse = new AtomicLong ();
+    private final AtomicLong peakBytesInUse = new AtomicLong ();
+
+    public MessageBufferPool (int maxPooledPerClass) {
+        if (maxPooledPerClass < 0) {
+            throw new IllegalArgumentException ("Invalid max pooled per class: " + maxPooledPerClass);
+        }
+
+        this.maxPooledPerClass = maxPooledPerClass;
+        @SuppressWarnings ("unchecked")
+        ConcurrentLinkedQueue<byte[]>[] pools
+                = (ConcurrentLinkedQueue<byte[]>[]) new ConcurrentLinkedQueue<?>[SIZE_CLASSES.length];
+        this.pools = pools;
+        pooledCounts = new AtomicInteger[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            pools[i] = new ConcurrentLinkedQueue<> ();
+            pooledCounts[i] = new AtomicInteger ();
+        }
+    }
+
+    public static MessageBufferPool getDefault () {
+        return defaultPool;
+    }
+
+    /**
+     * @param sizeHint expected number of bytes to be written.
+     * @return chunk of the smallest size class which fits sizeHint, or the
+     * largest size class if none do.
+     */
+    public byte[] acquire (int sizeHint) {
+        int sizeClass = getSizeClass (sizeHint);
+        acquireCount.incrementAndGet ();
+
+        byte[] chunk = pools[sizeClass].poll ();
+        if (chunk != null) {
+            pooledCounts[sizeClass].decrementAndGet ();
+            hitCount.incrementAndGet ();
+        } else {
+            chunk = new byte[SIZE_CLASSES[sizeClass]];
+        }
+
+        long inUse = bytesInUse.addAndGet (chunk.length);
+        long peak;
+        while (inUse > (peak = peakBytesInUse.get ())) {
+            if (peakBytesInUse.compareAndSet (peak, inUse)) {
+                break;
+            }
+        }
+
+        return chunk;
+    }
+
+    /**
+     * @param chunk chunk previously returned by acquire.
+     */
+    public void release (byte[] chunk) {
+        if (chunk == null) {
+            return;
+        }
+
+        bytesInUse.addAndGet (-chunk.length);
+
+        int sizeClass = getSizeClass (chunk.length);
+        if (SIZE_CLASSES[sizeClass] == chunk.length
+                && pooledCounts[sizeClass].incrementAndGet () <= maxPooledPerClass) {
+            pools[sizeClass].offer (chunk);
+        } else {
+            if (SIZE_CLASSES[sizeClass] == chunk.length) {
+                pooledCounts[sizeClass].decrementAndGet ();
+            }
+            discardCount.incrementAndGet ();
+        }
+    }
+
+    private static int getSizeClass (int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+
+        return SIZE_CLASSES.length - 1;
+    }
+
+    public int getMaxPooledPerClass () {
+        return maxPooledPerClass;
+    }
+
+    public long getAcquireCount () {
+        return acquireCount.get ();
+    }
+
+    public long getHitCount () {
+        return hitCount.get ();
+    }
+
+    public long getMissCount () {
+        return acquireCount.get () - hitCount.get ();
+    }
+
+    public long getDiscardCount () {
+        return discardCount.get ();
+    }
+
+    public long getBytesInUse () {
+        return bytesInUse.get ();
+    }
+
+    public long getPeakBytesInUse () {
+        return peakBytesInUse.get ();
+    }
+
+    public long getPooledBytes () {
+        long pooledBytes = 0;
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            pooledBytes += (long) pools[i].size () * SIZE_CLASSES[i];
+        }
+
+        return pooledBytes;
+    }
+
+    @Override
+    public String toString () {
+        return String.format ("MessageBufferPool [acquired: %s; hits: %s; misses: %s; discarded: %s; in use: %s bytes; peak in use: %s bytes; pooled: %s bytes]",
+                getAcquireCount (), getHitCount (), getMissCount (), getDiscardCount (),
+                getBytesInUse (), getPeakBytesInUse (), getPooledBytes ());
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages;
+
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Message classes whose schemas are built ahead of time. Schemas are
+ * otherwise built by reflection on the first message of each class, which
+ * makes the first messages after startup considerably slower.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class SchemaRegistry
+{
+
+    private final Set<Class<?>> messageClasses = new LinkedHashSet<> ();
+    private final Set<Class<?>> warmedClasses = new LinkedHashSet<> ();
+
+    /**
+     * @param messageClasses message classes to build schemas for on warmup;
+     * along with the classes of their fields
+     */
+    public synchronized void register (Class<?>... messageClasses) {
+        for (Class<?> messageClass : messageClasses) {
+            if (messageClass == null) {
+                throw new IllegalArgumentException ("Message class cannot be null!");
+            }
+            this.messageClasses.add (messageClass);
+        }
+    }
+
+    /**
+     * Registers a hand written (or generated) schema to use instead of one
+     * built by reflection. Must be registered before the first message of the
+     * class is serialized.
+     *
+     * @param messageClass message class
+     * @param schema schema to serialize the message class with
+     */
+    public synchronized <T> void register (Class<T> messageClass, Schema<T> schema) {
+        if (messageClass == null || schema == null) {
+            throw new IllegalArgumentException ("Message class and schema cannot be null!");
+        }
+
+        if (!RuntimeSchema.register (messageClass, schema)) {
+            throw new IllegalStateException (String.format (
+                    "Schema for %s was already built! Schemas must be registered before first use.",
+                    messageClass.getName ()));
+        }
+        messageClasses.add (messageClass);
+    }
+
+    /**
+     * @param messageClass message class
+     * @return true if the schema of the message class is hand written
+     */
+    public boolean isRegistered (Class<?> messageClass) {
+        return RuntimeSchema.isRegistered (messageClass);
+    }
+
+    /**
+     * Builds the schemas of all registered message classes (and the classes
+     * of their fields) not yet built, and runs each through serialization
+     * once. Classes which can't be warmed up are reported rather than
+     * failing the warmup.
+     *
+     * @return build cost of each schema built
+     */
+    public synchronized SchemaReport warmup () {
+        SchemaReport report = new SchemaReport ();
+        for (Class<?> messageClass : messageClasses) {
+            warmup (messageClass, report);
+        }
+        return report;
+    }
+
+    private void warmup (Class<?> messageClass, SchemaReport report) {
+        if (!warmedClasses.add (messageClass)) {
+            return;
+        }
+
+        Schema<Object> schema;
+        long buildTime;
+        long firstUseTime;
+        try {
+            long startTime = System.nanoTime ();
+            schema = (Schema<Object>) RuntimeSchema.getSchema (messageClass);
+            buildTime = System.nanoTime () - startTime;
+
+            //first run also loads and links the serialization code
+            startTime = System.nanoTime ();
+            Object message = schema.newMessage ();
+            byte[] data = ProtostuffIOUtil.toByteArray (message, schema, LinkedBuffer.allocate ());
+            ProtostuffIOUtil.mergeFrom (data, schema.newMessage (), schema);
+            firstUseTime = System.nanoTime () - startTime;
+        } catch (RuntimeException ex) {
+            //left to be built on first use, where any real problem shows up
+            report.addFailure (messageClass, ex);
+            return;
+        }
+
+        int fieldCount = (schema instanceof RuntimeSchema) ? ((RuntimeSchema) schema).getFieldCount () : -1;
+        report.add (messageClass, buildTime, firstUseTime, fieldCount, isRegistered (messageClass));
+
+        //nested messages are built lazily on their first use as well
+        if (schema instanceof RuntimeSchema) {
+            for (Class<?> fieldClass : getFieldClasses (messageClass)) {
+                warmup (fieldClass, report);
+            }
+        }
+    }
+
+    private static Set<Class<?>> getFieldClasses (Class<?> messageClass) {
+        Set<Class<?>> fieldClasses = new LinkedHashSet<> ();
+        for (Class<?> c = messageClass; c != null && c != BeamMessage.class && c != Object.class;
+                c = c.getSuperclass ()) {
+            for (Field field : c.getDeclaredFields ()) {
+                int modifiers = field.getModifiers ();
+                if (!Modifier.isStatic (modifiers) && !Modifier.isTransient (modifiers)) {
+                    addMessageClasses (field.getGenericType (), fieldClasses);
+                }
+            }
+        }
+        return fieldClasses;
+    }
+
+    private static void addMessageClasses (Type type, Set<Class<?>> fieldClasses) {
+        if (type instanceof ParameterizedType) {
+            //collections, maps, etc.
+            addMessageClasses (((ParameterizedType) type).getRawType (), fieldClasses);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments ()) {
+                addMessageClasses (argument, fieldClasses);
+            }
+        } else if (type instanceof GenericArrayType) {
+            addMessageClasses (((GenericArrayType) type).getGenericComponentType (), fieldClasses);
+        } else if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            while (clazz.isArray ()) {
+                clazz = clazz.getComponentType ();
+            }
+
+            if (isMessageClass (clazz)) {
+                fieldClasses.add (clazz);
+            }
+        }
+    }
+
+    private static boolean isMessageClass (Class<?> clazz) {
+        if (clazz.isPrimitive () || clazz.isEnum () || clazz.isInterface ()
+                || Modifier.isAbstract (clazz.getModifiers ())) {
+            return false;
+        }
+
+        String name = clazz.getName ();
+        return !name.startsWith ("java.") && !name.startsWith ("javax.");
+    }
+
+}
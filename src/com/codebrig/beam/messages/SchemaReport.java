@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Time spent building message schemas during a SchemaRegistry warmup, and
+ * the message classes whose schemas couldn't be built.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class SchemaReport
+{
+
+    private final List<Entry> entries = new ArrayList<> ();
+    private final List<Failure> failures = new ArrayList<> ();
+
+    void add (Class<?> messageClass, long buildTime, long firstUseTime, int fieldCount, boolean registered) {
+        entries.add (new Entry (messageClass, buildTime, firstUseTime, fieldCount, registered));
+    }
+
+    void addFailure (Class<?> messageClass, RuntimeException cause) {
+        failures.add (new Failure (messageClass, cause));
+    }
+
+    public List<Entry> getEntries () {
+        return Collections.unmodifiableList (entries);
+    }
+
+    /**
+     * @return message classes whose schemas couldn't be built or used
+     */
+    public List<Failure> getFailures () {
+        return Collections.unmodifiableList (failures);
+    }
+
+    /**
+     * @return total nanoseconds spent building and first using schemas
+     */
+    public long getTotalTime () {
+        long totalTime = 0;
+        for (Entry entry : entries) {
+            totalTime += entry.getBuildTime () + entry.getFirstUseTime ();
+        }
+        return totalTime;
+    }
+
+    @Override
+    public String toString () {
+        StringBuilder sb = new StringBuilder ();
+        sb.append (String.format ("Built %s message schemas in %.3f ms",
+                entries.size (), getTotalTime () / 1000000.0));
+        for (Entry entry : entries) {
+            sb.append (String.format ("%n  %s: build %.3f ms; first use %.3f ms; %s",
+                    entry.getMessageClass ().getName (), entry.getBuildTime () / 1000000.0,
+                    entry.getFirstUseTime () / 1000000.0,
+                    entry.isRegistered () ? "registered schema" : entry.getFieldCount () + " fields"));
+        }
+        for (Failure failure : failures) {
+            sb.append (String.format ("%n  %s: failed; %s",
+                    failure.getMessageClass ().getName (), failure.getCause ()));
+        }
+        return sb.toString ();
+    }
+
+    public static class Entry
+    {
+
+        private final Class<?> messageClass;
+        private final long buildTime;
+        private final long firstUseTime;
+        private final int fieldCount;
+        private final boolean registered;
+
+        Entry (Class<?> messageClass, long buildTime, long firstUseTime, int fieldCount, boolean registered) {
+            this.messageClass = messageClass;
+            this.buildTime = buildTime;
+            this.firstUseTime = firstUseTime;
+            this.fieldCount = fieldCount;
+            this.registered = registered;
+        }
+
+        public Class<?> getMessageClass () {
+            return messageClass;
+        }
+
+        /**
+         * @return nanoseconds spent building (or looking up) the schema
+         */
+        public long getBuildTime () {
+            return buildTime;
+        }
+
+        /**
+         * @return nanoseconds spent serializing and deserializing the first
+         * message
+         */
+        public long getFirstUseTime () {
+            return firstUseTime;
+        }
+
+        /**
+         * @return number of serialized fields; -1 for registered schemas
+         */
+        public int getFieldCount () {
+            return fieldCount;
+        }
+
+        /**
+         * @return true if the schema was hand written rather than built by
+         * reflection
+         */
+        public boolean isRegistered () {
+            return registered;
+        }
+
+    }
+
+    public static class Failure
+    {
+
+        private final Class<?> messageClass;
+        private final RuntimeException cause;
+
+        Failure (Class<?> messageClass, RuntimeException cause) {
+            this.messageClass = messageClass;
+            this.cause = cause;
+        }
+
+        public Class<?> getMessageClass () {
+            return messageClass;
+        }
+
+        /**
+         * @return what was thrown building or first using the schema
+         */
+        public RuntimeException getCause () {
+            return cause;
+        }
+
+    }
+
+}
@@ -100,6 +100,26 @@ public class SystemMessageType implements BeamMessageType
      */
     public static final int FILE_BURST = -12;
 
+    /**
+     *
+     */
+    public static final int FILE_ACK = -13;
+
+    /**
+     *
+     */
+    public static final int FILE_CHECKPOINT = -14;
+
+    /**
+     *
+     */
+    public static final int FILE_SIGNATURE = -15;
+
+    /**
+     *
+     */
+    public static final int FILE_DELTA = -16;
+
     @Override
     public String getName (int messageType) {
         switch (messageType) {
@@ -127,6 +147,14 @@ public class SystemMessageType implements BeamMessageType
                 return "FILE_DATA";
             case FILE_BURST:
                 return "FILE_BURST";
+            case FILE_ACK:
+                return "FILE_ACK";
+            case FILE_CHECKPOINT:
+                return "FILE_CHECKPOINT";
+            case FILE_SIGNATURE:
+                return "FILE_SIGNATURE";
+            case FILE_DELTA:
+                return "FILE_DELTA";
         }
         return null;
     }
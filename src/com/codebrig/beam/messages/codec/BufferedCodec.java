@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages.codec;
+
+import com.codebrig.beam.messages.MessageBufferPool;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.Schema;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codec which serializes into pooled buffers sized by the last message of
+ * the same class.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+abstract class BufferedCodec implements MessageCodec
+{
+
+    private static final MessageBufferPool bufferPool = MessageBufferPool.getDefault ();
+    private final ConcurrentHashMap<Class<?>, Integer> serializedSizeHints = new ConcurrentHashMap<> ();
+    private final int id;
+    private final int minBufferSize;
+
+    BufferedCodec (int id) {
+        this (id, 0);
+    }
+
+    BufferedCodec (int id, int minBufferSize) {
+        this.id = id;
+        this.minBufferSize = minBufferSize;
+    }
+
+    @Override
+    public int getId () {
+        return id;
+    }
+
+    @Override
+    public <T> byte[] serialize (T message, Schema<T> schema) {
+        Integer sizeHint = serializedSizeHints.get (message.getClass ());
+        byte[] chunk = bufferPool.acquire (Math.max (minBufferSize, sizeHint == null ? 0 : sizeHint));
+        byte[] data;
+        try {
+            data = toByteArray (message, schema, LinkedBuffer.use (chunk));
+        } finally {
+            bufferPool.release (chunk);
+        }
+
+        if (sizeHint == null || sizeHint != data.length) {
+            serializedSizeHints.put (message.getClass (), data.length);
+        }
+        return data;
+    }
+
+    abstract <T> byte[] toByteArray (T message, Schema<T> schema, LinkedBuffer buffer);
+
+}
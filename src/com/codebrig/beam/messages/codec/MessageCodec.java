@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages.codec;
+
+import io.protostuff.Schema;
+
+/**
+ * Serializes messages which aren't raw data. The codec's id is carried in
+ * the frame header so the receiving end deserializes with the same codec;
+ * both ends must register it under the same id. Peers which don't support
+ * codecs are sent the default (protostuff) serialization instead.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ * @see MessageCodecs
+ */
+public interface MessageCodec
+{
+
+    /**
+     * @return id carried in the frame header (0-255)
+     */
+    public int getId ();
+
+    public <T> byte[] serialize (T message, Schema<T> schema);
+
+    /**
+     * @throws com.codebrig.beam.messages.InvalidBeamMessage if the data
+     * can't be read
+     */
+    public <T> void deserialize (byte[] data, T message, Schema<T> schema);
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages.codec;
+
+import java.util.Arrays;
+
+/**
+ * Codecs by id. The codecs bundled with Beam are registered by default;
+ * others must be registered on both ends before use.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public final class MessageCodecs
+{
+
+    public static final MessageCodec PROTOSTUFF = new ProtostuffCodec ();
+    public static final MessageCodec GRAPH = new GraphCodec ();
+    public static final MessageCodec JSON = new JsonCodec ();
+    public static final MessageCodec SMILE = new SmileCodec ();
+
+    private static final Object registerLock = new Object ();
+    private static volatile MessageCodec[] codecs = new MessageCodec[256];
+
+    static {
+        register (PROTOSTUFF);
+        register (GRAPH);
+        register (JSON);
+        register (SMILE);
+    }
+
+    private MessageCodecs () {
+    }
+
+    /**
+     * @param codec codec to register; replaces any codec with the same id
+     */
+    public static void register (MessageCodec codec) {
+        if (codec.getId () < 0 || codec.getId () >= codecs.length) {
+            throw new IllegalArgumentException ("Invalid codec id: " + codec.getId ());
+        }
+
+        synchronized (registerLock) {
+            //copied so lookups don't need the lock
+            MessageCodec[] newCodecs = Arrays.copyOf (codecs, codecs.length);
+            newCodecs[codec.getId ()] = codec;
+            codecs = newCodecs;
+        }
+    }
+
+    /**
+     * @param id codec id
+     * @return registered codec; null if none
+     */
+    public static MessageCodec getCodec (int id) {
+        if (id < 0 || id >= codecs.length) {
+            return null;
+        }
+
+        return codecs[id];
+    }
+
+}
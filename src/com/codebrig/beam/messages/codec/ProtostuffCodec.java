@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.messages.codec;
+
+import com.codebrig.beam.messages.InvalidBeamMessage;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+
+/**
+ * Protostuff binary format. The default codec; fastest and most compact.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class ProtostuffCodec extends BufferedCodec
+{
+
+    public static final int ID = 0;
+
+    public ProtostuffCodec () {
+        super (ID);
+    }
+
+    @Override
+    <T> byte[] toByteArray (T message, Schema<T> schema, LinkedBuffer buffer) {
+        return ProtostuffIOUtil.toByteArray (message, schema, buffer);
+    }
+
+    @Override
+    public <T> void deserialize (byte[] data, T message, Schema<T> schema) {
+        try {
+            ProtostuffIOUtil.mergeFrom (data, message, schema);
+        } catch (RuntimeException ex) {
+            throw new InvalidBeamMessage ("Unable to deserialize message: " + ex.getMessage ());
+        }
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.pool;
+
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.PreparedMessage;
+import com.codebrig.beam.dispatch.DispatchExecutor;
+import com.codebrig.beam.messages.BeamMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Messaging and broadcast behavior shared by CommunicatorPool implementations.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public abstract class AbstractCommunicatorPool implements CommunicatorPool, Iterable<Communicator>
+{
+
+    public static final long DEFAULT_SLOW_CONSUMER_PENDING_BYTES = 1024 * 1024 * 4; //4 MB
+    public static final long DEFAULT_SLOW_CONSUMER_STALL_TIME = 1000; //1 second
+    public static final long DEFAULT_BROADCAST_WAIT_TIME = 1000 * 30; //30 seconds
+
+    private String name;
+    private int broadcastParallelism = 1;
+    private Executor broadcastExecutor;
+    private long slowConsumerPendingBytes = DEFAULT_SLOW_CONSUMER_PENDING_BYTES;
+    private long slowConsumerStallTime = DEFAULT_SLOW_CONSUMER_STALL_TIME;
+    private long broadcastWaitTime = DEFAULT_BROADCAST_WAIT_TIME;
+
+    public AbstractCommunicatorPool (String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void setName (String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName () {
+        return name;
+    }
+
+    @Override
+    public boolean sendDirectMessage (long communicatorUID, BeamMessage message) {
+        Communicator comm = getCommunicator (communicatorUID);
+
+        if (comm != null && comm.isRunning ()) {
+            comm.queue (message);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public int broadcastMessage (BeamMessage message) {
+        return broadcast (message).getSentCount ();
+    }
+
+    /**
+     * @param message message to send every Communicator in this pool.
+     * @return recipients sent to, dropped and purged, and the time spent
+     */
+    public BroadcastResult broadcast (BeamMessage message) {
+        //serialize once for every recipient
+        long startTime = System.nanoTime ();
+        PreparedMessage preparedMessage = new PreparedMessage (message);
+        long serializeNanos = System.nanoTime () - startTime;
+
+        BroadcastResult result = broadcast (preparedMessage);
+        return new BroadcastResult (result.getSentCount (), result.getDroppedCount (),
+                result.getPurgedCount (), serializeNanos, result.getWriteNanos ());
+    }
+
+    /**
+     * @param message message, serialized once, to send every Communicator in
+     * this pool.
+     * @return recipients sent to, dropped and purged, and the time spent
+     */
+    public BroadcastResult broadcast (final PreparedMessage message) {
+        long startTime = System.nanoTime ();
+        final AtomicInteger sentCount = new AtomicInteger ();
+        final AtomicInteger droppedCount = new AtomicInteger ();
+
+        if (broadcastParallelism == 1) {
+            //write as we go; no need to gather recipients first
+            int purgedCount = 0;
+            for (Communicator comm : this) {
+                if (comm.isRunning ()) {
+                    writeBroadcast (message, comm, sentCount, droppedCount);
+                } else {
+                    //old communicator, need to purge it
+                    removeCommunicator (comm.getUID ());
+                    purgedCount++;
+                }
+            }
+
+            return new BroadcastResult (sentCount.get (), droppedCount.get (), purgedCount,
+                    0, System.nanoTime () - startTime);
+        }
+
+        final ArrayList<Communicator> recipients = new ArrayList<> (size ());
+        int purgedCount = 0;
+        for (Communicator comm : this) {
+            if (comm.isRunning ()) {
+                recipients.add (comm);
+            } else {
+                //old communicator, need to purge it
+                removeCommunicator (comm.getUID ());
+                purgedCount++;
+            }
+        }
+
+        final int sliceCount = Math.max (1, Math.min (broadcastParallelism, recipients.size ()));
+        final int sliceSize = (recipients.size () + sliceCount - 1) / sliceCount;
+
+        //slices are claimed by whichever thread gets to them first; those the executor
+        //never runs (discarded, rejected or still queued) are written by the calling thread
+        final AtomicBoolean[] claimedSlices = new AtomicBoolean[sliceCount];
+        final CountDownLatch latch = new CountDownLatch (sliceCount - 1);
+        for (int i = 1; i < sliceCount; i++) {
+            final int sliceStart = i * sliceSize;
+            final AtomicBoolean claimed = claimedSlices[i] = new AtomicBoolean ();
+            try {
+                getBroadcastExecutor ().execute (new Runnable ()
+                {
+
+                    @Override
+                    public void run () {
+                        if (claimed.compareAndSet (false, true)) {
+                            try {
+                                broadcastSlice (message, recipients, sliceStart, sliceSize, sentCount, droppedCount);
+                            } finally {
+                                latch.countDown ();
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                //written below
+            }
+        }
+
+        //first slice is written by the calling thread
+        broadcastSlice (message, recipients, 0, sliceSize, sentCount, droppedCount);
+        for (int i = 1; i < sliceCount; i++) {
+            if (claimedSlices[i].compareAndSet (false, true)) {
+                try {
+                    broadcastSlice (message, recipients, i * sliceSize, sliceSize, sentCount, droppedCount);
+                } finally {
+                    latch.countDown ();
+                }
+            }
+        }
+
+        int unfinishedCount = 0;
+        try {
+            if (!latch.await (broadcastWaitTime, TimeUnit.MILLISECONDS)) {
+                //slices still being written are reported as dropped
+                unfinishedCount = Math.max (0, recipients.size () - sentCount.get () - droppedCount.get ());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread ().interrupt ();
+            unfinishedCount = Math.max (0, recipients.size () - sentCount.get () - droppedCount.get ());
+        }
+
+        return new BroadcastResult (sentCount.get (), droppedCount.get () + unfinishedCount, purgedCount,
+                0, System.nanoTime () - startTime);
+    }
+
+    private void broadcastSlice (PreparedMessage message, List<Communicator> recipients,
+            int sliceStart, int sliceSize, AtomicInteger sentCount, AtomicInteger droppedCount) {
+        int sliceEnd = Math.min (recipients.size (), sliceStart + sliceSize);
+        for (int i = sliceStart; i < sliceEnd; i++) {
+            writeBroadcast (message, recipients.get (i), sentCount, droppedCount);
+        }
+    }
+
+    private void writeBroadcast (PreparedMessage message, Communicator comm,
+            AtomicInteger sentCount, AtomicInteger droppedCount) {
+        if (isSlowConsumer (comm)) {
+            //don't let one backed up client hold up everyone else
+            droppedCount.incrementAndGet ();
+        } else if (comm.queue (message)) {
+            sentCount.incrementAndGet ();
+        } else {
+            droppedCount.incrementAndGet ();
+        }
+    }
+
+    private boolean isSlowConsumer (Communicator comm) {
+        return comm.getPendingWriteBytes () > slowConsumerPendingBytes
+                || comm.getWriteStallTime () > slowConsumerStallTime;
+    }
+
+    private Executor getBroadcastExecutor () {
+        Executor executor = broadcastExecutor;
+        if (executor == null) {
+            executor = DispatchExecutor.getDefault ();
+        }
+
+        return executor;
+    }
+
+    /**
+     * @param broadcastParallelism number of threads a broadcast is written
+     * by; the calling thread being one of them.
+     */
+    public void setBroadcastParallelism (int broadcastParallelism) {
+        if (broadcastParallelism < 1) {
+            throw new IllegalArgumentException ("Invalid broadcast parallelism: " + broadcastParallelism);
+        }
+
+        this.broadcastParallelism = broadcastParallelism;
+    }
+
+    public int getBroadcastParallelism () {
+        return broadcastParallelism;
+    }
+
+    /**
+     * @param broadcastExecutor executor used for broadcast parallelism above
+     * one. Uses DispatchExecutor.getDefault () if null.
+     */
+    public void setBroadcastExecutor (Executor broadcastExecutor) {
+        this.broadcastExecutor = broadcastExecutor;
+    }
+
+    /**
+     * @param slowConsumerPendingBytes Communicators with more bytes than this
+     * waiting to be written are skipped by broadcasts.
+     */
+    public void setSlowConsumerPendingBytes (long slowConsumerPendingBytes) {
+        this.slowConsumerPendingBytes = slowConsumerPendingBytes;
+    }
+
+    public long getSlowConsumerPendingBytes () {
+        return slowConsumerPendingBytes;
+    }
+
+    /**
+     * @param slowConsumerStallTime Communicators with a write blocked for
+     * longer than this many milliseconds are skipped by broadcasts.
+     */
+    public void setSlowConsumerStallTime (long slowConsumerStallTime) {
+        this.slowConsumerStallTime = slowConsumerStallTime;
+    }
+
+    public long getSlowConsumerStallTime () {
+        return slowConsumerStallTime;
+    }
+
+    /**
+     * @param broadcastWaitTime milliseconds a parallel broadcast waits for
+     * its other threads to finish writing; recipients they haven't reached by
+     * then are reported as dropped.
+     */
+    public void setBroadcastWaitTime (long broadcastWaitTime) {
+        this.broadcastWaitTime = broadcastWaitTime;
+    }
+
+    public long getBroadcastWaitTime () {
+        return broadcastWaitTime;
+    }
+
+    @Override
+    public void close () {
+        for (Communicator comm : this) {
+            comm.close ();
+        }
+
+        clear ();
+    }
+
+    /**
+     * Removes every Communicator without closing them.
+     */
+    protected abstract void clear ();
+
+    @Override
+    public boolean hasCommunicator (long commmunicatorUID) {
+        Communicator comm = getCommunicator (commmunicatorUID);
+        return comm != null;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.pool;
+
+/**
+ * Outcome of broadcasting a message to a CommunicatorPool.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class BroadcastResult
+{
+
+    private final int sentCount;
+    private final int droppedCount;
+    private final int purgedCount;
+    private final long serializeNanos;
+    private final long writeNanos;
+
+    public BroadcastResult (int sentCount, int droppedCount, int purgedCount, long serializeNanos, long writeNanos) {
+        this.sentCount = sentCount;
+        this.droppedCount = droppedCount;
+        this.purgedCount = purgedCount;
+        this.serializeNanos = serializeNanos;
+        this.writeNanos = writeNanos;
+    }
+
+    /**
+     * @return number of Communicators the message was written to.
+     */
+    public int getSentCount () {
+        return sentCount;
+    }
+
+    /**
+     * @return number of running Communicators skipped for being too slow or
+     * failing the write.
+     */
+    public int getDroppedCount () {
+        return droppedCount;
+    }
+
+    /**
+     * @return number of closed Communicators removed from the pool.
+     */
+    public int getPurgedCount () {
+        return purgedCount;
+    }
+
+    public long getSerializeNanos () {
+        return serializeNanos;
+    }
+
+    public long getWriteNanos () {
+        return writeNanos;
+    }
+
+    public long getTotalNanos () {
+        return serializeNanos + writeNanos;
+    }
+
+    @Override
+    public String toString () {
+        return String.format ("BroadcastResult [sent: %s; dropped: %s; purged: %s; serialize: %s us; write: %s us]",
+                sentCount, droppedCount, purgedCount, serializeNanos / 1000, writeNanos / 1000);
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.pool;
+
+import com.codebrig.beam.Communicator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open addressing hash table of Communicators keyed by their primitive UID.
+ * Reads and iteration never lock and never allocate per entry; writes lock
+ * only the segment the UID hashes to. Iterators are weakly consistent.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+final class CommunicatorTable implements Iterable<Communicator>
+{
+
+    private static final Object TOMBSTONE = new Object ();
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final AtomicInteger size = new AtomicInteger ();
+
+    CommunicatorTable (int concurrencyLevel) {
+        int segmentCount = 1;
+        int shift = 64;
+        while (segmentCount < concurrencyLevel) {
+            segmentCount <<= 1;
+            shift--;
+        }
+
+        segments = new Segment[segmentCount];
+        segmentShift = shift;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment ();
+        }
+    }
+
+    Communicator get (long uid) {
+        long hash = hash (uid);
+        AtomicReferenceArray<Object> table = segmentFor (hash).table;
+        int mask = table.length () - 1;
+
+        for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+            Object entry = table.get (i);
+            if (entry == null) {
+                return null;
+            } else if (entry != TOMBSTONE && ((Communicator) entry).getUID () == uid) {
+                return (Communicator) entry;
+            }
+        }
+    }
+
+    Communicator put (Communicator communicator) {
+        long uid = communicator.getUID ();
+        long hash = hash (uid);
+        Segment segment = segmentFor (hash);
+
+        synchronized (segment) {
+            AtomicReferenceArray<Object> table = segment.table;
+            int mask = table.length () - 1;
+            int insertIndex = -1;
+
+            for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+                Object entry = table.get (i);
+                if (entry == null) {
+                    if (insertIndex == -1) {
+                        insertIndex = i;
+                        segment.used++;
+                    }
+                    break;
+                } else if (entry == TOMBSTONE) {
+                    if (insertIndex == -1) {
+                        insertIndex = i;
+                    }
+                } else if (((Communicator) entry).getUID () == uid) {
+                    table.set (i, communicator);
+                    return (Communicator) entry;
+                }
+            }
+
+            table.set (insertIndex, communicator);
+            segment.count++;
+            size.incrementAndGet ();
+
+            if (segment.used * 4 > table.length () * 3) {
+                //too full (or too many tombstones); rebuild
+                segment.rehash ();
+            }
+        }
+
+        return null;
+    }
+
+    Communicator remove (long uid) {
+        long hash = hash (uid);
+        Segment segment = segmentFor (hash);
+
+        synchronized (segment) {
+            AtomicReferenceArray<Object> table = segment.table;
+            int mask = table.length () - 1;
+
+            for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+                Object entry = table.get (i);
+                if (entry == null) {
+                    return null;
+                } else if (entry != TOMBSTONE && ((Communicator) entry).getUID () == uid) {
+                    table.set (i, TOMBSTONE);
+                    segment.count--;
+                    size.decrementAndGet ();
+                    return (Communicator) entry;
+                }
+            }
+        }
+    }
+
+    void clear () {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size.addAndGet (-segment.count);
+                segment.count = 0;
+                segment.used = 0;
+                segment.table = new AtomicReferenceArray<> (INITIAL_SEGMENT_CAPACITY);
+            }
+        }
+    }
+
+    int size () {
+        return size.get ();
+    }
+
+    @Override
+    public Iterator<Communicator> iterator () {
+        return new TableIterator ();
+    }
+
+    private Segment segmentFor (long hash) {
+        return segments[segmentShift == 64 ? 0 : (int) (hash >>> segmentShift)];
+    }
+
+    private static long hash (long uid) {
+        //murmur3 finalizer; spreads sequential UIDs
+        uid ^= uid >>> 33;
+        uid *= 0xff51afd7ed558ccdL;
+        uid ^= uid >>> 33;
+        uid *= 0xc4ceb9fe1a85ec53L;
+        uid ^= uid >>> 33;
+        return uid;
+    }
+
+    private static final class Segment
+    {
+
+        volatile AtomicReferenceArray<Object> table = new AtomicReferenceArray<> (INITIAL_SEGMENT_CAPACITY);
+        int used; //occupied slots, tombstones included
+        int count; //live entries
+
+        void rehash () {
+            AtomicReferenceArray<Object> oldTable = table;
+            int capacity = INITIAL_SEGMENT_CAPACITY;
+            while (count * 2 > capacity) {
+                capacity <<= 1;
+            }
+
+            AtomicReferenceArray<Object> newTable = new AtomicReferenceArray<> (capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldTable.length (); i++) {
+                Object entry = oldTable.get (i);
+                if (entry != null && entry != TOMBSTONE) {
+                    int index = (int) hash (((Communicator) entry).getUID ()) & mask;
+                    while (newTable.get (index) != null) {
+                        index = (index + 1) & mask;
+                    }
+                    newTable.set (index, entry);
+                }
+            }
+
+            used = count;
+            table = newTable; //readers still on the old table see it as it was
+        }
+
+    }
+
+    private class TableIterator implements Iterator<Communicator>
+    {
+
+        private int segmentIndex = -1;
+        private AtomicReferenceArray<Object> table;
+        private int index;
+        private Communicator next;
+        private Communicator last;
+
+        public TableIterator () {
+            advance ();
+        }
+
+        private void advance () {
+            next = null;
+            while (true) {
+                if (table != null) {
+                    while (index < table.length ()) {
+                        Object entry = table.get (index++);
+                        if (entry != null && entry != TOMBSTONE) {
+                            next = (Communicator) entry;
+                            return;
+                        }
+                    }
+                }
+
+                if (++segmentIndex >= segments.length) {
+                    return;
+                }
+                table = segments[segmentIndex].table;
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext () {
+            return next != null;
+        }
+
+        @Override
+        public Communicator next () {
+            if (next == null) {
+                throw new NoSuchElementException ();
+            }
+
+            last = next;
+            advance ();
+            return last;
+        }
+
+        @Override
+        public void remove () {
+            if (last == null) {
+                throw new IllegalStateException ();
+            }
+
+            CommunicatorTable.this.remove (last.getUID ());
+            last = null;
+        }
+
+    }
+
+}
@@ -30,8 +30,6 @@
 package com.codebrig.beam.pool;
 
 import com.codebrig.beam.Communicator;
-import com.codebrig.beam.messages.BeamMessage;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -40,32 +38,21 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
  */
-public class DefaultCommunicatorPool implements CommunicatorPool
+public class DefaultCommunicatorPool extends AbstractCommunicatorPool
 {
 
-    private String name;
     private final Map<Long, Communicator> communicators;
 
     public DefaultCommunicatorPool () {
-        name = "DefaultCommunicatorPool";
+        super ("DefaultCommunicatorPool");
         communicators = new ConcurrentHashMap<> ();
     }
 
     public DefaultCommunicatorPool (Map<Long, Communicator> communicators) {
-        name = "DefaultCommunicatorPool";
+        super ("DefaultCommunicatorPool");
         this.communicators = communicators;
     }
 
-    @Override
-    public void setName (String name) {
-        this.name = name;
-    }
-
-    @Override
-    public String getName () {
-        return name;
-    }
-
     @Override
     public void addCommunicator (Communicator communicator) {
         communicators.put (communicator.getUID (), communicator);
@@ -77,68 +64,10 @@ public class DefaultCommunicatorPool implements CommunicatorPool
     }
 
     @Override
-    public boolean sendDirectMessage (long communicatorUID, BeamMessage message) {
-        Communicator comm = communicators.get (communicatorUID);
-
-        if (comm != null && comm.isRunning ()) {
-            comm.queue (message);
-
-            return true;
-        }
-
-        return false;
-    }
-
-    @Override
-    public int broadcastMessage (BeamMessage message) {
-        final Iterator<Communicator> itr = communicators.values ().iterator ();
-        final ArrayList<Long> purgeList = new ArrayList<> ();
-        int sendCount = 0;
-
-        while (itr.hasNext ()) {
-            final Communicator comm = itr.next ();
-
-            if (comm != null) {
-                if (comm.isRunning ()) {
-                    comm.queue (message);
-                    sendCount++;
-                } else if (!comm.isRunning ()) {
-                    //old communicator, need to purge it
-                    purgeList.add (comm.getUID ());
-                }
-            }
-        }
-
-        if (!purgeList.isEmpty ()) {
-            //got some communicators we need to get rid of
-            for (long oldCommUID : purgeList) {
-                removeCommunicator (oldCommUID);
-            }
-        }
-
-        return sendCount;
-    }
-
-    @Override
-    public void close () {
-        Iterator<Communicator> itr = communicators.values ().iterator ();
-        while (itr.hasNext ()) {
-            Communicator comm = itr.next ();
-
-            if (comm != null) {
-                comm.close ();
-            }
-        }
-
+    protected void clear () {
         communicators.clear ();
     }
 
-    @Override
-    public boolean hasCommunicator (long commmunicatorUID) {
-        Communicator comm = getCommunicator (commmunicatorUID);
-        return comm != null;
-    }
-
     @Override
     public Communicator getCommunicator (long communicatorUID) {
         Communicator comm = communicators.get (communicatorUID);
@@ -161,4 +90,9 @@ public class DefaultCommunicatorPool implements CommunicatorPool
         return new HashMap<> (communicators);
     }
 
+    @Override
+    public Iterator<Communicator> iterator () {
+        return communicators.values ().iterator ();
+    }
+
 }
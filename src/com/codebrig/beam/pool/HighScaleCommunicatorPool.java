@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.pool;
+
+import com.codebrig.beam.Communicator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * CommunicatorPool for servers with a very large number of connections.
+ * Communicators are kept in a primitive long keyed table, so adding, removing
+ * and looking up Communicators doesn't box UIDs or allocate map entries, and
+ * iterating the pool (broadcasts, ping-pong) doesn't copy it.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class HighScaleCommunicatorPool extends AbstractCommunicatorPool
+{
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+
+    private final CommunicatorTable communicators;
+
+    public HighScaleCommunicatorPool () {
+        this (DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param concurrencyLevel number of independently locked segments
+     * Communicators are spread across.
+     */
+    public HighScaleCommunicatorPool (int concurrencyLevel) {
+        super ("HighScaleCommunicatorPool");
+
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException ("Invalid concurrency level: " + concurrencyLevel);
+        }
+        communicators = new CommunicatorTable (concurrencyLevel);
+    }
+
+    @Override
+    public void addCommunicator (Communicator communicator) {
+        communicators.put (communicator);
+    }
+
+    @Override
+    public Communicator removeCommunicator (long communicatorUID) {
+        return communicators.remove (communicatorUID);
+    }
+
+    @Override
+    protected void clear () {
+        communicators.clear ();
+    }
+
+    @Override
+    public Communicator getCommunicator (long communicatorUID) {
+        Communicator comm = communicators.get (communicatorUID);
+        if (comm != null && !comm.isRunning ()) {
+            //comm no longer running
+            removeCommunicator (communicatorUID);
+            return null;
+        }
+
+        return comm;
+    }
+
+    @Override
+    public int size () {
+        return communicators.size ();
+    }
+
+    /**
+     * Copies the pool into a new map; use iterator () to avoid the copy.
+     *
+     * @return map of every Communicator by UID.
+     */
+    @Override
+    public Map<Long, Communicator> getAllCommunicators () {
+        Map<Long, Communicator> allCommunicators = new HashMap<> ();
+        for (Communicator comm : communicators) {
+            allCommunicators.put (comm.getUID (), comm);
+        }
+
+        return allCommunicators;
+    }
+
+    /**
+     * @return weakly consistent iterator over every Communicator in the pool.
+     */
+    @Override
+    public Iterator<Communicator> iterator () {
+        return communicators.iterator ();
+    }
+
+}
@@ -56,7 +56,7 @@ public class HandshakeHandler extends SystemHandler
         //capture handshake
         boolean performingHandshake = comm.isPerformingHandshake ();
         HandshakeMessage map = new HandshakeMessage (message);
-        comm.captureHandshake (map.getVersion (), map.getLocalTime (), map.isTunnelConnection ());
+        comm.captureHandshake (map.getVersion (), map.getLocalTime (), map.isTunnelConnection (), map.getFeatures ());
 
         if (performingHandshake) {
             if (comm.isHandshakeComplete ()) {
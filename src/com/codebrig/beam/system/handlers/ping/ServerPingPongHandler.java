@@ -30,6 +30,7 @@
 package com.codebrig.beam.system.handlers.ping;
 
 import com.codebrig.beam.Communicator;
+import com.codebrig.beam.PreparedMessage;
 import com.codebrig.beam.SystemCommunicator;
 import com.codebrig.beam.handlers.SystemHandler;
 import com.codebrig.beam.messages.BeamMessage;
@@ -37,191 +38,304 @@ import com.codebrig.beam.messages.SystemMessage;
 import com.codebrig.beam.messages.SystemMessageType;
 import com.codebrig.beam.pool.CommunicatorPool;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 /**
+ * Detects dead connections with a hashed timing wheel. Each Communicator is
+ * only pinged once nothing has been read from it for the idle time, is pinged
+ * again every ping interval after that, and is closed once it has missed the
+ * max missed pings. Since deadlines follow each Communicator's own last read,
+ * pings are spread out over time instead of being sent to everyone at once.
+ * Pings and closes are written off the wheel's thread so one Communicator
+ * which stopped reading can't hold up the rest; one with a write in progress
+ * isn't pinged at all and counts as having missed the ping.
+ *
  * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
  */
 public class ServerPingPongHandler extends SystemHandler implements Runnable
 {
 
+    public static final long DEFAULT_IDLE_TIME = 60 * 1000; //60 seconds
+    public static final long DEFAULT_PING_INTERVAL = 10 * 1000; //10 seconds
+    public static final int DEFAULT_MAX_MISSED_PINGS = 3;
+    public static final long DEFAULT_TICK_DURATION = 1000; //1 second
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
     private final Object lock = new Object ();
     private final CommunicatorPool pool;
-    private final BeamMessage pingMessage;
+    private final PreparedMessage pingMessage;
+    private final Queue<IdleEntry> pendingEntries;
+    private final long tickDuration;
+    private final List<IdleEntry>[] wheel;
+    private final ExecutorService writeExecutor;
+    private final int wheelMask;
+    private long startTime;
+    private long currentTick;
 
     private volatile boolean keepGoing = true;
-    private volatile Set<Long> responders;
+    private volatile long idleTime = DEFAULT_IDLE_TIME;
+    private volatile long pingInterval = DEFAULT_PING_INTERVAL;
+    private volatile int maxMissedPings = DEFAULT_MAX_MISSED_PINGS;
 
     public ServerPingPongHandler (CommunicatorPool pool) {
+        this (pool, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param pool pool Communicators are removed from once closed.
+     * @param tickDuration milliseconds between each turn of the wheel; the
+     * precision of idle detection.
+     * @param wheelSize number of buckets in the wheel; rounded up to a power
+     * of two.
+     */
+    public ServerPingPongHandler (CommunicatorPool pool, long tickDuration, int wheelSize) {
         super (SystemMessageType.PING_PONG);
 
+        if (tickDuration < 1) {
+            throw new IllegalArgumentException ("Invalid tick duration: " + tickDuration);
+        } else if (wheelSize < 1) {
+            throw new IllegalArgumentException ("Invalid wheel size: " + wheelSize);
+        }
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
         this.pool = pool;
-        this.pingMessage = new SystemMessage (SystemMessageType.PING_PONG);
+        this.pingMessage = new PreparedMessage (new SystemMessage (SystemMessageType.PING_PONG));
+        this.pendingEntries = new ConcurrentLinkedQueue<> ();
+        this.tickDuration = tickDuration;
+        @SuppressWarnings ("unchecked")
+        List<IdleEntry>[] wheel = (List<IdleEntry>[]) new List<?>[size];
+        this.wheel = wheel;
+        this.wheelMask = size - 1;
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<> ();
+        }
+
+        writeExecutor = Executors.newCachedThreadPool (new ThreadFactory ()
+        {
+
+            @Override
+            public Thread newThread (Runnable runnable) {
+                Thread thread = new Thread (runnable, "Ping Pong Writer");
+                thread.setDaemon (true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts watching a Communicator for idleness.
+     *
+     * @param comm communicator to watch.
+     */
+    public void addCommunicator (Communicator comm) {
+        pendingEntries.add (new IdleEntry (comm));
     }
 
     @Override
     public void run () {
+        startTime = System.currentTimeMillis ();
+
         while (keepGoing) {
-            if (pool.size () != 0) {
-                responders = new HashSet<Long> ();
-
-                //get list of online users (that aren't claimed) and ping everyone
-                Map<Long, Communicator> allCommun
-                        = removeClaimedCommunicators (pool.getAllCommunicators ());
-                broadcastMessage (pingMessage, allCommun);
-
-                //broadcasted ping. lets wait 10 seconds and see who responds
-                rest (10);
-                if (!keepGoing) {
-                    //quit early
-                    break;
+            //wait for next tick
+            long tickTime = startTime + (currentTick + 1) * tickDuration;
+            synchronized (lock) {
+                long waitTime;
+                while (keepGoing && (waitTime = tickTime - System.currentTimeMillis ()) > 0) {
+                    try {
+                        lock.wait (waitTime);
+                    } catch (InterruptedException ex) {
+                        //eat it
+                    }
                 }
+            }
+            if (!keepGoing) {
+                break;
+            }
 
-                //purge responders and try again
-                allCommun = purgeCommunicators (allCommun);
-                broadcastMessage (pingMessage, allCommun);
-
-                //broadcasted ping. lets wait 10 seconds and see who responds
-                rest (10);
-                if (!keepGoing) {
-                    //quit early
-                    break;
-                }
+            long now = System.currentTimeMillis ();
+            currentTick++;
 
-                //purge responders once more and try again
-                allCommun = purgeCommunicators (allCommun);
-                broadcastMessage (pingMessage, allCommun);
+            //schedule newly added communicators
+            IdleEntry entry;
+            while ((entry = pendingEntries.poll ()) != null) {
+                schedule (entry, entry.comm.getLastReadTime () + idleTime);
+            }
 
-                //broadcasted ping. lets wait 10 seconds and see who responds
-                rest (10);
-                if (!keepGoing) {
-                    //quit early
-                    break;
+            //process due communicators
+            List<IdleEntry> bucket = wheel[(int) (currentTick & wheelMask)];
+            ArrayList<IdleEntry> due = new ArrayList<> ();
+            for (int i = bucket.size () - 1; i >= 0; i--) {
+                entry = bucket.get (i);
+                if (entry.remainingRounds > 0) {
+                    entry.remainingRounds--;
+                } else {
+                    //swap remove; order within a bucket doesn't matter
+                    bucket.set (i, bucket.get (bucket.size () - 1));
+                    bucket.remove (bucket.size () - 1);
+                    due.add (entry);
                 }
+            }
 
-                //whoever hasn't responded by this point is no longer connected
-                //kick them off
-                responders = null;
-                if (allCommun.size () > 0) {
-                    for (Communicator comm : allCommun.values ()) {
-                        pool.removeCommunicator (comm.getUID ());
-
-                        if (comm.isRunning ()) {
-                            comm.close ();
-                        }
-                    }
-
-                    System.out.println (String.format ("Purged %s sleeping communicators", allCommun.size ()));
+            int purgeCount = 0;
+            for (IdleEntry dueEntry : due) {
+                if (!process (dueEntry, now)) {
+                    purgeCount++;
                 }
             }
 
-            rest (60);
+            if (purgeCount > 0) {
+                System.out.println (String.format ("Purged %s sleeping communicators", purgeCount));
+            }
         }
 
         //System.out.println ("ThreadedPingPong Handler Ended!");
     }
 
-    public void kill () {
-        //System.out.println ("Killing ThreadedPingPong Handler...");
-        keepGoing = false;
+    /**
+     * @return false if the communicator was closed for missing pings; true
+     * otherwise.
+     */
+    private boolean process (IdleEntry entry, long now) {
+        Communicator comm = entry.comm;
+        if (!comm.isRunning ()) {
+            //already gone; stop watching
+            return true;
+        }
 
-        synchronized (lock) {
-            lock.notifyAll (); //wake self up
+        long lastRead = comm.getLastReadTime ();
+        if (comm.isClaimed ()) {
+            //user is busy, we can't talk to them.
+            //since they're busy we don't need to check if they are still connected
+            entry.missedPings = 0;
+            schedule (entry, now + idleTime);
+            return true;
+        } else if (now - lastRead < idleTime) {
+            //heard from them; check again once idle
+            entry.missedPings = 0;
+            schedule (entry, lastRead + idleTime);
+            return true;
         }
-    }
 
-    private void broadcastMessage (BeamMessage message, Map<Long, Communicator> commun) {
-        final Iterator<Communicator> itr = commun.values ().iterator ();
-        final ArrayList<Long> purgeList = new ArrayList<Long> ();
+        if (entry.missedPings >= maxMissedPings) {
+            //whoever hasn't responded by this point is no longer connected
+            //kick them off
+            pool.removeCommunicator (comm.getUID ());
+            write (comm, null);
+            return false;
+        }
 
-        while (itr.hasNext ()) {
-            final Communicator comm = itr.next ();
+        entry.missedPings++;
+        if (comm.getWriteStallTime () == 0) {
+            write (comm, pingMessage);
+        } //else a ping would only queue behind a write the peer isn't reading
+        schedule (entry, now + pingInterval);
+        return true;
+    }
 
-            if (comm != null) {
-                if (comm.isRunning ()) {
-                    if (comm.isClaimed ()) {
-                        //user is busy, we can't talk to them.
-                        //since they're busy we don't need to check if they are still connected
-                        purgeList.add (comm.getUID ());
+    /**
+     * Pings or closes a Communicator without blocking the wheel.
+     *
+     * @param message ping to send; null to close.
+     */
+    private void write (final Communicator comm, final PreparedMessage message) {
+        try {
+            writeExecutor.execute (new Runnable ()
+            {
+
+                @Override
+                public void run () {
+                    if (message == null) {
+                        comm.close ();
                     } else {
-                        //they are avail for send
                         comm.queue (message);
                     }
-                } else if (!comm.isRunning ()) {
-                    //old communicator, need to purge it
-                    purgeList.add (comm.getUID ());
                 }
-            }
+            });
+        } catch (RejectedExecutionException ex) {
+            //handler killed
         }
+    }
 
-        if (!purgeList.isEmpty ()) {
-            //got some communicators we need to fetch rid of
-            //in the map that was given to us.
-            for (long oldCommUID : purgeList) {
-                commun.remove (oldCommUID);
-            }
-        }
+    private void schedule (IdleEntry entry, long deadline) {
+        long deadlineTick = (deadline - startTime + tickDuration - 1) / tickDuration;
+        long targetTick = Math.max (deadlineTick, currentTick + 1);
+
+        entry.remainingRounds = (targetTick - currentTick - 1) / wheel.length;
+        wheel[(int) (targetTick & wheelMask)].add (entry);
     }
 
-    private Map<Long, Communicator> removeClaimedCommunicators (Map<Long, Communicator> communicators) {
-        Map<Long, Communicator> unclaimedCommunicators = new HashMap<Long, Communicator> ();
-        Iterator<Communicator> itr = communicators.values ().iterator ();
-        while (itr.hasNext ()) {
-            Communicator next = itr.next ();
-            if (!next.isClaimed ()) {
-                unclaimedCommunicators.put (next.getUID (), next);
-            }
-        }
+    public void kill () {
+        //System.out.println ("Killing ThreadedPingPong Handler...");
+        keepGoing = false;
+        writeExecutor.shutdown ();
 
-        return unclaimedCommunicators;
+        synchronized (lock) {
+            lock.notifyAll (); //wake self up
+        }
     }
 
-    private Map<Long, Communicator> purgeCommunicators (Map<Long, Communicator> communicators) {
-        Map<Long, Communicator> noRespCommunicators = new HashMap<Long, Communicator> ();
+    /**
+     * @param idleTime milliseconds without reading anything from a
+     * Communicator before it is pinged.
+     */
+    public void setIdleTime (long idleTime) {
+        this.idleTime = idleTime;
+    }
 
-        Iterator<Communicator> itr = communicators.values ().iterator ();
-        while (itr.hasNext ()) {
-            Communicator next = itr.next ();
+    public long getIdleTime () {
+        return idleTime;
+    }
 
-            if (next.isClaimed ()) {
-                //in use
-                continue;
-            }
+    /**
+     * @param pingInterval milliseconds between pings to an idle Communicator.
+     */
+    public void setPingInterval (long pingInterval) {
+        this.pingInterval = pingInterval;
+    }
 
-            if (responders != null && !responders.contains (next.getUID ())) {
-                //didn't respond. add to noResponders 
-                noRespCommunicators.put (next.getUID (), next);
-            }
-        }
+    public long getPingInterval () {
+        return pingInterval;
+    }
 
-        return noRespCommunicators;
+    /**
+     * @param maxMissedPings number of pings an idle Communicator may leave
+     * unanswered before being closed.
+     */
+    public void setMaxMissedPings (int maxMissedPings) {
+        this.maxMissedPings = maxMissedPings;
     }
 
-    private void rest (int seconds) {
-        synchronized (lock) {
-            try {
-                if (keepGoing) {
-                    lock.wait (seconds * 1000);
-                }
-            } catch (InterruptedException ex) {
-                //eat it
-            }
-        }
+    public int getMaxMissedPings () {
+        return maxMissedPings;
     }
 
     @Override
     public BeamMessage messageReceived (SystemCommunicator comm, BeamMessage commMessage) {
-        if (responders == null) {
-            //this guy is too late. ignore
-            return null;
+        //pong received; reading it already marked the communicator as alive
+        return null;
+    }
+
+    private static class IdleEntry
+    {
+
+        private final Communicator comm;
+        private long remainingRounds;
+        private int missedPings;
+
+        public IdleEntry (Communicator comm) {
+            this.comm = comm;
         }
 
-        responders.add (comm.getCommunicator ().getUID ());
-        return null;
     }
 
 }
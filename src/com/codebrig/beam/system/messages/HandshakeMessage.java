@@ -39,9 +39,57 @@ import com.codebrig.beam.messages.SystemMessageType;
 public class HandshakeMessage extends SystemMessage<HandshakeMessage>
 {
 
+    /**
+     * Peer can read LZ4 compressed frames.
+     */
+    public static final int FEATURE_LZ4_COMPRESSION = 1;
+    /**
+     * Peer can read stream compressed frames.
+     */
+    public static final int FEATURE_STREAM_COMPRESSION = 2;
+    /**
+     * Peer can read RSA messages in the binary EncryptedEnvelope format.
+     */
+    public static final int FEATURE_ENCRYPTED_ENVELOPE = 4;
+    /**
+     * Peer can establish RSA connections with ECDH key agreement.
+     */
+    public static final int FEATURE_ECDH_HANDSHAKE = 8;
+    /**
+     * Peer can resume RSA connections with session tickets.
+     */
+    public static final int FEATURE_SESSION_TICKETS = 16;
+    /**
+     * Peer can read file blocks sent as raw data frames.
+     */
+    public static final int FEATURE_RAW_FILE_DATA = 32;
+    /**
+     * Peer can receive files with the windowed transfer protocol.
+     */
+    public static final int FEATURE_WINDOWED_TRANSFER = 64;
+    /**
+     * Peer can receive files striped across channels and resume them from a
+     * checkpoint.
+     */
+    public static final int FEATURE_PARALLEL_TRANSFER = 128;
+    /**
+     * Peer can rebuild a file from a delta against its existing copy.
+     */
+    public static final int FEATURE_DELTA_TRANSFER = 256;
+    /**
+     * Peer can read messages serialized with a codec other than the default.
+     */
+    public static final int FEATURE_MESSAGE_CODECS = 512;
+    public static final int SUPPORTED_FEATURES = FEATURE_LZ4_COMPRESSION | FEATURE_STREAM_COMPRESSION
+            | FEATURE_ENCRYPTED_ENVELOPE | FEATURE_ECDH_HANDSHAKE | FEATURE_SESSION_TICKETS
+            | FEATURE_RAW_FILE_DATA | FEATURE_WINDOWED_TRANSFER | FEATURE_PARALLEL_TRANSFER
+            | FEATURE_DELTA_TRANSFER | FEATURE_MESSAGE_CODECS;
+
     private String version;
     private long localTime;
     private boolean tunnelConnection;
+    //added last; peers without it read 0
+    private int features;
 
     public HandshakeMessage (String version, long localTime, boolean tunnelConnection) {
         super (SystemMessageType.BEAM_HANDSHAKE);
@@ -49,6 +97,7 @@ public class HandshakeMessage extends SystemMessage<HandshakeMessage>
         this.version = version;
         this.localTime = localTime;
         this.tunnelConnection = tunnelConnection;
+        this.features = SUPPORTED_FEATURES;
     }
 
     public HandshakeMessage (BeamMessage beamMessage) {
@@ -67,4 +116,11 @@ public class HandshakeMessage extends SystemMessage<HandshakeMessage>
         return tunnelConnection;
     }
 
+    /**
+     * @return features the sender supports
+     */
+    public int getFeatures () {
+        return features;
+    }
+
 }
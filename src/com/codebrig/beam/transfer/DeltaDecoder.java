@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import net.jpountz.xxhash.StreamingXXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Rebuilds a file from a delta against the existing copy into a separate
+ * file, which replaces the copy once verified. Parts of the delta received
+ * out of order are held until the parts before them arrive.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class DeltaDecoder
+{
+
+    private final static int COPY_BUFFER_SIZE = 1024 * 1024; //1MB
+
+    private final FileChannel basisChannel;
+    private final File deltaFile;
+    private final FileChannel deltaChannel;
+    private final int blockSize;
+    private final TreeMap<Long, FileDeltaMessage> pendingDeltas;
+    private final StreamingXXHash32 fileHash;
+    private final StreamingXXHash32 fileHash2;
+    private final byte[] copyBuffer;
+    private long position;
+
+    /**
+     * @param basisChannel existing copy of the file
+     * @param deltaFile where the file is rebuilt
+     */
+    DeltaDecoder (FileChannel basisChannel, File deltaFile, int blockSize) throws IOException {
+        this.basisChannel = basisChannel;
+        this.deltaFile = deltaFile;
+        this.blockSize = blockSize;
+        deltaChannel = FileChannel.open (deltaFile.toPath (), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        pendingDeltas = new TreeMap<> ();
+        fileHash = XXHashFactory.fastestJavaInstance ().newStreamingHash32 (DeltaEncoder.FILE_HASH_SEED);
+        fileHash2 = XXHashFactory.fastestJavaInstance ().newStreamingHash32 (DeltaEncoder.FILE_HASH_SEED2);
+        copyBuffer = new byte[Math.max (COPY_BUFFER_SIZE / blockSize, 1) * blockSize];
+    }
+
+    /**
+     * @return data of the file rebuilt
+     */
+    long decode (FileDeltaMessage deltaMessage) throws IOException {
+        if (deltaMessage.getPosition () < position) {
+            throw new TransferException ("Received file delta twice: " + deltaMessage.getPosition ());
+        }
+        pendingDeltas.put (deltaMessage.getPosition (), deltaMessage);
+
+        long startPosition = position;
+        FileDeltaMessage nextDelta;
+        while ((nextDelta = pendingDeltas.remove (position)) != null) {
+            ByteBuffer delta = ByteBuffer.wrap (nextDelta.getDelta ());
+            while (delta.hasRemaining ()) {
+                byte instruction = delta.get ();
+                if (instruction == FileDeltaMessage.COPY_BLOCKS) {
+                    copyBlocks (delta.getInt (), delta.getInt ());
+                } else if (instruction == FileDeltaMessage.LITERAL_DATA) {
+                    int length = delta.getInt ();
+                    write (delta.array (), delta.position (), length);
+                    delta.position (delta.position () + length);
+                } else {
+                    throw new TransferException ("Invalid file delta instruction: " + instruction);
+                }
+            }
+        }
+        return position - startPosition;
+    }
+
+    private void copyBlocks (int block, int blockCount) throws IOException {
+        long copyPosition = (long) block * blockSize;
+        long copyLength = (long) blockCount * blockSize;
+        while (copyLength > 0) {
+            ByteBuffer readBuffer = ByteBuffer.wrap (copyBuffer, 0, (int) Math.min (copyLength, copyBuffer.length));
+            while (readBuffer.hasRemaining ()) {
+                if (basisChannel.read (readBuffer, copyPosition + readBuffer.position ()) == -1) {
+                    throw new TransferException ("File delta copies missing block: " + block);
+                }
+            }
+
+            write (copyBuffer, 0, readBuffer.limit ());
+            copyPosition += readBuffer.limit ();
+            copyLength -= readBuffer.limit ();
+        }
+    }
+
+    private void write (byte[] data, int offset, int length) throws IOException {
+        ByteBuffer writeBuffer = ByteBuffer.wrap (data, offset, length);
+        while (writeBuffer.hasRemaining ()) {
+            deltaChannel.write (writeBuffer, position + writeBuffer.position () - offset);
+        }
+        fileHash.update (data, offset, length);
+        fileHash2.update (data, offset, length);
+        position += length;
+    }
+
+    /**
+     * @return data of the file rebuilt so far
+     */
+    long getPosition () {
+        return position;
+    }
+
+    /**
+     * Replaces the existing copy with the rebuilt file if it matches.
+     *
+     * @param force whether the rebuilt file is forced to disk first
+     * @return false if the rebuilt file doesn't match
+     */
+    boolean complete (File file, long fileSize, long fileHash, boolean force) throws IOException {
+        if (position != fileSize || DeltaEncoder.getFileHash (this.fileHash, fileHash2) != fileHash) {
+            discard ();
+            return false;
+        }
+
+        if (force) {
+            deltaChannel.force (true);
+        }
+        deltaChannel.close ();
+        basisChannel.close ();
+        try {
+            Files.move (deltaFile.toPath (), file.toPath (), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move (deltaFile.toPath (), file.toPath (), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the partially rebuilt file.
+     */
+    void discard () throws IOException {
+        deltaChannel.close ();
+        Files.deleteIfExists (deltaFile.toPath ());
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import net.jpountz.xxhash.StreamingXXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Encodes a file as a delta against the receiver's signature of its copy.
+ * Windows which match one of its blocks become block copies; everything
+ * else is sent as literal data.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+abstract class DeltaEncoder
+{
+
+    final static int FILE_HASH_SEED = 0x9747b28c;
+    final static int FILE_HASH_SEED2 = 0x5bd1e995;
+    private final static int MAX_DELTA_SIZE = FileTransferChannel.BUFFER_SIZE; //256KB
+    private final static long MAX_DELTA_DATA = 1024L * 1024 * 64; //64MB
+    private final static int READ_BUFFER_SIZE = 1024 * 1024; //1MB
+
+    private final FileSignature signature;
+    private final int blockSize;
+    private final ByteArrayOutputStream deltaBuffer;
+    private final DataOutputStream deltaOut;
+    private final byte[] literalBuffer;
+    private final StreamingXXHash32 fileHash;
+    private final StreamingXXHash32 fileHash2;
+    private int literalLength;
+    private int copyBlock = -1;
+    private int copyCount;
+    private long deltaPosition;
+    private long position;
+    private long literalData;
+    private boolean cancelled;
+
+    DeltaEncoder (FileSignature signature) {
+        this.signature = signature;
+        blockSize = signature.getBlockSize ();
+        deltaBuffer = new ByteArrayOutputStream (MAX_DELTA_SIZE + 64);
+        deltaOut = new DataOutputStream (deltaBuffer);
+        literalBuffer = new byte[MAX_DELTA_SIZE];
+        fileHash = XXHashFactory.fastestJavaInstance ().newStreamingHash32 (FILE_HASH_SEED);
+        fileHash2 = XXHashFactory.fastestJavaInstance ().newStreamingHash32 (FILE_HASH_SEED2);
+    }
+
+    /**
+     * Sends part of the delta.
+     *
+     * @param position position in the file the delta starts at
+     * @param length data of the file the delta rebuilds
+     * @param delta encoded instructions
+     * @return false to stop encoding
+     */
+    abstract boolean sendDelta (long position, long length, byte[] delta) throws IOException;
+
+    /**
+     * @return literal data sent; -1 if encoding was stopped
+     */
+    long encode (FileChannel fileChannel) throws IOException {
+        RollingChecksum checksum = new RollingChecksum (blockSize);
+        byte[] buffer = new byte[Math.max (blockSize * 2, READ_BUFFER_SIZE)];
+        int length = 0;
+        int offset = 0; //start of window
+        int literalStart = 0;
+        boolean rolling = false;
+        boolean endOfFile = false;
+
+        while (!cancelled) {
+            if (length - offset < blockSize && !endOfFile) {
+                //move what's left to the front and refill
+                addLiteral (buffer, literalStart, offset - literalStart);
+                System.arraycopy (buffer, offset, buffer, 0, length - offset);
+                length -= offset;
+                offset = 0;
+                literalStart = 0;
+                rolling = false;
+
+                ByteBuffer readBuffer = ByteBuffer.wrap (buffer, length, buffer.length - length);
+                while (readBuffer.hasRemaining ()) {
+                    if (fileChannel.read (readBuffer) == -1) {
+                        endOfFile = true;
+                        break;
+                    }
+                }
+                fileHash.update (buffer, length, readBuffer.position () - length);
+                fileHash2.update (buffer, length, readBuffer.position () - length);
+                length = readBuffer.position ();
+                continue;
+            } else if (length - offset < blockSize) {
+                break; //rest is shorter than a block
+            } else if (signature.getBlockCount () == 0) {
+                offset = length; //nothing to match
+                continue;
+            }
+
+            if (!rolling) {
+                checksum.reset (buffer, offset);
+                rolling = true;
+            }
+
+            int preferredBlock = (copyCount > 0) ? copyBlock + copyCount : -1;
+            int block = signature.findBlock (checksum.getValue (), buffer, offset, preferredBlock);
+            if (block != -1) {
+                addLiteral (buffer, literalStart, offset - literalStart);
+                addCopy (block);
+                offset += blockSize;
+                literalStart = offset;
+                rolling = false;
+            } else {
+                if (offset + blockSize < length) {
+                    checksum.roll (buffer[offset], buffer[offset + blockSize]);
+                } else {
+                    rolling = false;
+                }
+                offset++;
+            }
+        }
+        addLiteral (buffer, literalStart, length - literalStart);
+        flushLiteral ();
+        flushCopy ();
+        sendDelta ();
+
+        return cancelled ? -1 : literalData;
+    }
+
+    private void addLiteral (byte[] buffer, int offset, int length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+
+        flushCopy ();
+        while (length > 0) {
+            int copyLength = Math.min (length, literalBuffer.length - literalLength);
+            System.arraycopy (buffer, offset, literalBuffer, literalLength, copyLength);
+            literalLength += copyLength;
+            offset += copyLength;
+            length -= copyLength;
+
+            if (literalLength == literalBuffer.length) {
+                flushLiteral ();
+            }
+        }
+    }
+
+    private void flushLiteral () throws IOException {
+        if (literalLength == 0) {
+            return;
+        }
+
+        deltaOut.writeByte (FileDeltaMessage.LITERAL_DATA);
+        deltaOut.writeInt (literalLength);
+        deltaOut.write (literalBuffer, 0, literalLength);
+        position += literalLength;
+        literalData += literalLength;
+        literalLength = 0;
+        checkDelta ();
+    }
+
+    private void addCopy (int block) throws IOException {
+        flushLiteral ();
+        if (copyCount > 0 && block == copyBlock + copyCount) {
+            copyCount++; //continues the run
+        } else {
+            flushCopy ();
+            copyBlock = block;
+            copyCount = 1;
+        }
+
+        if ((long) copyCount * blockSize >= MAX_DELTA_DATA) {
+            flushCopy ();
+        }
+    }
+
+    private void flushCopy () throws IOException {
+        if (copyCount == 0) {
+            return;
+        }
+
+        deltaOut.writeByte (FileDeltaMessage.COPY_BLOCKS);
+        deltaOut.writeInt (copyBlock);
+        deltaOut.writeInt (copyCount);
+        position += (long) copyCount * blockSize;
+        copyCount = 0;
+        checkDelta ();
+    }
+
+    /**
+     * Sends the delta once it's large enough or rebuilds enough of the file
+     * to keep the receiver busy.
+     */
+    private void checkDelta () throws IOException {
+        if (deltaBuffer.size () >= MAX_DELTA_SIZE || position - deltaPosition >= MAX_DELTA_DATA) {
+            sendDelta ();
+        }
+    }
+
+    private void sendDelta () throws IOException {
+        if (deltaBuffer.size () == 0 || cancelled) {
+            return;
+        }
+
+        cancelled = !sendDelta (deltaPosition, position - deltaPosition, deltaBuffer.toByteArray ());
+        deltaBuffer.reset ();
+        deltaPosition = position;
+    }
+
+    /**
+     * @return size of the encoded file
+     */
+    long getFileSize () {
+        return position;
+    }
+
+    /**
+     * @return 64-bit hash of the encoded file; XXHash32 under two seeds
+     */
+    long getFileHash () {
+        return getFileHash (fileHash, fileHash2);
+    }
+
+    static long getFileHash (StreamingXXHash32 fileHash, StreamingXXHash32 fileHash2) {
+        return ((long) fileHash.getValue () << 32) | (fileHash2.getValue () & 0xffffffffL);
+    }
+
+}
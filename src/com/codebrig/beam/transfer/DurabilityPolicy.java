@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+/**
+ * When a FileTransferChannel forces received file data to disk.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public enum DurabilityPolicy
+{
+
+    /**
+     * Never; left to the operating system.
+     */
+    NONE,
+    /**
+     * Once every block has been received, before the transfer is confirmed
+     * complete. Progress is still checkpointed beforehand, without forcing it,
+     * so an interrupted parallel transfer can resume; the blocks it claims are
+     * verified by hash before they're skipped.
+     */
+    ON_COMPLETE,
+    /**
+     * After every burst (or batch of blocks with the windowed protocol),
+     * before its blocks are confirmed to the sender.
+     */
+    PER_BURST;
+
+}
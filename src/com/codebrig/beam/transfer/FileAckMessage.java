@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.SystemMessage;
+import com.codebrig.beam.messages.SystemMessageType;
+import java.util.BitSet;
+
+/**
+ * Acknowledges the blocks of a windowed file transfer which have been
+ * received. Every block before the cumulative ack has been received; the
+ * selective acks are a bitmap of the blocks received after it.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class FileAckMessage extends SystemMessage<FileAckMessage>
+{
+
+    private int cumulativeAck;
+    private byte[] selectiveAcks;
+
+    public FileAckMessage (long transferChannelId) {
+        super (SystemMessageType.FILE_ACK);
+
+        setMessageId (transferChannelId);
+    }
+
+    public FileAckMessage (BeamMessage message) {
+        super (message);
+    }
+
+    /**
+     * @param receivedBlocks every block received so far
+     * @return this message
+     */
+    public FileAckMessage setReceivedBlocks (BitSet receivedBlocks) {
+        cumulativeAck = receivedBlocks.nextClearBit (0);
+
+        int lastBlock = receivedBlocks.length ();
+        if (lastBlock > cumulativeAck + 1) {
+            //bit 0 is the block after the cumulative ack, which hasn't been received
+            selectiveAcks = receivedBlocks.get (cumulativeAck + 1, lastBlock).toByteArray ();
+        } else {
+            selectiveAcks = null;
+        }
+        return this;
+    }
+
+    /**
+     * @return every block acknowledged by this message
+     */
+    public BitSet getReceivedBlocks () {
+        BitSet receivedBlocks = new BitSet ();
+        receivedBlocks.set (0, cumulativeAck);
+
+        if (selectiveAcks != null) {
+            BitSet selective = BitSet.valueOf (selectiveAcks);
+            for (int i = selective.nextSetBit (0); i >= 0; i = selective.nextSetBit (i + 1)) {
+                receivedBlocks.set (cumulativeAck + 1 + i);
+            }
+        }
+        return receivedBlocks;
+    }
+
+    /**
+     * @return number of blocks, starting from the first, which have all been
+     * received
+     */
+    public int getCumulativeAck () {
+        return cumulativeAck;
+    }
+
+    public byte[] getSelectiveAcks () {
+        return selectiveAcks;
+    }
+
+}
@@ -33,6 +33,7 @@ import com.codebrig.beam.messages.BeamMessage;
 import com.codebrig.beam.messages.SystemMessage;
 import com.codebrig.beam.messages.SystemMessageType;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -48,6 +49,8 @@ public class FileBurstMessage extends SystemMessage<FileBurstMessage>
     private boolean burstConfirmation;
     private List<Integer> confirmedBlocks;
     private boolean burstComplete;
+    private boolean windowedTransfer;
+    private byte[] blocks;
 
     public FileBurstMessage (long transferChannelId) {
         super (SystemMessageType.FILE_BURST);
@@ -125,6 +128,39 @@ public class FileBurstMessage extends SystemMessage<FileBurstMessage>
         return burstComplete;
     }
 
+    /**
+     * @param windowedTransfer whether blocks are sent continuously and
+     * acknowledged with FileAckMessages instead of in confirmed bursts
+     * @return this message
+     */
+    public FileBurstMessage setWindowedTransfer (boolean windowedTransfer) {
+        this.windowedTransfer = windowedTransfer;
+        return this;
+    }
+
+    public boolean isWindowedTransfer () {
+        return windowedTransfer;
+    }
+
+    /**
+     * @param blocks blocks which will be sent; all of them if never set
+     * @return this message
+     */
+    public FileBurstMessage setBlocks (BitSet blocks) {
+        this.blocks = blocks.toByteArray ();
+        return this;
+    }
+
+    /**
+     * @return blocks which will be sent; null if all of them
+     */
+    public BitSet getBlocks () {
+        if (blocks == null) {
+            return null;
+        }
+        return BitSet.valueOf (blocks);
+    }
+
     public void clear () {
         blockCount = -1;
         blockSize = -1;
@@ -132,6 +168,8 @@ public class FileBurstMessage extends SystemMessage<FileBurstMessage>
         burstConfirmation = false;
         confirmedBlocks = null;
         burstComplete = false;
+        windowedTransfer = false;
+        blocks = null;
     }
 
 }
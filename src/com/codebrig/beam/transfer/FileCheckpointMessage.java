@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.SystemMessage;
+import com.codebrig.beam.messages.SystemMessageType;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Asks the receiver of a parallel file transfer which blocks it already has.
+ * The response carries the blocks completed by an earlier attempt and an
+ * XXHash32 of each, in block order, for the sender to verify.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class FileCheckpointMessage extends SystemMessage<FileCheckpointMessage>
+{
+
+    private long fileSize;
+    private int blockSize;
+    private byte[] completedBlocks;
+    private byte[] blockHashes;
+
+    public FileCheckpointMessage (long transferChannelId) {
+        super (SystemMessageType.FILE_CHECKPOINT);
+
+        setMessageId (transferChannelId);
+    }
+
+    public FileCheckpointMessage (BeamMessage message) {
+        super (message);
+    }
+
+    public FileCheckpointMessage setFileSize (long fileSize) {
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    public long getFileSize () {
+        return fileSize;
+    }
+
+    public FileCheckpointMessage setBlockSize (int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getBlockSize () {
+        return blockSize;
+    }
+
+    /**
+     * @param completedBlocks blocks the receiver already has
+     * @param blockHashes hash of each completed block, in block order
+     * @return this message
+     */
+    public FileCheckpointMessage setCompletedBlocks (BitSet completedBlocks, int[] blockHashes) {
+        if (completedBlocks.cardinality () != blockHashes.length) {
+            throw new IllegalArgumentException ("Every completed block needs a hash!");
+        }
+
+        this.completedBlocks = completedBlocks.toByteArray ();
+        ByteBuffer hashBuffer = ByteBuffer.allocate (blockHashes.length * 4);
+        for (int blockHash : blockHashes) {
+            hashBuffer.putInt (blockHash);
+        }
+        this.blockHashes = hashBuffer.array ();
+        return this;
+    }
+
+    public BitSet getCompletedBlocks () {
+        if (completedBlocks == null) {
+            return new BitSet ();
+        }
+        return BitSet.valueOf (completedBlocks);
+    }
+
+    public int[] getBlockHashes () {
+        if (blockHashes == null) {
+            return new int[0];
+        }
+
+        int[] hashes = new int[blockHashes.length / 4];
+        ByteBuffer.wrap (blockHashes).asIntBuffer ().get (hashes);
+        return hashes;
+    }
+
+}
@@ -33,6 +33,7 @@ import com.codebrig.beam.messages.BeamMessage;
 import com.codebrig.beam.messages.SystemMessage;
 import com.codebrig.beam.messages.SystemMessageType;
 import com.codebrig.beam.utils.CRC64;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -41,9 +42,15 @@ import java.util.Arrays;
 public class FileDataMessage extends SystemMessage
 {
 
+    /**
+     * Size of the block header which precedes the file data of raw frames.
+     */
+    public final static int BLOCK_HEADER_SIZE = 4;
+
     private int blockNumber;
     private byte[] fileData;
     private byte[] checksum;
+    private transient ByteBuffer rawFileData;
 
     public FileDataMessage (long transferChannelId) {
         super (SystemMessageType.FILE_DATA);
@@ -53,6 +60,22 @@ public class FileDataMessage extends SystemMessage
 
     public FileDataMessage (BeamMessage message) {
         super (message);
+
+        if (isRawData ()) {
+            //block header then file data; see FileTransferChannel
+            ByteBuffer buffer = ByteBuffer.wrap (getData ());
+            blockNumber = buffer.getInt ();
+            rawFileData = buffer.slice ();
+        }
+    }
+
+    /**
+     * @param blockNumber block number
+     * @return block header to send before the block's file data as a raw
+     * frame.
+     */
+    public static byte[] getBlockHeader (int blockNumber) {
+        return ByteBuffer.allocate (BLOCK_HEADER_SIZE).putInt (blockNumber).array ();
     }
 
     public FileDataMessage setBlockNumber (int blockNumber) {
@@ -70,9 +93,26 @@ public class FileDataMessage extends SystemMessage
     }
 
     public byte[] getFileData () {
+        if (fileData == null && rawFileData != null) {
+            fileData = new byte[rawFileData.remaining ()];
+            rawFileData.duplicate ().get (fileData);
+        }
         return fileData;
     }
 
+    /**
+     * @return file data without copying it out of a raw frame; null if there
+     * is none.
+     */
+    public ByteBuffer getFileDataBuffer () {
+        if (rawFileData != null) {
+            return rawFileData.duplicate ();
+        } else if (fileData != null) {
+            return ByteBuffer.wrap (fileData);
+        }
+        return null;
+    }
+
     public FileDataMessage setChecksum (byte[] checksum) {
         this.checksum = checksum;
         return this;
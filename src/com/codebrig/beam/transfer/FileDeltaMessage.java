@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.SystemMessage;
+import com.codebrig.beam.messages.SystemMessageType;
+
+/**
+ * Part of a file delta: instructions rebuilding the file from the given
+ * position on, each either copying blocks of the receiver's existing copy or
+ * carrying literal data. The last message of a delta carries no instructions;
+ * it has the file's size and hash for the receiver to verify the rebuilt
+ * file with. The receiver acknowledges how many messages it has rebuilt the
+ * file from as it goes, which the sender keeps its window of unacknowledged
+ * messages with, and finally whether the rebuilt file was verified.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class FileDeltaMessage extends SystemMessage<FileDeltaMessage>
+{
+
+    /**
+     * Followed by the first block (int) and block count (int) to copy.
+     */
+    public final static byte COPY_BLOCKS = 1;
+    /**
+     * Followed by the length (int) of the literal data, then the data.
+     */
+    public final static byte LITERAL_DATA = 2;
+
+    private long position;
+    private byte[] delta;
+    private boolean deltaComplete;
+    private long fileSize;
+    private long fileHash;
+    private boolean acknowledgement;
+    private long deltaCount;
+
+    public FileDeltaMessage (long transferChannelId) {
+        super (SystemMessageType.FILE_DELTA);
+
+        setMessageId (transferChannelId);
+    }
+
+    public FileDeltaMessage (BeamMessage message) {
+        super (message);
+    }
+
+    public FileDeltaMessage setPosition (long position) {
+        this.position = position;
+        return this;
+    }
+
+    public long getPosition () {
+        return position;
+    }
+
+    public FileDeltaMessage setDelta (byte[] delta) {
+        this.delta = delta;
+        return this;
+    }
+
+    public byte[] getDelta () {
+        if (delta == null) {
+            return new byte[0];
+        }
+        return delta;
+    }
+
+    public FileDeltaMessage setDeltaComplete (boolean deltaComplete) {
+        this.deltaComplete = deltaComplete;
+        return this;
+    }
+
+    public boolean isDeltaComplete () {
+        return deltaComplete;
+    }
+
+    public FileDeltaMessage setFileSize (long fileSize) {
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    public long getFileSize () {
+        return fileSize;
+    }
+
+    public FileDeltaMessage setFileHash (long fileHash) {
+        this.fileHash = fileHash;
+        return this;
+    }
+
+    public long getFileHash () {
+        return fileHash;
+    }
+
+    public FileDeltaMessage setAcknowledgement (boolean acknowledgement) {
+        this.acknowledgement = acknowledgement;
+        return this;
+    }
+
+    /**
+     * @return whether this was sent back by the receiver of the delta
+     */
+    public boolean isAcknowledgement () {
+        return acknowledgement;
+    }
+
+    public FileDeltaMessage setDeltaCount (long deltaCount) {
+        this.deltaCount = deltaCount;
+        return this;
+    }
+
+    /**
+     * @return messages of the delta the receiver has rebuilt the file from
+     */
+    public long getDeltaCount () {
+        return deltaCount;
+    }
+
+}
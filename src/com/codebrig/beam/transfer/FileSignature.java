@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Weak and strong checksums of every whole block of a file. A rolling weak
+ * checksum finds candidate blocks at any offset; the strong hash confirms
+ * them.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class FileSignature
+{
+
+    final static int MIN_BLOCK_SIZE = 1024 * 2; //2KB
+    final static int MAX_BLOCK_SIZE = 1024 * 128; //128KB
+    private final static int READ_BUFFER_SIZE = 1024 * 1024; //1MB
+    private final static int STRONG_HASH_SEED = 0x9747b28c;
+    private final static int STRONG_HASH_SEED2 = 0x5bd1e995;
+    private final static XXHash32 BLOCK_HASH = XXHashFactory.fastestJavaInstance ().hash32 ();
+
+    private final int blockSize;
+    private final int[] weakChecksums;
+    private final long[] strongHashes;
+    private final int[] buckets;
+    private final int[] nextBlocks;
+
+    FileSignature (int blockSize, int[] weakChecksums, long[] strongHashes) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException ("Invalid block size: " + blockSize);
+        } else if (weakChecksums.length != strongHashes.length) {
+            throw new IllegalArgumentException ("Every block needs a weak checksum and strong hash!");
+        }
+
+        this.blockSize = blockSize;
+        this.weakChecksums = weakChecksums;
+        this.strongHashes = strongHashes;
+
+        //chained hash table of blocks by weak checksum
+        buckets = new int[Integer.highestOneBit (Math.max (weakChecksums.length, 1)) * 2];
+        nextBlocks = new int[weakChecksums.length];
+        Arrays.fill (buckets, -1);
+        for (int i = weakChecksums.length - 1; i >= 0; i--) {
+            int bucket = getBucket (weakChecksums[i]);
+            nextBlocks[i] = buckets[bucket];
+            buckets[bucket] = i;
+        }
+    }
+
+    /**
+     * Signs the whole blocks of a file.
+     */
+    static FileSignature create (FileChannel fileChannel, int blockSize) throws IOException {
+        int blockCount = (int) (fileChannel.size () / blockSize);
+        int[] weakChecksums = new int[blockCount];
+        long[] strongHashes = new long[blockCount];
+
+        byte[] buffer = new byte[Math.max (READ_BUFFER_SIZE / blockSize, 1) * blockSize];
+        int block = 0;
+        while (block < blockCount) {
+            int length = (int) Math.min (buffer.length, (long) (blockCount - block) * blockSize);
+            ByteBuffer readBuffer = ByteBuffer.wrap (buffer, 0, length);
+            long position = (long) block * blockSize;
+            while (readBuffer.hasRemaining ()) {
+                if (fileChannel.read (readBuffer, position + readBuffer.position ()) == -1) {
+                    throw new TransferException ("File changed while being signed!");
+                }
+            }
+
+            for (int offset = 0; offset < length; offset += blockSize) {
+                weakChecksums[block] = RollingChecksum.checksum (buffer, offset, blockSize);
+                strongHashes[block] = getStrongHash (buffer, offset, blockSize);
+                block++;
+            }
+        }
+        return new FileSignature (blockSize, weakChecksums, strongHashes);
+    }
+
+    /**
+     * @return block size which keeps signatures and unmatched data around the
+     * same size; roughly the square root of the file size
+     */
+    static int getBlockSize (long fileSize) {
+        int blockSize = Integer.highestOneBit ((int) Math.min (Math.sqrt (fileSize), MAX_BLOCK_SIZE));
+        return Math.max (blockSize, MIN_BLOCK_SIZE);
+    }
+
+    static long getStrongHash (byte[] buffer, int offset, int length) {
+        return ((long) BLOCK_HASH.hash (buffer, offset, length, STRONG_HASH_SEED) << 32)
+                | (BLOCK_HASH.hash (buffer, offset, length, STRONG_HASH_SEED2) & 0xffffffffL);
+    }
+
+    /**
+     * @param weakChecksum weak checksum of the block sized window at offset
+     * @param preferredBlock block to choose if it's one of several matches
+     * @return block which matches the window; -1 if none do
+     */
+    int findBlock (int weakChecksum, byte[] buffer, int offset, int preferredBlock) {
+        int matchedBlock = -1;
+        boolean hashed = false;
+        long strongHash = 0;
+        for (int block = buckets[getBucket (weakChecksum)]; block != -1; block = nextBlocks[block]) {
+            if (weakChecksums[block] != weakChecksum) {
+                continue;
+            }
+
+            if (!hashed) {
+                strongHash = getStrongHash (buffer, offset, blockSize);
+                hashed = true;
+            }
+            if (strongHashes[block] == strongHash) {
+                if (block == preferredBlock) {
+                    return block;
+                } else if (matchedBlock == -1) {
+                    matchedBlock = block;
+                }
+            }
+        }
+        return matchedBlock;
+    }
+
+    private int getBucket (int weakChecksum) {
+        return (weakChecksum ^ (weakChecksum >>> 16)) & (buckets.length - 1);
+    }
+
+    int getBlockSize () {
+        return blockSize;
+    }
+
+    int getBlockCount () {
+        return weakChecksums.length;
+    }
+
+    int[] getWeakChecksums () {
+        return weakChecksums;
+    }
+
+    long[] getStrongHashes () {
+        return strongHashes;
+    }
+
+}
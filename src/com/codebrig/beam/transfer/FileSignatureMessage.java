@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.SystemMessage;
+import com.codebrig.beam.messages.SystemMessageType;
+import java.nio.ByteBuffer;
+
+/**
+ * Asks the receiver of a file delta to sign its existing copy of the file.
+ * The response carries the weak checksum and strong hash of every whole
+ * block, in block order.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class FileSignatureMessage extends SystemMessage<FileSignatureMessage>
+{
+
+    private long fileSize;
+    private int blockSize;
+    private byte[] weakChecksums;
+    private byte[] strongHashes;
+
+    public FileSignatureMessage (long transferChannelId) {
+        super (SystemMessageType.FILE_SIGNATURE);
+
+        setMessageId (transferChannelId);
+    }
+
+    public FileSignatureMessage (BeamMessage message) {
+        super (message);
+    }
+
+    /**
+     * @param fileSize size of the file being sent
+     * @return this message
+     */
+    public FileSignatureMessage setFileSize (long fileSize) {
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    public long getFileSize () {
+        return fileSize;
+    }
+
+    public FileSignatureMessage setBlockSize (int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getBlockSize () {
+        return blockSize;
+    }
+
+    public FileSignatureMessage setSignatures (int[] weakChecksums, long[] strongHashes) {
+        if (weakChecksums.length != strongHashes.length) {
+            throw new IllegalArgumentException ("Every block needs a weak checksum and strong hash!");
+        }
+
+        ByteBuffer weakBuffer = ByteBuffer.allocate (weakChecksums.length * 4);
+        weakBuffer.asIntBuffer ().put (weakChecksums);
+        this.weakChecksums = weakBuffer.array ();
+
+        ByteBuffer strongBuffer = ByteBuffer.allocate (strongHashes.length * 8);
+        strongBuffer.asLongBuffer ().put (strongHashes);
+        this.strongHashes = strongBuffer.array ();
+        return this;
+    }
+
+    public int[] getWeakChecksums () {
+        if (weakChecksums == null) {
+            return new int[0];
+        }
+
+        int[] checksums = new int[weakChecksums.length / 4];
+        ByteBuffer.wrap (weakChecksums).asIntBuffer ().get (checksums);
+        return checksums;
+    }
+
+    public long[] getStrongHashes () {
+        if (strongHashes == null) {
+            return new long[0];
+        }
+
+        long[] hashes = new long[strongHashes.length / 8];
+        ByteBuffer.wrap (strongHashes).asLongBuffer ().get (hashes);
+        return hashes;
+    }
+
+}
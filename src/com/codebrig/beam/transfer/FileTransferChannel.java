@@ -29,18 +29,34 @@
  */
 package com.codebrig.beam.transfer;
 
+import com.codebrig.beam.Communicator;
 import com.codebrig.beam.SystemCommunicator;
 import com.codebrig.beam.handlers.SystemHandler;
 import com.codebrig.beam.messages.BeamMessage;
 import com.codebrig.beam.messages.SystemMessageType;
+import com.codebrig.beam.system.messages.HandshakeMessage;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -51,31 +67,73 @@ public class FileTransferChannel extends SystemHandler
 
     private static final Logger log = Logger.getLogger (FileTransferChannel.class.getName ());
 
-    private final static int BUFFER_SIZE = 1024 * 256; //256KB
+    final static int BUFFER_SIZE = 1024 * 256; //256KB
     private final static int DEFAULT_BURST_SIZE = 10; //2.5MB
     private final static int BURST_CONFIRMATION_WAIT_TIME = 1000 * 15; //15 seconds
     private final static int BLOCK_INTERVAL_WAIT_TIME = 1000 * 30; //30 seconds
+    private final static int WRITER_WAIT_TIME = 1000; //1 second
+    private final static int DELTA_WAIT_TIME = 1000 * 60; //1 minute
+    private final static long SIGNING_RATE = 1024 * 1024 * 10; //10MB per second; slowest expected
+    private final static int DELTA_WINDOW = 32; //unacknowledged delta messages; at most 8MB of literal data
+    private final static int SYNC_INTERVAL = 1000; //1 second
+    private final static String DELTA_EXTENSION = ".delta";
+    private final static int LOSS_THRESHOLD = 3; //acknowledged blocks sent after a block before it's lost
+    private final static FileDataMessage WRITER_CHECKPOINT = new FileDataMessage (-1);
+    private final static FileDataMessage WRITER_WAKEUP = new FileDataMessage (-1);
+    private final static Comparator<FileDataMessage> BLOCK_ORDER = new Comparator<FileDataMessage> ()
+    {
+
+        @Override
+        public int compare (FileDataMessage block1, FileDataMessage block2) {
+            return Integer.compare (block1.getBlockNumber (), block2.getBlockNumber ());
+        }
+    };
 
-    private boolean stop = false;
+    private volatile boolean stop = false;
     private boolean connected = false;
     private final long transferChannelId;
     private long remoteTransferChannelId;
     private final SystemCommunicator comm;
-    private final Set<Integer> downloadedBlockSet;
-    private final Set<FileDataMessage> capturedBlockSet;
+    private final BitSet downloadedBlocks; //guarded by itself
+    private final BlockingQueue<FileDataMessage> capturedBlockQueue;
     private int receiveBurstSize = -1;
-    private int receiveBlockSize = -1;
-    private int receiveBlockCount = -1;
+    private volatile int receiveBlockSize = -1;
+    private volatile int receiveBlockCount = -1;
+    private volatile int receiveExpectedBlockCount = -1;
     private int receiveLastBlockSize = -1;
-    private boolean receiveFinished = false;
+    private volatile boolean receiveFinished = false;
+    private volatile boolean receiving = false;
+    private final Object checkpointLock = new Object ();
+    private long checkpointRequests; //guarded by checkpointLock
+    private long completedCheckpoints; //guarded by checkpointLock
+    private volatile DurabilityPolicy durabilityPolicy = DurabilityPolicy.PER_BURST;
+    private volatile boolean windowedTransfer = true;
+    private volatile boolean receiveWindowed = false;
+    private final BitSet unsyncedBlocks = new BitSet (); //receiving thread only
+    private long lastSyncTime; //receiving thread only
+    private volatile ParallelFileTransfer parallelTransfer;
+    private final Object ackLock = new Object ();
+    private final BitSet ackedBlocks = new BitSet (); //guarded by ackLock
+    private long ackCount; //guarded by ackLock
+    private byte[] readBuffer; //sending thread only
+    private final Queue<BeamMessage> deltaMessageQueue;
+    private DeltaDecoder deltaDecoder; //receiving thread only
+    private FileDeltaMessage deltaCompleteMessage; //receiving thread only
+    private long receiveDeltaFileSize = -1; //receiving thread only
+    private long receivedDeltaCount; //receiving thread only
+    private final Object deltaLock = new Object ();
+    private long acknowledgedDeltaCount; //guarded by deltaLock
+    private FileDeltaMessage deltaResult; //guarded by deltaLock
 
     public FileTransferChannel (SystemCommunicator comm, long transferChannelId) {
-        super (SystemMessageType.FILE_DATA, SystemMessageType.FILE_BURST);
+        super (SystemMessageType.FILE_DATA, SystemMessageType.FILE_BURST, SystemMessageType.FILE_ACK,
+                SystemMessageType.FILE_CHECKPOINT, SystemMessageType.FILE_SIGNATURE, SystemMessageType.FILE_DELTA);
 
         this.comm = comm;
         this.transferChannelId = transferChannelId;
-        downloadedBlockSet = new HashSet<> ();
-        capturedBlockSet = Collections.synchronizedSet (new HashSet<FileDataMessage> ());
+        downloadedBlocks = new BitSet ();
+        capturedBlockQueue = new LinkedBlockingQueue<> ();
+        deltaMessageQueue = new ConcurrentLinkedQueue<> ();
     }
 
     public void connect (long remoteTransferChannelId) {
@@ -96,6 +154,17 @@ public class FileTransferChannel extends SystemHandler
     }
 
     public long sendFile (File file, TransferTracker tracker) throws IOException {
+        return sendFile (file, null, tracker);
+    }
+
+    /**
+     * Sends some of a file's blocks; the receiver is expected to have the
+     * rest or be receiving them through other channels.
+     *
+     * @param blocks blocks to send; null for all of them
+     * @return data sent; -1 if the communicator went down
+     */
+    long sendFile (File file, BitSet blocks, TransferTracker tracker) throws IOException {
         if (!connected) {
             throw new TransferException ("File transfer channel is not connected!");
         }
@@ -131,7 +200,27 @@ public class FileTransferChannel extends SystemHandler
         burstMessage.setBlockSize (blockSize);
         burstMessage.setLastBlockSize (lastBlockSize);
 
-        for (int i = 0; i < blockCount; i++) {
+        if (blocks == null) {
+            blocks = new BitSet (blockCount);
+            blocks.set (0, blockCount);
+        } else {
+            burstMessage.setBlocks (blocks);
+        }
+        long blocksData = 0;
+        for (int i = blocks.nextSetBit (0); i >= 0; i = blocks.nextSetBit (i + 1)) {
+            blocksData += (i == blockCount - 1) ? lastBlockSize : blockSize;
+        }
+
+        //peers which support it are sent blocks continuously; older peers in confirmed bursts
+        boolean windowedTransfer = this.windowedTransfer && comm.getCommunicator ().isPeerFeatureSupported (
+                HandshakeMessage.FEATURE_WINDOWED_TRANSFER);
+        burstMessage.setWindowedTransfer (windowedTransfer);
+        synchronized (ackLock) {
+            ackedBlocks.clear ();
+            ackCount = 0;
+        }
+
+        for (int i = blocks.nextSetBit (0); i >= 0; i = blocks.nextSetBit (i + 1)) {
             neededBlockSet.add (i);
         }
 
@@ -145,101 +234,429 @@ public class FileTransferChannel extends SystemHandler
             throw new TransferException ("Unable to receive file burst confirmation!");
         }
 
+        //peers which can read raw file blocks get them without the file data being copied onto the heap
+        boolean rawFileData = comm.getCommunicator ().isPeerFeatureSupported (HandshakeMessage.FEATURE_RAW_FILE_DATA);
+
         long cost = System.currentTimeMillis ();
-        try (RandomAccessFile raf = new RandomAccessFile (file, "r")) {
-            //repeat
-            while (!stop) {
-                //  burst file
-                int burstCount = 0;
-                Integer[] requiredBlocks = neededBlockSet.toArray (new Integer[neededBlockSet.size ()]);
-                for (int blockNumber : requiredBlocks) {
-
-                    long seekPosition = (long) blockNumber * (long) blockSize;
-                    raf.seek (seekPosition);
-
-                    byte[] readBuffer;
-                    if (seekPosition + blockSize > fileSize) {
-                        //use smaller buffer
-                        readBuffer = new byte[lastBlockSize];
-                    } else {
-                        readBuffer = new byte[blockSize];
+        try (FileChannel fileChannel = FileChannel.open (file.toPath (), StandardOpenOption.READ)) {
+            if (windowedTransfer) {
+                totalSentData = sendWindowed (fileChannel, fileSize, blocks, blockSize, rawFileData, tracker);
+            } else {
+                //repeat
+                while (!stop) {
+                    //  burst file
+                    int burstCount = 0;
+                    Integer[] requiredBlocks = neededBlockSet.toArray (new Integer[neededBlockSet.size ()]);
+                    for (int blockNumber : requiredBlocks) {
+
+                        long position = (long) blockNumber * (long) blockSize;
+                        int length;
+                        if (position + blockSize > fileSize) {
+                            length = lastBlockSize;
+                        } else {
+                            length = blockSize;
+                        }
+
+                        //send data
+                        if (!sendBlock (fileChannel, blockNumber, position, length, rawFileData)) {
+                            break;
+                        }
+                        log.finest (String.format ("Sent - FileDataMessage; Block number: %s, Block size: %s",
+                                blockNumber, length));
+
+                        burstCount++;
+                        if (burstCount >= burstSize && burstCount != 0) {
+                            break;
+                        }
+                    }
+
+                    //sleep awhile incase data message hasn't finished flushing
+                    try {
+                        Thread.sleep (250);
+                    } catch (InterruptedException ex) {
                     }
 
-                    raf.read (readBuffer);
+                    burstMessage.clear ();
+                    burstMessage.setBurstConfirmationMessage (true);
+                    do {
+                        //send burst confirmation
+                        responseMessage = comm.getCommunicator ().send (burstMessage, 2500);
+
+                        if (!comm.getCommunicator ().isRunning ()) {
+                            comm.getCommunicator ().removeHandler (this);
+                            return -1; //communicator went down
+                        }
+                    } while (responseMessage == null && !stop); //wait for burst confirmation and request blocks
+
+                    long endTime = System.currentTimeMillis () - cost;
+                    cost = System.currentTimeMillis ();
+                    burstMessage = new FileBurstMessage (responseMessage);
+                    if (burstMessage.isBurstComplete ()) {
+                        totalSentData = blocksData;
+                        break; //file finished transferring
+                    } else {
+                        long sentData = 0;
+                        for (Integer blockNum : burstMessage.getConfirmedBlockList ()) {
+                            if (blockNum == blockCount) {
+                                sentData += lastBlockSize;
+                            } else {
+                                sentData += blockSize;
+                            }
+                            neededBlockSet.remove (blockNum);
 
-                    //send data
-                    FileDataMessage dataMessage = new FileDataMessage (remoteTransferChannelId);
-                    dataMessage.setBlockNumber (blockNumber);
-                    dataMessage.setFileData (readBuffer);
+                            log.finest (String.format ("Sucessfully sent block: %s, Block size: %s", blockNum, blockSize));
+                        }
 
-                    comm.getCommunicator ().queue (dataMessage);
-                    log.finest (String.format ("Sent - FileDataMessage; Block number: %s, Block size: %s",
-                            blockNumber, dataMessage.getData ().length));
+                        //confirmed sent data tracker
+                        if (tracker != null) {
+                            int sentDelta = (int) (sentData - totalSentData);
+                            if (sentDelta != 0) {
+                                try {
+                                    tracker.updateStats (fileSize, sentData, sentDelta, endTime);
+                                } catch (Exception ex) {
+                                    ex.printStackTrace ();
+                                }
+
+                                totalSentData = sentData;
+                            }
+                        }
+                    }
+                }
+            }
+        }
 
-                    burstCount++;
-                    if (burstCount >= burstSize && burstCount != 0) {
+        log.finest (String.format ("Finished sending file: %s ; Total data sent: %s", file.getPath (), totalSentData));
+
+        comm.getCommunicator ().removeHandler (this);
+        return totalSentData;
+    }
+
+    /**
+     * Sends blocks continuously, keeping as many unacknowledged as the
+     * transfer window allows. Blocks are resent once blocks sent after them
+     * are acknowledged. Communicators run over reliable streams so a block
+     * which is merely slow to be acknowledged is late, not lost.
+     *
+     * @return data acknowledged by the receiver; -1 if the communicator went
+     * down
+     */
+    private long sendWindowed (FileChannel fileChannel, long fileSize, BitSet blocks, int blockSize,
+            boolean rawFileData, TransferTracker tracker) throws IOException {
+        int blockCount = (int) ((fileSize + blockSize - 1) / blockSize);
+        int sendBlockCount = blocks.cardinality ();
+        TransferWindow window = new TransferWindow (blockSize);
+        BitSet acknowledged = new BitSet (blockCount);
+        BitSet retransmitted = new BitSet (blockCount);
+        BitSet queuedBlocks = new BitSet (blockCount);
+        long[] sendTimes = new long[blockCount];
+        long[] sendSequences = new long[blockCount];
+        LinkedHashSet<Integer> inFlight = new LinkedHashSet<> (); //in send order
+        ArrayDeque<Integer> lostBlocks = new ArrayDeque<> ();
+        int nextBlock = blocks.nextSetBit (0);
+        long sendSequence = 0;
+        long highestAckedSequence = -1;
+        long processedAcks = 0;
+        long ackedData = 0;
+        long lastProgressTime = System.currentTimeMillis ();
+
+        while (!stop && sendBlockCount > 0) {
+            //fill the window; lost blocks first
+            while (inFlight.size () < window.getSize ()) {
+                Integer blockNumber = lostBlocks.poll ();
+                if (blockNumber == null) {
+                    if (nextBlock < 0) {
                         break;
                     }
+                    blockNumber = nextBlock;
+                    nextBlock = blocks.nextSetBit (nextBlock + 1);
+                } else if (acknowledged.get (blockNumber)) {
+                    continue;
                 }
 
-                //sleep awhile incase data message hasn't finished flushing
-                try {
-                    Thread.sleep (250);
-                } catch (InterruptedException ex) {
+                long position = (long) blockNumber * (long) blockSize;
+                int length = (int) Math.min (blockSize, fileSize - position);
+                if (!sendBlock (fileChannel, blockNumber, position, length, rawFileData)) {
+                    break;
                 }
+                log.finest (String.format ("Sent - FileDataMessage; Block number: %s, Block size: %s, Window size: %s",
+                        blockNumber, length, window.getSize ()));
 
-                burstMessage.clear ();
-                burstMessage.setBurstConfirmationMessage (true);
-                do {
-                    //send burst confirmation
-                    responseMessage = comm.getCommunicator ().send (burstMessage, 2500);
-
-                    if (!comm.getCommunicator ().isRunning ()) {
-                        comm.getCommunicator ().removeHandler (this);
-                        return -1; //communicator went down
+                //a block queued behind others isn't on the wire yet; its round trip would include the wait
+                sendTimes[blockNumber] = System.nanoTime ();
+                if (comm.getCommunicator ().getPendingWriteBytes () > 0) {
+                    queuedBlocks.set (blockNumber);
+                } else {
+                    queuedBlocks.clear (blockNumber);
+                }
+                sendSequences[blockNumber] = sendSequence++;
+                inFlight.add (blockNumber);
+            }
+
+            if (!comm.getCommunicator ().isRunning ()) {
+                return -1; //communicator went down
+            }
+
+            //wait for acks
+            BitSet received;
+            synchronized (ackLock) {
+                if (ackCount == processedAcks) {
+                    try {
+                        ackLock.wait (WRITER_WAIT_TIME);
+                    } catch (InterruptedException ex) {
+                        stop = true;
+                        break;
                     }
-                } while (responseMessage == null && !stop); //wait for burst confirmation and request blocks
-
-                long endTime = System.currentTimeMillis () - cost;
-                cost = System.currentTimeMillis ();
-                burstMessage = new FileBurstMessage (responseMessage);
-                if (burstMessage.isBurstComplete ()) {
-                    totalSentData = fileSize;
-                    break; //file finished transferring
+                }
+
+                received = (BitSet) ackedBlocks.clone ();
+                processedAcks = ackCount;
+            }
+
+            long now = System.nanoTime ();
+            received.andNot (acknowledged);
+            long ackedDelta = 0;
+            for (int blockNumber = received.nextSetBit (0); blockNumber >= 0;
+                    blockNumber = received.nextSetBit (blockNumber + 1)) {
+                int length = (int) Math.min (blockSize, fileSize - (long) blockNumber * (long) blockSize);
+                acknowledged.set (blockNumber);
+                ackedDelta += length;
+
+                if (inFlight.remove (blockNumber)) {
+                    highestAckedSequence = Math.max (highestAckedSequence, sendSequences[blockNumber]);
+                    //round trip of a resent or queued block is ambiguous
+                    boolean ambiguous = retransmitted.get (blockNumber) || queuedBlocks.get (blockNumber);
+                    window.onAck (ambiguous ? -1 : now - sendTimes[blockNumber], length);
                 } else {
-                    long sentData = 0;
-                    for (Integer blockNum : burstMessage.getConfirmedBlockList ()) {
-                        if (blockNum == blockCount) {
-                            sentData += lastBlockSize;
-                        } else {
-                            sentData += blockSize;
-                        }
-                        neededBlockSet.remove (blockNum);
+                    window.onAck (-1, length);
+                }
+            }
 
-                        log.finest (String.format ("Sucessfully sent block: %s, Block size: %s", blockNum, blockSize));
+            if (ackedDelta > 0) {
+                ackedData += ackedDelta;
+                if (tracker != null) {
+                    try {
+                        tracker.updateStats (fileSize, ackedData, (int) ackedDelta,
+                                System.currentTimeMillis () - lastProgressTime);
+                    } catch (Exception ex) {
+                        ex.printStackTrace ();
                     }
+                }
+                lastProgressTime = System.currentTimeMillis ();
+            }
 
-                    //confirmed sent data tracker
-                    if (tracker != null) {
-                        int sentDelta = (int) (sentData - totalSentData);
-                        if (sentDelta != 0) {
-                            try {
-                                tracker.updateStats (fileSize, sentData, sentDelta, endTime);
-                            } catch (Exception ex) {
-                                ex.printStackTrace ();
-                            }
+            if (acknowledged.cardinality () >= sendBlockCount) {
+                break; //file finished transferring
+            } else if (System.currentTimeMillis () - lastProgressTime >= BLOCK_INTERVAL_WAIT_TIME) {
+                log.warning ("Timed out waiting for any file block acknowledgement. Closing file send transfer...");
+                stop = true;
+                break;
+            }
 
-                            totalSentData = sentData;
-                        }
+            //blocks sent before ones which have been acknowledged were lost
+            boolean lost = false;
+            Iterator<Integer> inFlightBlocks = inFlight.iterator ();
+            while (inFlightBlocks.hasNext ()) {
+                int blockNumber = inFlightBlocks.next ();
+                if (sendSequences[blockNumber] + LOSS_THRESHOLD > highestAckedSequence) {
+                    break;
+                }
+
+                log.finest (String.format ("Lost block: %s", blockNumber));
+                inFlightBlocks.remove ();
+                retransmitted.set (blockNumber);
+                lostBlocks.add (blockNumber);
+                lost = true;
+            }
+            if (lost) {
+                window.onLoss ();
+            }
+        }
+
+        return ackedData;
+    }
+
+    private boolean sendBlock (FileChannel fileChannel, int blockNumber, long position, int length,
+            boolean rawFileData) throws IOException {
+        if (rawFileData) {
+            return comm.getCommunicator ().queueFileRegion (SystemMessageType.FILE_DATA, remoteTransferChannelId,
+                    FileDataMessage.getBlockHeader (blockNumber), fileChannel, position, length);
+        }
+
+        //message is serialized when queued so the buffer can be reused
+        if (readBuffer == null || readBuffer.length != length) {
+            readBuffer = new byte[length];
+        }
+        readFully (fileChannel, readBuffer, position);
+
+        FileDataMessage dataMessage = new FileDataMessage (remoteTransferChannelId);
+        dataMessage.setBlockNumber (blockNumber);
+        dataMessage.setFileData (readBuffer);
+
+        comm.getCommunicator ().queue (dataMessage);
+        return true;
+    }
+
+    private static void readFully (FileChannel fileChannel, byte[] buffer, long position) throws IOException {
+        ByteBuffer readBuffer = ByteBuffer.wrap (buffer);
+        while (readBuffer.hasRemaining ()) {
+            if (fileChannel.read (readBuffer, position + readBuffer.position ()) == -1) {
+                throw new EOFException ("File truncated while sending");
+            }
+        }
+    }
+
+    public long syncFile (File file) throws IOException {
+        return syncFile (file, null);
+    }
+
+    /**
+     * Sends a new version of a file the receiver already has a copy of. The
+     * receiver signs its copy and only the data its copy lacks is sent; the
+     * rest is copied from its copy. Peers which can't rebuild files from a
+     * delta are sent the whole file. The receiver acknowledges the delta as it
+     * rebuilds the file; the sender gives up once it goes the delta wait time
+     * without an acknowledgement.
+     *
+     * @return size of the file the receiver has once synced; -1 if the
+     * communicator went down
+     */
+    public long syncFile (File file, final TransferTracker tracker) throws IOException {
+        if (!connected) {
+            throw new TransferException ("File transfer channel is not connected!");
+        } else if (!comm.getCommunicator ().isPeerFeatureSupported (HandshakeMessage.FEATURE_DELTA_TRANSFER)) {
+            return sendFile (file, tracker);
+        }
+
+        stop = false;
+        final long fileSize = file.length ();
+        synchronized (deltaLock) {
+            acknowledgedDeltaCount = 0;
+            deltaResult = null;
+        }
+
+        //ask the receiver to sign its copy; given longer the larger the file
+        FileSignatureMessage signatureMessage = new FileSignatureMessage (remoteTransferChannelId);
+        signatureMessage.setFileSize (fileSize).setBlockSize (FileSignature.getBlockSize (fileSize));
+        int signWaitTime = (int) Math.min (Integer.MAX_VALUE, DELTA_WAIT_TIME + fileSize / SIGNING_RATE * 1000);
+        BeamMessage responseMessage = comm.getCommunicator ().send (signatureMessage, signWaitTime);
+        if (responseMessage == null || !responseMessage.isSuccessful ()) {
+            comm.getCommunicator ().removeHandler (this);
+            throw new TransferException ("Unable to receive file signature!");
+        }
+        signatureMessage = new FileSignatureMessage (responseMessage);
+        FileSignature signature = new FileSignature (signatureMessage.getBlockSize (),
+                signatureMessage.getWeakChecksums (), signatureMessage.getStrongHashes ());
+
+        log.finest (String.format ("Syncing file: %s ; Block size: %s, Signed blocks: %s",
+                file.getPath (), signature.getBlockSize (), signature.getBlockCount ()));
+
+        //send delta against it
+        DeltaEncoder encoder = new DeltaEncoder (signature)
+        {
+
+            private long cost = System.currentTimeMillis ();
+            private long sentDeltaCount;
+
+            @Override
+            boolean sendDelta (long position, long length, byte[] delta) throws IOException {
+                //keep the receiver from falling more than a window behind
+                if (!awaitDeltaAcknowledgement (sentDeltaCount - DELTA_WINDOW)) {
+                    return false;
+                }
+
+                comm.getCommunicator ().queue (new FileDeltaMessage (remoteTransferChannelId)
+                        .setPosition (position).setDelta (delta));
+                sentDeltaCount++;
+
+                if (tracker != null) {
+                    try {
+                        tracker.updateStats (fileSize, position + length, (int) length,
+                                System.currentTimeMillis () - cost);
+                    } catch (Exception ex) {
+                        ex.printStackTrace ();
                     }
+                    cost = System.currentTimeMillis ();
                 }
+                return !stop && comm.getCommunicator ().isRunning ();
             }
+        };
+
+        long literalData;
+        try (FileChannel fileChannel = FileChannel.open (file.toPath (), StandardOpenOption.READ)) {
+            literalData = encoder.encode (fileChannel);
+        }
+        if (literalData == -1) {
+            comm.getCommunicator ().removeHandler (this);
+            return -1; //communicator went down
         }
 
-        log.finest (String.format ("Finished sending file: %s ; Total data sent: %s", file.getPath (), totalSentData));
+        if (stop) {
+            comm.getCommunicator ().removeHandler (this);
+            throw new TransferException ("Timed out waiting for file delta acknowledgement!");
+        }
 
+        //wait for receiver to verify the rebuilt file
+        FileDeltaMessage completeMessage = new FileDeltaMessage (remoteTransferChannelId);
+        completeMessage.setDeltaComplete (true).setFileSize (encoder.getFileSize ()).setFileHash (encoder.getFileHash ());
+        comm.getCommunicator ().queue (completeMessage);
+        awaitDeltaAcknowledgement (Long.MAX_VALUE);
         comm.getCommunicator ().removeHandler (this);
-        return totalSentData;
+
+        FileDeltaMessage resultMessage;
+        synchronized (deltaLock) {
+            resultMessage = deltaResult;
+        }
+        if (resultMessage == null) {
+            if (!comm.getCommunicator ().isRunning ()) {
+                return -1; //communicator went down
+            }
+            throw new TransferException ("Unable to receive file delta confirmation!");
+        } else if (!resultMessage.isSuccessful ()) {
+            throw new TransferException ("Rebuilt file failed verification!");
+        }
+
+        log.finest (String.format ("Finished syncing file: %s ; Literal data sent: %s, Copied data: %s",
+                file.getPath (), literalData, encoder.getFileSize () - literalData));
+        return encoder.getFileSize ();
+    }
+
+    /**
+     * Waits for the receiver to acknowledge more than the given number of
+     * delta messages, or for it to report the result of the sync. Gives up,
+     * stopping the sync, once it goes the delta wait time without hearing
+     * anything.
+     *
+     * @return false if the sync is stopped or the communicator went down
+     */
+    private boolean awaitDeltaAcknowledgement (long deltaCount) {
+        synchronized (deltaLock) {
+            long lastCount = acknowledgedDeltaCount;
+            long waitUntil = System.currentTimeMillis () + DELTA_WAIT_TIME;
+            while (acknowledgedDeltaCount <= deltaCount && deltaResult == null) {
+                if (stop || !comm.getCommunicator ().isRunning ()) {
+                    return false;
+                } else if (acknowledgedDeltaCount != lastCount) {
+                    //receiver is making progress
+                    lastCount = acknowledgedDeltaCount;
+                    waitUntil = System.currentTimeMillis () + DELTA_WAIT_TIME;
+                }
+
+                long waitTime = waitUntil - System.currentTimeMillis ();
+                if (waitTime <= 0) {
+                    log.warning ("Timed out waiting for file delta acknowledgement. Closing file sync...");
+                    stop = true;
+                    return false;
+                }
+
+                try {
+                    deltaLock.wait (Math.min (waitTime, WRITER_WAIT_TIME));
+                } catch (InterruptedException ex) {
+                    stop = true;
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     public boolean receiveFile (File file) throws IOException {
@@ -258,54 +675,88 @@ public class FileTransferChannel extends SystemHandler
         long lastProcessedBlockTime = System.currentTimeMillis ();
         long recievedData = 0;
         int lastOutputSize = 0;
+        unsyncedBlocks.clear ();
+        lastSyncTime = lastProcessedBlockTime;
 
-        try (RandomAccessFile raf = new RandomAccessFile (file, "rw")) {
+        synchronized (checkpointLock) {
+            receiving = true;
+        }
+        try (FileChannel fileChannel = FileChannel.open (file.toPath (),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<FileDataMessage> capturedBlocks = new ArrayList<> ();
             while (!stop) {
-                int size = capturedBlockSet.size ();
-                FileDataMessage[] capturedBlocks;
-                if (size == 0) {
-                    capturedBlocks = new FileDataMessage[0];
-                } else {
-                    capturedBlocks = capturedBlockSet.toArray (new FileDataMessage[size]);
+                //wait for blocks; whatever else has arrived by then is written with them
+                FileDataMessage capturedBlock;
+                try {
+                    capturedBlock = capturedBlockQueue.poll (WRITER_WAIT_TIME, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    stop = true;
+                    break;
                 }
 
-                if (capturedBlocks.length > 0) {
-                    int[] captured = new int[capturedBlocks.length];
-                    for (int i = 0; i < captured.length; i++) {
-                        captured[i] = capturedBlocks[i].getBlockNumber ();
+                if (capturedBlock != null) {
+                    boolean wroteBlocks = false;
+                    capturedBlocks.clear ();
+                    capturedBlocks.add (capturedBlock);
+                    capturedBlockQueue.drainTo (capturedBlocks);
+                    for (Iterator<FileDataMessage> itr = capturedBlocks.iterator (); itr.hasNext ();) {
+                        if (itr.next () == WRITER_WAKEUP) {
+                            itr.remove (); //sentinels are equal to each other; removed by identity
+                        }
                     }
-                    log.finest (String.format ("Captured blocks: %s", Arrays.toString (captured)));
-                }
-
-                for (FileDataMessage dataMessage : capturedBlocks) {
-                    long startPos = (long) dataMessage.getBlockNumber () * (long) receiveBlockSize;
 
-                    log.finest (String.format ("Parsing FileDataMessage; Block number: %s, File write position: %s",
-                            dataMessage.getBlockNumber (), startPos));
+                    int batchStart = 0;
+                    for (int i = 0; i <= capturedBlocks.size (); i++) {
+                        if (i < capturedBlocks.size () && capturedBlocks.get (i) != WRITER_CHECKPOINT) {
+                            continue;
+                        }
 
-                    byte[] fileData = dataMessage.getFileData ();
-                    raf.seek (startPos);
-                    raf.write (fileData);
-                    raf.getFD ().sync ();
-                    recievedData += fileData.length;
+                        if (i > batchStart) {
+                            long startTime = System.currentTimeMillis ();
+                            long writtenData = writeBlocks (fileChannel, capturedBlocks.subList (batchStart, i));
+                            recievedData += writtenData;
+                            wroteBlocks = true;
+
+                            if (tracker != null) {
+                                try {
+                                    tracker.updateStats (fileSize, recievedData, (int) writtenData, startTime - lastProcessedBlockTime);
+                                } catch (Exception ex) {
+                                    ex.printStackTrace ();
+                                }
+                            }
+                            lastProcessedBlockTime = System.currentTimeMillis ();
+                        }
 
-                    capturedBlockSet.remove (dataMessage);
-                    downloadedBlockSet.add (dataMessage.getBlockNumber ());
+                        if (i < capturedBlocks.size ()) {
+                            //sender is waiting on burst confirmation; everything it sent before is written
+                            boolean complete = isReceiveComplete ();
+                            sync (fileChannel, complete);
+                            if (complete) {
+                                receiveFinished = true;
+                            }
 
-                    if (tracker != null) {
-                        try {
-                            tracker.updateStats (fileSize, recievedData, fileData.length, System.currentTimeMillis () - lastProcessedBlockTime);
-                        } catch (Exception ex) {
-                            ex.printStackTrace ();
+                            synchronized (checkpointLock) {
+                                completedCheckpoints++;
+                                checkpointLock.notifyAll ();
+                            }
                         }
+                        batchStart = i + 1;
                     }
 
-                    lastProcessedBlockTime = System.currentTimeMillis ();
+                    if (wroteBlocks && receiveWindowed) {
+                        acknowledgeBlocks (fileChannel);
+                    }
+                    if (receiveDelta (file, fileChannel, tracker)) {
+                        lastProcessedBlockTime = System.currentTimeMillis ();
+                    }
                 }
 
-                if (!downloadedBlockSet.isEmpty () && lastOutputSize < downloadedBlockSet.size ()) {
-                    lastOutputSize = downloadedBlockSet.size ();
-                    log.finest (String.format ("Downloaded blocks: %s", Arrays.toString (downloadedBlockSet.toArray ())));
+                int downloadedBlockCount = getDownloadedBlockCount ();
+                if (downloadedBlockCount > 0 && lastOutputSize < downloadedBlockCount) {
+                    lastOutputSize = downloadedBlockCount;
+                    synchronized (downloadedBlocks) {
+                        log.finest (String.format ("Downloaded blocks: %s", downloadedBlocks));
+                    }
                 }
 
                 if (receiveFinished) {
@@ -315,7 +766,7 @@ public class FileTransferChannel extends SystemHandler
                 }
 
                 long timeWaited = System.currentTimeMillis () - lastProcessedBlockTime;
-                if (receiveBlockCount == -1 && size == 0 && timeWaited >= BURST_CONFIRMATION_WAIT_TIME) {
+                if (receiveBlockCount == -1 && timeWaited >= BURST_CONFIRMATION_WAIT_TIME) {
                     log.warning ("Timed out receieving burst message. Closing file receive transfer...");
                     stop = true;
                 } else if (timeWaited >= BLOCK_INTERVAL_WAIT_TIME) {
@@ -323,6 +774,20 @@ public class FileTransferChannel extends SystemHandler
                     stop = true;
                 }
             }
+
+            //a stopped transfer still syncs what it has so it can be resumed
+            sync (fileChannel, !stop);
+        } finally {
+            synchronized (checkpointLock) {
+                receiving = false;
+                checkpointLock.notifyAll ();
+            }
+
+            if (deltaDecoder != null) {
+                deltaDecoder.discard ();
+                deltaDecoder = null;
+            }
+            deltaCompleteMessage = null;
         }
 
         log.finest (String.format ("Finished receiving file: %s ; Total data received: %s", file.getPath (), recievedData));
@@ -333,6 +798,238 @@ public class FileTransferChannel extends SystemHandler
         return !stop;
     }
 
+    /**
+     * Signs the file for, and rebuilds it from, the delta of a file sync.
+     *
+     * @return true if any delta messages were processed
+     */
+    private boolean receiveDelta (File file, FileChannel fileChannel, TransferTracker tracker) throws IOException {
+        boolean processed = false;
+        long deltaCount = receivedDeltaCount;
+        BeamMessage message;
+        while ((message = deltaMessageQueue.poll ()) != null) {
+            processed = true;
+            if (message.getType () == SystemMessageType.FILE_SIGNATURE) {
+                FileSignatureMessage signatureMessage = new FileSignatureMessage (message);
+                if (signatureMessage.getBlockSize () < FileSignature.MIN_BLOCK_SIZE
+                        || signatureMessage.getBlockSize () > FileSignature.MAX_BLOCK_SIZE) {
+                    comm.getCommunicator ().queue (signatureMessage.setSuccessful (false));
+                    continue;
+                }
+
+                if (deltaDecoder != null) {
+                    deltaDecoder.discard ();
+                }
+                FileSignature signature = FileSignature.create (fileChannel, signatureMessage.getBlockSize ());
+                deltaDecoder = new DeltaDecoder (fileChannel, new File (file.getPath () + DELTA_EXTENSION),
+                        signature.getBlockSize ());
+                receiveDeltaFileSize = signatureMessage.getFileSize ();
+                receivedDeltaCount = deltaCount = 0;
+
+                log.finest (String.format ("Received - FileSignatureMessage; Block size: %s, Signed blocks: %s",
+                        signature.getBlockSize (), signature.getBlockCount ()));
+                signatureMessage.setSignatures (signature.getWeakChecksums (), signature.getStrongHashes ());
+                comm.getCommunicator ().queue (signatureMessage.setSuccessful (true));
+            } else {
+                FileDeltaMessage deltaMessage = (FileDeltaMessage) message;
+                if (deltaDecoder == null) {
+                    log.warning ("Received file delta without signing file!");
+                    if (deltaMessage.isDeltaComplete ()) {
+                        comm.getCommunicator ().queue (new FileDeltaMessage (remoteTransferChannelId)
+                                .setDeltaComplete (true).setAcknowledgement (true).setSuccessful (false));
+                    }
+                } else if (deltaMessage.isDeltaComplete ()) {
+                    deltaCompleteMessage = deltaMessage;
+                } else {
+                    long startTime = System.currentTimeMillis ();
+                    long decodedData = deltaDecoder.decode (deltaMessage);
+                    receivedDeltaCount++;
+                    if (tracker != null && decodedData > 0) {
+                        try {
+                            tracker.updateStats (receiveDeltaFileSize, deltaDecoder.getPosition (),
+                                    (int) decodedData, System.currentTimeMillis () - startTime);
+                        } catch (Exception ex) {
+                            ex.printStackTrace ();
+                        }
+                    }
+                }
+            }
+        }
+
+        if (receivedDeltaCount != deltaCount) {
+            //let the sender know it can send more
+            comm.getCommunicator ().queue (new FileDeltaMessage (remoteTransferChannelId)
+                    .setAcknowledgement (true).setDeltaCount (receivedDeltaCount));
+        }
+
+        //parts of the delta may be handled after the message completing it
+        if (deltaCompleteMessage != null && deltaDecoder.getPosition () >= deltaCompleteMessage.getFileSize ()) {
+            boolean verified = deltaDecoder.complete (file, deltaCompleteMessage.getFileSize (),
+                    deltaCompleteMessage.getFileHash (), durabilityPolicy != DurabilityPolicy.NONE);
+            deltaDecoder = null;
+            if (verified) {
+                receiveFinished = true;
+            } else {
+                log.warning ("Rebuilt file failed verification. Closing file receive transfer...");
+                stop = true;
+            }
+
+            comm.getCommunicator ().queue (new FileDeltaMessage (remoteTransferChannelId)
+                    .setDeltaComplete (true).setAcknowledgement (true).setSuccessful (verified));
+            deltaCompleteMessage = null;
+        }
+        return processed;
+    }
+
+    /**
+     * Writes blocks with one positional, gathering write per run of adjacent
+     * blocks.
+     *
+     * @return bytes written
+     */
+    private long writeBlocks (FileChannel fileChannel, List<FileDataMessage> blocks) throws IOException {
+        Collections.sort (blocks, BLOCK_ORDER);
+        if (log.isLoggable (Level.FINEST)) {
+            int[] captured = new int[blocks.size ()];
+            for (int i = 0; i < captured.length; i++) {
+                captured[i] = blocks.get (i).getBlockNumber ();
+            }
+            log.finest (String.format ("Captured blocks: %s", Arrays.toString (captured)));
+        }
+
+        long writtenData = 0;
+        int runStart = 0;
+        for (int i = 1; i <= blocks.size (); i++) {
+            if (i < blocks.size () && blocks.get (i).getBlockNumber () == blocks.get (i - 1).getBlockNumber () + 1) {
+                continue;
+            }
+
+            ByteBuffer[] fileData = new ByteBuffer[i - runStart];
+            long runLength = 0;
+            for (int j = 0; j < fileData.length; j++) {
+                fileData[j] = blocks.get (runStart + j).getFileDataBuffer ();
+                runLength += fileData[j].remaining ();
+            }
+
+            long startPos = (long) blocks.get (runStart).getBlockNumber () * (long) receiveBlockSize;
+            log.finest (String.format ("Writing blocks: %s-%s, File write position: %s",
+                    blocks.get (runStart).getBlockNumber (), blocks.get (i - 1).getBlockNumber (), startPos));
+
+            fileChannel.position (startPos);
+            long written = 0;
+            while (written < runLength) {
+                written += fileChannel.write (fileData);
+            }
+            writtenData += runLength;
+
+            synchronized (downloadedBlocks) {
+                for (int j = runStart; j < i; j++) {
+                    downloadedBlocks.set (blocks.get (j).getBlockNumber ());
+                }
+            }
+            for (int j = runStart; j < i; j++) {
+                unsyncedBlocks.set (blocks.get (j).getBlockNumber ());
+            }
+            runStart = i;
+        }
+
+        return writtenData;
+    }
+
+    /**
+     * Forces written data to disk if the durability policy calls for it, then
+     * records the blocks in the checkpoint of the parallel transfer this
+     * channel belongs to.
+     *
+     * @param complete whether every block has been received
+     */
+    private void sync (FileChannel fileChannel, boolean complete) throws IOException {
+        if (unsyncedBlocks.isEmpty ()) {
+            return;
+        }
+
+        DurabilityPolicy policy = durabilityPolicy;
+        boolean force = policy == DurabilityPolicy.PER_BURST
+                || (policy == DurabilityPolicy.ON_COMPLETE && complete);
+        if (force) {
+            fileChannel.force (false);
+        }
+
+        //blocks not forced yet are still checkpointed so an interrupted transfer
+        //can resume; resumed blocks are verified by hash so any lost are resent
+        ParallelFileTransfer transfer = parallelTransfer;
+        TransferCheckpoint checkpoint = (transfer != null) ? transfer.getCheckpoint () : null;
+        if (checkpoint != null) {
+            checkpoint.complete (unsyncedBlocks, force);
+        }
+        unsyncedBlocks.clear ();
+    }
+
+    /**
+     * Acknowledges every block written so far to the sender of a windowed
+     * transfer. Blocks are acknowledged as soon as they're written so forcing
+     * them to disk doesn't hold up the sender; they're synced at most once per
+     * sync interval, and all of them before the final acknowledgement.
+     */
+    private void acknowledgeBlocks (FileChannel fileChannel) throws IOException {
+        boolean complete = isReceiveComplete ();
+        long now = System.currentTimeMillis ();
+        if (complete || now - lastSyncTime >= SYNC_INTERVAL) {
+            sync (fileChannel, complete);
+            lastSyncTime = now;
+        }
+
+        FileAckMessage ackMessage = new FileAckMessage (remoteTransferChannelId);
+        synchronized (downloadedBlocks) {
+            ackMessage.setReceivedBlocks (downloadedBlocks);
+        }
+        comm.getCommunicator ().queue (ackMessage);
+
+        if (complete) {
+            receiveFinished = true;
+        }
+    }
+
+    private int getDownloadedBlockCount () {
+        synchronized (downloadedBlocks) {
+            return downloadedBlocks.cardinality ();
+        }
+    }
+
+    private boolean isReceiveComplete () {
+        return receiveExpectedBlockCount != -1 && getDownloadedBlockCount () >= receiveExpectedBlockCount;
+    }
+
+    /**
+     * Waits for the receiving thread to write (and sync, depending on the
+     * durability policy) every block received so far.
+     */
+    private void awaitCheckpoint () {
+        synchronized (checkpointLock) {
+            if (!receiving) {
+                return;
+            }
+
+            long checkpoint = ++checkpointRequests;
+            capturedBlockQueue.add (WRITER_CHECKPOINT);
+
+            long waitUntil = System.currentTimeMillis () + BURST_CONFIRMATION_WAIT_TIME;
+            while (receiving && completedCheckpoints < checkpoint) {
+                long waitTime = waitUntil - System.currentTimeMillis ();
+                if (waitTime <= 0) {
+                    break;
+                }
+
+                try {
+                    checkpointLock.wait (waitTime);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread ().interrupt ();
+                    break;
+                }
+            }
+        }
+    }
+
     @Override
     public BeamMessage messageReceived (SystemCommunicator comm, BeamMessage message) {
         if (message.getMessageId () != transferChannelId) {
@@ -345,19 +1042,68 @@ public class FileTransferChannel extends SystemHandler
         if (message.getType () == SystemMessageType.FILE_DATA) {
             FileDataMessage fdm = new FileDataMessage (message);
             log.finest (String.format ("Received - FileDataMessage; Block number: %s, Block size: %s",
-                    fdm.getBlockNumber (), fdm.getFileData ().length));
-            capturedBlockSet.add (fdm);
+                    fdm.getBlockNumber (), fdm.getFileDataBuffer ().remaining ()));
+            capturedBlockQueue.add (fdm);
+        } else if (message.getType () == SystemMessageType.FILE_DELTA) {
+            FileDeltaMessage deltaMessage = new FileDeltaMessage (message);
+            if (deltaMessage.isAcknowledgement ()) {
+                synchronized (deltaLock) {
+                    if (deltaMessage.isDeltaComplete ()) {
+                        deltaResult = deltaMessage;
+                    } else {
+                        acknowledgedDeltaCount = Math.max (acknowledgedDeltaCount, deltaMessage.getDeltaCount ());
+                    }
+                    deltaLock.notifyAll ();
+                }
+            } else {
+                //rebuilding the file is left to the receiving thread
+                deltaMessageQueue.add (deltaMessage);
+                capturedBlockQueue.add (WRITER_WAKEUP);
+            }
+        } else if (message.getType () == SystemMessageType.FILE_SIGNATURE) {
+            //signing the file is left to the receiving thread
+            deltaMessageQueue.add (message);
+            capturedBlockQueue.add (WRITER_WAKEUP);
+        } else if (message.getType () == SystemMessageType.FILE_CHECKPOINT) {
+            ParallelFileTransfer transfer = parallelTransfer;
+            FileCheckpointMessage checkpointMessage = new FileCheckpointMessage (message);
+            if (transfer == null) {
+                return checkpointMessage.setSuccessful (false);
+            }
+
+            try {
+                return transfer.getCheckpointResponse (checkpointMessage);
+            } catch (IOException ex) {
+                ex.printStackTrace ();
+                return checkpointMessage.setSuccessful (false);
+            }
+        } else if (message.getType () == SystemMessageType.FILE_ACK) {
+            FileAckMessage ackMessage = new FileAckMessage (message);
+            log.finest (String.format ("Received - FileAckMessage; Cumulative ack: %s",
+                    ackMessage.getCumulativeAck ()));
+
+            synchronized (ackLock) {
+                ackedBlocks.or (ackMessage.getReceivedBlocks ());
+                ackCount++;
+                ackLock.notifyAll ();
+            }
         } else {
             FileBurstMessage burstMessage = new FileBurstMessage (message);
             if (burstMessage.isBurstConfirmationMessage ()) {
+                //burst's blocks are queued ahead of the confirmation
+                awaitCheckpoint ();
                 burstMessage.clear ();
 
-                if (downloadedBlockSet.size () >= receiveBlockCount) {
+                if (isReceiveComplete ()) {
                     receiveFinished = true;
                     burstMessage.setBurstComplete (true);
                 } else {
-                    List<Integer> confirmedList = Arrays.asList (downloadedBlockSet.toArray (
-                            new Integer[downloadedBlockSet.size ()]));
+                    List<Integer> confirmedList = new ArrayList<> ();
+                    synchronized (downloadedBlocks) {
+                        for (int i = downloadedBlocks.nextSetBit (0); i >= 0; i = downloadedBlocks.nextSetBit (i + 1)) {
+                            confirmedList.add (i);
+                        }
+                    }
                     burstMessage.setConfirmedBlockList (confirmedList);
                 }
 
@@ -371,6 +1117,14 @@ public class FileTransferChannel extends SystemHandler
                 receiveBlockCount = burstMessage.getBlockCount ();
                 receiveBlockSize = burstMessage.getBlockSize ();
                 receiveLastBlockSize = burstMessage.getLastBlockSize ();
+                receiveWindowed = burstMessage.isWindowedTransfer ();
+                BitSet blocks = burstMessage.getBlocks ();
+                receiveExpectedBlockCount = (blocks != null) ? blocks.cardinality () : receiveBlockCount;
+                if (receiveExpectedBlockCount == 0) {
+                    //nothing to receive on this channel
+                    receiveFinished = true;
+                    capturedBlockQueue.add (WRITER_WAKEUP);
+                }
 
                 log.finest (String.format ("Received - FileBurstMessage; Burst size: %s, Block count %s, Block size: %s, Last block size: %s",
                         receiveBurstSize, receiveBlockCount, receiveBlockSize, receiveLastBlockSize));
@@ -382,6 +1136,40 @@ public class FileTransferChannel extends SystemHandler
         return null;
     }
 
+    /**
+     * @param durabilityPolicy when received file data is forced to disk
+     */
+    public void setDurabilityPolicy (DurabilityPolicy durabilityPolicy) {
+        if (durabilityPolicy == null) {
+            throw new IllegalArgumentException ("Missing durability policy!");
+        }
+        this.durabilityPolicy = durabilityPolicy;
+    }
+
+    public DurabilityPolicy getDurabilityPolicy () {
+        return durabilityPolicy;
+    }
+
+    void setParallelTransfer (ParallelFileTransfer parallelTransfer) {
+        this.parallelTransfer = parallelTransfer;
+    }
+
+    Communicator getCommunicator () {
+        return comm.getCommunicator ();
+    }
+
+    /**
+     * @param windowedTransfer whether files are sent continuously to peers
+     * which support it; false to always send in confirmed bursts
+     */
+    public void setWindowedTransfer (boolean windowedTransfer) {
+        this.windowedTransfer = windowedTransfer;
+    }
+
+    public boolean isWindowedTransfer () {
+        return windowedTransfer;
+    }
+
     public long getTransferChannelId () {
         return transferChannelId;
     }
@@ -0,0 +1,399 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.system.messages.HandshakeMessage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Sends or receives a file striped across several FileTransferChannels (e.g.
+ * one per connection) to fill links a single connection can't. The receiver
+ * keeps a TransferCheckpoint next to the file; transferring the same file
+ * again resumes from it, with the blocks it already has verified by hash
+ * instead of being sent again.
+ * <p>
+ * Both ends add channels connected to each other, then one calls sendFile and
+ * the other receiveFile.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class ParallelFileTransfer
+{
+
+    private static final Logger log = Logger.getLogger (ParallelFileTransfer.class.getName ());
+
+    public final static int DEFAULT_STRIPE_SIZE = 16; //4MB
+    private final static int CHECKPOINT_WAIT_TIME = 1000 * 60; //1 minute
+    private final static int HASH_SEED = 0x9747b28c;
+    private final static XXHash32 BLOCK_HASH = XXHashFactory.fastestJavaInstance ().hash32 ();
+
+    private final File file;
+    private final List<FileTransferChannel> channels;
+    private volatile int stripeSize = DEFAULT_STRIPE_SIZE;
+    private volatile TransferCheckpoint checkpoint;
+
+    public ParallelFileTransfer (File file) {
+        if (file == null) {
+            throw new IllegalArgumentException ("Missing file!");
+        }
+
+        this.file = file;
+        channels = Collections.synchronizedList (new ArrayList<FileTransferChannel> ());
+    }
+
+    /**
+     * @param channel connected channel to transfer part of the file through
+     */
+    public void addChannel (FileTransferChannel channel) throws TransferException {
+        if (!channel.isConnected ()) {
+            throw new TransferException ("File transfer channel is not connected!");
+        } else if (!channel.getCommunicator ().isPeerFeatureSupported (HandshakeMessage.FEATURE_PARALLEL_TRANSFER)) {
+            throw new TransferException ("Other end doesn't support parallel file transfers!");
+        }
+
+        channel.setParallelTransfer (this);
+        channels.add (channel);
+    }
+
+    public List<FileTransferChannel> getChannels () {
+        return new ArrayList<> (channels);
+    }
+
+    /**
+     * @param stripeSize number of consecutive blocks sent through the same
+     * channel
+     */
+    public void setStripeSize (int stripeSize) {
+        if (stripeSize < 1) {
+            throw new IllegalArgumentException ("Invalid stripe size: " + stripeSize);
+        }
+        this.stripeSize = stripeSize;
+    }
+
+    public int getStripeSize () {
+        return stripeSize;
+    }
+
+    /**
+     * @return checkpoint of the file being received; null until the sender
+     * asks for it
+     */
+    public TransferCheckpoint getCheckpoint () {
+        return checkpoint;
+    }
+
+    public long sendFile () throws IOException {
+        return sendFile (null);
+    }
+
+    /**
+     * @return data the receiver has once the transfer is done, whether sent
+     * or verified; -1 if a channel's communicator went down
+     */
+    public long sendFile (TransferTracker tracker) throws IOException {
+        final List<FileTransferChannel> channels = getChannels ();
+        if (channels.isEmpty ()) {
+            throw new TransferException ("No file transfer channels!");
+        }
+
+        final long fileSize = file.length ();
+        final int blockSize = FileTransferChannel.BUFFER_SIZE;
+        final int blockCount = (int) ((fileSize + blockSize - 1) / blockSize);
+
+        //ask the receiver what it already has
+        FileCheckpointMessage checkpointMessage = new FileCheckpointMessage (
+                channels.get (0).getRemoteTransferChannelId ());
+        checkpointMessage.setFileSize (fileSize).setBlockSize (blockSize);
+        BeamMessage responseMessage = channels.get (0).getCommunicator ().send (
+                checkpointMessage, CHECKPOINT_WAIT_TIME);
+        if (responseMessage == null || !responseMessage.isSuccessful ()) {
+            throw new TransferException ("Unable to receive file checkpoint!");
+        }
+        checkpointMessage = new FileCheckpointMessage (responseMessage);
+
+        //blocks the receiver has are verified instead of sent again
+        BitSet neededBlocks = new BitSet (blockCount);
+        neededBlocks.set (0, blockCount);
+        BitSet completedBlocks = checkpointMessage.getCompletedBlocks ();
+        int[] blockHashes = checkpointMessage.getBlockHashes ();
+        long verifiedData = 0;
+        try (FileChannel fileChannel = FileChannel.open (file.toPath (), StandardOpenOption.READ)) {
+            byte[] buffer = new byte[blockSize];
+            int hashIndex = 0;
+            for (int i = completedBlocks.nextSetBit (0); i >= 0 && i < blockCount;
+                    i = completedBlocks.nextSetBit (i + 1)) {
+                long position = (long) i * blockSize;
+                int length = (int) Math.min (blockSize, fileSize - position);
+                if (hashIndex < blockHashes.length
+                        && hashBlock (fileChannel, position, length, buffer) == blockHashes[hashIndex]) {
+                    neededBlocks.clear (i);
+                    verifiedData += length;
+                }
+                hashIndex++;
+            }
+        }
+        log.finest (String.format ("Sending file: %s ; Verified blocks: %s, Needed blocks: %s",
+                file.getPath (), blockCount - neededBlocks.cardinality (), neededBlocks.cardinality ()));
+
+        //stripes go to channels in turn
+        final BitSet[] channelBlocks = new BitSet[channels.size ()];
+        for (int i = 0; i < channelBlocks.length; i++) {
+            channelBlocks[i] = new BitSet (blockCount);
+        }
+        for (int i = neededBlocks.nextSetBit (0); i >= 0; i = neededBlocks.nextSetBit (i + 1)) {
+            channelBlocks[(i / stripeSize) % channelBlocks.length].set (i);
+        }
+
+        final TransferTracker channelTracker = (tracker == null) ? null
+                : new ParallelTracker (tracker, fileSize, verifiedData);
+        final long[] sentData = new long[channels.size ()];
+        final IOException[] failures = new IOException[channels.size ()];
+        Thread[] threads = new Thread[channels.size ()];
+        for (int i = 0; i < threads.length; i++) {
+            final int channel = i;
+            threads[i] = new Thread (new Runnable ()
+            {
+
+                @Override
+                public void run () {
+                    try {
+                        sentData[channel] = channels.get (channel).sendFile (
+                                file, channelBlocks[channel], channelTracker);
+                    } catch (IOException ex) {
+                        failures[channel] = ex;
+                    }
+                }
+            }, "Parallel File Transfer - Channel " + i);
+            threads[i].start ();
+        }
+        join (threads);
+
+        long totalData = verifiedData;
+        for (int i = 0; i < threads.length; i++) {
+            if (failures[i] != null) {
+                throw failures[i];
+            } else if (sentData[i] == -1) {
+                return -1; //communicator went down
+            }
+            totalData += sentData[i];
+        }
+
+        log.finest (String.format ("Finished sending file: %s ; Sent data: %s, Verified data: %s",
+                file.getPath (), totalData - verifiedData, verifiedData));
+        return totalData;
+    }
+
+    public boolean receiveFile () throws IOException {
+        return receiveFile (null);
+    }
+
+    /**
+     * @return true if every block has been received; false if the transfer
+     * was interrupted, in which case it can be resumed by transferring the
+     * file again
+     */
+    public boolean receiveFile (final TransferTracker tracker) throws IOException {
+        final List<FileTransferChannel> channels = getChannels ();
+        if (channels.isEmpty ()) {
+            throw new TransferException ("No file transfer channels!");
+        }
+
+        final TransferTracker channelTracker = (tracker == null) ? null
+                : new ParallelTracker (tracker, -1, 0)
+                {
+
+                    @Override
+                    long getTotalData () {
+                        TransferCheckpoint checkpoint = ParallelFileTransfer.this.checkpoint;
+                        return (checkpoint != null) ? checkpoint.getFileSize () : -1;
+                    }
+                };
+        final boolean[] received = new boolean[channels.size ()];
+        final IOException[] failures = new IOException[channels.size ()];
+        Thread[] threads = new Thread[channels.size ()];
+        for (int i = 0; i < threads.length; i++) {
+            final int channel = i;
+            threads[i] = new Thread (new Runnable ()
+            {
+
+                @Override
+                public void run () {
+                    try {
+                        received[channel] = channels.get (channel).receiveFile (file, channelTracker);
+                    } catch (IOException ex) {
+                        failures[channel] = ex;
+                    }
+                }
+            }, "Parallel File Transfer - Channel " + i);
+            threads[i].start ();
+        }
+        join (threads);
+
+        for (int i = 0; i < threads.length; i++) {
+            if (failures[i] != null) {
+                throw failures[i];
+            } else if (!received[i]) {
+                return false;
+            }
+        }
+
+        TransferCheckpoint checkpoint = this.checkpoint;
+        if (checkpoint != null) {
+            //blocks verified by the sender were never sent again; file may need trimming
+            try (FileChannel fileChannel = FileChannel.open (file.toPath (), StandardOpenOption.WRITE)) {
+                if (fileChannel.size () > checkpoint.getFileSize ()) {
+                    fileChannel.truncate (checkpoint.getFileSize ());
+                }
+            }
+            checkpoint.delete ();
+        }
+        return true;
+    }
+
+    /**
+     * Loads the checkpoint of the file being received and hashes the blocks it
+     * has for the sender to verify.
+     */
+    synchronized BeamMessage getCheckpointResponse (FileCheckpointMessage request) throws IOException {
+        long fileSize = request.getFileSize ();
+        int blockSize = request.getBlockSize ();
+        if (fileSize < 0 || blockSize <= 0) {
+            return request.setSuccessful (false);
+        }
+
+        checkpoint = TransferCheckpoint.load (file, fileSize, blockSize);
+        BitSet completedBlocks = checkpoint.getCompletedBlocks ();
+
+        List<Integer> blockHashes = new ArrayList<> ();
+        if (!completedBlocks.isEmpty () && file.exists ()) {
+            try (FileChannel fileChannel = FileChannel.open (file.toPath (), StandardOpenOption.READ)) {
+                long existingSize = fileChannel.size ();
+                byte[] buffer = new byte[blockSize];
+                for (int i = completedBlocks.nextSetBit (0); i >= 0; i = completedBlocks.nextSetBit (i + 1)) {
+                    long position = (long) i * blockSize;
+                    int length = (int) Math.min (blockSize, fileSize - position);
+                    if (length <= 0 || position + length > existingSize) {
+                        completedBlocks.clear (i);
+                        continue;
+                    }
+                    blockHashes.add (hashBlock (fileChannel, position, length, buffer));
+                }
+            }
+        } else {
+            completedBlocks.clear ();
+        }
+
+        int[] hashes = new int[blockHashes.size ()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = blockHashes.get (i);
+        }
+        log.finest (String.format ("Receiving file: %s ; Checkpointed blocks: %s", file.getPath (), hashes.length));
+
+        return request.setCompletedBlocks (completedBlocks, hashes).setSuccessful (true);
+    }
+
+    private static int hashBlock (FileChannel fileChannel, long position, int length, byte[] buffer)
+            throws IOException {
+        ByteBuffer readBuffer = ByteBuffer.wrap (buffer, 0, length);
+        while (readBuffer.hasRemaining ()) {
+            if (fileChannel.read (readBuffer, position + readBuffer.position ()) == -1) {
+                break;
+            }
+        }
+        return BLOCK_HASH.hash (buffer, 0, readBuffer.position (), HASH_SEED);
+    }
+
+    private static void join (Thread[] threads) throws TransferException {
+        for (Thread thread : threads) {
+            try {
+                thread.join ();
+            } catch (InterruptedException ex) {
+                Thread.currentThread ().interrupt ();
+                throw new TransferException ("Interrupted waiting for file transfer channels!");
+            }
+        }
+    }
+
+    /**
+     * Reports progress of every channel as that of the whole file.
+     */
+    private static class ParallelTracker implements TransferTracker
+    {
+
+        private final TransferTracker tracker;
+        private final long totalData;
+        private long transferredData;
+
+        ParallelTracker (TransferTracker tracker, long totalData, long transferredData) {
+            this.tracker = tracker;
+            this.totalData = totalData;
+            this.transferredData = transferredData;
+        }
+
+        long getTotalData () {
+            return totalData;
+        }
+
+        @Override
+        public synchronized void updateStats (long totalData, long totalDataSent, int dataSent, long cost) {
+            transferredData += dataSent;
+            tracker.updateStats (getTotalData (), transferredData, dataSent, cost);
+        }
+
+        @Override
+        public void onFile (String onFileLocation, int onFile, int totalFiles) {
+            tracker.onFile (onFileLocation, onFile, totalFiles);
+        }
+
+        @Override
+        public void finished () {
+            tracker.finished ();
+        }
+
+        @Override
+        public void error (String errorMessage) {
+            tracker.error (errorMessage);
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+/**
+ * rsync's weak checksum of a window of bytes; sliding the window by a byte
+ * updates it in constant time.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class RollingChecksum
+{
+
+    private final int windowSize;
+    private int a;
+    private int b;
+
+    RollingChecksum (int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Starts over with the window at the given bytes.
+     */
+    void reset (byte[] buffer, int offset) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < windowSize; i++) {
+            int value = buffer[offset + i] & 0xff;
+            a += value;
+            b += (windowSize - i) * value;
+        }
+    }
+
+    /**
+     * Slides the window forward by a byte.
+     *
+     * @param removed byte leaving the window
+     * @param added byte entering the window
+     */
+    void roll (byte removed, byte added) {
+        int removedValue = removed & 0xff;
+        a += (added & 0xff) - removedValue;
+        b += a - windowSize * removedValue;
+    }
+
+    int getValue () {
+        return (a & 0xffff) | (b << 16);
+    }
+
+    static int checksum (byte[] buffer, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum (length);
+        checksum.reset (buffer, offset);
+        return checksum.getValue ();
+    }
+
+}
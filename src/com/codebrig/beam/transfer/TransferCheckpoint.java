@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Bitmap of the blocks of a file which have been received, persisted next to
+ * the file so an interrupted transfer can resume where it left off.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class TransferCheckpoint
+{
+
+    public final static String CHECKPOINT_EXTENSION = ".checkpoint";
+    private final static int CHECKPOINT_MAGIC = 0x4245414D; //BEAM
+    private final static int HEADER_SIZE = 4 + 8 + 4;
+
+    private final File checkpointFile;
+    private final long fileSize;
+    private final int blockSize;
+    private final BitSet completedBlocks;
+
+    private TransferCheckpoint (File checkpointFile, long fileSize, int blockSize, BitSet completedBlocks) {
+        this.checkpointFile = checkpointFile;
+        this.fileSize = fileSize;
+        this.blockSize = blockSize;
+        this.completedBlocks = completedBlocks;
+    }
+
+    /**
+     * Loads the checkpoint of a file being received. Starts over when there is
+     * none or it was saved for a different file size or block size.
+     *
+     * @param file file being received
+     * @param fileSize size of the file being received
+     * @param blockSize size of the blocks it's sent in
+     * @return checkpoint of the file
+     * @throws IOException if the checkpoint exists but can't be read
+     */
+    public static TransferCheckpoint load (File file, long fileSize, int blockSize) throws IOException {
+        File checkpointFile = getCheckpointFile (file);
+        BitSet completedBlocks = new BitSet ();
+
+        if (checkpointFile.exists ()) {
+            ByteBuffer checkpoint = ByteBuffer.wrap (Files.readAllBytes (checkpointFile.toPath ()));
+            if (checkpoint.remaining () >= HEADER_SIZE && checkpoint.getInt () == CHECKPOINT_MAGIC
+                    && checkpoint.getLong () == fileSize && checkpoint.getInt () == blockSize) {
+                completedBlocks = BitSet.valueOf (checkpoint);
+            }
+        }
+
+        return new TransferCheckpoint (checkpointFile, fileSize, blockSize, completedBlocks);
+    }
+
+    public static File getCheckpointFile (File file) {
+        return new File (file.getPath () + CHECKPOINT_EXTENSION);
+    }
+
+    /**
+     * Records blocks as received and saves the checkpoint.
+     *
+     * @param blocks blocks which have been written
+     * @param force whether to force the checkpoint to disk; the blocks
+     * themselves should have been forced first
+     * @throws IOException if the checkpoint can't be saved
+     */
+    public synchronized void complete (BitSet blocks, boolean force) throws IOException {
+        completedBlocks.or (blocks);
+
+        byte[] bitmap = completedBlocks.toByteArray ();
+        ByteBuffer checkpoint = ByteBuffer.allocate (HEADER_SIZE + bitmap.length);
+        checkpoint.putInt (CHECKPOINT_MAGIC);
+        checkpoint.putLong (fileSize);
+        checkpoint.putInt (blockSize);
+        checkpoint.put (bitmap);
+        checkpoint.flip ();
+
+        //bitmap only ever grows so writing over the old one in place never loses blocks
+        try (FileChannel fileChannel = FileChannel.open (checkpointFile.toPath (),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (checkpoint.hasRemaining ()) {
+                fileChannel.write (checkpoint, checkpoint.position ());
+            }
+            if (force) {
+                fileChannel.force (false);
+            }
+        }
+    }
+
+    public synchronized BitSet getCompletedBlocks () {
+        return (BitSet) completedBlocks.clone ();
+    }
+
+    public synchronized boolean isComplete () {
+        return completedBlocks.cardinality () >= getBlockCount ();
+    }
+
+    public int getBlockCount () {
+        return (int) ((fileSize + blockSize - 1) / blockSize);
+    }
+
+    public long getFileSize () {
+        return fileSize;
+    }
+
+    public int getBlockSize () {
+        return blockSize;
+    }
+
+    /**
+     * Removes the checkpoint once the file has been received.
+     */
+    public synchronized void delete () {
+        checkpointFile.delete ();
+    }
+
+}
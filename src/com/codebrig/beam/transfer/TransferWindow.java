@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.transfer;
+
+/**
+ * Sizes the window of blocks a windowed file transfer keeps in flight.
+ * Grows exponentially until the first loss then additively; a loss halves it,
+ * but never below the bandwidth-delay product measured from delivery rate and
+ * minimum round trip time, so random losses don't starve a fast link.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+class TransferWindow
+{
+
+    final static int MIN_WINDOW = 2;
+    final static int MAX_WINDOW = 128;
+    final static int INITIAL_WINDOW = 4;
+    private final static long MIN_RATE_INTERVAL = 1000000 * 10; //10 milliseconds (in nanoseconds)
+    private final static double RATE_DECAY = 0.9;
+
+    private final int blockSize;
+    private double size = INITIAL_WINDOW;
+    private boolean slowStart = true;
+    private long smoothedRtt = -1;
+    private long minRtt = Long.MAX_VALUE;
+    private double deliveryRate; //bytes per nanosecond
+    private long rateIntervalStart = -1;
+    private long rateIntervalBytes;
+    private long lastLossTime;
+
+    TransferWindow (int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param rtt round trip time of the block in nanoseconds; -1 if it was
+     * retransmitted or queued and the sample would be ambiguous
+     * @param bytes size of the block
+     */
+    void onAck (long rtt, int bytes) {
+        long now = System.nanoTime ();
+        if (rtt >= 0) {
+            if (smoothedRtt < 0) {
+                smoothedRtt = rtt;
+            } else {
+                smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+            }
+            minRtt = Math.min (minRtt, rtt);
+        }
+
+        //delivery rate over intervals of at least a round trip; decaying max
+        if (rateIntervalStart < 0) {
+            rateIntervalStart = now;
+        }
+        rateIntervalBytes += bytes;
+        long interval = now - rateIntervalStart;
+        if (interval >= Math.max (MIN_RATE_INTERVAL, smoothedRtt)) {
+            deliveryRate = Math.max ((double) rateIntervalBytes / interval, deliveryRate * RATE_DECAY);
+            rateIntervalStart = now;
+            rateIntervalBytes = 0;
+        }
+
+        if (slowStart) {
+            size += 1;
+        } else {
+            size += 1 / size;
+        }
+        size = Math.min (size, MAX_WINDOW);
+    }
+
+    /**
+     * Shrinks the window; at most once per round trip.
+     */
+    void onLoss () {
+        long now = System.nanoTime ();
+        if (lastLossTime != 0 && now - lastLossTime < Math.max (smoothedRtt, 0)) {
+            return;
+        }
+        lastLossTime = now;
+
+        slowStart = false;
+        size = Math.max (MIN_WINDOW, Math.max (size / 2, getBandwidthDelayProduct ()));
+        size = Math.min (size, MAX_WINDOW);
+    }
+
+    /**
+     * @return blocks which may be in flight
+     */
+    int getSize () {
+        return (int) size;
+    }
+
+    /**
+     * @return measured bandwidth-delay product in blocks
+     */
+    int getBandwidthDelayProduct () {
+        if (minRtt == Long.MAX_VALUE) {
+            return 0;
+        }
+        return (int) Math.ceil (deliveryRate * minRtt / blockSize);
+    }
+
+    /**
+     * @return smoothed round trip time in nanoseconds; -1 if not yet measured
+     */
+    long getSmoothedRtt () {
+        return smoothedRtt;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.benchmark;
+
+import com.codebrig.beam.crypt.AES;
+import com.codebrig.beam.crypt.AESGCM;
+import com.codebrig.beam.crypt.AESGCMInputStream;
+import com.codebrig.beam.crypt.AESGCMOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares encryption throughput of AES (ECB; used by AESBeamMessage) with
+ * AESGCM on byte arrays, in place on ByteBuffers, and as a stream; single
+ * threaded and with threads sharing one instance.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class AESBenchmark
+{
+
+    public final static int MESSAGE_SIZE = 1024 * 4;
+    public final static int STREAM_SIZE = 1024 * 1024 * 64;
+    public final static long MESSAGE_BYTES = 1024 * 1024 * 256;
+    public final static int THREADS = 4;
+    public final static int ROUNDS = 3;
+
+    public static void main (String[] args) throws Exception {
+        final byte[] message = new byte[MESSAGE_SIZE];
+        new Random (42).nextBytes (message);
+        final AES aes = new AES ("benchmark password");
+        final AESGCM gcm = new AESGCM (aes.getKey ());
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println ("Round " + round);
+            benchmark ("AES (ECB) byte[]", 1, new Runnable ()
+            {
+                @Override
+                public void run () {
+                    for (long i = 0; i < MESSAGE_BYTES / MESSAGE_SIZE; i++) {
+                        aes.decrypt (aes.encrypt (message));
+                    }
+                }
+            });
+            benchmark ("AES (ECB) byte[]", THREADS, new Runnable ()
+            {
+                @Override
+                public void run () {
+                    for (long i = 0; i < MESSAGE_BYTES / MESSAGE_SIZE / THREADS; i++) {
+                        aes.decrypt (aes.encrypt (message));
+                    }
+                }
+            });
+            benchmark ("AESGCM byte[]", 1, new Runnable ()
+            {
+                @Override
+                public void run () {
+                    for (long i = 0; i < MESSAGE_BYTES / MESSAGE_SIZE; i++) {
+                        gcm.decrypt (gcm.encrypt (message));
+                    }
+                }
+            });
+            benchmark ("AESGCM byte[]", THREADS, new Runnable ()
+            {
+                @Override
+                public void run () {
+                    for (long i = 0; i < MESSAGE_BYTES / MESSAGE_SIZE / THREADS; i++) {
+                        gcm.decrypt (gcm.encrypt (message));
+                    }
+                }
+            });
+            benchmark ("AESGCM ByteBuffer", 1, new Runnable ()
+            {
+                @Override
+                public void run () {
+                    ByteBuffer buffer = ByteBuffer.allocate (MESSAGE_SIZE + AESGCM.OVERHEAD);
+                    for (long i = 0; i < MESSAGE_BYTES / MESSAGE_SIZE; i++) {
+                        buffer.clear ();
+                        buffer.position (AESGCM.NONCE_SIZE);
+                        buffer.put (message);
+                        buffer.flip ();
+                        gcm.encrypt (buffer);
+                        gcm.decrypt (buffer);
+                    }
+                }
+            });
+            benchmark ("AESGCM stream", 1, new Runnable ()
+            {
+                @Override
+                public void run () {
+                    try {
+                        streamRoundTrip (gcm, message);
+                    } catch (IOException ex) {
+                        throw new RuntimeException (ex);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void streamRoundTrip (AESGCM gcm, byte[] message) throws IOException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream (STREAM_SIZE + STREAM_SIZE / 100);
+        try (AESGCMOutputStream out = new AESGCMOutputStream (gcm, encrypted)) {
+            for (int i = 0; i < STREAM_SIZE / message.length; i++) {
+                out.write (message);
+            }
+        }
+
+        byte[] readBuffer = new byte[message.length];
+        long totalRead = 0;
+        try (AESGCMInputStream in = new AESGCMInputStream (gcm,
+                new ByteArrayInputStream (encrypted.toByteArray ()))) {
+            int read;
+            while ((read = in.read (readBuffer)) != -1) {
+                totalRead += read;
+            }
+        }
+        if (totalRead != STREAM_SIZE || !Arrays.equals (readBuffer, message)) {
+            throw new IllegalStateException ("Stream round trip failed");
+        }
+    }
+
+    private static void benchmark (String name, int threadCount, Runnable task) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread (task);
+        }
+
+        long startTime = System.nanoTime ();
+        for (Thread thread : threads) {
+            thread.start ();
+        }
+        for (Thread thread : threads) {
+            thread.join ();
+        }
+        long time = System.nanoTime () - startTime;
+
+        long bytes = name.endsWith ("stream") ? STREAM_SIZE : MESSAGE_BYTES;
+        System.out.println (String.format ("  %-20s %s thread(s): %7.1f MB/s (encrypt + decrypt)",
+                name, threadCount, bytes / (1024.0 * 1024.0) / (time / 1000000000.0)));
+    }
+
+}
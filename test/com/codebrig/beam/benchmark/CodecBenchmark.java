@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.benchmark;
+
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.codec.MessageCodec;
+import com.codebrig.beam.messages.codec.MessageCodecs;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares serialized size and serialization/deserialization time of the
+ * bundled message codecs on a typical POJO message.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class CodecBenchmark
+{
+
+    public final static int MESSAGE_COUNT = 20000;
+    public final static int ROUNDS = 3;
+
+    public static void main (String[] args) {
+        List<OrderMessage> messages = generateMessages ();
+        MessageCodec[] codecs = new MessageCodec[] {
+            MessageCodecs.PROTOSTUFF, MessageCodecs.GRAPH, MessageCodecs.JSON, MessageCodecs.SMILE
+        };
+        String[] names = new String[] {"Protostuff", "Graph", "JSON", "Smile"};
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println ("Round " + round);
+            for (int i = 0; i < codecs.length; i++) {
+                benchmarkCodec (names[i], codecs[i], messages);
+            }
+        }
+    }
+
+    private static void benchmarkCodec (String name, MessageCodec codec, List<OrderMessage> messages) {
+        Schema<OrderMessage> schema = RuntimeSchema.getSchema (OrderMessage.class);
+        byte[][] serialized = new byte[messages.size ()][];
+        long serializedBytes = 0;
+
+        long startTime = System.nanoTime ();
+        for (int i = 0; i < serialized.length; i++) {
+            serialized[i] = codec.serialize (messages.get (i), schema);
+        }
+        long serializeTime = System.nanoTime () - startTime;
+
+        startTime = System.nanoTime ();
+        for (int i = 0; i < serialized.length; i++) {
+            OrderMessage message = new OrderMessage ();
+            codec.deserialize (serialized[i], message, schema);
+            if (message.items.size () != messages.get (i).items.size ()) {
+                throw new IllegalStateException (name + " failed to round trip message " + i);
+            }
+            serializedBytes += serialized[i].length;
+        }
+        long deserializeTime = System.nanoTime () - startTime;
+
+        System.out.println (String.format ("  %-12s %5d bytes per message; serialize: %6d ns per message; deserialize: %6d ns per message",
+                name, serializedBytes / messages.size (), serializeTime / messages.size (),
+                deserializeTime / messages.size ()));
+    }
+
+    private static List<OrderMessage> generateMessages () {
+        Random random = new Random (42);
+        String[] regions = new String[] {"us-east", "us-west", "eu-west", "ap-south"};
+
+        List<OrderMessage> messages = new ArrayList<> (MESSAGE_COUNT);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            OrderMessage message = new OrderMessage ();
+            message.orderId = 7000000000L + i;
+            message.customerId = 100000 + random.nextInt (5000);
+            message.region = regions[random.nextInt (regions.length)];
+            message.note = "order note " + random.nextInt (1000);
+
+            int itemCount = 1 + random.nextInt (6);
+            for (int z = 0; z < itemCount; z++) {
+                OrderItem item = new OrderItem ();
+                item.sku = "SKU-" + (5000 + random.nextInt (300));
+                item.quantity = 1 + random.nextInt (4);
+                item.price = random.nextInt (10000) / 100.0;
+                message.items.add (item);
+            }
+            messages.add (message);
+        }
+
+        return messages;
+    }
+
+    public static class OrderMessage extends BeamMessage<OrderMessage>
+    {
+
+        private long orderId;
+        private int customerId;
+        private String region;
+        private String note;
+        private List<OrderItem> items = new ArrayList<> ();
+
+        public OrderMessage () {
+            super (1);
+        }
+
+    }
+
+    public static class OrderItem
+    {
+
+        private String sku;
+        private int quantity;
+        private double price;
+
+    }
+
+}
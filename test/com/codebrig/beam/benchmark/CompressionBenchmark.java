@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.benchmark;
+
+import com.codebrig.beam.compression.FrameCompressor;
+import com.codebrig.beam.compression.StreamCompressor;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.LegacyMessage;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares compressed size and CPU time of per-frame LZ4 compression with
+ * per-connection stream compression. Uses frames of a captured Beam stream
+ * (raw bytes of one direction of a connection) when given a file; otherwise
+ * generates LegacyMessage traffic.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class CompressionBenchmark
+{
+
+    public final static int FRAME_COUNT = 50000;
+    public final static int DICTIONARY_SAMPLES = 1000;
+    public final static int ROUNDS = 3;
+
+    public static void main (String[] args) throws IOException {
+        List<byte[]> frames = (args.length > 0) ? readCapture (args[0]) : generateTraffic ();
+        List<byte[]> samples = frames.subList (0, Math.min (DICTIONARY_SAMPLES, frames.size () / 10));
+        byte[] dictionary = StreamCompressor.buildDictionary (samples, StreamCompressor.MAX_DICTIONARY_SIZE);
+
+        long originalBytes = 0;
+        for (byte[] frame : frames) {
+            originalBytes += frame.length;
+        }
+        System.out.println (String.format ("%s frames; %s bytes; %s bytes per frame",
+                frames.size (), originalBytes, originalBytes / frames.size ()));
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println ("Round " + round);
+            benchmarkFrames ("LZ4", new FrameCompressor (), frames);
+            benchmarkFrames ("LZ4 HC", new FrameCompressor (true), frames);
+            benchmarkStream ("Stream", new StreamCompressor (), new StreamCompressor (), frames);
+            benchmarkStream ("Stream + dictionary", new StreamCompressor (dictionary),
+                    new StreamCompressor (dictionary), frames);
+        }
+    }
+
+    private static void benchmarkFrames (String name, FrameCompressor compressor, List<byte[]> frames)
+            throws IOException {
+        byte[][] compressed = new byte[frames.size ()][];
+        long compressedBytes = 0;
+
+        long startTime = System.nanoTime ();
+        for (int i = 0; i < compressed.length; i++) {
+            compressed[i] = compressor.compress (frames.get (i));
+        }
+        long compressTime = System.nanoTime () - startTime;
+
+        startTime = System.nanoTime ();
+        for (int i = 0; i < compressed.length; i++) {
+            if (compressed[i] != null) {
+                compressor.decompress (compressed[i]);
+                compressedBytes += compressed[i].length;
+            } else {
+                //sent uncompressed
+                compressedBytes += frames.get (i).length;
+            }
+        }
+        long decompressTime = System.nanoTime () - startTime;
+
+        printResult (name, frames, compressedBytes, compressTime, decompressTime);
+    }
+
+    private static void benchmarkStream (String name, StreamCompressor compressor,
+            StreamCompressor decompressor, List<byte[]> frames) throws IOException {
+        byte[][] compressed = new byte[frames.size ()][];
+        long compressedBytes = 0;
+
+        long startTime = System.nanoTime ();
+        for (int i = 0; i < compressed.length; i++) {
+            compressed[i] = compressor.compress (frames.get (i));
+        }
+        long compressTime = System.nanoTime () - startTime;
+
+        startTime = System.nanoTime ();
+        for (int i = 0; i < compressed.length; i++) {
+            byte[] frame = decompressor.decompress (compressed[i]);
+            if (frame.length != frames.get (i).length) {
+                throw new IllegalStateException ("Stream out of sync at frame " + i);
+            }
+            compressedBytes += compressed[i].length;
+        }
+        long decompressTime = System.nanoTime () - startTime;
+
+        compressor.end ();
+        decompressor.end ();
+        printResult (name, frames, compressedBytes, compressTime, decompressTime);
+    }
+
+    private static void printResult (String name, List<byte[]> frames, long compressedBytes,
+            long compressTime, long decompressTime) {
+        long originalBytes = 0;
+        for (byte[] frame : frames) {
+            originalBytes += frame.length;
+        }
+
+        System.out.println (String.format ("  %-20s ratio: %5.2f; %6d bytes per frame; compress: %6d ns per frame; decompress: %6d ns per frame",
+                name, (double) originalBytes / compressedBytes, compressedBytes / frames.size (),
+                compressTime / frames.size (), decompressTime / frames.size ()));
+    }
+
+    private static List<byte[]> generateTraffic () {
+        Random random = new Random (42);
+        String[] events = new String[] {"login", "logout", "view", "purchase", "search", "update"};
+
+        List<byte[]> frames = new ArrayList<> (FRAME_COUNT);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            LegacyMessage message = new LegacyMessage (1);
+            message.setLong ("user_id", 100000L + random.nextInt (5000));
+            message.setLong ("session_id", 7000000000L + random.nextInt (100000));
+            message.setString ("event", events[random.nextInt (events.length)]);
+            message.setLong ("timestamp", 1420070400000L + i * 17L);
+            message.setString ("region", random.nextBoolean () ? "us-east" : "eu-west");
+
+            Long[] items = new Long[random.nextInt (8)];
+            for (int z = 0; z < items.length; z++) {
+                items[z] = 5000L + random.nextInt (300);
+            }
+            message.setLong ("items", items);
+            message.setBoolean ("successful", true);
+            frames.add (message.getData ());
+        }
+
+        return frames;
+    }
+
+    private static List<byte[]> readCapture (String fileName) throws IOException {
+        List<byte[]> frames = new ArrayList<> ();
+        try (DataInputStream in = new DataInputStream (new FileInputStream (fileName))) {
+            byte[] header = new byte[BeamMessage.HEADER_SIZE];
+            while (true) {
+                try {
+                    in.readFully (header);
+                } catch (EOFException ex) {
+                    break;
+                }
+
+                int size = ((header[4] & 0xFF) << 24) | ((header[5] & 0xFF) << 16)
+                        | ((header[6] & 0xFF) << 8) | (header[7] & 0xFF);
+                byte[] data = new byte[size];
+                in.readFully (data);
+                if (header[0] >= 0) {
+                    //skip system messages
+                    frames.add (data);
+                }
+            }
+        }
+
+        if (frames.isEmpty ()) {
+            throw new IOException ("No frames in capture: " + fileName);
+        }
+        return frames;
+    }
+
+}
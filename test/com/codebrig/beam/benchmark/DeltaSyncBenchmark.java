@@ -0,0 +1,292 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.benchmark;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.handlers.LegacyHandler;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.LegacyMessage;
+import com.codebrig.beam.transfer.DurabilityPolicy;
+import com.codebrig.beam.transfer.FileTransferChannel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares sending a whole file with syncing it as a delta against an older
+ * copy the receiver has, in which 1% of the file differs. Connections go
+ * through a proxy which counts the data sent each way.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class DeltaSyncBenchmark
+{
+
+    public final static int SERVER_PORT = 4449;
+    public final static int PROXY_PORT = 4450;
+    public final static int TEST_MESSAGE = 1;
+    public final static long DEFAULT_FILE_SIZE = 1024L * 1024 * 1024; //1GB
+    public final static double CHANGE_RATE = 0.01;
+    public final static int MAX_CHANGE_SIZE = 1024 * 16; //16KB
+    public final static double LINK_SPEED = 100.0; //Mbit/s, for estimated transfer times
+
+    private final static AtomicLong sentData = new AtomicLong ();
+    private final static AtomicLong receivedData = new AtomicLong ();
+
+    public static void main (String[] args) throws Exception {
+        long fileSize = (args.length > 0) ? Long.parseLong (args[0]) * 1024 * 1024 : DEFAULT_FILE_SIZE;
+        final File sendFile = File.createTempFile ("beam-benchmark", ".send");
+        final File oldFile = File.createTempFile ("beam-benchmark", ".old");
+        final File receiveFile = File.createTempFile ("beam-benchmark", ".receive");
+        sendFile.deleteOnExit ();
+        oldFile.deleteOnExit ();
+        receiveFile.deleteOnExit ();
+        long changedData = createFiles (sendFile, oldFile, fileSize);
+
+        BeamServer server = new BeamServer ("DeltaSyncBenchmark", SERVER_PORT, false);
+        server.addGlobalHandler (new LegacyHandler (TEST_MESSAGE)
+        {
+
+            @Override
+            public LegacyMessage messageReceived (Communicator comm, LegacyMessage message) {
+                FileTransferChannel fileChannel = comm.createFileTransferChannel ();
+                fileChannel.setDurabilityPolicy (DurabilityPolicy.NONE);
+                fileChannel.connect (message.getLong ("channel_id"));
+                comm.queue (message.emptySuccessResponse ().setLong ("channel_id", fileChannel.getTransferChannelId ()));
+
+                try {
+                    fileChannel.receiveFile (receiveFile);
+                } catch (IOException ex) {
+                    ex.printStackTrace ();
+                }
+                fileChannel.close ();
+                return null;
+            }
+        });
+        server.start ();
+        startProxy ();
+        Thread.sleep (200);
+
+        BeamClient client = new BeamClient ("localhost", null, PROXY_PORT, false);
+        client.connect ();
+
+        System.out.println (String.format ("File size: %s MB, changed: %.2f MB (%.2f%%)",
+                fileSize / (1024 * 1024), changedData / (1024.0 * 1024.0), changedData * 100.0 / fileSize));
+        for (boolean deltaSync : new boolean[] {false, true}) {
+            Files.copy (oldFile.toPath (), receiveFile.toPath (), StandardCopyOption.REPLACE_EXISTING);
+            sentData.set (0);
+            receivedData.set (0);
+
+            long time = transfer (client, sendFile, receiveFile, deltaSync);
+            double estimatedTime = (sentData.get () + receivedData.get ()) * 8 / (LINK_SPEED * 1000000) + time / 1000.0;
+            System.out.println (String.format ("%-11s - time: %6s ms, sent: %9.2f MB, received: %7.2f MB, est. at %s Mbit/s: %7.1f s",
+                    deltaSync ? "Delta sync" : "Whole file", time, sentData.get () / (1024.0 * 1024.0),
+                    receivedData.get () / (1024.0 * 1024.0), (int) LINK_SPEED, estimatedTime));
+        }
+
+        client.close ();
+        server.close ();
+        System.exit (0);
+    }
+
+    private static long transfer (BeamClient client, File sendFile, File receiveFile, boolean deltaSync)
+            throws IOException {
+        FileTransferChannel fileChannel = client.getCommunicator ().createFileTransferChannel ();
+        BeamMessage responseMessage = client.getCommunicator ().send (new LegacyMessage (TEST_MESSAGE)
+                .setLong ("channel_id", fileChannel.getTransferChannelId ()));
+        fileChannel.connect (new LegacyMessage (responseMessage).getLong ("channel_id"));
+
+        long startTime = System.currentTimeMillis ();
+        long transferredData = deltaSync ? fileChannel.syncFile (sendFile) : fileChannel.sendFile (sendFile);
+        long time = System.currentTimeMillis () - startTime;
+        fileChannel.close ();
+
+        //receiver finishes writing once the sender is told the transfer is complete
+        long waitUntil = System.currentTimeMillis () + 5000;
+        while (receiveFile.length () != sendFile.length () && System.currentTimeMillis () < waitUntil) {
+            Thread.yield ();
+        }
+        if (transferredData != sendFile.length () || !sameContents (sendFile, receiveFile)) {
+            throw new IllegalStateException ("Transfer failed");
+        }
+        return time;
+    }
+
+    /**
+     * Writes a random file and an older version of it; changes are spread
+     * throughout the file as overwritten, inserted and deleted ranges.
+     *
+     * @return data which differs between the files
+     */
+    private static long createFiles (File newFile, File oldFile, long fileSize) throws IOException {
+        Random random = new Random (42);
+        byte[] buffer = new byte[1024 * 1024];
+        long changeTarget = (long) (fileSize * CHANGE_RATE);
+        int changeCount = (int) Math.max (changeTarget / (MAX_CHANGE_SIZE / 2), 1);
+        long changeInterval = fileSize / changeCount;
+        long changedData = 0;
+
+        try (OutputStream newOut = new BufferedOutputStream (new FileOutputStream (newFile));
+                OutputStream oldOut = new BufferedOutputStream (new FileOutputStream (oldFile))) {
+            long position = 0;
+            while (position < fileSize) {
+                //unchanged range both files share
+                long unchanged = Math.min (changeInterval, fileSize - position);
+                while (unchanged > 0) {
+                    int length = (int) Math.min (unchanged, buffer.length);
+                    random.nextBytes (buffer);
+                    newOut.write (buffer, 0, length);
+                    oldOut.write (buffer, 0, length);
+                    unchanged -= length;
+                    position += length;
+                }
+                if (position >= fileSize) {
+                    break;
+                }
+
+                int changeSize = (int) Math.min (1 + random.nextInt (MAX_CHANGE_SIZE), fileSize - position);
+                byte[] change = new byte[changeSize];
+                random.nextBytes (change);
+                switch (random.nextInt (3)) {
+                    case 0:
+                        //overwritten
+                        newOut.write (change);
+                        random.nextBytes (change);
+                        oldOut.write (change);
+                        position += changeSize;
+                        break;
+                    case 1:
+                        //inserted into new file
+                        newOut.write (change);
+                        position += changeSize;
+                        break;
+                    default:
+                        //deleted from new file
+                        oldOut.write (change);
+                        break;
+                }
+                changedData += changeSize;
+            }
+        }
+        return changedData;
+    }
+
+    private static boolean sameContents (File file1, File file2) throws IOException {
+        if (file1.length () != file2.length ()) {
+            return false;
+        }
+
+        byte[] buffer1 = new byte[1024 * 1024];
+        byte[] buffer2 = new byte[buffer1.length];
+        try (InputStream in1 = new BufferedInputStream (new FileInputStream (file1));
+                InputStream in2 = new BufferedInputStream (new FileInputStream (file2))) {
+            int read;
+            while ((read = readFully (in1, buffer1)) > 0) {
+                if (readFully (in2, buffer2) != read
+                        || !Arrays.equals (Arrays.copyOf (buffer1, read), Arrays.copyOf (buffer2, read))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int readFully (InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = in.read (buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    private static void startProxy () throws IOException {
+        final ServerSocket proxySocket = new ServerSocket (PROXY_PORT);
+        Thread acceptThread = new Thread (new Runnable ()
+        {
+
+            @Override
+            public void run () {
+                try {
+                    while (true) {
+                        Socket clientSocket = proxySocket.accept ();
+                        Socket serverSocket = new Socket ("localhost", SERVER_PORT);
+                        clientSocket.setTcpNoDelay (true);
+                        serverSocket.setTcpNoDelay (true);
+
+                        relay (clientSocket.getInputStream (), serverSocket.getOutputStream (), sentData);
+                        relay (serverSocket.getInputStream (), clientSocket.getOutputStream (), receivedData);
+                    }
+                } catch (IOException ex) {
+                    //proxy closed
+                }
+            }
+        });
+        acceptThread.setDaemon (true);
+        acceptThread.start ();
+    }
+
+    private static void relay (final InputStream in, final OutputStream out, final AtomicLong counter) {
+        Thread relayThread = new Thread (new Runnable ()
+        {
+
+            @Override
+            public void run () {
+                byte[] buffer = new byte[1024 * 64];
+                try {
+                    int read;
+                    while ((read = in.read (buffer)) != -1) {
+                        out.write (buffer, 0, read);
+                        counter.addAndGet (read);
+                    }
+                } catch (IOException ex) {
+                    //connection closed
+                }
+            }
+        });
+        relayThread.setDaemon (true);
+        relayThread.start ();
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.benchmark;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.handlers.LegacyHandler;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.LegacyMessage;
+import com.codebrig.beam.messages.SystemMessageType;
+import com.codebrig.beam.transfer.DurabilityPolicy;
+import com.codebrig.beam.transfer.FileTransferChannel;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Compares file transfer throughput of the windowed protocol with confirmed
+ * bursts over loopback. Connections go through a proxy which delays every
+ * frame and drops file data frames to inject latency and loss.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class FileTransferBenchmark
+{
+
+    public final static int SERVER_PORT = 4447;
+    public final static int PROXY_PORT = 4448;
+    public final static int TEST_MESSAGE = 1;
+    public final static int FILE_SIZE = 1024 * 1024 * 32;
+    public final static int[] LATENCIES = {0, 5, 25}; //one way, in milliseconds
+    public final static double[] LOSS_RATES = {0.0, 0.01, 0.05};
+
+    private static volatile int latency;
+    private static volatile double lossRate;
+
+    public static void main (String[] args) throws Exception {
+        final File sendFile = File.createTempFile ("beam-benchmark", ".send");
+        final File receiveFile = File.createTempFile ("beam-benchmark", ".receive");
+        sendFile.deleteOnExit ();
+        receiveFile.deleteOnExit ();
+
+        byte[] data = new byte[FILE_SIZE];
+        new Random (42).nextBytes (data);
+        Files.write (sendFile.toPath (), data);
+
+        BeamServer server = new BeamServer ("FileTransferBenchmark", SERVER_PORT, false);
+        server.addGlobalHandler (new LegacyHandler (TEST_MESSAGE)
+        {
+
+            @Override
+            public LegacyMessage messageReceived (Communicator comm, LegacyMessage message) {
+                FileTransferChannel fileChannel = comm.createFileTransferChannel ();
+                fileChannel.setDurabilityPolicy (DurabilityPolicy.NONE);
+                fileChannel.connect (message.getLong ("channel_id"));
+                comm.queue (message.emptySuccessResponse ().setLong ("channel_id", fileChannel.getTransferChannelId ()));
+
+                try {
+                    fileChannel.receiveFile (receiveFile);
+                } catch (IOException ex) {
+                    ex.printStackTrace ();
+                }
+                fileChannel.close ();
+                return null;
+            }
+        });
+        server.start ();
+        startProxy ();
+        Thread.sleep (200);
+
+        BeamClient client = new BeamClient ("localhost", null, PROXY_PORT, false);
+        client.connect ();
+
+        for (int latency : LATENCIES) {
+            for (double lossRate : LOSS_RATES) {
+                FileTransferBenchmark.latency = latency;
+                FileTransferBenchmark.lossRate = lossRate;
+
+                double burstThroughput = transfer (client, sendFile, receiveFile, data, false);
+                double windowedThroughput = transfer (client, sendFile, receiveFile, data, true);
+                System.out.println (String.format ("RTT: %3s ms, loss: %4.1f%% - bursts: %7.1f MB/s, windowed: %7.1f MB/s",
+                        latency * 2, lossRate * 100, burstThroughput, windowedThroughput));
+            }
+        }
+
+        client.close ();
+        server.close ();
+        System.exit (0);
+    }
+
+    private static double transfer (BeamClient client, File sendFile, File receiveFile, byte[] data,
+            boolean windowedTransfer) throws IOException {
+        Files.write (receiveFile.toPath (), new byte[0]);
+
+        FileTransferChannel fileChannel = client.getCommunicator ().createFileTransferChannel ();
+        fileChannel.setWindowedTransfer (windowedTransfer);
+        BeamMessage responseMessage = client.getCommunicator ().send (new LegacyMessage (TEST_MESSAGE)
+                .setLong ("channel_id", fileChannel.getTransferChannelId ()));
+        fileChannel.connect (new LegacyMessage (responseMessage).getLong ("channel_id"));
+
+        long startTime = System.nanoTime ();
+        long sentData = fileChannel.sendFile (sendFile);
+        long time = System.nanoTime () - startTime;
+        fileChannel.close ();
+
+        //receiver finishes writing once the sender is told the transfer is complete
+        long waitUntil = System.currentTimeMillis () + 5000;
+        while (receiveFile.length () != data.length && System.currentTimeMillis () < waitUntil) {
+            Thread.yield ();
+        }
+        if (sentData != data.length || !Arrays.equals (data, Files.readAllBytes (receiveFile.toPath ()))) {
+            throw new IllegalStateException ("Transfer failed");
+        }
+
+        return data.length / (1024.0 * 1024.0) / (time / 1000000000.0);
+    }
+
+    private static void startProxy () throws IOException {
+        final ServerSocket proxySocket = new ServerSocket (PROXY_PORT);
+        Thread acceptThread = new Thread (new Runnable ()
+        {
+
+            @Override
+            public void run () {
+                try {
+                    while (true) {
+                        Socket clientSocket = proxySocket.accept ();
+                        Socket serverSocket = new Socket ("localhost", SERVER_PORT);
+                        clientSocket.setTcpNoDelay (true);
+                        serverSocket.setTcpNoDelay (true);
+
+                        relay (clientSocket.getInputStream (), serverSocket.getOutputStream ());
+                        relay (serverSocket.getInputStream (), clientSocket.getOutputStream ());
+                    }
+                } catch (IOException ex) {
+                    //proxy closed
+                }
+            }
+        });
+        acceptThread.setDaemon (true);
+        acceptThread.start ();
+    }
+
+    /**
+     * Forwards whole frames once they're past the one way latency; drops file
+     * data frames at the loss rate.
+     */
+    private static void relay (final InputStream in, final OutputStream out) {
+        final BlockingQueue<Object[]> frames = new LinkedBlockingQueue<> ();
+        final Random random = new Random (7);
+
+        Thread readThread = new Thread (new Runnable ()
+        {
+
+            @Override
+            public void run () {
+                DataInputStream dataIn = new DataInputStream (in);
+                byte[] header = new byte[BeamMessage.HEADER_SIZE];
+                try {
+                    while (true) {
+                        dataIn.readFully (header);
+                        ByteBuffer headerBuffer = ByteBuffer.wrap (header);
+                        int type = headerBuffer.getInt ();
+                        byte[] frame = Arrays.copyOf (header, header.length + headerBuffer.getInt ());
+                        dataIn.readFully (frame, header.length, frame.length - header.length);
+
+                        if (type == SystemMessageType.FILE_DATA && random.nextDouble () < lossRate) {
+                            continue;
+                        }
+                        frames.add (new Object[] {System.nanoTime () + latency * 1000000L, frame});
+                    }
+                } catch (IOException ex) {
+                    //connection closed
+                }
+            }
+        });
+        Thread writeThread = new Thread (new Runnable ()
+        {
+
+            @Override
+            public void run () {
+                try {
+                    while (true) {
+                        Object[] frame = frames.take ();
+                        long delay = (Long) frame[0] - System.nanoTime ();
+                        if (delay > 0) {
+                            Thread.sleep (delay / 1000000, (int) (delay % 1000000));
+                        }
+                        out.write ((byte[]) frame[1]);
+                        out.flush ();
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    //connection closed
+                }
+            }
+        });
+        readThread.setDaemon (true);
+        writeThread.setDaemon (true);
+        readThread.start ();
+        writeThread.start ();
+    }
+
+}
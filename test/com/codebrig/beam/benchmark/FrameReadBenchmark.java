@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.benchmark;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.handlers.BeamHandler;
+import com.codebrig.beam.messages.BeamMessage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures bytes allocated by a Communicator's reading thread per received
+ * message. Requires a JVM which supports thread allocation measurement.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class FrameReadBenchmark
+{
+
+    public final static int TEST_PORT = 4446;
+    public final static int TEST_MESSAGE = 1;
+    public final static int WARMUP_COUNT = 20000;
+    public final static int MESSAGE_COUNT = 100000;
+    public final static int MESSAGE_SIZE = 1024;
+
+    public static void main (String[] args) throws IOException, InterruptedException {
+        final com.sun.management.ThreadMXBean threadBean
+                = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+        final CountDownLatch finished = new CountDownLatch (1);
+        final long[] allocated = new long[2];
+
+        BeamServer server = new BeamServer ("Benchmark Server", TEST_PORT, false);
+        server.setPingPongEnabled (false);
+        BeamHandler handler = new BeamHandler (TEST_MESSAGE)
+        {
+
+            private int received = 0;
+
+            @Override
+            public BeamMessage messageReceived (Communicator comm, BeamMessage message) {
+                //blocking handler; runs on the reading thread
+                received++;
+                if (received == WARMUP_COUNT) {
+                    allocated[0] = threadBean.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+                } else if (received == WARMUP_COUNT + MESSAGE_COUNT) {
+                    allocated[1] = threadBean.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+                    finished.countDown ();
+                }
+
+                return null;
+            }
+        };
+        handler.setBlockingHandler (true);
+        server.addGlobalHandler (handler);
+        server.start ();
+
+        BeamClient client = new BeamClient ("localhost", null, TEST_PORT, false);
+        client.connect ();
+
+        byte[] payload = new byte[MESSAGE_SIZE];
+        long startTime = System.currentTimeMillis ();
+        for (int i = 0; i < WARMUP_COUNT + MESSAGE_COUNT; i++) {
+            client.getCommunicator ().queue (new BeamMessage (TEST_MESSAGE, payload));
+        }
+        finished.await ();
+
+        System.out.println (String.format ("Received %s messages of %s bytes in %s ms",
+                WARMUP_COUNT + MESSAGE_COUNT, MESSAGE_SIZE, System.currentTimeMillis () - startTime));
+        System.out.println (String.format ("Reading thread allocated %s bytes per message",
+                (allocated[1] - allocated[0]) / MESSAGE_COUNT));
+
+        client.close ();
+        server.close ();
+        System.exit (0);
+    }
+
+}
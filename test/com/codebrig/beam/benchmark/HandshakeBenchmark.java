@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.benchmark;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.crypt.RSA;
+import com.codebrig.beam.crypt.RSAConnection;
+import com.codebrig.beam.crypt.SessionTicketCache;
+import com.codebrig.beam.crypt.handlers.RSAHandshakeHandler;
+import com.codebrig.beam.crypt.messages.RSAHandshakeMessage;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.utils.Generator;
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Reconnect storm against a server with an RSAHandshakeHandler; compares
+ * handshakes per second of the legacy RSA encrypted connection key, the
+ * signed ECDH key agreement, and resuming with a session ticket. Also
+ * compares RSA private key operations with and without CRT.
+ *
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class HandshakeBenchmark
+{
+
+    public final static int PORT = 4444;
+    public final static int KEY_SIZE = 2048;
+    public final static int HANDSHAKES = 200;
+    public final static int DECRYPTS = 500;
+    public final static int ROUNDS = 3;
+
+    public static void main (String[] args) throws Exception {
+        RSA serverRSA = new RSA (KEY_SIZE);
+        RSA publicRSA = new RSA (serverRSA.getPublicExponent (), serverRSA.getPublicModulus ());
+        RSA noCrtRSA = new RSA (serverRSA.getPublicExponent (), serverRSA.getPublicModulus (),
+                serverRSA.getPrivateExponent ());
+
+        BeamServer server = new BeamServer ("HandshakeBenchmark", PORT, false);
+        server.addRSAHandshakeHandler (new RSAHandshakeHandler (serverRSA));
+        server.start ();
+        Thread.sleep (200);
+
+        try {
+            for (int round = 1; round <= ROUNDS; round++) {
+                System.out.println ("Round " + round);
+                reconnectStorm ("RSA (legacy)", publicRSA, Mode.LEGACY);
+                reconnectStorm ("ECDH", publicRSA, Mode.ECDH);
+                reconnectStorm ("Session ticket", publicRSA, Mode.RESUME);
+
+                decrypts ("RSA decrypt (CRT)", serverRSA, publicRSA);
+                decrypts ("RSA decrypt (no CRT)", noCrtRSA, publicRSA);
+            }
+        } finally {
+            server.close ();
+        }
+        System.exit (0);
+    }
+
+    private enum Mode
+    {
+        LEGACY, ECDH, RESUME
+    }
+
+    private static void reconnectStorm (String name, RSA publicKey, Mode mode) throws Exception {
+        SessionTicketCache ticketCache = new SessionTicketCache (1);
+        long handshakeTime = 0;
+        for (int i = 0; i < HANDSHAKES; i++) {
+            BeamClient client = new BeamClient ("localhost", null, PORT, false);
+            client.connect ();
+            client.setSessionTicketCache (mode == Mode.RESUME ? ticketCache : null);
+
+            long startTime = System.nanoTime ();
+            if (mode == Mode.LEGACY) {
+                //what establishRSAConnection sends to servers without key agreement
+                RSAHandshakeMessage rsaMessage = new RSAHandshakeMessage ();
+                rsaMessage.setConnectionKey (publicKey.encrypt (Generator.makeString (100)));
+                BeamMessage respMessage = client.getCommunicator ().send (rsaMessage);
+                if (respMessage == null || !respMessage.isSuccessful ()) {
+                    throw new IllegalStateException ("Handshake failed");
+                }
+            } else {
+                RSAConnection rsaConnection = client.establishRSAConnection (publicKey);
+                if (rsaConnection == null) {
+                    throw new IllegalStateException ("Handshake failed");
+                }
+            }
+            handshakeTime += System.nanoTime () - startTime;
+            client.close ();
+        }
+
+        System.out.println (String.format ("  %-22s %8.1f handshakes/s",
+                name, HANDSHAKES / (handshakeTime / 1000000000.0)));
+    }
+
+    private static void decrypts (String name, RSA privateKey, RSA publicKey) {
+        byte[] cryptText = publicKey.encrypt (new BigInteger (KEY_SIZE - 8, new Random (42)).toByteArray ());
+
+        long startTime = System.nanoTime ();
+        for (int i = 0; i < DECRYPTS; i++) {
+            privateKey.decrypt (cryptText);
+        }
+        long time = System.nanoTime () - startTime;
+
+        System.out.println (String.format ("  %-22s %8.1f ops/s",
+                name, DECRYPTS / (time / 1000000000.0)));
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.unit.compression;
+
+import com.codebrig.beam.compression.StreamCompressor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+/**
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class TestStreamCompressor
+{
+
+    public static void main (String[] args) throws IOException {
+        Random random = new Random (42);
+        List<byte[]> frames = new ArrayList<> ();
+        frames.add ("{\"user\":\"test\",\"action\":\"login\"}".getBytes ("UTF-8"));
+        frames.add (new byte[0]);
+        frames.add ("{\"user\":\"test\",\"action\":\"logout\"}".getBytes ("UTF-8"));
+        frames.add (new byte[0]);
+        byte[] randomFrame = new byte[1024 * 64];
+        random.nextBytes (randomFrame);
+        frames.add (randomFrame);
+
+        //dictionaries with adler-32 checksums on both sides of 2^31
+        byte[] highDictionary = null;
+        byte[] lowDictionary = null;
+        while (highDictionary == null || lowDictionary == null) {
+            byte[] dictionary = new byte[256];
+            random.nextBytes (dictionary);
+            Adler32 adler = new Adler32 ();
+            adler.update (dictionary);
+            if (adler.getValue () >= 0x80000000L) {
+                highDictionary = dictionary;
+            } else {
+                lowDictionary = dictionary;
+            }
+        }
+
+        roundTrip (null, frames);
+        roundTrip (highDictionary, frames);
+        roundTrip (lowDictionary, frames);
+        System.out.println ("Stream compression round trips passed");
+    }
+
+    private static void roundTrip (byte[] dictionary, List<byte[]> frames) throws IOException {
+        StreamCompressor sender = new StreamCompressor (dictionary);
+        StreamCompressor receiver = new StreamCompressor (dictionary);
+        for (byte[] frame : frames) {
+            byte[] compressed = sender.compress (frame);
+            if (!Arrays.equals (frame, receiver.decompress (compressed))) {
+                throw new RuntimeException ("Frame changed by round trip!");
+            }
+        }
+        sender.end ();
+        receiver.end ();
+    }
+
+}
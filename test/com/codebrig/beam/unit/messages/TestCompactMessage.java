@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.unit.messages;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.handlers.CompactHandler;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.CompactMessage;
+import com.codebrig.beam.messages.LegacyMessage;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class TestCompactMessage
+{
+
+    public final static int TEST_PORT = 4444;
+    public final static int TEST_MESSAGE = 1;
+
+    public static void main (String[] args) throws IOException {
+        //same values in both formats
+        byte[] blob = new byte[256];
+        for (int i = 0; i < blob.length; i++) {
+            blob[i] = (byte) i;
+        }
+        LegacyMessage legacy = fill (new LegacyMessage (TEST_MESSAGE), blob);
+        CompactMessage compact = fill (new CompactMessage (TEST_MESSAGE), blob);
+        System.out.println (String.format ("LegacyMessage: %s bytes; CompactMessage: %s bytes",
+                legacy.getData ().length, compact.getData ().length));
+
+        //compact data read by LegacyMessage and legacy data read by CompactMessage
+        verify (new LegacyMessage (new BeamMessage (TEST_MESSAGE, compact.getData ())), blob);
+        verify (new CompactMessage (new BeamMessage (TEST_MESSAGE, legacy.getData ())), blob);
+        verify (new CompactMessage (new BeamMessage (TEST_MESSAGE, compact.getData ())), blob);
+
+        //copied into a LegacyMessage
+        LegacyMessage copy = new LegacyMessage (TEST_MESSAGE);
+        copy.copy (compact);
+        verify (copy, blob);
+
+        BeamServer server = new BeamServer ("Test Server", TEST_PORT, false);
+        server.addGlobalHandler (new CompactHandler<CompactMessage> (TEST_MESSAGE)
+        {
+
+            @Override
+            public CompactMessage messageReceived (Communicator comm, CompactMessage message) {
+                List<Long> ids = message.getLongs ("ids");
+                byte[] blob = message.getBytes ("blob");
+                long sum = 0;
+                for (Long id : ids) {
+                    sum += id;
+                }
+
+                return (CompactMessage) message.emptyResponse ().setLong ("sum", sum)
+                        .setBytes ("blob", blob);
+            }
+        });
+        server.start ();
+
+        BeamClient client = new BeamClient ("localhost", null, TEST_PORT, false);
+        client.connect ();
+
+        BeamMessage responseMessage = client.getCommunicator ().send (compact);
+        CompactMessage response = new CompactMessage (responseMessage);
+        if (response.getLong ("sum") != 1L + Integer.MAX_VALUE + Long.MAX_VALUE - 5
+                || response.getBytes ("blob").length != blob.length) {
+            throw new RuntimeException ("Invalid response: " + response.getLong ("sum"));
+        }
+        System.out.println ("Received sum from server: " + response.getLong ("sum"));
+
+        client.close ();
+        server.close ();
+        System.exit (0);
+    }
+
+    private static <T extends LegacyMessage> T fill (T message, byte[] blob) {
+        message.setLong ("ids", 1L, (long) Integer.MAX_VALUE, Long.MAX_VALUE, -5L);
+        message.setInt ("count", 42);
+        message.setBoolean ("flag", true);
+        message.setBytes ("blob", blob);
+        message.setString ("name", "compact");
+        message.setMessage ("child", new CompactMessage (2).setInt ("count", 7));
+        return message;
+    }
+
+    private static void verify (LegacyMessage<?> message, byte[] blob) {
+        if (message.getLongs ("ids").get (2) != Long.MAX_VALUE || message.getInt ("count") != 42
+                || !message.getBoolean ("flag") || message.getBytes ("blob")[255] != blob[255]
+                || !"compact".equals (message.getString ("name"))) {
+            throw new RuntimeException ("Invalid message: " + message.getClass ().getSimpleName ());
+        }
+
+        LegacyMessage child = message.getMessage ("child");
+        if (!(child instanceof CompactMessage)) {
+            child = new CompactMessage (child);
+        }
+        if (child.getType () != 2 || child.getInt ("count") != 7) {
+            throw new RuntimeException ("Invalid child message: " + message.getClass ().getSimpleName ());
+        }
+    }
+
+}
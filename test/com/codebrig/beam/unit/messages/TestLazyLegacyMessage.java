@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.unit.messages;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.handlers.LazyLegacyHandler;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.LazyLegacyMessage;
+import com.codebrig.beam.messages.LegacyMessage;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class TestLazyLegacyMessage
+{
+
+    public final static int TEST_PORT = 4444;
+    public final static int TEST_MESSAGE = 1;
+
+    public static void main (String[] args) throws IOException {
+        LegacyMessage original = new LegacyMessage (TEST_MESSAGE);
+        original.setString ("route", "inventory");
+        original.setLong ("ids", 1L, 2L, 3L);
+        original.setString ("payload", "x", "y");
+        byte[] originalData = original.getData ();
+
+        //reading keys keeps the received data
+        LazyLegacyMessage<?> lazy = new LazyLegacyMessage (new BeamMessage (TEST_MESSAGE, originalData));
+        if (!"inventory".equals (lazy.getString ("route")) || lazy.getLongs ("ids").get (2) != 3L
+                || lazy.getString ("missing") != null || lazy.getData () != originalData) {
+            throw new RuntimeException ("Invalid lazy message");
+        }
+
+        //modifying it parses the rest
+        lazy.setString ("route", "billing");
+        LegacyMessage<?> modified = new LegacyMessage (new BeamMessage (TEST_MESSAGE, lazy.getData ()));
+        if (!"billing".equals (modified.getString ("route")) || modified.getStrings ("payload").size () != 2
+                || modified.getLongs ("ids").size () != 3) {
+            throw new RuntimeException ("Invalid modified message");
+        }
+
+        BeamServer server = new BeamServer ("Test Server", TEST_PORT, false);
+        server.addGlobalHandler (new LazyLegacyHandler<LazyLegacyMessage> (TEST_MESSAGE)
+        {
+
+            @Override
+            public LazyLegacyMessage messageReceived (Communicator comm, LazyLegacyMessage message) {
+                if (!"inventory".equals (message.getString ("route"))) {
+                    throw new RuntimeException ("Invalid route: " + message.getString ("route"));
+                }
+
+                //forwarded untouched
+                return message;
+            }
+        });
+        server.start ();
+
+        BeamClient client = new BeamClient ("localhost", null, TEST_PORT, false);
+        client.connect ();
+
+        BeamMessage response = client.getCommunicator ().send (original);
+        if (!Arrays.equals (response.getData (), originalData)) {
+            throw new RuntimeException ("Forwarded message was re-serialized");
+        }
+        System.out.println ("Received forwarded message: " + response.getData ().length + " bytes");
+
+        client.close ();
+        server.close ();
+        System.exit (0);
+    }
+
+}
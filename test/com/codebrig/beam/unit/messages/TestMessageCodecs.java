@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.unit.messages;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.handlers.BeamHandler;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.codec.MessageCodec;
+import com.codebrig.beam.messages.codec.MessageCodecs;
+import java.io.IOException;
+
+/**
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class TestMessageCodecs
+{
+
+    public final static int TEST_PORT = 4444;
+    public final static int TEST_MESSAGE = 1;
+
+    public static void main (String[] args) throws IOException {
+        BeamServer server = new BeamServer ("Test Server", TEST_PORT, false);
+        server.addGlobalHandler (new BeamHandler (TEST_MESSAGE)
+        {
+
+            @Override
+            public BeamMessage messageReceived (Communicator comm, BeamMessage message) {
+                //echo nested objects back
+                NodeMessage nodeMessage = new NodeMessage (message);
+                return nodeMessage.setSuccessful (true);
+            }
+        });
+        server.start ();
+
+        BeamClient client = new BeamClient ("localhost", null, TEST_PORT, false);
+        client.connect ();
+
+        for (MessageCodec codec : new MessageCodec[] {MessageCodecs.PROTOSTUFF, MessageCodecs.GRAPH,
+            MessageCodecs.JSON, MessageCodecs.SMILE}) {
+            Node first = new Node ("first");
+            first.next = new Node ("second");
+            if (codec == MessageCodecs.GRAPH) {
+                first.next.next = first; //only the graph codec keeps cycles
+            }
+
+            NodeMessage message = new NodeMessage ().setNode (first);
+            message.setCodec (codec);
+            BeamMessage responseMessage = client.getCommunicator ().send (message);
+            if (responseMessage == null) {
+                throw new RuntimeException ("No response with codec: " + codec.getClass ().getSimpleName ());
+            }
+
+            NodeMessage response = new NodeMessage (responseMessage);
+            Node node = response.getNode ();
+            if (!response.isSuccessful () || node == null || !"first".equals (node.name)
+                    || node.next == null || !"second".equals (node.next.name)
+                    || (codec == MessageCodecs.GRAPH && node.next.next != node)) {
+                throw new RuntimeException ("Invalid response with codec: " + codec.getClass ().getSimpleName ());
+            }
+            System.out.println ("Received nested objects with codec: " + codec.getClass ().getSimpleName ());
+        }
+
+        client.close ();
+        server.close ();
+        System.exit (0);
+    }
+
+    public static class NodeMessage extends BeamMessage<NodeMessage>
+    {
+
+        private Node node;
+
+        public NodeMessage () {
+            super (TEST_MESSAGE);
+        }
+
+        public NodeMessage (BeamMessage message) {
+            super (message);
+        }
+
+        public NodeMessage setNode (Node node) {
+            dataChanged ();
+            this.node = node;
+            return this;
+        }
+
+        public Node getNode () {
+            return node;
+        }
+
+    }
+
+    public static class Node
+    {
+
+        private String name;
+        private Node next;
+
+        public Node () {
+        }
+
+        public Node (String name) {
+            this.name = name;
+        }
+
+    }
+
+}
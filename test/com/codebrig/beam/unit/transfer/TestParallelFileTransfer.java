@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2014-2015 CodeBrig, LLC.
+ * http://www.codebrig.com/
+ *
+ * Beam - Client/Server & P2P Networking Library
+ *
+ * ====
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * ====
+ */
+package com.codebrig.beam.unit.transfer;
+
+import com.codebrig.beam.BeamClient;
+import com.codebrig.beam.BeamServer;
+import com.codebrig.beam.Communicator;
+import com.codebrig.beam.handlers.LegacyHandler;
+import com.codebrig.beam.messages.BeamMessage;
+import com.codebrig.beam.messages.LegacyMessage;
+import com.codebrig.beam.transfer.FileTransferChannel;
+import com.codebrig.beam.transfer.ParallelFileTransfer;
+import com.codebrig.beam.transfer.TransferCheckpoint;
+import com.codebrig.beam.transfer.TransferTracker;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Brandon Fergerson <brandon.fergerson@codebrig.com>
+ */
+public class TestParallelFileTransfer
+{
+
+    public final static int TEST_PORT = 4444;
+    public final static int TEST_MESSAGE = 1;
+    public final static int STREAM_COUNT = 4;
+    public final static int BLOCK_SIZE = 1024 * 256; //size of the blocks files are sent in
+    public final static int FILE_SIZE = BLOCK_SIZE * 40 + 12345;
+    public final static int CORRUPT_BLOCK = 21;
+
+    private static BeamServer server;
+    private static ParallelFileTransfer receiveTransfer;
+    private static CountDownLatch receiveChannels;
+
+    public static void main (String[] args) throws Exception {
+        File sendFile = new File (System.getProperty ("java.io.tmpdir"), "send_file.txt");
+        File receiveFile = new File (System.getProperty ("java.io.tmpdir"), "receive_file.txt");
+
+        byte[] data = new byte[FILE_SIZE];
+        new Random ().nextBytes (data);
+        Files.write (sendFile.toPath (), data);
+        receiveFile.delete ();
+        TransferCheckpoint.getCheckpointFile (receiveFile).delete ();
+
+        //start server
+        startServer ();
+
+        //whole file
+        long sentData = transferFile (sendFile, receiveFile);
+        System.out.println ("Sent data: " + sentData);
+        if (sentData != FILE_SIZE || !Arrays.equals (data, Files.readAllBytes (receiveFile.toPath ()))) {
+            throw new IllegalStateException ("File changed by transfer!");
+        }
+
+        //resume with every block checkpointed but one of them corrupted
+        try (RandomAccessFile file = new RandomAccessFile (receiveFile, "rw")) {
+            file.seek ((long) CORRUPT_BLOCK * BLOCK_SIZE);
+            file.write (~data[CORRUPT_BLOCK * BLOCK_SIZE]);
+        }
+        TransferCheckpoint checkpoint = TransferCheckpoint.load (receiveFile, FILE_SIZE, BLOCK_SIZE);
+        BitSet completedBlocks = new BitSet (checkpoint.getBlockCount ());
+        completedBlocks.set (0, checkpoint.getBlockCount ());
+        checkpoint.complete (completedBlocks, true);
+
+        sentData = transferFile (sendFile, receiveFile);
+        System.out.println ("Resent data: " + sentData);
+        if (sentData != BLOCK_SIZE) {
+            throw new IllegalStateException ("Resumed transfer didn't resend only the corrupted block!");
+        } else if (!Arrays.equals (data, Files.readAllBytes (receiveFile.toPath ()))) {
+            throw new IllegalStateException ("File changed by resumed transfer!");
+        } else if (TransferCheckpoint.getCheckpointFile (receiveFile).exists ()) {
+            throw new IllegalStateException ("Checkpoint left behind by finished transfer!");
+        }
+
+        //and we're done
+        server.close ();
+        System.exit (0);
+    }
+
+    /**
+     * @return data actually sent; not including blocks the receiver verified
+     */
+    private static long transferFile (File sendFile, File receiveFile) throws Exception {
+        receiveTransfer = new ParallelFileTransfer (receiveFile);
+        receiveChannels = new CountDownLatch (STREAM_COUNT);
+
+        //one connection per stream
+        ParallelFileTransfer sendTransfer = new ParallelFileTransfer (sendFile);
+        BeamClient[] clients = new BeamClient[STREAM_COUNT];
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            BeamClient client = clients[i] = startClient ();
+
+            FileTransferChannel fileChannel = client.getCommunicator ().createFileTransferChannel ();
+            LegacyMessage message = new LegacyMessage (TEST_MESSAGE)
+                    .setLong ("channel_id", fileChannel.getTransferChannelId ());
+            BeamMessage responseMessage = client.getCommunicator ().send (message);
+            message = new LegacyMessage (responseMessage);
+
+            fileChannel.connect (message.getLong ("channel_id"));
+            sendTransfer.addChannel (fileChannel);
+        }
+
+        //wait for server to receive file
+        receiveChannels.await ();
+        final boolean[] received = new boolean[1];
+        Thread receiveThread = new Thread (new Runnable ()
+        {
+
+            @Override
+            public void run () {
+                try {
+                    received[0] = receiveTransfer.receiveFile ();
+                } catch (IOException ex) {
+                    ex.printStackTrace ();
+                }
+            }
+        });
+        receiveThread.start ();
+
+        final AtomicLong sentData = new AtomicLong ();
+        sendTransfer.sendFile (new TransferTracker ()
+        {
+
+            @Override
+            public void updateStats (long totalData, long totalDataSent, int dataSent, long cost) {
+                sentData.addAndGet (dataSent);
+            }
+
+            @Override
+            public void onFile (String onFileLocation, int onFile, int totalFiles) {
+            }
+
+            @Override
+            public void finished () {
+            }
+
+            @Override
+            public void error (String errorMessage) {
+            }
+        });
+        receiveThread.join ();
+        if (!received[0]) {
+            throw new IllegalStateException ("File not received!");
+        }
+
+        for (BeamClient client : clients) {
+            client.close ();
+        }
+        return sentData.get ();
+    }
+
+    private static BeamClient startClient () throws IOException {
+        BeamClient client = new BeamClient ("localhost", TEST_PORT);
+        client.connect ();
+
+        return client;
+    }
+
+    private static void startServer () {
+        server = new BeamServer ("Test Server", TEST_PORT);
+        server.start ();
+
+        //add handler to accept client's test message
+        server.addGlobalHandler (new LegacyHandler (TEST_MESSAGE)
+        {
+
+            @Override
+            public LegacyMessage messageReceived (Communicator comm, LegacyMessage message) {
+                //user wants to transfer part of a file. establish file transfer channel
+                FileTransferChannel fileChannel = comm.createFileTransferChannel ();
+                fileChannel.connect (message.getLong ("channel_id"));
+
+                try {
+                    receiveTransfer.addChannel (fileChannel);
+                } catch (IOException ex) {
+                    ex.printStackTrace ();
+                    return message.emptyResponse ();
+                }
+
+                receiveChannels.countDown ();
+                return message.emptySuccessResponse ().setLong ("channel_id", fileChannel.getTransferChannelId ());
+            }
+        });
+    }
+
+}